@@ -24,6 +24,7 @@
 package fi.okm.mpass.shibboleth.authn.context;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.messaging.context.BaseContext;
 
@@ -59,6 +60,12 @@ public class WilmaAuthenticationContext extends BaseContext {
     /** The base URL where the user is redirected for authentication. */
     @Nonnull @NotEmpty private String redirectUrl;
 
+    /** The technical identifier of the Wilma instance, if known. */
+    @Nullable private String techId;
+
+    /** The parsed query of the authentication response, if already received. */
+    @Nullable private WilmaResponseQuery responseQuery;
+
     /**
      * Get the nonce included to the redirect URL.
      * 
@@ -98,4 +105,44 @@ public class WilmaAuthenticationContext extends BaseContext {
         redirectUrl = newRedirectUrl;
         return redirectUrl;
     }
+
+    /**
+     * Get the technical identifier of the Wilma instance, used for selecting its shared secret.
+     * 
+     * @return techId the technical identifier, null if the instance is not identified.
+     */
+    @Nullable public String getTechId() {
+        return techId;
+    }
+
+    /**
+     * Set the technical identifier of the Wilma instance, used for selecting its shared secret.
+     * 
+     * @param newTechId What to set.
+     * @return techId
+     */
+    @Nullable public String setTechId(@Nullable final String newTechId) {
+        techId = newTechId;
+        return techId;
+    }
+
+    /**
+     * Get the parsed query of the authentication response.
+     * 
+     * @return responseQuery the parsed query, null if not received yet.
+     */
+    @Nullable public WilmaResponseQuery getResponseQuery() {
+        return responseQuery;
+    }
+
+    /**
+     * Set the parsed query of the authentication response.
+     * 
+     * @param newResponseQuery What to set.
+     * @return responseQuery
+     */
+    @Nullable public WilmaResponseQuery setResponseQuery(@Nullable final WilmaResponseQuery newResponseQuery) {
+        responseQuery = newResponseQuery;
+        return responseQuery;
+    }
 }
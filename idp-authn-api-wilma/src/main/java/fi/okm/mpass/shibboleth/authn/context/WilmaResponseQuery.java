@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.context;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * An immutable view to the query of the Wilma authentication response. The query is parsed once, and the
+ * view contains the decoded parameters and the signed part of the query, i.e. everything before the checksum
+ * parameter. The parameters after the checksum are not signed and thus ignored.
+ */
+public final class WilmaResponseQuery {
+
+    /** The raw query string. */
+    @Nullable private final String query;
+
+    /**
+     * The decoded parameter values mapped by their names. Only the first occurrence is included, an empty one
+     * being mapped to null.
+     */
+    @Nonnull private final Map<String, String> parameters;
+
+    /** The signed part of the query, null if the checksum is not found after other parameters. */
+    @Nullable private final String signedQuery;
+
+    /**
+     * Constructor.
+     * @param rawQuery The raw query string.
+     * @param params The decoded parameter values mapped by their names.
+     * @param signed The signed part of the query.
+     */
+    private WilmaResponseQuery(@Nullable final String rawQuery, @Nonnull final Map<String, String> params,
+            @Nullable final String signed) {
+        query = rawQuery;
+        parameters = Collections.unmodifiableMap(params);
+        signedQuery = signed;
+    }
+
+    /**
+     * Parses the given query string in a single pass, until the checksum parameter. The first occurrence of a
+     * parameter wins even if its value is empty, so that a signed empty value cannot be replaced by a later one.
+     * 
+     * @param query The raw query string, may be null.
+     * @return The parsed view to the query.
+     */
+    @Nonnull public static WilmaResponseQuery parse(@Nullable final String query) {
+        final Map<String, String> params = new HashMap<>();
+        String signed = null;
+        if (query != null) {
+            final int length = query.length();
+            int start = 0;
+            while (start <= length) {
+                int end = query.indexOf('&', start);
+                if (end == -1) {
+                    end = length;
+                }
+                final int separator = query.indexOf('=', start);
+                if (separator != -1 && separator < end) {
+                    final String name = query.substring(start, separator);
+                    if (!params.containsKey(name)) {
+                        params.put(name, StringSupport.trimOrNull(decode(query.substring(separator + 1, end))));
+                    }
+                    if (WilmaAuthenticationContext.PARAM_NAME_CHECKSUM.equals(name)) {
+                        if (start > 0) {
+                            signed = query.substring(0, start - 1);
+                        }
+                        break;
+                    }
+                }
+                start = end + 1;
+            }
+        }
+        return new WilmaResponseQuery(query, params, signed);
+    }
+
+    /**
+     * Get the raw query string.
+     * 
+     * @return The raw query string.
+     */
+    @Nullable public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Get the decoded value for the given parameter.
+     * 
+     * @param name The parameter name.
+     * @return The trimmed value of the first occurrence, or null if it does not exist or is empty.
+     */
+    @Nullable public String getParameter(@Nonnull final String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Get the signed part of the query, i.e. everything before the checksum parameter.
+     * 
+     * @return The signed part of the query, or null if the checksum is not found after other parameters.
+     */
+    @Nullable public String getSignedQuery() {
+        return signedQuery;
+    }
+
+    /**
+     * Decodes the given URL-encoded value. Malformed values are returned as such.
+     * 
+     * @param value The value to be decoded.
+     * @return The decoded value.
+     */
+    @Nonnull private static String decode(@Nonnull final String value) {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
@@ -39,13 +39,17 @@ public class WilmaAuthenticationContextTest {
     public void testContext() throws Exception {
         final String nonce = "mockNonce";
         final String redirectUrl = "mockRedirectUrl";
+        final String techId = "mockTechId";
         final WilmaAuthenticationContext context = new WilmaAuthenticationContext();
         Assert.assertNull(context.getNonce());
         Assert.assertNull(context.getRedirectUrl());
+        Assert.assertNull(context.getTechId());
         context.setNonce(nonce);
         context.setRedirectUrl(redirectUrl);
+        context.setTechId(techId);
         Assert.assertEquals(context.getNonce(), nonce);
         Assert.assertEquals(context.getRedirectUrl(), redirectUrl);
+        Assert.assertEquals(context.getTechId(), techId);
     }
 
 }
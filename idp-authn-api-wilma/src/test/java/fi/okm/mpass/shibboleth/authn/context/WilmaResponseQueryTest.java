@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.context;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link WilmaResponseQuery}.
+ */
+public class WilmaResponseQueryTest {
+
+    /**
+     * Test parsing null query.
+     */
+    @Test
+    public void testNull() {
+        final WilmaResponseQuery query = WilmaResponseQuery.parse(null);
+        Assert.assertNull(query.getQuery());
+        Assert.assertNull(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE));
+        Assert.assertNull(query.getSignedQuery());
+    }
+
+    /**
+     * Test parsing a complete response query.
+     */
+    @Test
+    public void testComplete() {
+        final String signed = "execution=e1s1&_eventId_proceed=1&nonce=mockNonce&userid=mock%20User";
+        final String raw = signed + "&h=abcd&nonce=second";
+        final WilmaResponseQuery query = WilmaResponseQuery.parse(raw);
+        Assert.assertEquals(query.getQuery(), raw);
+        Assert.assertEquals(query.getParameter("execution"), "e1s1");
+        Assert.assertEquals(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE), "mockNonce");
+        Assert.assertEquals(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID), "mock User");
+        Assert.assertEquals(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM), "abcd");
+        Assert.assertEquals(query.getSignedQuery(), signed);
+    }
+
+    /**
+     * Test parsing queries with empty and missing values, and with the checksum in the beginning.
+     */
+    @Test
+    public void testIncomplete() {
+        final WilmaResponseQuery query = WilmaResponseQuery.parse("nonce=&userid&&xh=1&nonce=second");
+        Assert.assertNull(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM));
+        Assert.assertNull(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE));
+        Assert.assertNull(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID));
+        Assert.assertEquals(query.getParameter("xh"), "1");
+        Assert.assertNull(query.getSignedQuery());
+
+        final WilmaResponseQuery leading = WilmaResponseQuery.parse("h=abcd&nonce=mockNonce");
+        Assert.assertEquals(leading.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM), "abcd");
+        Assert.assertNull(leading.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE));
+        Assert.assertNull(leading.getSignedQuery());
+    }
+
+    /**
+     * Test that the parameters appended after the checksum are ignored.
+     */
+    @Test
+    public void testAppendedIgnored() {
+        final String signed = "nonce=mockNonce&userid=";
+        final WilmaResponseQuery query = WilmaResponseQuery.parse(signed + "&h=abcd&userid=mockUser&role=x");
+        Assert.assertEquals(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE), "mockNonce");
+        Assert.assertNull(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID));
+        Assert.assertNull(query.getParameter("role"));
+        Assert.assertEquals(query.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM), "abcd");
+        Assert.assertEquals(query.getSignedQuery(), signed);
+    }
+}
@@ -25,12 +25,10 @@ package fi.okm.mpass.shibboleth.authn.impl;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.annotation.Nonnull;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.codec.EncoderException;
@@ -46,7 +44,6 @@ import org.slf4j.LoggerFactory;
 import fi.okm.mpass.shibboleth.authn.context.WilmaAuthenticationContext;
 import net.shibboleth.idp.authn.AbstractAuthenticationAction;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
-import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
@@ -59,11 +56,8 @@ public abstract class BaseInitializeWilmaContext extends AbstractAuthenticationA
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(BaseInitializeWilmaContext.class);
     
-    /** The secret key used for calculating the checksum. */
-    @Nonnull private final SecretKeySpec signatureKey;
-
-    /** The algorithm used for calculating the checksum. */
-    @Nonnull @NotEmpty private final String algorithm;
+    /** The service used for calculating the checksum. */
+    @Nonnull private final WilmaMacService macService;
 
     /**
      * Constructor.
@@ -73,9 +67,23 @@ public abstract class BaseInitializeWilmaContext extends AbstractAuthenticationA
      */
     public BaseInitializeWilmaContext(final String sharedSecret, final String macAlgorithm)
             throws UnsupportedEncodingException {
-        Constraint.isNotEmpty(sharedSecret, "sharedSecret cannot be null!");
-        algorithm = Constraint.isNotEmpty(macAlgorithm, "macAlgorithm cannot be null!");
-        signatureKey = new SecretKeySpec(sharedSecret.getBytes("UTF-8"), algorithm);
+        this(new WilmaMacService(sharedSecret, macAlgorithm));
+    }
+
+    /**
+     * Constructor.
+     * @param wilmaMacService The service used for calculating the checksum.
+     */
+    public BaseInitializeWilmaContext(final WilmaMacService wilmaMacService) {
+        macService = Constraint.isNotNull(wilmaMacService, "wilmaMacService cannot be null!");
+    }
+
+    /**
+     * Get the service used for calculating the checksum.
+     * @return The service used for calculating the checksum.
+     */
+    @Nonnull public WilmaMacService getMacService() {
+        return macService;
     }
     
     /** {@inheritDoc} */
@@ -117,11 +125,14 @@ public abstract class BaseInitializeWilmaContext extends AbstractAuthenticationA
             if (authenticationContext.isForceAuthn()) {
                 unsignedUrlBuffer.append(getAsParameter("&", WilmaAuthenticationContext.PARAM_NAME_FORCE_AUTH, "true"));
             }
-            final String redirectUrl = unsignedUrlBuffer.toString() + getAsParameter("&", 
-                    WilmaAuthenticationContext.PARAM_NAME_CHECKSUM,
-                    calculateChecksum(Mac.getInstance(algorithm), unsignedUrlBuffer.toString(), signatureKey));
-            return redirectUrl;
-        } catch (EncoderException | NoSuchAlgorithmException e) {
+            final String unsignedUrl = unsignedUrlBuffer.toString();
+            final String checksum = macService.calculateChecksum(wilmaContext.getTechId(), unsignedUrl);
+            if (checksum == null) {
+                log.error("{}: Could not calculate the checksum for {}", getLogPrefix(), unsignedUrl);
+                return null;
+            }
+            return unsignedUrl + getAsParameter("&", WilmaAuthenticationContext.PARAM_NAME_CHECKSUM, checksum);
+        } catch (EncoderException e) {
             log.error("{}: Could not encode the following URL {}", getLogPrefix(), redirectToBuffer, e);
         }
         return null;    
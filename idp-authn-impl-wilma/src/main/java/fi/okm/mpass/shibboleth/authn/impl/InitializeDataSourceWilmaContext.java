@@ -28,7 +28,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -43,6 +45,7 @@ import fi.okm.mpass.shibboleth.authn.context.WilmaAuthenticationContext;
 import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
+import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -69,6 +72,20 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
     /** The column id for the SAML authentication context class reference. */
     public static final String COLUMN_ID_SAML_CTX = "samlContextClassRef";
     
+    /** The parameterized query for finding an endpoint URL by technical identifier. */
+    public static final String SQL_SELECT_BY_TECH_ID = "SELECT " + COLUMN_ID_MPASS_URL + ", " + COLUMN_ID_TECH_ID
+            + " FROM " + TABLE_NAME_AUTH_SOURCES_WILMA + " WHERE " + COLUMN_ID_TECH_ID + " = ?";
+
+    /** The parameterized query for finding an endpoint URL by SAML authentication context class reference. */
+    public static final String SQL_SELECT_BY_SAML_CTX = "SELECT " + COLUMN_ID_MPASS_URL + ", " + COLUMN_ID_TECH_ID
+            + " FROM " + TABLE_NAME_AUTH_SOURCES_WILMA + " WHERE " + COLUMN_ID_SAML_CTX + " = ?";
+    
+    /** The default pause in milliseconds before the first retry. */
+    public static final long DEFAULT_RETRY_BACKOFF = 50;
+    
+    /** The maximum amount of doublings for the pause between the retries. */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(InitializeDataSourceWilmaContext.class);
     
@@ -84,6 +101,15 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
     /** Error messages that signal a transaction should be retried. */
     @Nonnull @NonnullElements private Collection<String> retryableErrors;
     
+    /** The pause in milliseconds before the first retry, doubled for each subsequent retry. */
+    @Duration @NonNegative private long retryBackoff;
+    
+    /** The transaction isolation level for the read-only connections. */
+    private int transactionIsolation;
+    
+    /** The optional prober for excluding the unhealthy Wilma instances. */
+    @Nullable private WilmaHealthProber healthProber;
+    
     /** Authentication state map key name for the selected authentication detail. */
     @Nonnull @NotEmpty private String selectedAuthnStateKey;
     
@@ -110,6 +136,70 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
             throws UnsupportedEncodingException {
         super(sharedSecret, macAlgorithm);
         dataSource = Constraint.isNotNull(wilmaDataSource, "wilmaDataSource cannot be null");
+        retryableErrors = Collections.emptyList();
+        retryBackoff = DEFAULT_RETRY_BACKOFF;
+        transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+    }
+    
+    /**
+     * Constructor.
+     * @param macService The service used for calculating the checksum, selecting the secret by techId.
+     * @param wilmaDataSource The data source for the Wilma settings.
+     */
+    public InitializeDataSourceWilmaContext(final WilmaMacService macService, final DataSource wilmaDataSource) {
+        super(macService);
+        dataSource = Constraint.isNotNull(wilmaDataSource, "wilmaDataSource cannot be null");
+        retryableErrors = Collections.emptyList();
+        retryBackoff = DEFAULT_RETRY_BACKOFF;
+        transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+    }
+    
+    /**
+     * Set the number of retries to attempt for a failed query. Defaults to 0.
+     * 
+     * @param retries the number of retries
+     */
+    public void setTransactionRetries(@NonNegative final int retries) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        transactionRetry = (int) Constraint.isGreaterThanOrEqual(0, retries,
+                "Retries must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the SQL states to check for classifying a driver error as retryable, generally indicating
+     * a lock violation or a lost connection.
+     * 
+     * @param errors retryable SQL states
+     */
+    public void setRetryableErrors(@Nullable @NonnullElements final Collection<String> errors) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        retryableErrors = new ArrayList<>(StringSupport.normalizeStringCollection(errors));
+    }
+    
+    /**
+     * Set the pause in milliseconds before the first retry. The pause is doubled for each subsequent retry.
+     * Defaults to {@link #DEFAULT_RETRY_BACKOFF}.
+     * 
+     * @param backoff the pause in milliseconds
+     */
+    public void setRetryBackoff(@Duration @NonNegative final long backoff) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        retryBackoff = Constraint.isGreaterThanOrEqual(0, backoff, "Backoff must be greater than or equal to 0");
+    }
+    
+    /**
+     * Set the transaction isolation level, as defined in {@link Connection}, for the read-only queries.
+     * Defaults to {@link Connection#TRANSACTION_READ_COMMITTED}.
+     * 
+     * @param level the transaction isolation level
+     */
+    public void setTransactionIsolation(final int level) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        transactionIsolation = level;
     }
     
     /**
@@ -122,6 +212,17 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
         selectedAuthnStateKey = Constraint.isNotEmpty(keyName, "selectedAuthnStataKey cannot be null");
     }
 
+    /**
+     * Set the prober for excluding the unhealthy Wilma instances. If not set, all instances are used.
+     * 
+     * @param prober What to set.
+     */
+    public void setHealthProber(@Nullable final WilmaHealthProber prober) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        healthProber = prober;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -153,18 +254,26 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
             log.debug("{}: Could not find mapping from the state map, checking requested context.", getLogPrefix());
             final String contextClassRef = getAuthnContextClassRef();
             if (contextClassRef != null) {
-                endpointUrl = getEndpointUrl(authenticationContext, COLUMN_ID_SAML_CTX + "='" + contextClassRef + "'");
+                endpointUrl = getEndpointUrl(authenticationContext, SQL_SELECT_BY_SAML_CTX, contextClassRef);
             } else {
                 endpointUrl = null;
             }
         } else {
-            endpointUrl = getEndpointUrl(authenticationContext, COLUMN_ID_TECH_ID + "='" + discoveredWilma + "'");
+            endpointUrl = getEndpointUrl(authenticationContext, SQL_SELECT_BY_TECH_ID, discoveredWilma);
         }
         if (StringSupport.trimOrNull(endpointUrl) == null) {
             log.warn("{}: Could not find a mapping for the Wilma instance.", getLogPrefix());
             ActionSupport.buildEvent(profileRequestContext, AuthnEventIds.RESELECT_FLOW);
             return;
         }
+        if (healthProber != null) {
+            final String techId = (String) authenticationContext.getAuthenticationStateMap().get(selectedAuthnStateKey);
+            if (!healthProber.isHealthy(techId)) {
+                log.warn("{}: The Wilma instance {} is currently unhealthy.", getLogPrefix(), techId);
+                ActionSupport.buildEvent(profileRequestContext, AuthnEventIds.RESELECT_FLOW);
+                return;
+            }
+        }
         createWilmaContext(authenticationContext, endpointUrl);
     }
     
@@ -200,57 +309,99 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
         final String nonce = getRandomNonce();
         wilmaContext.setNonce(nonce);
         wilmaContext.setRedirectUrl(endpointUrl);
+        wilmaContext.setTechId((String) authenticationContext.getAuthenticationStateMap().get(selectedAuthnStateKey));
+        wilmaContext.setResponseQuery(null);
         log.debug("{}: Added nonce {} and redirectUrl to context", getLogPrefix(), nonce);
     }
     
     /**
-     * Get the single endpoint URL corresponding to the given WHERE-clause. The URL is only returned if a single
+     * Get the single endpoint URL matching the given parameterized query. The URL is only returned if a single
      * was found. Also its techId will be updated to the authentication state map, with the key configured to
      * this class instance.
+     * 
+     * <p>The query is run with a read-only connection, whose previous settings are restored before it is closed.
+     * Retryable SQL errors are retried at most the configured amount of times, with an exponentially growing pause
+     * between the attempts.</p>
+     * 
      * @param authnContext The authentication context.
-     * @param whereClause The WHERE-clause for searching the single instance.
+     * @param query The parameterized query, either {@link #SQL_SELECT_BY_TECH_ID} or
+     * {@link #SQL_SELECT_BY_SAML_CTX}.
+     * @param value The value for the query parameter.
      * @return The endpoint URL if single instance was found, null otherwise.
      */
-    protected String getEndpointUrl(@Nonnull final AuthenticationContext authnContext, 
-            @Nonnull @NotEmpty final String whereClause) {
+    @Nullable protected String getEndpointUrl(@Nonnull final AuthenticationContext authnContext, 
+            @Nonnull @NotEmpty final String query, @Nonnull @NotEmpty final String value) {
+        log.debug("{}: Searching for an endpoint URL with the value {}", getLogPrefix(), value);
         int retries = transactionRetry;
-        log.debug("{}: The whereClause to be used: {}", getLogPrefix(), whereClause);
-        try (final Connection connection = getConnection(false)) {
-            final PreparedStatement getResults = connection.prepareStatement("SELECT " 
-                    + COLUMN_ID_MPASS_URL + ", " + COLUMN_ID_TECH_ID + " from " 
-                    + InitializeDataSourceWilmaContext.TABLE_NAME_AUTH_SOURCES_WILMA + " where " + whereClause);
-            final ResultSet set = getResults.executeQuery();
-            if (set.next()) {
+        int attempt = 0;
+        while (true) {
+            try (final Connection connection = dataSource.getConnection()) {
+                final boolean autoCommit = connection.getAutoCommit();
+                final boolean readOnly = connection.isReadOnly();
+                final int isolation = connection.getTransactionIsolation();
+                try {
+                    prepareConnection(connection);
+                    return queryEndpointUrl(connection, authnContext, query, value);
+                } finally {
+                    restoreConnection(connection, autoCommit, readOnly, isolation);
+                }
+            } catch (final SQLException e) {
+                if (!shouldRetry(e, retries)) {
+                    return null;
+                }
+                retries = retries - 1;
+                final long pause = retryBackoff << Math.min(attempt++, MAX_BACKOFF_SHIFT);
+                log.info("{} Retrying the endpoint URL query in {} ms", getLogPrefix(), pause);
+                try {
+                    Thread.sleep(pause);
+                } catch (final InterruptedException ie) {
+                    log.warn("{} Interrupted while waiting for the retry, aborting.", getLogPrefix());
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the given query with the given connection.
+     * 
+     * @param connection The connection to be used.
+     * @param authnContext The authentication context.
+     * @param query The parameterized query.
+     * @param value The value for the query parameter.
+     * @return The endpoint URL if single instance was found, null otherwise.
+     * @throws SQLException If the query fails.
+     */
+    @Nullable private String queryEndpointUrl(@Nonnull final Connection connection, 
+            @Nonnull final AuthenticationContext authnContext, @Nonnull @NotEmpty final String query, 
+            @Nonnull @NotEmpty final String value) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, value);
+            try (final ResultSet set = statement.executeQuery()) {
+                if (!set.next()) {
+                    log.debug("{}: No endpoint found with the value {}", getLogPrefix(), value);
+                    return null;
+                }
                 final String techId = set.getString(COLUMN_ID_TECH_ID);
                 final String mpassUrl = set.getString(COLUMN_ID_MPASS_URL);
                 if (set.next()) {
-                    log.warn("{}: The whereClause {} did not give a single response", getLogPrefix(), whereClause);
+                    log.warn("{}: The value {} did not give a single response", getLogPrefix(), value);
                     return null;
                 }
-                authnContext.getAuthenticationStateMap().put(selectedAuthnStateKey, techId);                    
+                authnContext.getAuthenticationStateMap().put(selectedAuthnStateKey, techId);
                 return mpassUrl;
             }
-            return null;
-        } catch (final SQLException e) {
-            boolean retry = shouldRetry(e, retries);
-            if (retry) {
-                retries = retries - 1;
-                log.info("{} Retrying monitoring result storing operation", getLogPrefix());
-            } else {
-                log.warn("{} Retry limit exceeded, aborting.", getLogPrefix());
-                return null;
-            }
         }
-        return null;
     }
 
     /**
      * Checks whether another attempt should be done after failed SQL event.
      * @param e The cause for the failed SQL event.
-     * @param retries The amount of retries already run.
+     * @param retries The amount of retries still available.
      * @return True if another attempt should be done, false otherwise.
      */
-    protected boolean shouldRetry(final SQLException e, int retries) {
+    protected boolean shouldRetry(final SQLException e, final int retries) {
         boolean retry = false;
         if (retryableErrors != null) {
             for (final String msg : retryableErrors) {
@@ -273,19 +424,40 @@ public class InitializeDataSourceWilmaContext extends BaseInitializeWilmaContext
     }
 
     /**
-     * Obtain a connection from the data source.
-     * 
-     * <p>The caller must close the connection.</p>
+     * Make the given connection read-only and auto-committing, using the configured transaction isolation level.
      * 
-     * @param autoCommit auto-commit setting to apply to the connection
-     * 
-     * @return a fresh connection
+     * @param connection the connection obtained from the data source
      * @throws SQLException if an error occurs
      */
-    @Nonnull private Connection getConnection(final boolean autoCommit) throws SQLException {
-        final Connection conn = dataSource.getConnection();
-        conn.setAutoCommit(autoCommit);
-        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-        return conn;
+    private void prepareConnection(@Nonnull final Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        connection.setReadOnly(true);
+        connection.setTransactionIsolation(transactionIsolation);
+    }
+
+    /**
+     * Restore the previous settings of the given connection, so that it is returned to a pool as it was obtained.
+     * The failures are only logged, as they must not hide the result or the failure of the query.
+     * 
+     * @param connection the connection obtained from the data source
+     * @param autoCommit the previous auto-commit mode
+     * @param readOnly the previous read-only mode
+     * @param isolation the previous transaction isolation level
+     */
+    private void restoreConnection(@Nonnull final Connection connection, final boolean autoCommit,
+            final boolean readOnly, final int isolation) {
+        try {
+            if (connection.getTransactionIsolation() != isolation) {
+                connection.setTransactionIsolation(isolation);
+            }
+            if (connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+            if (connection.getAutoCommit() != autoCommit) {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (final SQLException e) {
+            log.warn("{} Could not restore the settings of the connection", getLogPrefix(), e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -72,6 +72,16 @@ public class InitializeStaticWilmaContext extends BaseInitializeWilmaContext {
         endpoint = Constraint.isNotEmpty(wilmaEndpoint, "wilmaEndpoint cannot be null!");
     }
 
+    /**
+     * Constructor.
+     * @param macService The service used for calculating the checksum.
+     * @param wilmaEndpoint The endpoint where the authentication request is sent.
+     */
+    public InitializeStaticWilmaContext(final WilmaMacService macService, final String wilmaEndpoint) {
+        super(macService);
+        endpoint = Constraint.isNotEmpty(wilmaEndpoint, "wilmaEndpoint cannot be null!");
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -81,6 +91,7 @@ public class InitializeStaticWilmaContext extends BaseInitializeWilmaContext {
         final String nonce = getRandomNonce();
         wilmaContext.setNonce(nonce);
         wilmaContext.setRedirectUrl(endpoint);
+        wilmaContext.setResponseQuery(null);
         log.debug("{}: Added nonce {} and redirectUrl to context", getLogPrefix(), nonce);
     }
 }
@@ -24,17 +24,13 @@
 package fi.okm.mpass.shibboleth.authn.impl;
 
 import java.io.UnsupportedEncodingException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.Subject;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.bind.DatatypeConverter;
 
 import org.apache.commons.codec.binary.Hex;
 import org.opensaml.profile.action.ActionSupport;
@@ -44,13 +40,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fi.okm.mpass.shibboleth.authn.context.WilmaAuthenticationContext;
+import fi.okm.mpass.shibboleth.authn.context.WilmaResponseQuery;
 import net.shibboleth.idp.authn.AbstractValidationAction;
 import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
-import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * Validates the Wilma authentication response.
@@ -61,11 +56,11 @@ public class ValidateWilmaResponse extends AbstractValidationAction {
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(ValidateWilmaResponse.class);
 
-    /** The key used for validating the response. */
-    @Nonnull private final SecretKey macKey;
+    /** The service used for validating the response checksum. */
+    @Nonnull private final WilmaMacService macService;
 
-    /** The MAC algorithm to be used for the response validation. */
-    @Nonnull @NotEmpty private final String algorithm;
+    /** The parsed query of the response. */
+    @Nullable private WilmaResponseQuery responseQuery;
 
     /**
      * Constructor.
@@ -84,9 +79,16 @@ public class ValidateWilmaResponse extends AbstractValidationAction {
      */
     public ValidateWilmaResponse(final String sharedSecret, final String macAlgorithm)
             throws UnsupportedEncodingException {
+        this(new WilmaMacService(sharedSecret, macAlgorithm));
+    }
+
+    /**
+     * Constructor.
+     * @param wilmaMacService The service used for validating the response checksum.
+     */
+    public ValidateWilmaResponse(final WilmaMacService wilmaMacService) {
         super();
-        algorithm = Constraint.isNotEmpty(macAlgorithm, "macAlgorithm cannot be null!");
-        macKey = new SecretKeySpec(sharedSecret.getBytes("UTF-8"), algorithm);
+        macService = Constraint.isNotNull(wilmaMacService, "wilmaMacService cannot be null!");
     }
 
     /** {@inheritDoc} */
@@ -105,25 +107,28 @@ public class ValidateWilmaResponse extends AbstractValidationAction {
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
             return false;
         }
-        if (getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_USER_ID) == null) {
+        final WilmaAuthenticationContext wilmaContext =
+                authenticationContext.getSubcontext(WilmaAuthenticationContext.class, false);
+        responseQuery = getResponseQuery(servletRequest, wilmaContext);
+        if (responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID) == null) {
             log.warn("{}: No user id available in the request with parameter {}", getLogPrefix(),
                     WilmaAuthenticationContext.PARAM_NAME_USER_ID);
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
             return false;
         }
-        if (getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_NONCE) == null) {
+        if (responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE) == null) {
             log.warn("{}: No nonce available in the request with parameter {}", getLogPrefix(),
                     WilmaAuthenticationContext.PARAM_NAME_NONCE);
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
             return false;
         }
-        if (getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_CHECKSUM) == null) {
+        if (responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM) == null) {
             log.warn("{}: No checksum available in the request with parameter {}", getLogPrefix(),
                     WilmaAuthenticationContext.PARAM_NAME_CHECKSUM);
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
             return false;
         }
-        if (authenticationContext.getSubcontext(WilmaAuthenticationContext.class, false) == null) {
+        if (wilmaContext == null) {
             log.warn("{}: No WilmaAuthenticationContext available in the context", getLogPrefix());
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
             return false;
@@ -136,42 +141,39 @@ public class ValidateWilmaResponse extends AbstractValidationAction {
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final AuthenticationContext authenticationContext) {
-        final HttpServletRequest servletRequest = getHttpServletRequest();
         final WilmaAuthenticationContext wilmaContext =
                 authenticationContext.getSubcontext(WilmaAuthenticationContext.class, false);
         final String nonce = wilmaContext.getNonce();
-        if (!getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_NONCE).equals(nonce)) {
+        final String responseNonce = responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_NONCE);
+        if (!responseNonce.equals(nonce)) {
             log.warn("{}: Invalid nonce in the incoming Wilma response!", getLogPrefix());
-            log.debug("{} vs {}", nonce, getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_NONCE));
+            log.debug("{} vs {}", nonce, responseNonce);
             handleError(profileRequestContext, authenticationContext, AuthnEventIds.NO_CREDENTIALS,
                     AuthnEventIds.NO_CREDENTIALS);
             return;
         }
-        final String checksum = getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_CHECKSUM);
-        final String query = servletRequest.getQueryString().substring(0,
-                servletRequest.getQueryString().indexOf("&" + WilmaAuthenticationContext.PARAM_NAME_CHECKSUM + "="));
-        final String url = servletRequest.getRequestURL().append("?").append(query).toString();
-        try {
-            final Mac mac = Mac.getInstance(algorithm);
-            mac.init(macKey);
-            byte[] digest = mac.doFinal(url.getBytes("UTF-8"));
-            if (!Arrays.equals(DatatypeConverter.parseHexBinary(checksum), digest)) {
-                log.warn("{}: The checksum validation failed for user {}", getLogPrefix(),
-                        getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_USER_ID));
-                log.trace("{} (params) vs {}", checksum, new String(Hex.encodeHex(digest)));
-                handleError(profileRequestContext, authenticationContext, AuthnEventIds.NO_CREDENTIALS,
-                        AuthnEventIds.NO_CREDENTIALS);
-                return;
-            }
-        } catch (NoSuchAlgorithmException | InvalidKeyException | IllegalStateException | UnsupportedEncodingException
-                | IllegalArgumentException e) {
-            log.error("{}: Could not verify the checksum {}", getLogPrefix(), checksum, e);
+        final String checksum = responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_CHECKSUM);
+        final String userId = responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID);
+        final String signedQuery = responseQuery.getSignedQuery();
+        final Mac mac = macService.getMac(wilmaContext.getTechId());
+        if (signedQuery == null || mac == null) {
+            log.error("{}: Could not verify the checksum {}", getLogPrefix(), checksum);
             handleError(profileRequestContext, authenticationContext, AuthnEventIds.NO_CREDENTIALS,
                     AuthnEventIds.NO_CREDENTIALS);
             return;
         }
-        log.trace("{}: Building authentication result for user {}", getLogPrefix(),
-                getQueryParam(servletRequest, WilmaAuthenticationContext.PARAM_NAME_USER_ID));
+        final StringBuffer requestUrl = getHttpServletRequest().getRequestURL();
+        mac.update(requestUrl.append('?').toString().getBytes(StandardCharsets.UTF_8));
+        mac.update(signedQuery.getBytes(StandardCharsets.UTF_8));
+        final byte[] digest = mac.doFinal();
+        if (!WilmaMacService.isValidDigest(digest, checksum)) {
+            log.warn("{}: The checksum validation failed for user {}", getLogPrefix(), userId);
+            log.trace("{} (params) vs {}", checksum, new String(Hex.encodeHex(digest)));
+            handleError(profileRequestContext, authenticationContext, AuthnEventIds.NO_CREDENTIALS,
+                    AuthnEventIds.NO_CREDENTIALS);
+            return;
+        }
+        log.trace("{}: Building authentication result for user {}", getLogPrefix(), userId);
         buildAuthenticationResult(profileRequestContext, authenticationContext);
     }
 
@@ -180,27 +182,31 @@ public class ValidateWilmaResponse extends AbstractValidationAction {
     @Nonnull
     protected Subject populateSubject(@Nonnull final Subject subject) {
         subject.getPrincipals().add(new UsernamePrincipal(
-                String.valueOf(getQueryParam(getHttpServletRequest(), WilmaAuthenticationContext.PARAM_NAME_USER_ID))));
+                String.valueOf(responseQuery.getParameter(WilmaAuthenticationContext.PARAM_NAME_USER_ID))));
         log.trace("{}: Subject successfully populated", getLogPrefix());
         return subject;
     }
 
     /**
-     * Returns the given parameter from the query.
+     * Returns the parsed query of the given request. The parsed query is cached to the given
+     * {@link WilmaAuthenticationContext}, and reused as long as the query does not change.
      * @param servletRequest The request containing the query.
-     * @param paramName The parameter whose value is to be returned.
-     * @return The value for the parameter, or null if it does not exist.
+     * @param wilmaContext The context for caching the parsed query, may be null.
+     * @return The parsed query.
      */
-    protected String getQueryParam(final HttpServletRequest servletRequest, final String paramName) {
+    @Nonnull protected WilmaResponseQuery getResponseQuery(@Nonnull final HttpServletRequest servletRequest,
+            @Nullable final WilmaAuthenticationContext wilmaContext) {
         final String query = servletRequest.getQueryString();
-        if (query.indexOf(paramName + "=") != -1) {
-            final String cut = query.substring(query.indexOf(paramName + "=") + paramName.length() + 1);
-            if (cut.indexOf("&") > 0) {
-                return StringSupport.trimOrNull(cut.substring(0, cut.indexOf("&")));
-            } else {
-                return StringSupport.trimOrNull(cut);
+        if (wilmaContext != null) {
+            final WilmaResponseQuery cached = wilmaContext.getResponseQuery();
+            if (cached != null && query != null && query.equals(cached.getQuery())) {
+                return cached;
             }
         }
-        return null;
+        final WilmaResponseQuery parsed = WilmaResponseQuery.parse(query);
+        if (wilmaContext != null) {
+            wilmaContext.setResponseQuery(parsed);
+        }
+        return parsed;
     }
 }
@@ -0,0 +1,462 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Probes the MPASS endpoints of the Wilma instances configured in the
+ * {@link InitializeDataSourceWilmaContext#TABLE_NAME_AUTH_SOURCES_WILMA} table on a background schedule, and
+ * keeps the latest health and latency state for each techId.
+ * 
+ * <p>A probe is successful if the endpoint answers with a status code below 500 within the timeouts and the
+ * optional maximum latency. An instance is considered unhealthy after the configured amount of consecutive
+ * failed probes, and healthy again after the configured amount of consecutive successful probes. Instances
+ * that have not been probed yet are considered healthy.</p>
+ */
+public class WilmaHealthProber extends AbstractIdentifiableInitializableComponent {
+
+    /** The query for the probed Wilma instances. */
+    public static final String SQL_SELECT_ENDPOINTS = "SELECT " + InitializeDataSourceWilmaContext.COLUMN_ID_TECH_ID 
+            + ", " + InitializeDataSourceWilmaContext.COLUMN_ID_MPASS_URL + " FROM " 
+            + InitializeDataSourceWilmaContext.TABLE_NAME_AUTH_SOURCES_WILMA;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(WilmaHealthProber.class);
+
+    /** JDBC data source for retrieving the Wilma instances. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The delay before the first probing round in milliseconds. */
+    @Duration @NonNegative private long initialDelay;
+
+    /** The interval between the probing rounds in milliseconds. */
+    @Duration @Positive private long probeInterval;
+
+    /** The connect timeout for a single probe in milliseconds. */
+    @Duration @Positive private int connectTimeout;
+
+    /** The read timeout for a single probe in milliseconds. */
+    @Duration @Positive private int readTimeout;
+
+    /** The maximum latency for a successful probe in milliseconds, 0 for no limit. */
+    @Duration @NonNegative private long maxLatency;
+
+    /** The HTTP method used for the probes. */
+    @Nonnull @NotEmpty private String probeMethod;
+
+    /** The amount of consecutive failures before an instance is considered unhealthy. */
+    @Positive private int unhealthyThreshold;
+
+    /** The amount of consecutive successes before an unhealthy instance is considered healthy again. */
+    @Positive private int healthyThreshold;
+
+    /** The amount of parallel probes. */
+    @Positive private int probeThreads;
+
+    /** The latest health states mapped by techIds. */
+    @Nonnull private volatile Map<String, WilmaHealthStatus> statuses;
+
+    /** The scheduler running the probing rounds. */
+    @Nullable private ScheduledExecutorService scheduler;
+
+    /** The executor running the single probes. */
+    @Nullable private ExecutorService probeExecutor;
+
+    /** Constructor. */
+    public WilmaHealthProber() {
+        super();
+        probeInterval = 60000;
+        connectTimeout = 3000;
+        readTimeout = 5000;
+        probeMethod = "HEAD";
+        unhealthyThreshold = 2;
+        healthyThreshold = 1;
+        probeThreads = 4;
+        statuses = Collections.emptyMap();
+    }
+
+    /**
+     * Set the JDBC data source for retrieving the Wilma instances.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the delay before the first probing round in milliseconds. Defaults to 0.
+     * @param delay What to set.
+     */
+    public void setInitialDelay(@Duration @NonNegative final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        initialDelay = Constraint.isGreaterThanOrEqual(0, delay, "Initial delay must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the interval between the probing rounds in milliseconds. Defaults to one minute.
+     * @param interval What to set.
+     */
+    public void setProbeInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        probeInterval = Constraint.isGreaterThan(0, interval, "Probe interval must be greater than 0");
+    }
+
+    /**
+     * Set the connect timeout for a single probe in milliseconds. Defaults to 3 seconds.
+     * @param timeout What to set.
+     */
+    public void setConnectTimeout(@Duration @Positive final int timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        connectTimeout = (int) Constraint.isGreaterThan(0, timeout, "Connect timeout must be greater than 0");
+    }
+
+    /**
+     * Set the read timeout for a single probe in milliseconds. Defaults to 5 seconds.
+     * @param timeout What to set.
+     */
+    public void setReadTimeout(@Duration @Positive final int timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        readTimeout = (int) Constraint.isGreaterThan(0, timeout, "Read timeout must be greater than 0");
+    }
+
+    /**
+     * Set the maximum latency for a successful probe in milliseconds. Defaults to 0, meaning no limit.
+     * @param latency What to set.
+     */
+    public void setMaxLatency(@Duration @NonNegative final long latency) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxLatency = Constraint.isGreaterThanOrEqual(0, latency, "Max latency must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the HTTP method used for the probes. Defaults to HEAD.
+     * @param method What to set.
+     */
+    public void setProbeMethod(@Nonnull @NotEmpty final String method) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        probeMethod = Constraint.isNotEmpty(method, "Probe method cannot be empty");
+    }
+
+    /**
+     * Set the amount of consecutive failures before an instance is considered unhealthy. Defaults to 2.
+     * @param threshold What to set.
+     */
+    public void setUnhealthyThreshold(@Positive final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        unhealthyThreshold = (int) Constraint.isGreaterThan(0, threshold, "Threshold must be greater than 0");
+    }
+
+    /**
+     * Set the amount of consecutive successes before an unhealthy instance is considered healthy again.
+     * Defaults to 1.
+     * @param threshold What to set.
+     */
+    public void setHealthyThreshold(@Positive final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        healthyThreshold = (int) Constraint.isGreaterThan(0, threshold, "Threshold must be greater than 0");
+    }
+
+    /**
+     * Set the amount of parallel probes. Defaults to 4.
+     * @param threads What to set.
+     */
+    public void setProbeThreads(@Positive final int threads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        probeThreads = (int) Constraint.isGreaterThan(0, threads, "Probe threads must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (dataSource == null) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        probeExecutor = Executors.newFixedThreadPool(probeThreads, new DaemonThreadFactory("wilma-probe"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("wilma-probe-scheduler"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runProbes();
+                } catch (final RuntimeException e) {
+                    log.error("Unexpected error while probing the Wilma instances", e);
+                }
+            }
+        }, initialDelay, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+            probeExecutor = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Whether the given Wilma instance is considered healthy.
+     * @param techId The technical identifier of the Wilma instance.
+     * @return False if the instance has been found unhealthy, true otherwise.
+     */
+    public boolean isHealthy(@Nullable final String techId) {
+        final WilmaHealthStatus status = techId == null ? null : statuses.get(techId);
+        return status == null || status.isHealthy();
+    }
+
+    /**
+     * Get the latest health state of the given Wilma instance.
+     * @param techId The technical identifier of the Wilma instance.
+     * @return The latest health state, or null if the instance has not been probed.
+     */
+    @Nullable public WilmaHealthStatus getStatus(@Nullable final String techId) {
+        return techId == null ? null : statuses.get(techId);
+    }
+
+    /**
+     * Get the latest health states of all the probed Wilma instances.
+     * @return The unmodifiable map of the health states, mapped by techIds.
+     */
+    @Nonnull public Map<String, WilmaHealthStatus> getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * Runs a single probing round over all the Wilma instances and replaces the health states.
+     */
+    public void runProbes() {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final Map<String, String> endpoints = getEndpoints();
+        if (endpoints == null) {
+            log.warn("Could not read the Wilma instances, keeping the previous health states");
+            return;
+        }
+        final Map<String, Future<WilmaHealthStatus>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> endpoint : endpoints.entrySet()) {
+            final String techId = endpoint.getKey();
+            final String url = endpoint.getValue();
+            final WilmaHealthStatus previous = statuses.get(techId);
+            futures.put(techId, probeExecutor.submit(new Callable<WilmaHealthStatus>() {
+                @Override
+                public WilmaHealthStatus call() {
+                    return probe(techId, url, previous);
+                }
+            }));
+        }
+        final Map<String, WilmaHealthStatus> newStatuses = new HashMap<>();
+        for (final Map.Entry<String, Future<WilmaHealthStatus>> future : futures.entrySet()) {
+            try {
+                newStatuses.put(future.getKey(), future.getValue().get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException e) {
+                log.error("Could not probe the Wilma instance {}", future.getKey(), e);
+            }
+        }
+        statuses = Collections.unmodifiableMap(newStatuses);
+        log.debug("Probed {} Wilma instances", newStatuses.size());
+    }
+
+    /**
+     * Probes a single Wilma instance and calculates its new health state.
+     * @param techId The technical identifier of the Wilma instance.
+     * @param url The URL to be probed.
+     * @param previous The previous health state, may be null.
+     * @return The new health state.
+     */
+    @Nonnull protected WilmaHealthStatus probe(@Nonnull final String techId, @Nonnull final String url,
+            @Nullable final WilmaHealthStatus previous) {
+        final long start = System.currentTimeMillis();
+        int statusCode = -1;
+        try {
+            statusCode = getStatusCode(url);
+        } catch (final IOException | RuntimeException e) {
+            log.debug("Probe failed for Wilma instance {} at {}", techId, url, e);
+        }
+        final long latency = statusCode == -1 ? -1 : System.currentTimeMillis() - start;
+        final boolean success = statusCode > 0 && statusCode < 500 && (maxLatency == 0 || latency <= maxLatency);
+        final boolean wasHealthy = previous == null || previous.isHealthy();
+        final int failures = success ? 0 : (previous == null ? 0 : previous.getConsecutiveFailures()) + 1;
+        final int successes = success ? (previous == null ? 0 : previous.getConsecutiveSuccesses()) + 1 : 0;
+        final boolean healthy;
+        if (wasHealthy) {
+            healthy = failures < unhealthyThreshold;
+        } else {
+            healthy = successes >= healthyThreshold;
+        }
+        if (healthy != wasHealthy) {
+            log.warn("Wilma instance {} at {} is now {}", techId, url, healthy ? "healthy" : "unhealthy");
+        }
+        return new WilmaHealthStatus(techId, url, healthy, latency, statusCode, failures, successes, start);
+    }
+
+    /**
+     * Sends the probe request to the given URL.
+     * @param url The URL to be probed.
+     * @return The HTTP status code of the response.
+     * @throws IOException If the request fails.
+     */
+    protected int getStatusCode(@Nonnull final String url) throws IOException {
+        final URLConnection connection = new URL(url).openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new IOException("Not an HTTP URL: " + url);
+        }
+        final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        try {
+            httpConnection.setConnectTimeout(connectTimeout);
+            httpConnection.setReadTimeout(readTimeout);
+            httpConnection.setInstanceFollowRedirects(false);
+            httpConnection.setUseCaches(false);
+            httpConnection.setRequestMethod(probeMethod);
+            final int statusCode = httpConnection.getResponseCode();
+            final InputStream stream = statusCode < 400 ? httpConnection.getInputStream() 
+                    : httpConnection.getErrorStream();
+            if (stream != null) {
+                stream.close();
+            }
+            return statusCode;
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the Wilma instances from the data source. The connection is read-only during the query, and its previous
+     * mode is restored before it is returned to a pool.
+     * @return The MPASS endpoint URLs mapped by techIds, or null if they could not be read.
+     */
+    @Nullable protected Map<String, String> getEndpoints() {
+        try (final Connection connection = dataSource.getConnection()) {
+            final boolean readOnly = connection.isReadOnly();
+            try {
+                connection.setReadOnly(true);
+                try (final PreparedStatement statement = connection.prepareStatement(SQL_SELECT_ENDPOINTS);
+                        final ResultSet set = statement.executeQuery()) {
+                    final Map<String, String> endpoints = new LinkedHashMap<>();
+                    while (set.next()) {
+                        endpoints.put(set.getString(InitializeDataSourceWilmaContext.COLUMN_ID_TECH_ID), 
+                                set.getString(InitializeDataSourceWilmaContext.COLUMN_ID_MPASS_URL));
+                    }
+                    return endpoints;
+                }
+            } finally {
+                restoreReadOnly(connection, readOnly);
+            }
+        } catch (final SQLException e) {
+            log.error("Could not read the Wilma instances", e);
+            return null;
+        }
+    }
+
+    /**
+     * Restores the previous read-only mode of the given connection. The failure is only logged, as it must not hide
+     * the result or the failure of the query.
+     * @param connection The connection obtained from the data source.
+     * @param readOnly The previous read-only mode.
+     */
+    private void restoreReadOnly(@Nonnull final Connection connection, final boolean readOnly) {
+        try {
+            if (connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+        } catch (final SQLException e) {
+            log.warn("Could not restore the read-only mode of the connection", e);
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that the probes never block the container shutdown.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        /** The prefix for the thread names. */
+        private final String prefix;
+
+        /** The counter for the thread names. */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        /**
+         * Constructor.
+         * @param namePrefix The prefix for the thread names.
+         */
+        DaemonThreadFactory(final String namePrefix) {
+            prefix = namePrefix;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
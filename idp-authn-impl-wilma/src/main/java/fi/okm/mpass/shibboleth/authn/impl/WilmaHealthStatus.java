@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * An immutable health state of a single Wilma instance, as observed by {@link WilmaHealthProber}.
+ */
+public final class WilmaHealthStatus {
+
+    /** The technical identifier of the Wilma instance. */
+    @Nonnull @NotEmpty private final String techId;
+
+    /** The probed URL. */
+    @Nullable private final String url;
+
+    /** Whether the instance is considered healthy. */
+    private final boolean healthy;
+
+    /** The latency of the latest probe in milliseconds, -1 if it failed without a response. */
+    private final long latency;
+
+    /** The HTTP status code of the latest probe, -1 if it failed without a response. */
+    private final int statusCode;
+
+    /** The amount of consecutive failed probes. */
+    private final int consecutiveFailures;
+
+    /** The amount of consecutive successful probes. */
+    private final int consecutiveSuccesses;
+
+    /** The time of the latest probe in milliseconds since the epoch. */
+    private final long lastChecked;
+
+    /**
+     * Constructor.
+     * @param id The technical identifier of the Wilma instance.
+     * @param probedUrl The probed URL.
+     * @param isHealthy Whether the instance is considered healthy.
+     * @param probeLatency The latency of the latest probe in milliseconds.
+     * @param probeStatusCode The HTTP status code of the latest probe.
+     * @param failures The amount of consecutive failed probes.
+     * @param successes The amount of consecutive successful probes.
+     * @param checked The time of the latest probe.
+     */
+    public WilmaHealthStatus(@Nonnull @NotEmpty final String id, @Nullable final String probedUrl,
+            final boolean isHealthy, final long probeLatency, final int probeStatusCode, final int failures,
+            final int successes, final long checked) {
+        techId = id;
+        url = probedUrl;
+        healthy = isHealthy;
+        latency = probeLatency;
+        statusCode = probeStatusCode;
+        consecutiveFailures = failures;
+        consecutiveSuccesses = successes;
+        lastChecked = checked;
+    }
+
+    /**
+     * Get the technical identifier of the Wilma instance.
+     * @return The technical identifier.
+     */
+    @Nonnull @NotEmpty public String getTechId() {
+        return techId;
+    }
+
+    /**
+     * Get the probed URL.
+     * @return The probed URL.
+     */
+    @Nullable public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Whether the instance is considered healthy.
+     * @return True if healthy, false otherwise.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Get the latency of the latest probe in milliseconds.
+     * @return The latency, -1 if the probe failed without a response.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the HTTP status code of the latest probe.
+     * @return The status code, -1 if the probe failed without a response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the amount of consecutive failed probes.
+     * @return The amount of consecutive failures.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Get the amount of consecutive successful probes.
+     * @return The amount of consecutive successes.
+     */
+    public int getConsecutiveSuccesses() {
+        return consecutiveSuccesses;
+    }
+
+    /**
+     * Get the time of the latest probe.
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getLastChecked() {
+        return lastChecked;
+    }
+}
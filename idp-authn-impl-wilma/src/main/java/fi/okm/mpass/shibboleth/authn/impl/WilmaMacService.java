@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.authn.context.WilmaAuthenticationContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Calculates and validates the checksums exchanged with the Wilma instances. The shared secrets can be
+ * configured per Wilma technical identifier, with an optional default secret for the instances without
+ * a dedicated one.
+ * 
+ * <p>The {@link Mac} instances are initialized once per thread and key and reused afterwards, so that the
+ * checksum calculation does not require provider lookups or key setup.</p>
+ */
+public class WilmaMacService {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(WilmaMacService.class);
+
+    /** The algorithm used for calculating the checksums. */
+    @Nonnull @NotEmpty private final String algorithm;
+
+    /** The secret key used when no techId-specific key exists. */
+    @Nullable private final SecretKey defaultKey;
+
+    /** The secret keys mapped by Wilma technical identifiers. */
+    @Nonnull private final Map<String, SecretKey> keys;
+
+    /** The initialized Mac instances for the current thread, mapped by their keys. */
+    @Nonnull private final ThreadLocal<Map<SecretKey, Mac>> threadMacs;
+
+    /**
+     * Constructor, using a default MAC algorithm {@link WilmaAuthenticationContext#MAC_ALGORITHM}.
+     * @param sharedSecret The secret key used for calculating the checksums.
+     * @throws UnsupportedEncodingException If the key cannot be constructed.
+     */
+    public WilmaMacService(final String sharedSecret) 
+            throws UnsupportedEncodingException {
+        this(sharedSecret, WilmaAuthenticationContext.MAC_ALGORITHM);
+    }
+
+    /**
+     * Constructor.
+     * @param sharedSecret The secret key used for calculating the checksums.
+     * @param macAlgorithm The algorithm used for calculating the checksums.
+     * @throws UnsupportedEncodingException If the key cannot be constructed.
+     */
+    public WilmaMacService(final String sharedSecret, final String macAlgorithm) 
+            throws UnsupportedEncodingException {
+        this(Constraint.isNotEmpty(sharedSecret, "sharedSecret cannot be null!"), null, macAlgorithm);
+    }
+
+    /**
+     * Constructor.
+     * @param sharedSecret The secret key used for the Wilma instances without a dedicated secret, may be null.
+     * @param techIdSecrets The secret keys mapped by the Wilma technical identifiers, may be null.
+     * @param macAlgorithm The algorithm used for calculating the checksums.
+     * @throws UnsupportedEncodingException If the keys cannot be constructed.
+     */
+    public WilmaMacService(@Nullable final String sharedSecret, @Nullable final Map<String, String> techIdSecrets,
+            final String macAlgorithm) throws UnsupportedEncodingException {
+        algorithm = Constraint.isNotEmpty(macAlgorithm, "macAlgorithm cannot be null!");
+        try {
+            // Fail fast on an unsupported algorithm instead of the first request.
+            Mac.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ConstraintViolationException("Unsupported macAlgorithm " + algorithm);
+        }
+        defaultKey = StringSupport.trimOrNull(sharedSecret) == null ? null : toKey(sharedSecret);
+        final Map<String, SecretKey> map = new HashMap<>();
+        if (techIdSecrets != null) {
+            for (final Map.Entry<String, String> entry : techIdSecrets.entrySet()) {
+                final String techId = Constraint.isNotNull(StringSupport.trimOrNull(entry.getKey()), 
+                        "techId cannot be empty!");
+                map.put(techId, toKey(Constraint.isNotEmpty(entry.getValue(), "Secret cannot be empty!")));
+            }
+        }
+        keys = Collections.unmodifiableMap(map);
+        Constraint.isTrue(defaultKey != null || !keys.isEmpty(), "At least one shared secret must be configured!");
+        threadMacs = new ThreadLocal<Map<SecretKey, Mac>>() {
+            @Override
+            protected Map<SecretKey, Mac> initialValue() {
+                return new IdentityHashMap<>();
+            }
+        };
+    }
+
+    /**
+     * Get the algorithm used for calculating the checksums.
+     * @return The MAC algorithm.
+     */
+    @Nonnull @NotEmpty public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get an initialized {@link Mac} for the given Wilma instance. The instance is bound to the current thread
+     * and must not be shared with other threads. It is reset whenever {@link Mac#doFinal()} is called.
+     * 
+     * @param techId The technical identifier of the Wilma instance, null for the default secret.
+     * @return The initialized Mac instance, or null if no secret exists for the Wilma instance.
+     */
+    @Nullable public Mac getMac(@Nullable final String techId) {
+        final SecretKey key = getKey(techId);
+        if (key == null) {
+            log.warn("No shared secret configured for the Wilma instance {}", techId);
+            return null;
+        }
+        final Map<SecretKey, Mac> macs = threadMacs.get();
+        Mac mac = macs.get(key);
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(algorithm);
+                mac.init(key);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                log.error("Could not initialize the MAC for the Wilma instance {}", techId, e);
+                return null;
+            }
+            macs.put(key, mac);
+        } else {
+            mac.reset();
+        }
+        return mac;
+    }
+
+    /**
+     * Calculates the hex-encoded checksum for the given input.
+     * 
+     * @param techId The technical identifier of the Wilma instance, null for the default secret.
+     * @param input The seed.
+     * @return The checksum value, or null if it could not be calculated.
+     */
+    @Nullable public String calculateChecksum(@Nullable final String techId, @Nonnull final String input) {
+        final byte[] digest = calculateDigest(techId, input);
+        return digest == null ? null : new String(Hex.encodeHex(digest));
+    }
+
+    /**
+     * Validates the hex-encoded checksum for the given input. The digests are compared in constant time.
+     * 
+     * @param techId The technical identifier of the Wilma instance, null for the default secret.
+     * @param input The seed.
+     * @param checksum The hex-encoded checksum to be validated.
+     * @return True if the checksum is valid, false otherwise.
+     */
+    public boolean isValidChecksum(@Nullable final String techId, @Nonnull final String input, 
+            @Nullable final String checksum) {
+        return isValidDigest(calculateDigest(techId, input), checksum);
+    }
+
+    /**
+     * Compares the given digest to the hex-encoded checksum in constant time.
+     * 
+     * @param digest The calculated digest.
+     * @param checksum The hex-encoded checksum to be validated.
+     * @return True if both exist and match, false otherwise.
+     */
+    public static boolean isValidDigest(@Nullable final byte[] digest, @Nullable final String checksum) {
+        if (digest == null || checksum == null) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(Hex.decodeHex(checksum.toCharArray()), digest);
+        } catch (DecoderException e) {
+            LoggerFactory.getLogger(WilmaMacService.class).debug("Could not decode the checksum {}", checksum);
+            return false;
+        }
+    }
+
+    /**
+     * Calculates the digest for the given input.
+     * 
+     * @param techId The technical identifier of the Wilma instance, null for the default secret.
+     * @param input The seed.
+     * @return The digest, or null if it could not be calculated.
+     */
+    @Nullable protected byte[] calculateDigest(@Nullable final String techId, @Nonnull final String input) {
+        final Mac mac = getMac(techId);
+        if (mac == null) {
+            return null;
+        }
+        try {
+            return mac.doFinal(input.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            log.error("Could not encode the input data {}", input, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the secret key for the given Wilma instance.
+     * 
+     * @param techId The technical identifier of the Wilma instance, null for the default secret.
+     * @return The techId-specific key if it exists, the default key otherwise.
+     */
+    @Nullable protected SecretKey getKey(@Nullable final String techId) {
+        if (techId != null) {
+            final SecretKey key = keys.get(techId);
+            if (key != null) {
+                return key;
+            }
+        }
+        return defaultKey;
+    }
+
+    /**
+     * Constructs a secret key from the given secret.
+     * 
+     * @param secret The shared secret.
+     * @return The secret key.
+     * @throws UnsupportedEncodingException If the key cannot be constructed.
+     */
+    @Nonnull private SecretKey toKey(@Nonnull final String secret) throws UnsupportedEncodingException {
+        return new SecretKeySpec(secret.getBytes("UTF-8"), algorithm);
+    }
+}
@@ -24,12 +24,15 @@
 package fi.okm.mpass.shibboleth.authn.impl;
 
 import java.security.Principal;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
 
 import javax.sql.DataSource;
 
+import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -101,6 +104,107 @@ public class InitializeDataSourceWilmaContextTest extends PopulateAuthentication
         ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.RESELECT_FLOW);
     }
 
+    @Test
+    public void testInjectedState() throws Exception {
+        prc.getSubcontext(AuthenticationContext.class, false).setAttemptedFlow(authenticationFlows.get(0));
+        prc.getSubcontext(AuthenticationContext.class, false).getAuthenticationStateMap().put(selectedStateKey, 
+                "invalid' OR '1'='1");
+        ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.RESELECT_FLOW);
+    }
+
+    @Test
+    public void testValidStateSerializable() throws Exception {
+        action = new InitializeDataSourceWilmaContext(sharedSecret, dataSource);
+        action.setSelectedAuthnStateKey(selectedStateKey);
+        action.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        action.setTransactionRetries(2);
+        action.setRetryableErrors(Arrays.asList("40001"));
+        action.setRetryBackoff(1);
+        action.initialize();
+        testValidState();
+    }
+
+    @Test
+    public void testRetrySucceeds() throws Exception {
+        final DataSource failingSource = Mockito.mock(DataSource.class);
+        Mockito.when(failingSource.getConnection())
+            .thenThrow(new SQLException("mock deadlock", "40001"))
+            .thenThrow(new SQLException("mock deadlock", "40001"))
+            .thenReturn(dataSource.getConnection());
+        action = initRetryingAction(failingSource);
+        testValidState();
+        Mockito.verify(failingSource, Mockito.times(3)).getConnection();
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        final DataSource failingSource = Mockito.mock(DataSource.class);
+        Mockito.when(failingSource.getConnection()).thenThrow(new SQLException("mock deadlock", "40001"));
+        action = initRetryingAction(failingSource);
+        final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, false);
+        authnContext.setAttemptedFlow(authenticationFlows.get(0));
+        authnContext.getAuthenticationStateMap().put(selectedStateKey, techId1);
+        ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.RESELECT_FLOW);
+        Mockito.verify(failingSource, Mockito.times(3)).getConnection();
+    }
+
+    @Test
+    public void testFailingSetterClosesConnection() throws Exception {
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.doThrow(new SQLException("mock failure")).when(connection).setTransactionIsolation(Mockito.anyInt());
+        final DataSource failingSource = Mockito.mock(DataSource.class);
+        Mockito.when(failingSource.getConnection()).thenReturn(connection);
+        action = initRetryingAction(failingSource);
+        final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, false);
+        authnContext.setAttemptedFlow(authenticationFlows.get(0));
+        authnContext.getAuthenticationStateMap().put(selectedStateKey, techId1);
+        ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.RESELECT_FLOW);
+        Mockito.verify(connection).close();
+    }
+
+    @Test
+    public void testConnectionSettingsRestored() throws Exception {
+        final Connection connection = Mockito.spy(dataSource.getConnection());
+        connection.setReadOnly(false);
+        connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        Mockito.doNothing().when(connection).close();
+        final DataSource pooledSource = Mockito.mock(DataSource.class);
+        Mockito.when(pooledSource.getConnection()).thenReturn(connection);
+        action = initRetryingAction(pooledSource);
+        testValidState();
+        Assert.assertFalse(connection.isReadOnly());
+        Assert.assertEquals(connection.getTransactionIsolation(), Connection.TRANSACTION_SERIALIZABLE);
+    }
+
+    @Test
+    public void testUnhealthyState() throws Exception {
+        final WilmaHealthProber prober = new WilmaHealthProber() {
+            @Override
+            protected int getStatusCode(final String url) {
+                return 500;
+            }
+        };
+        prober.setId("mockProber");
+        prober.setDataSource(dataSource);
+        prober.setInitialDelay(3600000);
+        prober.setProbeInterval(3600000);
+        prober.setUnhealthyThreshold(1);
+        prober.initialize();
+        prober.runProbes();
+        try {
+            action = new InitializeDataSourceWilmaContext(sharedSecret, dataSource);
+            action.setSelectedAuthnStateKey(selectedStateKey);
+            action.setHealthProber(prober);
+            action.initialize();
+            prc.getSubcontext(AuthenticationContext.class, false).setAttemptedFlow(authenticationFlows.get(0));
+            prc.getSubcontext(AuthenticationContext.class, false).getAuthenticationStateMap().put(selectedStateKey, 
+                    techId1);
+            ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.RESELECT_FLOW);
+        } finally {
+            prober.destroy();
+        }
+    }
+
     @Test
     public void testValidState() throws Exception {
         final AuthenticationContext authnContext = prc.getSubcontext(AuthenticationContext.class, false);
@@ -109,6 +213,7 @@ public class InitializeDataSourceWilmaContextTest extends PopulateAuthentication
         Assert.assertNull(action.execute(src));
         final WilmaAuthenticationContext wilmaContext = authnContext.getSubcontext(WilmaAuthenticationContext.class);
         Assert.assertEquals(wilmaContext.getRedirectUrl(), redirectUrl1);
+        Assert.assertEquals(wilmaContext.getTechId(), techId1);
     }
 
     @Test
@@ -135,6 +240,24 @@ public class InitializeDataSourceWilmaContextTest extends PopulateAuthentication
         Assert.assertEquals(wilmaContext.getRedirectUrl(), redirectUrl1);
     }
     
+    /**
+     * Initializes an action with two retries for the SQL state 40001.
+     * 
+     * @param source The data source for the action.
+     * @return The initialized action.
+     * @throws Exception
+     */
+    protected InitializeDataSourceWilmaContext initRetryingAction(final DataSource source) throws Exception {
+        final InitializeDataSourceWilmaContext retryingAction = 
+                new InitializeDataSourceWilmaContext(sharedSecret, source);
+        retryingAction.setSelectedAuthnStateKey(selectedStateKey);
+        retryingAction.setTransactionRetries(2);
+        retryingAction.setRetryableErrors(Arrays.asList("40001"));
+        retryingAction.setRetryBackoff(1);
+        retryingAction.initialize();
+        return retryingAction;
+    }
+
     public void populateDatabase() throws Exception {
         final String insertResult = "INSERT INTO " + InitializeDataSourceWilmaContext.TABLE_NAME_AUTH_SOURCES_WILMA + 
                 " (techId, description, discoName, discoLogoUrl, discoStyle, mpassUrl, samlContextClassRef, startTime) VALUES (?,?,?,?,?,?,?,?);";
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.impl;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link WilmaHealthProber}.
+ */
+public class WilmaHealthProberTest {
+
+    /** The datasource containing the Wilma instances. */
+    private DataSource dataSource;
+
+    /** The techId of the probed instance. */
+    private String techId;
+
+    /** The status code returned by the simulated probes. */
+    private int statusCode;
+
+    /** The prober to be tested. */
+    private WilmaHealthProber prober;
+
+    /** {@inheritDoc} */
+    @BeforeMethod public void setUp() throws Exception {
+        techId = "mockTechId";
+        statusCode = 200;
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/okm/mpass/shibboleth/storage/AuthSourceStore.sql", 
+                "AuthSourceStore");
+        populateDatabase(dataSource, techId, "https://wilma.example.org/mpass");
+        prober = new WilmaHealthProber() {
+            @Override
+            protected int getStatusCode(final String url) throws IOException {
+                if (statusCode == -1) {
+                    throw new IOException("Mock failure");
+                }
+                return statusCode;
+            }
+        };
+        prober.setId("mockProber");
+        prober.setDataSource(dataSource);
+        prober.setInitialDelay(3600000);
+        prober.setProbeInterval(3600000);
+        prober.setUnhealthyThreshold(2);
+        prober.setHealthyThreshold(2);
+    }
+
+    /**
+     * Empties the database and stops the prober.
+     */
+    @AfterMethod
+    public void tearDown() {
+        prober.destroy();
+        DatabaseTestingSupport.InitializeDataSource("/fi/okm/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    /**
+     * Tests initialization without data source.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoDataSource() throws Exception {
+        final WilmaHealthProber noSource = new WilmaHealthProber();
+        noSource.setId("mockProber");
+        noSource.initialize();
+    }
+
+    /**
+     * Tests the transitions between healthy and unhealthy states.
+     */
+    @Test
+    public void testThresholds() throws Exception {
+        prober.initialize();
+        Assert.assertTrue(prober.isHealthy("unknown"));
+        prober.runProbes();
+        Assert.assertTrue(prober.isHealthy(techId));
+        Assert.assertEquals(prober.getStatus(techId).getStatusCode(), 200);
+        statusCode = 503;
+        prober.runProbes();
+        Assert.assertTrue(prober.isHealthy(techId));
+        statusCode = -1;
+        prober.runProbes();
+        Assert.assertFalse(prober.isHealthy(techId));
+        Assert.assertEquals(prober.getStatus(techId).getConsecutiveFailures(), 2);
+        Assert.assertEquals(prober.getStatus(techId).getLatency(), -1);
+        statusCode = 302;
+        prober.runProbes();
+        Assert.assertFalse(prober.isHealthy(techId));
+        prober.runProbes();
+        Assert.assertTrue(prober.isHealthy(techId));
+        Assert.assertEquals(prober.getStatuses().size(), 1);
+    }
+
+    /**
+     * Tests that the read-only mode of a pooled connection is restored after reading the instances.
+     */
+    @Test
+    public void testReadOnlyRestored() throws Exception {
+        final Connection connection = Mockito.spy(dataSource.getConnection());
+        connection.setReadOnly(false);
+        Mockito.doNothing().when(connection).close();
+        final DataSource pooledSource = Mockito.mock(DataSource.class);
+        Mockito.when(pooledSource.getConnection()).thenReturn(connection);
+        prober.setDataSource(pooledSource);
+        prober.initialize();
+        Assert.assertEquals(prober.getEndpoints().get(techId), "https://wilma.example.org/mpass");
+        Assert.assertFalse(connection.isReadOnly());
+        Mockito.verify(connection).setReadOnly(true);
+    }
+
+    /**
+     * Tests probing a real endpoint that refuses the connection.
+     */
+    @Test
+    public void testRefusedConnection() throws Exception {
+        final WilmaHealthProber realProber = new WilmaHealthProber();
+        realProber.setId("mockProber");
+        realProber.setDataSource(dataSource);
+        realProber.setInitialDelay(3600000);
+        realProber.setConnectTimeout(500);
+        realProber.setUnhealthyThreshold(1);
+        realProber.initialize();
+        try {
+            final WilmaHealthStatus status = realProber.probe(techId, "http://localhost:1/mpass", null);
+            Assert.assertFalse(status.isHealthy());
+            Assert.assertEquals(status.getStatusCode(), -1);
+        } finally {
+            realProber.destroy();
+        }
+    }
+
+    /**
+     * Adds a Wilma instance to the database.
+     * @param source The data source.
+     * @param id The techId.
+     * @param url The MPASS endpoint URL.
+     * @throws Exception
+     */
+    public static void populateDatabase(final DataSource source, final String id, final String url) 
+            throws Exception {
+        final String insertResult = "INSERT INTO " + InitializeDataSourceWilmaContext.TABLE_NAME_AUTH_SOURCES_WILMA + 
+                " (techId, description, discoName, discoLogoUrl, discoStyle, mpassUrl, samlContextClassRef, startTime) VALUES (?,?,?,?,?,?,?,?);";
+        final PreparedStatement statement = source.getConnection().prepareStatement(insertResult);
+        statement.setString(1, id);
+        statement.setString(2, "Wilma testing");
+        statement.setString(3, "Test Wilma");
+        statement.setString(4, "mockLogoUrl");
+        statement.setString(5, "mockStyle");
+        statement.setString(6, url);
+        statement.setString(7, "urn:mpass.id:fi:wilma:" + id);
+        statement.setTimestamp(8, new Timestamp(System.currentTimeMillis()));
+        statement.executeUpdate();
+    }
+}
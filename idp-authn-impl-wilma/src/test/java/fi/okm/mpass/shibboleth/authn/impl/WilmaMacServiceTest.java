@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.authn.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.authn.context.WilmaAuthenticationContext;
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link WilmaMacService}.
+ */
+public class WilmaMacServiceTest {
+    
+    /** The default shared secret. */
+    private String sharedSecret;
+    
+    /** The techId with a dedicated secret. */
+    private String techId;
+    
+    /** The dedicated secret for the techId. */
+    private String techIdSecret;
+    
+    /** The input for the checksum. */
+    private String input;
+
+    /** {@inheritDoc} */
+    @BeforeMethod public void setUp() throws Exception {
+        sharedSecret = "mockSharedSecret";
+        techId = "mockTechId";
+        techIdSecret = "mockTechIdSecret";
+        input = "https://wilma.example.org/mpass?redirectto=mock";
+    }
+    
+    /**
+     * Tests constructing without any secrets.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testNoSecrets() throws Exception {
+        new WilmaMacService(null, null, WilmaAuthenticationContext.MAC_ALGORITHM);
+    }
+
+    /**
+     * Tests constructing with unsupported algorithm.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testInvalidAlgorithm() throws Exception {
+        new WilmaMacService(sharedSecret, "mockAlgorithm");
+    }
+
+    /**
+     * Tests the default secret and the reuse of the thread-bound {@link Mac}.
+     */
+    @Test
+    public void testDefaultSecret() throws Exception {
+        final WilmaMacService service = new WilmaMacService(sharedSecret);
+        final String checksum = service.calculateChecksum(null, input);
+        Assert.assertNotNull(checksum);
+        Assert.assertEquals(service.calculateChecksum(null, input), checksum);
+        Assert.assertEquals(service.calculateChecksum("unknown", input), checksum);
+        Assert.assertTrue(service.isValidChecksum(null, input, checksum));
+        Assert.assertFalse(service.isValidChecksum(null, input + "modified", checksum));
+        Assert.assertFalse(service.isValidChecksum(null, input, checksum + "invalid"));
+        Assert.assertFalse(service.isValidChecksum(null, input, null));
+        Assert.assertSame(service.getMac(null), service.getMac(null));
+    }
+
+    /**
+     * Tests the techId-specific secrets.
+     */
+    @Test
+    public void testTechIdSecrets() throws Exception {
+        final Map<String, String> secrets = new HashMap<>();
+        secrets.put(techId, techIdSecret);
+        final WilmaMacService service = new WilmaMacService(sharedSecret, secrets, 
+                WilmaAuthenticationContext.MAC_ALGORITHM);
+        final String checksum = service.calculateChecksum(techId, input);
+        Assert.assertNotNull(checksum);
+        Assert.assertNotEquals(service.calculateChecksum(null, input), checksum);
+        Assert.assertEquals(checksum, new WilmaMacService(techIdSecret).calculateChecksum(null, input));
+        Assert.assertTrue(service.isValidChecksum(techId, input, checksum));
+        Assert.assertFalse(service.isValidChecksum(null, input, checksum));
+    }
+
+    /**
+     * Tests the techId-specific secrets without the default secret.
+     */
+    @Test
+    public void testNoDefaultSecret() throws Exception {
+        final Map<String, String> secrets = new HashMap<>();
+        secrets.put(techId, techIdSecret);
+        final WilmaMacService service = new WilmaMacService(null, secrets, WilmaAuthenticationContext.MAC_ALGORITHM);
+        Assert.assertNotNull(service.calculateChecksum(techId, input));
+        Assert.assertNull(service.calculateChecksum("unknown", input));
+        Assert.assertNull(service.getMac(null));
+    }
+}
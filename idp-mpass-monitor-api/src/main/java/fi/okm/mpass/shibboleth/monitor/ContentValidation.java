@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+/**
+ * This interface represents the validation of the contents of one response, started by a
+ * {@link StreamingResponseValidator}. The contents are fed to it in one or more chunks, after which the validation
+ * is finished.
+ */
+public interface ContentValidation {
+
+    /**
+     * Feeds the given chunk of the contents to the validation.
+     * @param chars The buffer containing the chunk.
+     * @param offset The offset of the chunk in the buffer.
+     * @param length The length of the chunk.
+     */
+    public void update(final char[] chars, final int offset, final int length);
+
+    /**
+     * Finishes the validation.
+     * @param capture The contents of the response for error reporting. They may have been truncated.
+     * @throws ResponseValidatorException If the validation fails for some reason.
+     */
+    public void finish(final String capture) throws ResponseValidatorException;
+}
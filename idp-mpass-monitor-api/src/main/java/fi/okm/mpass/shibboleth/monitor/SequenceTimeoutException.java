@@ -0,0 +1,48 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+/**
+ * This exception is thrown when a monitoring sequence runs out of time during a step, for instance when its
+ * in-flight request is aborted because the deadline of the sequence has passed.
+ */
+@SuppressWarnings("serial")
+public class SequenceTimeoutException extends ResponseValidatorException {
+
+    /**
+     * Constructor.
+     * @param reason The one-line reason for the exception.
+     */
+    public SequenceTimeoutException(final String reason) {
+        super(reason);
+    }
+
+    /**
+     * Constructor.
+     * @param reason The one-line reason for the exception.
+     * @param rootCause The root cause for the exception.
+     */
+    public SequenceTimeoutException(final String reason, final Throwable rootCause) {
+        super(reason, rootCause);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * This interface represents a {@link ResponseValidator} that is able to validate the contents of a response as a
+ * stream of characters, without them being read into a String first.
+ */
+public interface StreamingResponseValidator extends ResponseValidator {
+
+    /**
+     * Starts the validation of a given response. The contents of the response are then fed to the returned
+     * {@link ContentValidation} in one pass.
+     * @param httpResponse The {@link HttpResponse} object, whose entity is not read yet.
+     * @return The validation for the contents of the response.
+     */
+    public ContentValidation startValidation(final HttpResponse httpResponse);
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor.context;
+
+/**
+ * Class containing the result of one HTTP request (hop) within a monitoring sequence step. The hops of a step are
+ * the requests done while following the redirects.
+ */
+public class MonitoringSequenceHopResult extends AbstractTimestampedResult {
+
+    /** The requested URL. */
+    private String url;
+
+    /** The HTTP status code of the response. */
+    private int statusCode;
+
+    /** The size of the response body in bytes. */
+    private long bytes;
+
+    /**
+     * Get the requested URL.
+     * @return The requested URL.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Set the requested URL.
+     * @param newUrl What to set.
+     */
+    public void setUrl(final String newUrl) {
+        this.url = newUrl;
+    }
+
+    /**
+     * Get the HTTP status code of the response.
+     * @return The HTTP status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Set the HTTP status code of the response.
+     * @param code What to set.
+     */
+    public void setStatusCode(final int code) {
+        this.statusCode = code;
+    }
+
+    /**
+     * Get the size of the response body.
+     * @return The size of the response body in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Set the size of the response body.
+     * @param size What to set.
+     */
+    public void setBytes(final long size) {
+        this.bytes = size;
+    }
+
+    /**
+     * Get the duration of the request, including reading the response body.
+     * @return The duration in milliseconds.
+     */
+    public long getDuration() {
+        return getEndTime() - getStartTime();
+    }
+}
@@ -23,6 +23,9 @@
 
 package fi.okm.mpass.shibboleth.monitor.context;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import fi.okm.mpass.shibboleth.monitor.ResponseValidatorException;
 
 /**
@@ -41,6 +44,40 @@ public class MonitoringSequenceStepResult extends AbstractTimestampedResult {
     
     /** The full cause for the error, if any. */
     private ResponseValidatorException validatorException;
+    
+    /** Whether the step was aborted because the sequence ran out of time. */
+    private boolean timedOut;
+    
+    /** The time spent in HTTP requests over newly opened connections in milliseconds. */
+    private long coldRequestTime;
+    
+    /** The time spent in HTTP requests over reused pooled connections in milliseconds. */
+    private long warmRequestTime;
+    
+    /** The time spent in the DNS lookups in milliseconds. */
+    private long dnsTime;
+    
+    /** The time spent opening the TCP connections in milliseconds. */
+    private long connectTime;
+    
+    /** The time spent in the TLS handshakes in milliseconds. */
+    private long tlsTime;
+    
+    /** The time spent waiting for the response headers (time to first byte) in milliseconds. */
+    private long waitTime;
+    
+    /** The time spent downloading the response bodies in milliseconds. */
+    private long downloadTime;
+    
+    /** The HTTP requests (hops) done during the step. */
+    private final List<MonitoringSequenceHopResult> hops;
+    
+    /**
+     * Constructor.
+     */
+    public MonitoringSequenceStepResult() {
+        hops = new ArrayList<>();
+    }
 
     /**
      * Get the identifier for the step.
@@ -105,4 +142,148 @@ public class MonitoringSequenceStepResult extends AbstractTimestampedResult {
     public void setResponseValidatorException(final ResponseValidatorException exception) {
         this.validatorException = exception;
     }
+    
+    /**
+     * Get whether the step was aborted because the sequence ran out of time.
+     * @return Whether the step was aborted because the sequence ran out of time.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+    
+    /**
+     * Set whether the step was aborted because the sequence ran out of time.
+     * @param value What to set.
+     */
+    public void setTimedOut(final boolean value) {
+        this.timedOut = value;
+    }
+    
+    /**
+     * Get the time spent in HTTP requests over newly opened connections.
+     * @return The time spent in HTTP requests over newly opened connections in milliseconds.
+     */
+    public long getColdRequestTime() {
+        return coldRequestTime;
+    }
+    
+    /**
+     * Set the time spent in HTTP requests over newly opened connections.
+     * @param time What to set.
+     */
+    public void setColdRequestTime(final long time) {
+        this.coldRequestTime = time;
+    }
+    
+    /**
+     * Get the time spent in HTTP requests over reused pooled connections.
+     * @return The time spent in HTTP requests over reused pooled connections in milliseconds.
+     */
+    public long getWarmRequestTime() {
+        return warmRequestTime;
+    }
+    
+    /**
+     * Set the time spent in HTTP requests over reused pooled connections.
+     * @param time What to set.
+     */
+    public void setWarmRequestTime(final long time) {
+        this.warmRequestTime = time;
+    }
+    
+    /**
+     * Get the time spent in the DNS lookups.
+     * @return The time spent in the DNS lookups in milliseconds.
+     */
+    public long getDnsTime() {
+        return dnsTime;
+    }
+    
+    /**
+     * Set the time spent in the DNS lookups.
+     * @param time What to set.
+     */
+    public void setDnsTime(final long time) {
+        this.dnsTime = time;
+    }
+    
+    /**
+     * Get the time spent opening the TCP connections.
+     * @return The time spent opening the TCP connections in milliseconds.
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+    
+    /**
+     * Set the time spent opening the TCP connections.
+     * @param time What to set.
+     */
+    public void setConnectTime(final long time) {
+        this.connectTime = time;
+    }
+    
+    /**
+     * Get the time spent in the TLS handshakes.
+     * @return The time spent in the TLS handshakes in milliseconds.
+     */
+    public long getTlsTime() {
+        return tlsTime;
+    }
+    
+    /**
+     * Set the time spent in the TLS handshakes.
+     * @param time What to set.
+     */
+    public void setTlsTime(final long time) {
+        this.tlsTime = time;
+    }
+    
+    /**
+     * Get the time spent waiting for the response headers (time to first byte).
+     * @return The time spent waiting for the response headers (time to first byte) in milliseconds.
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+    
+    /**
+     * Set the time spent waiting for the response headers (time to first byte).
+     * @param time What to set.
+     */
+    public void setWaitTime(final long time) {
+        this.waitTime = time;
+    }
+    
+    /**
+     * Get the time spent downloading the response bodies.
+     * @return The time spent downloading the response bodies in milliseconds.
+     */
+    public long getDownloadTime() {
+        return downloadTime;
+    }
+    
+    /**
+     * Set the time spent downloading the response bodies.
+     * @param time What to set.
+     */
+    public void setDownloadTime(final long time) {
+        this.downloadTime = time;
+    }
+    
+    /**
+     * Get the HTTP requests (hops) done during the step.
+     * @return The HTTP requests done during the step, in the order they were done.
+     */
+    public List<MonitoringSequenceHopResult> getHops() {
+        return hops;
+    }
+    
+    /**
+     * Add a HTTP request (hop) done during the step.
+     * @param hop What to add.
+     */
+    public void addHop(final MonitoringSequenceHopResult hop) {
+        hops.add(hop);
+    }
 }
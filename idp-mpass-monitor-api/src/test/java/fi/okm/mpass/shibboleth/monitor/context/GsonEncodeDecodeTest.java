@@ -84,6 +84,20 @@ public class GsonEncodeDecodeTest {
         stepResult1.setEndTime(step1End);
         stepResult1.setId(id1);
         stepResult1.setPhaseId(phaseId1);
+        stepResult1.setColdRequestTime(300);
+        stepResult1.setWarmRequestTime(100);
+        stepResult1.setDnsTime(10);
+        stepResult1.setConnectTime(20);
+        stepResult1.setTlsTime(30);
+        stepResult1.setWaitTime(200);
+        stepResult1.setDownloadTime(40);
+        final MonitoringSequenceHopResult hop = new MonitoringSequenceHopResult();
+        hop.setUrl("https://example.org/");
+        hop.setStatusCode(302);
+        hop.setBytes(512);
+        hop.setStartTime(step1Start);
+        hop.setEndTime(step1Start + 150);
+        stepResult1.addHop(hop);
         seqResult.addStepResult(stepResult1);
         final MonitoringSequenceStepResult stepResult2 = new MonitoringSequenceStepResult();
         stepResult2.setStartTime(step2Start);
@@ -106,6 +120,20 @@ public class GsonEncodeDecodeTest {
         Assert.assertEquals(jsonResult.getStepResults().get(0).getStartTime(), step1Start);
         Assert.assertEquals(jsonResult.getStepResults().get(0).getId(), id1);
         Assert.assertEquals(jsonResult.getStepResults().get(0).getPhaseId(), phaseId1);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getColdRequestTime(), 300);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getWarmRequestTime(), 100);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getDnsTime(), 10);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getConnectTime(), 20);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getTlsTime(), 30);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getWaitTime(), 200);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getDownloadTime(), 40);
+        Assert.assertEquals(jsonResult.getStepResults().get(0).getHops().size(), 1);
+        final MonitoringSequenceHopResult jsonHop = jsonResult.getStepResults().get(0).getHops().get(0);
+        Assert.assertEquals(jsonHop.getUrl(), "https://example.org/");
+        Assert.assertEquals(jsonHop.getStatusCode(), 302);
+        Assert.assertEquals(jsonHop.getBytes(), 512);
+        Assert.assertEquals(jsonHop.getDuration(), 150);
+        Assert.assertTrue(jsonResult.getStepResults().get(1).getHops().isEmpty());
         Assert.assertEquals(jsonResult.getStepResults().get(1).getEndTime(), step2End);
         Assert.assertEquals(jsonResult.getStepResults().get(1).getStartTime(), step2Start);
         Assert.assertEquals(jsonResult.getStepResults().get(1).getId(), id2);
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * A base class for the {@link StreamingResponseValidator}s that only validate the status and headers of the
+ * response. The contents are not inspected, and the validation is done once they have been read.
+ */
+public abstract class AbstractHeaderResponseValidator implements StreamingResponseValidator {
+
+    /** {@inheritDoc} */
+    @Override
+    public ContentValidation startValidation(final HttpResponse httpResponse) {
+        return new ContentValidation() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void update(final char[] chars, final int offset, final int length) {
+                // the contents are not inspected
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public void finish(final String capture) throws ResponseValidatorException {
+                validate(httpResponse, capture);
+            }
+        };
+    }
+}
@@ -23,9 +23,14 @@
 
 package fi.okm.mpass.shibboleth.monitor;
 
+import java.io.IOException;
+import java.util.Collections;
+
 import org.apache.http.protocol.HttpContext;
 
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+import fi.okm.mpass.shibboleth.support.JsonFieldExtractor;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * A {@link SequenceStepResolver} for resolving the Authentication URL endpoint from Azure.
@@ -35,6 +40,10 @@ public class AzureAuthnIdpResolver extends BaseSequenceStepResolver {
     /** The key for the Authentication URL. */
     public static final String AUTH_URL_KEY = "AuthURL";
 
+    /** The extractor for the Authentication URL. */
+    private static final JsonFieldExtractor EXTRACTOR =
+            new JsonFieldExtractor(Collections.singleton(AUTH_URL_KEY));
+
     /**
      * Constructor.
      * @param clientBuilder The builder for HTTP client.
@@ -47,22 +56,21 @@ public class AzureAuthnIdpResolver extends BaseSequenceStepResolver {
     public SequenceStep resolve(final HttpContext context, final SequenceStep startingStep) 
             throws ResponseValidatorException {
         final String responseStr = resolveStep(context, startingStep, isFollowRedirects()).getResponse();
-        final String authUrlKey = "\"" + AUTH_URL_KEY + "\":\"";
-        final int keyStartIndex = responseStr.indexOf(authUrlKey);
-        if (keyStartIndex < 0) {
-            throw new ResponseValidatorException("Could not find '" + authUrlKey + "' from the response!",
-                    responseStr);
+        if (StringSupport.trimOrNull(responseStr) == null) {
+            throw new ResponseValidatorException("Empty response content from the server");
         }
-        final int valueStartIndex = keyStartIndex + authUrlKey.length();
-        final int valueEndIndex = responseStr.indexOf("\"", valueStartIndex);
-        if (valueEndIndex < 0) {
-            throw new ResponseValidatorException("No trailing \" for the '" + authUrlKey + "'", responseStr);
+        final String authUrl;
+        try {
+            authUrl = EXTRACTOR.extract(responseStr).get(AUTH_URL_KEY);
+        } catch (IOException e) {
+            throw new ResponseValidatorException("Could not parse the response as JSON", responseStr, e);
         }
-        final SequenceStep resultStep = initResultStep();
-        final String authUrl = responseStr.substring(valueStartIndex, valueEndIndex);
-        if (authUrl != null) {
-            resultStep.setUrl(authUrl);
+        if (authUrl == null) {
+            throw new ResponseValidatorException("Could not find '" + AUTH_URL_KEY + "' from the response!",
+                    responseStr);
         }
+        final SequenceStep resultStep = initResultStep();
+        resultStep.setUrl(authUrl);
         return resultStep;
     }
 }
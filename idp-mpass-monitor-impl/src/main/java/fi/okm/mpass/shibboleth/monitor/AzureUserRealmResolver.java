@@ -23,8 +23,11 @@
 
 package fi.okm.mpass.shibboleth.monitor;
 
+import java.util.Collections;
+
 import org.apache.http.protocol.HttpContext;
 
+import fi.okm.mpass.shibboleth.support.HtmlFieldExtractor;
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
@@ -47,6 +50,13 @@ public class AzureUserRealmResolver extends BaseSequenceStepResolver {
     
     /** The parameter key for API version. */
     public static final String PARAM_KEY_API_VERSION = "api-version";
+
+    /** The name of the FORM field containing the STS request. */
+    public static final String FIELD_NAME_CTX = "ctx";
+
+    /** The extractor for the STS request. */
+    private static final HtmlFieldExtractor EXTRACTOR = new HtmlFieldExtractor(Collections.<String>emptySet(),
+            Collections.singleton(FIELD_NAME_CTX));
     
     /** The username for which the authenticator is resolved. */
     private final String username;
@@ -84,9 +94,13 @@ public class AzureUserRealmResolver extends BaseSequenceStepResolver {
     /** {@inheritDoc} */
     public SequenceStep resolve(final HttpContext context, final SequenceStep startingStep) 
             throws ResponseValidatorException {
-        final String restResponseStr = resolveStep(context, startingStep, isFollowRedirects()).getResponse();
+        final HtmlFieldExtractor.Scan scan = EXTRACTOR.newScan();
+        final String restResponseStr = resolveStep(context, startingStep, isFollowRedirects(), scan).getResponse();
         final SequenceStep resultStep = initResultStep();
-        final String stsRequest = getValue(restResponseStr, "name=\"ctx\" value");
+        if (restResponseStr == null) {
+            throw new ResponseValidatorException("Empty response content from the server");
+        }
+        final String stsRequest = scan.getResult().getField(FIELD_NAME_CTX);
         if (stsRequest == null) {
             throw new ResponseValidatorException("Could not find ctx value from the response");
         }
@@ -95,4 +109,10 @@ public class AzureUserRealmResolver extends BaseSequenceStepResolver {
         resultStep.setUrl(userRealmUrl + query);
         return resultStep;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isResponseContentRequired() {
+        return false;
+    }
 }
@@ -23,55 +23,118 @@
 
 package fi.okm.mpass.shibboleth.monitor;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.ParseException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceHopResult;
+import fi.okm.mpass.shibboleth.support.ConnectionTrackingRequestExecutor;
+import fi.okm.mpass.shibboleth.support.ExchangeRecorder;
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+import fi.okm.mpass.shibboleth.support.RecordedExchange;
+import fi.okm.mpass.shibboleth.support.RequestPhaseTimings;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * The base {@link SequenceStepResolver} implementation.
+ * 
+ * <p>
+ * The HTTP client is shared by all the resolvers using the same {@link HttpClientBuilder}. Each resolver holds a
+ * reference to the client from its first request until it is closed, and the client (and its connection pool) is
+ * closed when the last resolver holding it is closed. Spring closes the resolver beans when their context is
+ * destroyed.
+ * </p>
  */
-public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
+public abstract class BaseSequenceStepResolver implements SequenceStepResolver, Closeable {
 
     /** Class logger. */
     @Nonnull
     private final Logger log = LoggerFactory.getLogger(BaseSequenceStepResolver.class);
 
+    /** The default maximum number of redirects to follow within one step. */
+    public static final int DEFAULT_MAX_REDIRECTS = 20;
+    
+    /** The number of times the same redirect may be repeated within one step before it is considered as a loop. */
+    public static final int MAX_REPEATED_REDIRECTS = 2;
+
+    /** The default maximum number of characters captured from the response contents for error reporting. */
+    public static final int DEFAULT_CAPTURE_SIZE = 8192;
+    
+    /** The size of the buffer for reading the response contents, in characters. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** The HTTP clients shared by the resolvers, mapped by their builders. */
+    private static final Map<HttpClientBuilder, SharedClient> SHARED_CLIENTS = new WeakHashMap<>();
+
     /** The builder for HTTP client. */
     private final HttpClientBuilder httpClientBuilder;
     
+    /** The HTTP client, once initialized. */
+    private volatile HttpClient httpClient;
+    
     /** The validators attached to this resolver. */
     private List<ResponseValidator> validators;
     
+    /** The chain for the validators, once initialized. */
+    private volatile ResponseValidatorChain validatorChain;
+    
+    /** The maximum number of characters captured from the response contents for error reporting. */
+    private int captureSize = DEFAULT_CAPTURE_SIZE;
+    
     /** The identifier for this resolver. */
     private String id;
     
     /** The switch whether or not to follow HTTP redirects automatically. */
     private boolean followRedirects = true;
     
+    /** The maximum number of redirects to follow within one step. */
+    private int maxRedirects = DEFAULT_MAX_REDIRECTS;
+    
     /** The default result URL if it cannot be resolved dynamically. */
     private String resultUrl;
 
+    /** The recorder for the HTTP exchanges, if they are recorded. */
+    private volatile ExchangeRecorder recorder;
+
     /**
      * Constructor.
      * @param clientBuilder The builder for HTTP client.
@@ -81,6 +144,14 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
         validators = new ArrayList<ResponseValidator>();
     }
 
+    /**
+     * Get the builder for the HTTP client.
+     * @return The builder for the HTTP client.
+     */
+    @Nonnull public HttpClientBuilder getHttpClientBuilder() {
+        return httpClientBuilder;
+    }
+
     /** {@inheritDoc} */
     public List<ResponseValidator> getValidators() {
         return validators;
@@ -112,6 +183,39 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
         return followRedirects;
     }
     
+    /**
+     * Set the maximum number of redirects to follow within one step.
+     * @param max What to set.
+     */
+    public void setMaxRedirects(final int max) {
+        maxRedirects = (int) Constraint.isGreaterThanOrEqual(0, max, "maxRedirects must be non-negative");
+    }
+    
+    /**
+     * Get the maximum number of redirects to follow within one step.
+     * @return The maximum number of redirects to follow within one step.
+     */
+    public int getMaxRedirects() {
+        return maxRedirects;
+    }
+    
+    /**
+     * Set the maximum number of characters captured from the response contents for error reporting, when the full
+     * contents are not needed.
+     * @param size What to set.
+     */
+    public void setCaptureSize(final int size) {
+        captureSize = (int) Constraint.isGreaterThanOrEqual(0, size, "captureSize must be non-negative");
+    }
+    
+    /**
+     * Get the maximum number of characters captured from the response contents for error reporting.
+     * @return The maximum number of characters captured from the response contents for error reporting.
+     */
+    public int getCaptureSize() {
+        return captureSize;
+    }
+    
     /**
      * Set the default result URL if it cannot be resolved dynamically.
      * @param url What to set.
@@ -129,25 +233,86 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
     }
     
     /**
-     * Initializes a HTTP client.
+     * Set the recorder for the HTTP exchanges. If set, the responses are read into memory as soon as they are
+     * received, and the exchanges are recorded with their timings.
+     * @param newRecorder What to set.
+     */
+    public void setRecorder(final ExchangeRecorder newRecorder) {
+        recorder = newRecorder;
+    }
+    
+    /**
+     * Get the recorder for the HTTP exchanges.
+     * @return The recorder for the HTTP exchanges, or null if they are not recorded.
+     */
+    public ExchangeRecorder getRecorder() {
+        return recorder;
+    }
+    
+    /**
+     * Initializes a HTTP client. The client, and thus its connection pool, is shared by all the resolvers using the
+     * same {@link HttpClientBuilder}. It is built only once, and the builder is not modified: the redirect handling
+     * is disabled for each request by {@link #disableRedirects(HttpClient, HttpUriRequest)}, as the redirects are
+     * followed by {@link #resolveStep(HttpContext, SequenceStep, boolean)}.
      * 
      * @return The HTTP client.
      * @throws ResponseValidatorException If initialization fails for some reason.
      */
-    protected synchronized HttpClient initializeHttpClient() throws ResponseValidatorException {
-        final HttpClient httpClient;
-        try {
-            httpClientBuilder.setHttpFollowRedirects(followRedirects);
-            httpClient = httpClientBuilder.buildClient();
-        } catch (Exception e) {
-            log.error("Could not initialize a http client", e);
-            throw new ResponseValidatorException(getId() + ": Could not initialize HttpClient!");
+    protected HttpClient initializeHttpClient() throws ResponseValidatorException {
+        HttpClient client = httpClient;
+        if (client == null) {
+            synchronized (SHARED_CLIENTS) {
+                client = httpClient;
+                if (client == null) {
+                    SharedClient shared = SHARED_CLIENTS.get(httpClientBuilder);
+                    if (shared == null) {
+                        final HttpClient built;
+                        try {
+                            built = httpClientBuilder.buildClient();
+                        } catch (Exception e) {
+                            log.error("Could not initialize a http client", e);
+                            throw new ResponseValidatorException(getId() + ": Could not initialize HttpClient!");
+                        }
+                        if (built == null) {
+                            log.error("The builder did not return a http client");
+                            throw new ResponseValidatorException(getId() + ": Could not initialize HttpClient!");
+                        }
+                        shared = new SharedClient(built);
+                        SHARED_CLIENTS.put(httpClientBuilder, shared);
+                    }
+                    shared.references++;
+                    client = shared.client;
+                    httpClient = client;
+                }
+            }
         }
-        return httpClient;
+        return client;
     }
     
     /**
-     * Initializes the HTTP request for the given step.
+     * Releases the reference of this resolver to the shared HTTP client. The client is closed if no other resolver
+     * holds it. The resolver can still be used after closing, in which case it acquires the client again.
+     */
+    @Override
+    public void close() {
+        synchronized (SHARED_CLIENTS) {
+            final HttpClient client = httpClient;
+            if (client == null) {
+                return;
+            }
+            httpClient = null;
+            final SharedClient shared = SHARED_CLIENTS.get(httpClientBuilder);
+            if (shared != null && shared.client == client && --shared.references == 0) {
+                log.debug("{}: Closing the HTTP client, no more resolvers are using it", getId());
+                SHARED_CLIENTS.remove(httpClientBuilder);
+                HttpClientUtils.closeQuietly(client);
+            }
+        }
+    }
+    
+    /**
+     * Initializes the HTTP request for the given step. The request uses the default configuration of the client,
+     * apart from the redirect handling that is disabled when the request is executed.
      * 
      * @param step The SSO sequence step.
      * @return The HTTP request corresponding to the step.
@@ -159,13 +324,12 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
             throw new ResponseValidatorException(getId() + ": The starting step does not contain URL");
         }
         final HttpUriRequest request;
-        final RequestConfig config = RequestConfig.custom().setCircularRedirectsAllowed(isFollowRedirects()).build();
         if (step.getParameters() == null || step.getParameters().size() == 0) {
-            request = RequestBuilder.get().setUri(step.getUrl()).setConfig(config).build();
+            request = RequestBuilder.get().setUri(step.getUrl()).build();
         } else {
             try {
                 request = RequestBuilder.post().setUri(step.getUrl()).setEntity(
-                        new UrlEncodedFormEntity(step.getParameters())).setConfig(config).build();
+                        new UrlEncodedFormEntity(step.getParameters())).build();
             } catch (UnsupportedEncodingException e) {
                 log.error("Could not encode the given parameters to POST", e);
                 throw new ResponseValidatorException(getId() + ": Could not encode the request parameters!");
@@ -176,7 +340,10 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
     }
     
     /**
-     * Resolves the step.
+     * Resolves the step. The redirects are followed iteratively, up to the configured maximum number of hops, and the
+     * resolution fails if the same redirect is repeated more than {@link #MAX_REPEATED_REDIRECTS} times. Every request
+     * is recorded as a hop to the {@link ConnectionTimings} in the context, if it exists. If the context has a
+     * {@link SequenceDeadline}, the requests are limited to the remaining time and aborted when it passes.
      * 
      * @param context The context containing for instance cookies.
      * @param step The SSO sequence step starting the resolution.
@@ -187,104 +354,394 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
     public SequenceResponse resolveStep(final HttpContext context, final SequenceStep step,
             final boolean followRedirect) 
             throws ResponseValidatorException {
-        final HttpClient httpClient = initializeHttpClient();
-        final HttpUriRequest request = initializeHttpRequest(step);
-        final HttpResponse response;
-        
-        try {
-            response = httpClient.execute(request, context);
+        return resolveStep(context, step, followRedirect, null);
+    }
+
+    /**
+     * Resolves the step as {@link #resolveStep(HttpContext, SequenceStep, boolean)} does, and writes the decoded
+     * contents of the resulting response to the given consumer while they are read. A resolver parsing the contents
+     * with the consumer does not need them to be retained, see {@link #isResponseContentRequired()}.
+     * 
+     * @param context The context containing for instance cookies.
+     * @param step The SSO sequence step starting the resolution.
+     * @param followRedirect Whether to automatically follow redirects.
+     * @param consumer The consumer for the contents of the resulting response, or null if not needed.
+     * @return The resulting step.
+     * @throws ResponseValidatorException If validation failed for some reason.
+     */
+    public SequenceResponse resolveStep(final HttpContext context, final SequenceStep step,
+            final boolean followRedirect, final Writer consumer) 
+            throws ResponseValidatorException {
+        final HttpClient client = initializeHttpClient();
+        final ResponseValidatorChain chain = getValidatorChain();
+        final SequenceDeadline deadline = SequenceDeadline.get(context);
+        final Map<String, Integer> redirects = new HashMap<>();
+        HttpUriRequest request = initializeHttpRequest(step);
+        for (int hops = 0;; hops++) {
+            final long start = System.currentTimeMillis();
+            final HttpResponse response = executeRequest(client, request, context);
+            final long downloadStart = System.nanoTime();
             if (log.isTraceEnabled()) {
                 for (final Header header : response.getAllHeaders()) {
                     log.trace("Header: {} = {}", header.getName(), header.getValue());
                 }            
             }
+            final Header location = response.getFirstHeader("Location");
+            final boolean redirect = followRedirect && location != null;
+            final ContentValidation validation = redirect ? null : chain.startValidation(response);
+            final StreamedContents contents;
             try {
-                if (followRedirect && response.getHeaders("Location") != null 
-                        && response.getHeaders("Location").length > 0) {
-                    log.trace("Following redirect automatically");
-                    final SequenceStep redirectStep = new SequenceStep();
-                    final String url = response.getHeaders("Location")[0].getValue();
-                    log.debug("Found a value for Location-header: {}", url);
-                    if (!url.contains("://")) {
-                        final HttpHost target = (HttpHost) context.getAttribute(
-                                HttpCoreContext.HTTP_TARGET_HOST);
-                        redirectStep.setUrl(target.getSchemeName() + "://" + target.getHostName() + url);
-                    } else {
-                        redirectStep.setUrl(url);
-                    }
-                    return resolveStep(context, redirectStep, followRedirect);
-                } else {
-                    final String result = EntityUtils.toString(response.getEntity(), "UTF-8");
-                    for (final ResponseValidator validator : getValidators()) {
-                        validator.validate(response, result);
-                    }
-                    log.trace("Full contents of the response {}", result);
-                    return new SequenceResponse(result, response.getAllHeaders());
+                contents = readContents(request, response, validation, redirect ? null : consumer,
+                        !redirect && (isResponseContentRequired() || chain.isContentRequired()));
+            } catch (ResponseValidatorException e) {
+                if (deadline != null && deadline.isExpired()) {
+                    throw timedOut(deadline, request, e);
                 }
+                throw e;
             } finally {
-                EntityUtils.consume(response.getEntity());                
+                if (deadline != null) {
+                    deadline.release(request);
+                }
+            }
+            recordTiming(context, start, downloadStart);
+            recordHop(context, request, response, start, contents.getBytes());
+            if (!redirect) {
+                validation.finish(contents.getText());
+                log.trace("Full contents of the response {}", contents.getText());
+                return new SequenceResponse(contents.getText(), response.getAllHeaders());
+            }
+            if (hops >= maxRedirects) {
+                log.error("Too many redirects, the maximum is {}", maxRedirects);
+                throw new ResponseValidatorException(getId() + ": Too many redirects, the maximum is " 
+                        + maxRedirects);
+            }
+            log.trace("Following redirect automatically");
+            final String url;
+            try {
+                url = URIUtils.resolve(request.getURI(), location.getValue()).toString();
+            } catch (IllegalArgumentException e) {
+                log.error("Could not parse the Location-header {}", location.getValue(), e);
+                throw new ResponseValidatorException(getId() + ": Invalid redirect location " 
+                        + location.getValue(), e);
+            }
+            log.debug("Found a value for Location-header: {}", url);
+            final String redirectKey = request.getURI() + " -> " + url;
+            final Integer count = redirects.get(redirectKey);
+            if (count != null && count >= MAX_REPEATED_REDIRECTS) {
+                log.error("Redirect loop detected: {}", redirectKey);
+                throw new ResponseValidatorException(getId() + ": Redirect loop detected at " + url);
             }
+            redirects.put(redirectKey, count == null ? 1 : count + 1);
+            final SequenceStep redirectStep = new SequenceStep();
+            redirectStep.setUrl(url);
+            request = initializeHttpRequest(redirectStep);
+        }
+    }
+    
+    /**
+     * Executes the given request. The response entity is not read. If the context has a {@link SequenceDeadline}, the
+     * request is tracked by it until the caller releases it.
+     * 
+     * @param client The HTTP client.
+     * @param request The HTTP request.
+     * @param context The context containing for instance cookies.
+     * @return The HTTP response.
+     * @throws ResponseValidatorException If the request could not be performed.
+     */
+    protected HttpResponse executeRequest(final HttpClient client, final HttpUriRequest request,
+            final HttpContext context) throws ResponseValidatorException {
+        context.removeAttribute(ConnectionTrackingRequestExecutor.CONTEXT_KEY_NEW_CONNECTION);
+        context.removeAttribute(RequestPhaseTimings.CONTEXT_KEY);
+        final SequenceDeadline deadline = SequenceDeadline.get(context);
+        disableRedirects(client, request);
+        if (deadline != null) {
+            if (deadline.isExpired()) {
+                throw timedOut(deadline, request, null);
+            }
+            applyDeadline(client, request, deadline);
+            deadline.track(request);
+        }
+        final ExchangeRecorder currentRecorder = recorder;
+        final long start = System.currentTimeMillis();
+        final HttpResponse response;
+        try {
+            response = client.execute(request, context);
         } catch (IOException e) {
+            if (deadline != null) {
+                deadline.release(request);
+                if (deadline.isExpired()) {
+                    throw timedOut(deadline, request, e);
+                }
+            }
             log.error("Could not perform a http request to {}", request.getURI(), e);
             throw new ResponseValidatorException(getId() + ": Could not perform a http request to "
                     + request.getURI(), e);
         }
+        if (currentRecorder != null) {
+            recordExchange(currentRecorder, request, response, start);
+        }
+        return response;
     }
     
-    /** {@inheritDoc} */
-    public String getId() {
-        return id;
+    /**
+     * Disables the redirect handling of the client for the given request, as the redirects are followed by
+     * {@link #resolveStep(HttpContext, SequenceStep, boolean)}. The configuration of the request, or the default
+     * configuration of the client, is used as the basis.
+     * 
+     * @param client The HTTP client.
+     * @param request The HTTP request.
+     */
+    protected void disableRedirects(final HttpClient client, final HttpUriRequest request) {
+        if (request instanceof HttpRequestBase) {
+            final HttpRequestBase configurable = (HttpRequestBase) request;
+            RequestConfig config = configurable.getConfig();
+            if (config == null && client instanceof Configurable) {
+                config = ((Configurable) client).getConfig();
+            }
+            configurable.setConfig(RequestConfig.copy(config != null ? config : RequestConfig.DEFAULT)
+                    .setRedirectsEnabled(false).build());
+        }
     }
     
     /**
-     * Set the identifier for the resolver.
+     * Limits the connect, connection request and socket timeouts of the given request to the time remaining until
+     * the given deadline. The configuration of the request, or the default configuration of the client, is used as
+     * the basis.
      * 
-     * @param newId What to set.
-     * @return The identifier for the resolver.
+     * @param client The HTTP client.
+     * @param request The HTTP request.
+     * @param deadline The deadline of the sequence.
      */
-    public String setId(final String newId) {
-        id = Constraint.isNotEmpty(newId, "id cannot be null!");
-        return id;
+    protected void applyDeadline(final HttpClient client, final HttpUriRequest request,
+            final SequenceDeadline deadline) {
+        if (request instanceof HttpRequestBase) {
+            final HttpRequestBase configurable = (HttpRequestBase) request;
+            RequestConfig config = configurable.getConfig();
+            if (config == null && client instanceof Configurable) {
+                config = ((Configurable) client).getConfig();
+            }
+            configurable.setConfig(deadline.limit(config != null ? config : RequestConfig.DEFAULT));
+        }
     }
     
     /**
-     * Get the paramater value from a given query string.
+     * Builds the exception for a step that ran out of time.
      * 
-     * @param string The query string.
-     * @param key The parameter key.
-     * @return The parameter value, null if does not exist.
-     */
-    protected String getValue(final String string, final String key) {
-        int index = string.indexOf(key + "=\"");
-        log.trace("Found index: {} for key {}", index, key);
-        int offset = index + new String(key + "=\"").length();
-        if (index != -1) {
-            return string.substring(offset, string.indexOf("\"", offset));
+     * @param deadline The deadline of the sequence.
+     * @param request The HTTP request that was aborted or not started.
+     * @param cause The cause for the failed request, or null if it was not started.
+     * @return The exception for the step.
+     */
+    protected SequenceTimeoutException timedOut(final SequenceDeadline deadline, final HttpUriRequest request,
+            final Throwable cause) {
+        log.warn("The sequence did not finish within {} ms, the request to {} was aborted", deadline.getTimeout(),
+                request.getURI());
+        return new SequenceTimeoutException(getId() + ": The sequence did not finish within " 
+                + deadline.getTimeout() + "ms, the request to " + request.getURI() + " was aborted", cause);
+    }
+    
+    /**
+     * Records the given exchange to the given recorder. The response entity is read into memory and replaced with
+     * a copy, so that the response can still be read by the caller. The request body is not recorded, as it may
+     * contain the credentials of the monitoring account.
+     * 
+     * @param exchangeRecorder The recorder for the exchange.
+     * @param request The HTTP request.
+     * @param response The HTTP response, whose entity has not been read.
+     * @param start The start time of the request.
+     * @throws ResponseValidatorException If the response entity could not be read.
+     */
+    protected void recordExchange(final ExchangeRecorder exchangeRecorder, final HttpUriRequest request,
+            final HttpResponse response, final long start) throws ResponseValidatorException {
+        final RecordedExchange exchange = new RecordedExchange(request.getMethod(), request.getURI().toString());
+        exchange.setResolverId(getId());
+        exchange.setStartTime(start);
+        final long downloadStart = System.currentTimeMillis();
+        exchange.setWaitTime(downloadStart - start);
+        exchange.setStatusCode(response.getStatusLine().getStatusCode());
+        exchange.setReasonPhrase(response.getStatusLine().getReasonPhrase());
+        for (final Header header : response.getAllHeaders()) {
+            exchange.addHeader(header.getName(), header.getValue());
         }
-        return null;
+        try {
+            final HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                final byte[] body = EntityUtils.toByteArray(entity);
+                final ByteArrayEntity copy = new ByteArrayEntity(body);
+                copy.setContentType(entity.getContentType());
+                copy.setContentEncoding(entity.getContentEncoding());
+                response.setEntity(copy);
+                exchange.setBody(body);
+            }
+        } catch (IOException e) {
+            log.error("Could not read the response from {}", request.getURI(), e);
+            throw new ResponseValidatorException(getId() + ": Could not read the response from "
+                    + request.getURI(), e);
+        }
+        exchange.setDownloadTime(System.currentTimeMillis() - downloadStart);
+        exchangeRecorder.record(exchange);
     }
-
+    
     /**
-     * Get the parameter value for a given key from a given string. The logic is to find the value -attribute in the
-     * same XML element as where the key string is located in quotes.
+     * Reads the response entity in one pass, feeding the decoded contents to the given validation and consumer. Only
+     * the beginning of the contents, up to the capture size, is kept unless the full contents are to be retained. The
+     * connection is released once the entity has been read.
      * 
-     * @param string The source string.
-     * @param paramKey The key in quotes.
-     * @return The contents of the value attribute, null if does not exist.
-     */
-    protected String getParamValue(final String string, final String paramKey) {
-        int index = string.indexOf("\"" + paramKey + "\"");
-        if (index < 0) {
-            return null;
+     * @param request The HTTP request.
+     * @param response The HTTP response.
+     * @param validation The validation for the contents, or null if the contents are discarded without decoding.
+     * @param consumer The consumer for the decoded contents, or null if not needed.
+     * @param retain Whether to retain the full contents.
+     * @return The contents of the response.
+     * @throws ResponseValidatorException If the response could not be read.
+     */
+    protected StreamedContents readContents(final HttpUriRequest request, final HttpResponse response,
+            final ContentValidation validation, final Writer consumer, final boolean retain)
+            throws ResponseValidatorException {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new StreamedContents("", 0);
         }
-        int elementEnd = string.indexOf(">", index);
-        final String valueKey = "value=\"";
-        int valueStart = string.indexOf(valueKey, index);
-        if (valueStart > 0 && valueStart < elementEnd) {
-            int offset = valueStart + new String(valueKey).length();
-            return string.substring(offset, string.indexOf("\"", offset));
+        final StringBuilder text = new StringBuilder();
+        CountingInputStream input = null;
+        try {
+            input = new CountingInputStream(entity.getContent());
+            if (validation == null) {
+                IOUtils.skip(input, Long.MAX_VALUE);
+            } else {
+                final Reader reader = new InputStreamReader(input, getCharset(entity));
+                final char[] buffer = new char[BUFFER_SIZE];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    validation.update(buffer, 0, read);
+                    if (consumer != null) {
+                        consumer.write(buffer, 0, read);
+                    }
+                    if (retain) {
+                        text.append(buffer, 0, read);
+                    } else if (text.length() < captureSize) {
+                        text.append(buffer, 0, Math.min(read, captureSize - text.length()));
+                    }
+                }
+            }
+            input.close();
+            return new StreamedContents(text.toString(), input.getByteCount());
+        } catch (IOException | ParseException e) {
+            log.error("Could not read the response from {}", request.getURI(), e);
+            throw new ResponseValidatorException(getId() + ": Could not read the response from "
+                    + request.getURI(), e);
+        } finally {
+            IOUtils.closeQuietly(input);
         }
-        return null;
+    }
+    
+    /**
+     * Get the character set of the given entity, as {@link EntityUtils#toString(HttpEntity, String)} would resolve
+     * it: the character set of the content type, or the default one for the MIME type, or UTF-8.
+     * 
+     * @param entity The HTTP entity.
+     * @return The character set.
+     * @throws UnsupportedEncodingException If the character set is not supported.
+     */
+    protected Charset getCharset(final HttpEntity entity) throws UnsupportedEncodingException {
+        final ContentType contentType;
+        try {
+            contentType = ContentType.get(entity);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(e.getMessage());
+        }
+        Charset charset = null;
+        if (contentType != null) {
+            charset = contentType.getCharset();
+            if (charset == null) {
+                final ContentType defaultContentType = ContentType.getByMimeType(contentType.getMimeType());
+                charset = defaultContentType != null ? defaultContentType.getCharset() : null;
+            }
+        }
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+    
+    /**
+     * Get whether the full contents of the response are needed by this resolver. If not, and none of the validators
+     * require them, only the beginning of the contents is kept for error reporting. The resolvers parsing the
+     * contents while they are read, see {@link #resolveStep(HttpContext, SequenceStep, boolean, Writer)}, return
+     * false.
+     * 
+     * @return Whether the full contents of the response are needed.
+     */
+    protected boolean isResponseContentRequired() {
+        return true;
+    }
+    
+    /**
+     * Get the chain for the current validators. The chain is rebuilt if the validators have changed.
+     * 
+     * @return The chain for the current validators.
+     */
+    protected ResponseValidatorChain getValidatorChain() {
+        ResponseValidatorChain chain = validatorChain;
+        if (chain == null || !chain.getValidators().equals(getValidators())) {
+            chain = new ResponseValidatorChain(getValidators());
+            validatorChain = chain;
+        }
+        return chain;
+    }
+    
+    /**
+     * Records a request as a hop to the {@link ConnectionTimings} in the context, if it exists.
+     * 
+     * @param context The context containing for instance cookies.
+     * @param request The HTTP request.
+     * @param response The HTTP response.
+     * @param start The start time of the request.
+     * @param bytes The size of the response body in bytes.
+     */
+    protected void recordHop(final HttpContext context, final HttpUriRequest request, final HttpResponse response,
+            final long start, final long bytes) {
+        final ConnectionTimings timings = ConnectionTimings.get(context);
+        if (timings != null) {
+            final MonitoringSequenceHopResult hop = new MonitoringSequenceHopResult();
+            hop.setUrl(request.getURI().toString());
+            hop.setStatusCode(response.getStatusLine().getStatusCode());
+            hop.setBytes(bytes);
+            hop.setStartTime(start);
+            hop.setEndTime(System.currentTimeMillis());
+            timings.addHop(hop);
+        }
+    }
+    
+    /**
+     * Records the duration and the network phases of a request to the {@link ConnectionTimings} in the context, if
+     * it exists. The response body is expected to be fully read.
+     * 
+     * @param context The context containing for instance cookies.
+     * @param start The start time of the request.
+     * @param downloadStart The time when the response body started to be read, as given by {@link System#nanoTime()}.
+     */
+    protected void recordTiming(final HttpContext context, final long start, final long downloadStart) {
+        final ConnectionTimings timings = ConnectionTimings.get(context);
+        if (timings != null) {
+            timings.record(Boolean.TRUE.equals(
+                    context.getAttribute(ConnectionTrackingRequestExecutor.CONTEXT_KEY_NEW_CONNECTION)),
+                    System.currentTimeMillis() - start, RequestPhaseTimings.get(context),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - downloadStart));
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * Set the identifier for the resolver.
+     * 
+     * @param newId What to set.
+     * @return The identifier for the resolver.
+     */
+    public String setId(final String newId) {
+        id = Constraint.isNotEmpty(newId, "id cannot be null!");
+        return id;
     }
     
     /**
@@ -375,4 +832,62 @@ public abstract class BaseSequenceStepResolver implements SequenceStepResolver {
             return headers;
         }
     }
+    
+    /**
+     * Wrapper class containing the contents read from a response and the size of the entity.
+     */
+    protected static class StreamedContents {
+        
+        /** The contents, possibly truncated. */
+        private final String text;
+        
+        /** The size of the entity in bytes. */
+        private final long bytes;
+        
+        /**
+         * Constructor.
+         * @param contents The contents, possibly truncated.
+         * @param size The size of the entity in bytes.
+         */
+        protected StreamedContents(final String contents, final long size) {
+            text = contents;
+            bytes = size;
+        }
+        
+        /**
+         * Get the contents, possibly truncated.
+         * @return The contents, possibly truncated.
+         */
+        public String getText() {
+            return text;
+        }
+        
+        /**
+         * Get the size of the entity.
+         * @return The size of the entity in bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+    
+    /**
+     * An HTTP client shared by the resolvers, with the number of resolvers holding it.
+     */
+    private static final class SharedClient {
+        
+        /** The HTTP client. */
+        @Nonnull private final HttpClient client;
+        
+        /** The number of resolvers holding the client. */
+        private int references;
+        
+        /**
+         * Constructor.
+         * @param sharedClient The HTTP client.
+         */
+        private SharedClient(@Nonnull final HttpClient sharedClient) {
+            client = sharedClient;
+        }
+    }
 }
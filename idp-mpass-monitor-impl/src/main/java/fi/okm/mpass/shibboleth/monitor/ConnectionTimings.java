@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.protocol.HttpContext;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceHopResult;
+import fi.okm.mpass.shibboleth.support.RequestPhaseTimings;
+
+/**
+ * Accumulates the time spent in HTTP requests during a monitoring step, separately for the requests sent over newly
+ * opened (cold) connections and over reused pooled (warm) connections, and for the network phases of the requests.
+ * The individual requests are recorded as hops. The instance is kept as an attribute in the {@link HttpContext} of
+ * the sequence.
+ */
+public class ConnectionTimings {
+
+    /** The attribute name for this object in the {@link HttpContext}. */
+    public static final String CONTEXT_KEY = ConnectionTimings.class.getName();
+
+    /** The time spent in the requests over new connections in milliseconds. */
+    private long coldTime;
+
+    /** The time spent in the requests over reused connections in milliseconds. */
+    private long warmTime;
+
+    /** The time spent in the DNS lookups in milliseconds. */
+    private long dnsTime;
+
+    /** The time spent opening the TCP connections in milliseconds. */
+    private long connectTime;
+
+    /** The time spent in the TLS handshakes in milliseconds. */
+    private long tlsTime;
+
+    /** The time spent waiting for the response headers in milliseconds. */
+    private long waitTime;
+
+    /** The time spent downloading the response bodies in milliseconds. */
+    private long downloadTime;
+
+    /** The requests recorded as hops. */
+    private final List<MonitoringSequenceHopResult> hops = new ArrayList<>();
+
+    /**
+     * Record a request and its network phases.
+     * @param newConnection Whether the request was sent over a new connection.
+     * @param duration The duration of the request in milliseconds.
+     * @param phases The network phases of the request, may be null if they were not measured.
+     * @param download The time spent downloading the response body in milliseconds.
+     */
+    public synchronized void record(final boolean newConnection, final long duration,
+            @Nullable final RequestPhaseTimings phases, final long download) {
+        if (newConnection) {
+            coldTime += duration;
+        } else {
+            warmTime += duration;
+        }
+        if (phases != null) {
+            dnsTime += phases.getDnsTime();
+            connectTime += phases.getConnectTime();
+            tlsTime += phases.getTlsTime();
+            waitTime += phases.getWaitTime();
+        }
+        downloadTime += download;
+    }
+
+    /**
+     * Get the time spent in the requests over new connections.
+     * @return The time spent in the requests over new connections in milliseconds.
+     */
+    public synchronized long getColdTime() {
+        return coldTime;
+    }
+
+    /**
+     * Get the time spent in the requests over reused connections.
+     * @return The time spent in the requests over reused connections in milliseconds.
+     */
+    public synchronized long getWarmTime() {
+        return warmTime;
+    }
+
+    /**
+     * Get the time spent in the DNS lookups.
+     * @return The time spent in the DNS lookups in milliseconds.
+     */
+    public synchronized long getDnsTime() {
+        return dnsTime;
+    }
+
+    /**
+     * Get the time spent opening the TCP connections.
+     * @return The time spent opening the TCP connections in milliseconds.
+     */
+    public synchronized long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * Get the time spent in the TLS handshakes.
+     * @return The time spent in the TLS handshakes in milliseconds.
+     */
+    public synchronized long getTlsTime() {
+        return tlsTime;
+    }
+
+    /**
+     * Get the time spent waiting for the response headers.
+     * @return The time spent waiting for the response headers in milliseconds.
+     */
+    public synchronized long getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Get the time spent downloading the response bodies.
+     * @return The time spent downloading the response bodies in milliseconds.
+     */
+    public synchronized long getDownloadTime() {
+        return downloadTime;
+    }
+
+    /**
+     * Record a request as a hop.
+     * @param hop The hop to record.
+     */
+    public synchronized void addHop(@Nonnull final MonitoringSequenceHopResult hop) {
+        hops.add(hop);
+    }
+
+    /**
+     * Get the requests recorded as hops.
+     * @return A copy of the recorded hops, in the order they were recorded.
+     */
+    @Nonnull public synchronized List<MonitoringSequenceHopResult> getHops() {
+        return new ArrayList<>(hops);
+    }
+
+    /**
+     * Get the timings from the given context.
+     * @param context The HTTP context.
+     * @return The timings, or null if none have been attached to the context.
+     */
+    @Nullable public static ConnectionTimings get(@Nullable final HttpContext context) {
+        if (context == null) {
+            return null;
+        }
+        final Object timings = context.getAttribute(CONTEXT_KEY);
+        return timings instanceof ConnectionTimings ? (ConnectionTimings) timings : null;
+    }
+}
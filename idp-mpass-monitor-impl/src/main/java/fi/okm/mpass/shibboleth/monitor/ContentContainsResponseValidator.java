@@ -23,19 +23,23 @@
 
 package fi.okm.mpass.shibboleth.monitor;
 
+import java.util.Collections;
+
 import javax.annotation.Nonnull;
 
 import org.apache.http.HttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.okm.mpass.shibboleth.support.AhoCorasickMatcher;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
- * A {@link ResponseValidator} that checks whether the given string exists in the contents.
+ * A {@link ResponseValidator} that checks whether the given string exists in the contents. The contents may also be
+ * streamed, see {@link StreamingResponseValidator}.
  */
-public class ContentContainsResponseValidator implements ResponseValidator {
+public class ContentContainsResponseValidator implements StreamingResponseValidator {
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(ContentContainsResponseValidator.class);
@@ -43,21 +47,64 @@ public class ContentContainsResponseValidator implements ResponseValidator {
     /** The string expected to be found in the contents. */
     @Nonnull @NotEmpty private final String expected;
     
+    /** The matcher for the expected string in the streamed contents. */
+    @Nonnull private final AhoCorasickMatcher matcher;
+    
     /**
      * Constructor.
      * @param string The string expected to be found in the contents.
      */
     public ContentContainsResponseValidator(final String string) {
         expected = Constraint.isNotEmpty(string, "Expected string cannot be empty!");
+        matcher = new AhoCorasickMatcher(Collections.singletonList(expected));
+    }
+    
+    /**
+     * Get the string expected to be found in the contents.
+     * @return The string expected to be found in the contents.
+     */
+    @Nonnull @NotEmpty public String getExpected() {
+        return expected;
     }
     
     /** {@inheritDoc} */
     @Override
     public void validate(final HttpResponse httpResponse, final String contents) throws ResponseValidatorException {
         if (contents == null || !contents.contains(expected)) {
-            log.debug("{} not included in the response", expected);
-            log.trace("The full content was {}", contents);
-            throw new ResponseValidatorException("Expected string '" + expected + "' missing!", contents);
+            reportMissing(contents);
         }
     }
+    
+    /** {@inheritDoc} */
+    @Override
+    public ContentValidation startValidation(final HttpResponse httpResponse) {
+        final AhoCorasickMatcher.Scan scan = matcher.newScan();
+        return new ContentValidation() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void update(final char[] chars, final int offset, final int length) {
+                scan.update(chars, offset, length);
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public void finish(final String capture) throws ResponseValidatorException {
+                if (!scan.isAllFound()) {
+                    reportMissing(capture);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Reports the expected string missing from the contents.
+     * @param contents The contents for error reporting.
+     * @throws ResponseValidatorException Always.
+     */
+    protected void reportMissing(final String contents) throws ResponseValidatorException {
+        log.debug("{} not included in the response", expected);
+        log.trace("The full content was {}", contents);
+        throw new ResponseValidatorException("Expected string '" + expected + "' missing!", contents);
+    }
 }
@@ -24,11 +24,11 @@
 package fi.okm.mpass.shibboleth.monitor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
@@ -37,6 +37,7 @@ import org.apache.http.protocol.HttpCoreContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.okm.mpass.shibboleth.support.HtmlFieldExtractor;
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
@@ -44,6 +45,9 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
  * A sequence step resolver that expects the result to contain an HTML FORM with defined action URL.
  */
 public class FormPostTargetResolver extends BaseSequenceStepResolver {
+
+    /** The name of the FORM attribute containing the target URL. */
+    public static final String ACTION_ATTRIBUTE = "action";
     
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(FormPostTargetResolver.class);
@@ -54,6 +58,9 @@ public class FormPostTargetResolver extends BaseSequenceStepResolver {
     /** The automatically parsed result FORM parameters. */
     private final List<String> outputParameters;
 
+    /** The extractor for the action URL and the FORM parameters. */
+    private final HtmlFieldExtractor extractor;
+
     /**
      * Constructor.
      * @param clientBuilder The HTTP client builder.
@@ -77,6 +84,7 @@ public class FormPostTargetResolver extends BaseSequenceStepResolver {
         for (final String formItem : formItems) {
             outputParameters.add(formItem);
         }
+        extractor = new HtmlFieldExtractor(Collections.singleton(ACTION_ATTRIBUTE), outputParameters);
     }
     
     /** {@inheritDoc} */
@@ -88,7 +96,8 @@ public class FormPostTargetResolver extends BaseSequenceStepResolver {
                 startingStep.getParameters().add(parameter);
             }
         }
-        final SequenceResponse response = resolveStep(context, startingStep, isFollowRedirects());
+        final HtmlFieldExtractor.Scan scan = extractor.newScan();
+        final SequenceResponse response = resolveStep(context, startingStep, isFollowRedirects(), scan);
         final String redirectUrl = getHeaderValue(response.getHeaders(), "Location");
         if (!isFollowRedirects() && redirectUrl != null) {
             final SequenceStep resultStep = new SequenceStep();
@@ -101,17 +110,16 @@ public class FormPostTargetResolver extends BaseSequenceStepResolver {
         }
         final SequenceStep resultStep = initResultStep();
         final List<NameValuePair> resultParameters = new ArrayList<>();
-        final String action = getValue(result, "action");
-        log.debug("Parsed action {}", action);
+        final HtmlFieldExtractor.Result fields = scan.getResult();
+        final String url = fields.getAttribute(ACTION_ATTRIBUTE);
+        log.debug("Parsed action {}", url);
         for (final String item : outputParameters) {
-            final String value = getParamValue(result, item);
+            final String value = fields.getField(item);
             if (value != null) {
-                resultParameters.add(new BasicNameValuePair(item, StringEscapeUtils.unescapeHtml(value)));
+                resultParameters.add(new BasicNameValuePair(item, value));
             }
         }
-        if (action != null) {
-            final String url = action.replaceAll("&#x3a;", ":").replaceAll("&#x2f;", "/");
-            resultStep.setUrl(url);
+        if (url != null) {
             if (!url.startsWith("http")) {
                 final HttpHost target = (HttpHost) context.getAttribute(
                         HttpCoreContext.HTTP_TARGET_HOST);
@@ -125,4 +133,10 @@ public class FormPostTargetResolver extends BaseSequenceStepResolver {
         }
         return resultStep;   
     }
-}
\ No newline at end of file
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isResponseContentRequired() {
+        return false;
+    }
+}
@@ -37,7 +37,7 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 /**
  * A {@link ResponseValidator} that checks whether the response header contains expected value.
  */
-public class HeaderContainsResponseValidator implements ResponseValidator {
+public class HeaderContainsResponseValidator extends AbstractHeaderResponseValidator {
 
     /** Class logger. */
     @Nonnull
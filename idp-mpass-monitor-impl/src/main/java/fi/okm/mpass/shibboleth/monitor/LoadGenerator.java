@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Generates synthetic load by running a {@link MonitoringSequence} with concurrent virtual users, for capacity
+ * testing.
+ * 
+ * <p>
+ * Each virtual user runs the sequence repeatedly on its own thread, every run starting with a new HTTP context and
+ * an empty cookie store. The number of active users follows the configured {@link Stage}s: during each stage the
+ * number changes linearly from the target of the previous stage to the target of the stage, and after the last
+ * stage it stays at the last target. Without stages, the users are started evenly during the ramp-up time. The load
+ * ends when its duration has passed or when every user has run its number of iterations, and the runs in progress
+ * are allowed to finish.
+ * </p>
+ * 
+ * <p>
+ * The virtual users share the pooled HTTP clients of the step resolvers, so the connection pools must allow at least
+ * as many connections, in total and per route, as there are virtual users. Otherwise the load would measure the
+ * queueing for the pooled connections instead of the capacity of the target.
+ * </p>
+ */
+public class LoadGenerator extends AbstractIdentifiableInitializableComponent {
+
+    /** The time an inactive virtual user waits before checking whether it has become active in milliseconds. */
+    private static final long IDLE_WAIT = 100;
+
+    /** The number of connections per route in the Apache connection pool if it is not configured. */
+    private static final int DEFAULT_POOL_PER_ROUTE = 2;
+
+    /** The total number of connections in the Apache connection pool if it is not configured. */
+    private static final int DEFAULT_POOL_TOTAL = 20;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    /** The sequence to be run. */
+    @NonnullAfterInit private MonitoringSequence sequence;
+
+    /** The maximum number of concurrent virtual users. */
+    @Positive private int virtualUsers;
+
+    /** The duration of the load in milliseconds, 0 for no limit. */
+    @Duration @NonNegative private long duration;
+
+    /** The number of sequences run by each virtual user, 0 for no limit. */
+    @NonNegative private int iterations;
+
+    /** The time during which the virtual users are started when no stages are configured, in milliseconds. */
+    @Duration @NonNegative private long rampUp;
+
+    /** The wait time between the runs of a virtual user in milliseconds. */
+    @Duration @NonNegative private long thinkTime;
+
+    /** The stages of the load profile. */
+    @Nonnull @NonnullElements private List<Stage> stages;
+
+    /**
+     * Constructor.
+     */
+    public LoadGenerator() {
+        super();
+        virtualUsers = 1;
+        stages = new ArrayList<>();
+    }
+
+    /**
+     * Set the sequence to be run.
+     * @param newSequence What to set.
+     */
+    public void setSequence(@Nonnull final MonitoringSequence newSequence) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequence = Constraint.isNotNull(newSequence, "The sequence cannot be null");
+    }
+
+    /**
+     * Set the maximum number of concurrent virtual users. Defaults to 1. Ignored if stages are configured.
+     * @param users What to set.
+     */
+    public void setVirtualUsers(@Positive final int users) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        virtualUsers = (int) Constraint.isGreaterThan(0, users, "Number of virtual users must be greater than 0");
+    }
+
+    /**
+     * Set the duration of the load in milliseconds. Defaults to 0 for no limit, in which case the load ends after
+     * the iterations. If stages are configured, the load ends after them unless the iterations are set and the last
+     * stage keeps all the virtual users active.
+     * @param newDuration What to set.
+     */
+    public void setDuration(@Duration @NonNegative final long newDuration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        duration = Constraint.isGreaterThanOrEqual(0, newDuration, "Duration must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the number of sequences run by each virtual user. Defaults to 0 for no limit.
+     * @param newIterations What to set.
+     */
+    public void setIterations(@NonNegative final int newIterations) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        iterations = (int) Constraint.isGreaterThanOrEqual(0, newIterations,
+                "Iterations must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the time during which the virtual users are started in milliseconds. Defaults to 0 for starting all the
+     * users at once. Ignored if stages are configured.
+     * @param time What to set.
+     */
+    public void setRampUp(@Duration @NonNegative final long time) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        rampUp = Constraint.isGreaterThanOrEqual(0, time, "Ramp-up time must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the wait time between the runs of a virtual user in milliseconds. Defaults to 0.
+     * @param time What to set.
+     */
+    public void setThinkTime(@Duration @NonNegative final long time) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        thinkTime = Constraint.isGreaterThanOrEqual(0, time, "Think time must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the stages of the load profile.
+     * @param newStages What to set.
+     */
+    public void setStages(@Nonnull @NonnullElements final List<Stage> newStages) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        stages = new ArrayList<>(Constraint.isNotNull(newStages, "The stages cannot be null"));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (sequence == null) {
+            throw new ComponentInitializationException("No sequence configured");
+        }
+        if (stages.isEmpty()) {
+            stages.add(new Stage(rampUp, virtualUsers));
+        } else {
+            virtualUsers = 0;
+            long total = 0;
+            for (final Stage stage : stages) {
+                virtualUsers = Math.max(virtualUsers, stage.getTargetUsers());
+                total += stage.getDuration();
+            }
+            if (virtualUsers == 0) {
+                throw new ComponentInitializationException("The stages must have at least one virtual user");
+            }
+            if (duration == 0
+                    && (iterations == 0 || stages.get(stages.size() - 1).getTargetUsers() < virtualUsers)) {
+                duration = total;
+            }
+        }
+        if (duration == 0 && iterations == 0) {
+            throw new ComponentInitializationException("Either duration or iterations must be configured");
+        }
+        for (final SequenceStepResolver resolver : sequence.getResolvers()) {
+            if (resolver instanceof BaseSequenceStepResolver) {
+                validatePool(resolver.getId(), ((BaseSequenceStepResolver) resolver).getHttpClientBuilder());
+            }
+        }
+    }
+
+    /**
+     * Checks that the connection pool of the clients built by the given builder allows a connection for each virtual
+     * user.
+     * 
+     * @param resolverId The identifier of the resolver using the builder.
+     * @param builder The builder for the HTTP client.
+     * @throws ComponentInitializationException If the pool is smaller than the number of virtual users.
+     */
+    private void validatePool(final String resolverId, @Nonnull final HttpClientBuilder builder)
+            throws ComponentInitializationException {
+        final int perRoute = builder.getMaxConnectionsPerRoute() > 0 ? builder.getMaxConnectionsPerRoute()
+                : DEFAULT_POOL_PER_ROUTE;
+        final int total = builder.getMaxConnectionsTotal() > 0 ? builder.getMaxConnectionsTotal()
+                : DEFAULT_POOL_TOTAL;
+        if (perRoute < virtualUsers || total < virtualUsers) {
+            throw new ComponentInitializationException("The HTTP client of the step " + resolverId + " allows "
+                    + perRoute + " connections per route and " + total + " in total, fewer than the "
+                    + virtualUsers + " virtual users");
+        }
+    }
+
+    /**
+     * Runs the load and waits for it to end.
+     * 
+     * @return The report of the load.
+     * @throws InterruptedException If interrupted while waiting for the virtual users.
+     */
+    @Nonnull public LoadReport run() throws InterruptedException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final long start = System.currentTimeMillis();
+        log.info("Starting load with at most {} virtual users for sequence {}", virtualUsers, sequence.getId());
+        final ExecutorService executor = Executors.newFixedThreadPool(virtualUsers,
+                new DaemonThreadFactory("load-generator"));
+        final LoadReport report = new LoadReport();
+        try {
+            final List<Future<LoadReport>> futures = new ArrayList<>(virtualUsers);
+            for (int i = 0; i < virtualUsers; i++) {
+                futures.add(executor.submit(new VirtualUser(i, start)));
+            }
+            for (final Future<LoadReport> future : futures) {
+                try {
+                    report.merge(future.get());
+                } catch (final ExecutionException e) {
+                    log.error("Unexpected error in a virtual user", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        report.setStartTime(start);
+        report.setEndTime(System.currentTimeMillis());
+        log.info("Finished load for sequence {}: {} sequences, {} failed", sequence.getId(),
+                report.getSequence().getCount(), report.getSequence().getErrorCount());
+        return report;
+    }
+
+    /**
+     * Get the number of active virtual users at the given time from the start of the load.
+     * 
+     * @param elapsed The time from the start of the load in milliseconds.
+     * @return The number of active virtual users.
+     */
+    protected int getActiveUsers(final long elapsed) {
+        long remaining = elapsed;
+        int previous = 0;
+        for (final Stage stage : stages) {
+            if (remaining < stage.getDuration()) {
+                return (int) (previous + (stage.getTargetUsers() - previous) * remaining / stage.getDuration());
+            }
+            remaining -= stage.getDuration();
+            previous = stage.getTargetUsers();
+        }
+        return previous;
+    }
+
+    /**
+     * A virtual user running the sequence while it is active.
+     */
+    private class VirtualUser implements Callable<LoadReport> {
+
+        /** The index of the user, the user is active when the number of active users exceeds it. */
+        private final int index;
+
+        /** The start time of the load in milliseconds. */
+        private final long start;
+
+        /**
+         * Constructor.
+         * @param userIndex The index of the user.
+         * @param loadStart The start time of the load in milliseconds.
+         */
+        VirtualUser(final int userIndex, final long loadStart) {
+            index = userIndex;
+            start = loadStart;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public LoadReport call() throws InterruptedException {
+            final LoadReport report = new LoadReport();
+            int completed = 0;
+            while (iterations == 0 || completed < iterations) {
+                final long elapsed = System.currentTimeMillis() - start;
+                if (duration > 0 && elapsed >= duration) {
+                    break;
+                }
+                if (index >= getActiveUsers(elapsed)) {
+                    Thread.sleep(IDLE_WAIT);
+                    continue;
+                }
+                report.record(sequence.run());
+                completed++;
+                if (thinkTime > 0) {
+                    Thread.sleep(thinkTime);
+                }
+            }
+            return report;
+        }
+    }
+
+    /**
+     * A stage of the load profile: the number of active virtual users changes linearly to the target during the
+     * stage.
+     */
+    public static class Stage {
+
+        /** The duration of the stage in milliseconds. */
+        @Duration @NonNegative private final long duration;
+
+        /** The number of active virtual users at the end of the stage. */
+        @NonNegative private final int targetUsers;
+
+        /**
+         * Constructor.
+         * @param stageDuration The duration of the stage in milliseconds.
+         * @param users The number of active virtual users at the end of the stage.
+         */
+        public Stage(@Duration @NonNegative final long stageDuration, @NonNegative final int users) {
+            duration = Constraint.isGreaterThanOrEqual(0, stageDuration,
+                    "Stage duration must be greater than or equal to 0");
+            targetUsers = (int) Constraint.isGreaterThanOrEqual(0, users,
+                    "Number of users must be greater than or equal to 0");
+        }
+
+        /**
+         * Get the duration of the stage.
+         * @return The duration of the stage in milliseconds.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Get the number of active virtual users at the end of the stage.
+         * @return The number of active virtual users at the end of the stage.
+         */
+        public int getTargetUsers() {
+            return targetUsers;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.QuantileSketch;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The throughput and latency distributions of the sequences and their steps run by the {@link LoadGenerator}.
+ * 
+ * <p>
+ * The report is not thread-safe: each virtual user records its results to its own report, and the reports are
+ * merged when the users have finished.
+ * </p>
+ */
+public class LoadReport {
+
+    /** The name used for the whole sequences in the report. */
+    public static final String SEQUENCE_NAME = "(sequence)";
+
+    /** The quantiles written by {@link #write(Appendable)}. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99 };
+
+    /** The start time of the load in milliseconds. */
+    private long startTime;
+
+    /** The end time of the load in milliseconds. */
+    private long endTime;
+
+    /** The statistics of the whole sequences. */
+    @Nonnull private final StepStatistics sequence;
+
+    /** The statistics of the steps mapped by their identifiers, in the order they were first seen. */
+    @Nonnull private final Map<String, StepStatistics> steps;
+
+    /**
+     * Constructor.
+     */
+    public LoadReport() {
+        sequence = new StepStatistics(SEQUENCE_NAME);
+        steps = new LinkedHashMap<>();
+    }
+
+    /**
+     * Get the start time of the load.
+     * @return The start time of the load in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Set the start time of the load.
+     * @param time What to set.
+     */
+    public void setStartTime(final long time) {
+        startTime = time;
+    }
+
+    /**
+     * Get the end time of the load.
+     * @return The end time of the load in milliseconds.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Set the end time of the load.
+     * @param time What to set.
+     */
+    public void setEndTime(final long time) {
+        endTime = time;
+    }
+
+    /**
+     * Get the statistics of the whole sequences.
+     * @return The statistics of the whole sequences.
+     */
+    @Nonnull public StepStatistics getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the statistics of the steps.
+     * @return The statistics of the steps, in the order they were first seen.
+     */
+    @Nonnull public List<StepStatistics> getSteps() {
+        return new ArrayList<>(steps.values());
+    }
+
+    /**
+     * Get the statistics of the given step.
+     * @param id The step identifier.
+     * @return The statistics of the step, or null if it has not been run.
+     */
+    @Nullable public StepStatistics getStep(@Nullable final String id) {
+        return steps.get(id);
+    }
+
+    /**
+     * Get the number of completed sequences per second over the load.
+     * @return The number of completed sequences per second.
+     */
+    public double getThroughput() {
+        return sequence.getThroughput();
+    }
+
+    /**
+     * Records the given result and its step results. A sequence is failed if any of its steps has failed. The steps
+     * without identifier are recorded by their phase identifiers.
+     * 
+     * @param result The result to be recorded.
+     */
+    public void record(@Nonnull final MonitoringSequenceResult result) {
+        Constraint.isNotNull(result, "The result cannot be null");
+        boolean failed = false;
+        final List<MonitoringSequenceStepResult> stepResults = result.getStepResults();
+        if (stepResults != null) {
+            for (final MonitoringSequenceStepResult step : stepResults) {
+                final boolean stepFailed = step.getErrorMessage() != null && !step.getErrorMessage().isEmpty();
+                failed = failed || stepFailed;
+                final String stepId = step.getId() == null ? String.valueOf(step.getPhaseId()) : step.getId();
+                getOrCreateStep(stepId).record(step.getEndTime() - step.getStartTime(), stepFailed);
+            }
+        }
+        sequence.record(result.getEndTime() - result.getStartTime(), failed);
+    }
+
+    /**
+     * Merges the given report to this one. The period of this report is extended to cover the given one.
+     * 
+     * @param other The report to be merged.
+     */
+    public void merge(@Nonnull final LoadReport other) {
+        Constraint.isNotNull(other, "The report to be merged cannot be null");
+        if (other.startTime != 0 && (startTime == 0 || other.startTime < startTime)) {
+            startTime = other.startTime;
+        }
+        endTime = Math.max(endTime, other.endTime);
+        sequence.merge(other.sequence);
+        for (final StepStatistics step : other.steps.values()) {
+            getOrCreateStep(step.getId()).merge(step);
+        }
+    }
+
+    /**
+     * Writes the report as a text table, one row for the whole sequences and one for each step.
+     * 
+     * @param out The output for the report.
+     * @throws IOException If the report cannot be written.
+     */
+    public void write(@Nonnull final Appendable out) throws IOException {
+        out.append(String.format(Locale.ROOT, "Duration %d ms, %d sequences, %.2f sequences/s%n",
+                endTime - startTime, sequence.getCount(), getThroughput()));
+        out.append(String.format(Locale.ROOT, "%-30s %8s %8s %8s %8s %8s %8s %8s %8s %8s%n", "step", "count",
+                "errors", "rps", "mean", "p50", "p90", "p95", "p99", "max"));
+        writeRow(out, sequence);
+        for (final StepStatistics step : steps.values()) {
+            writeRow(out, step);
+        }
+    }
+
+    /**
+     * Writes one row of the text table.
+     * 
+     * @param out The output for the report.
+     * @param step The statistics to be written.
+     * @throws IOException If the row cannot be written.
+     */
+    private void writeRow(@Nonnull final Appendable out, @Nonnull final StepStatistics step) throws IOException {
+        final QuantileSketch sketch = step.getSketch();
+        out.append(String.format(Locale.ROOT, "%-30s %8d %8d %8.2f %8.0f", step.getId(), step.getCount(),
+                step.getErrorCount(), step.getThroughput(), sketch.getMean()));
+        for (final double quantile : QUANTILES) {
+            out.append(String.format(Locale.ROOT, " %8d", sketch.getQuantile(quantile)));
+        }
+        out.append(String.format(Locale.ROOT, " %8d%n", sketch.getMax()));
+    }
+
+    /**
+     * Get the statistics of the given step, creating them if they do not exist yet.
+     * 
+     * @param id The step identifier.
+     * @return The statistics of the step.
+     */
+    @Nonnull private StepStatistics getOrCreateStep(@Nullable final String id) {
+        StepStatistics step = steps.get(id);
+        if (step == null) {
+            step = new StepStatistics(id);
+            steps.put(id, step);
+        }
+        return step;
+    }
+
+    /**
+     * The latency distribution of one step, or of the whole sequences.
+     */
+    public class StepStatistics {
+
+        /** The step identifier. */
+        @Nullable private final String id;
+
+        /** The number of results. */
+        private long count;
+
+        /** The number of failed results. */
+        private long errorCount;
+
+        /** The sketch of the durations. */
+        @Nonnull private final QuantileSketch sketch;
+
+        /**
+         * Constructor.
+         * @param stepId The step identifier.
+         */
+        protected StepStatistics(@Nullable final String stepId) {
+            id = stepId;
+            sketch = new QuantileSketch();
+        }
+
+        /**
+         * Get the step identifier.
+         * @return The step identifier.
+         */
+        @Nullable public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the number of results.
+         * @return The number of results.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of failed results.
+         * @return The number of failed results.
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Get the number of results per second over the load.
+         * @return The number of results per second, 0 if the duration of the load is not known.
+         */
+        public double getThroughput() {
+            final long duration = endTime - startTime;
+            return duration > 0 ? count * 1000.0 / duration : 0;
+        }
+
+        /**
+         * Get the sketch of the durations.
+         * @return The sketch of the durations in milliseconds.
+         */
+        @Nonnull public QuantileSketch getSketch() {
+            return sketch;
+        }
+
+        /**
+         * Records one result.
+         * @param duration The duration in milliseconds.
+         * @param failed Whether the result failed.
+         */
+        protected void record(final long duration, final boolean failed) {
+            count++;
+            if (failed) {
+                errorCount++;
+            }
+            sketch.record(duration);
+        }
+
+        /**
+         * Merges the given statistics to these ones.
+         * @param other The statistics to be merged.
+         */
+        protected void merge(@Nonnull final StepStatistics other) {
+            count += other.count;
+            errorCount += other.errorCount;
+            sketch.merge(other.sketch);
+        }
+    }
+}
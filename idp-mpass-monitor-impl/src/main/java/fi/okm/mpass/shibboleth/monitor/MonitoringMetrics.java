@@ -0,0 +1,397 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Lock-free counters and histograms of the {@link MonitoringSequenceResult}s, written in the OpenMetrics text format.
+ * 
+ * <p>
+ * For each sequence and each of its steps, the durations are counted to cumulative histogram buckets, and the number
+ * of failures and the timestamps and durations of the latest run and the latest successful run are kept. For the
+ * steps, the time spent in the network phases of the HTTP requests is counted as well. The values are updated with
+ * atomic operations when a result is recorded, and writing them does not block the recording.
+ * </p>
+ */
+public class MonitoringMetrics {
+
+    /** The content type of the OpenMetrics text format. */
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /** The default upper bounds of the histogram buckets in milliseconds. */
+    public static final long[] DEFAULT_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    /** The prefix of the metric names. */
+    public static final String PREFIX = "mpass_monitoring_";
+
+    /** The names of the network phases of the steps, in the order of {@link #getPhaseTimes}. */
+    private static final String[] PHASES = { "cold", "warm", "dns", "connect", "tls", "wait", "download" };
+
+    /** The upper bounds of the histogram buckets in milliseconds, ascending. */
+    @Nonnull private final long[] buckets;
+
+    /** The sequence series mapped by the sequence identifiers. */
+    @Nonnull private final ConcurrentMap<String, Series> sequences;
+
+    /** The step series mapped by the sequence and step identifiers. */
+    @Nonnull private final ConcurrentMap<String, Series> steps;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringMetrics() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param bounds The upper bounds of the histogram buckets in milliseconds.
+     */
+    public MonitoringMetrics(@Nonnull final long[] bounds) {
+        Constraint.isNotNull(bounds, "The bucket bounds cannot be null");
+        buckets = Arrays.copyOf(bounds, bounds.length);
+        Arrays.sort(buckets);
+        sequences = new ConcurrentHashMap<>();
+        steps = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records the given result and its step results. A sequence is failed if any of its steps has failed.
+     * 
+     * @param result The result to be recorded.
+     */
+    public void record(@Nonnull final MonitoringSequenceResult result) {
+        Constraint.isNotNull(result, "The result cannot be null");
+        final String sequenceId = result.getId() == null ? "" : result.getId();
+        boolean failed = false;
+        final List<MonitoringSequenceStepResult> stepResults = result.getStepResults();
+        if (stepResults != null) {
+            for (final MonitoringSequenceStepResult step : stepResults) {
+                final boolean stepFailed = step.getErrorMessage() != null && !step.getErrorMessage().isEmpty();
+                failed = failed || stepFailed;
+                final String stepId = step.getId() == null ? String.valueOf(step.getPhaseId()) : step.getId();
+                final Series series = getSeries(steps, sequenceId + "\n" + stepId, sequenceId, stepId);
+                series.record(step.getEndTime(), step.getEndTime() - step.getStartTime(), stepFailed);
+                series.addPhaseTimes(getPhaseTimes(step));
+            }
+        }
+        getSeries(sequences, sequenceId, sequenceId, null).record(result.getEndTime(),
+                result.getEndTime() - result.getStartTime(), failed);
+    }
+
+    /**
+     * Writes all the metrics in the OpenMetrics text format, terminated by the EOF marker.
+     * 
+     * @param out The output for the metrics.
+     * @throws IOException If the metrics cannot be written.
+     */
+    public void write(@Nonnull final Appendable out) throws IOException {
+        final List<Series> sequenceSeries = sorted(sequences);
+        final List<Series> stepSeries = sorted(steps);
+        writeFamilies(out, "sequence", sequenceSeries);
+        writeFamilies(out, "step", stepSeries);
+        final String name = PREFIX + "step_phase_seconds";
+        writeHeader(out, name, "counter", "The time spent in the network phases of the step requests.");
+        out.append("# UNIT ").append(name).append(" seconds\n");
+        for (final Series series : stepSeries) {
+            for (int i = 0; i < PHASES.length; i++) {
+                writeSample(out, name + "_total", series.labels + ",phase=\"" + PHASES[i] + "\"",
+                        seconds(series.phaseTimes.get(i)));
+            }
+        }
+        out.append("# EOF\n");
+    }
+
+    /**
+     * Get the network phase times of the given step, in the order of {@link #PHASES}.
+     * 
+     * @param step The step result.
+     * @return The phase times in milliseconds.
+     */
+    @Nonnull private static long[] getPhaseTimes(@Nonnull final MonitoringSequenceStepResult step) {
+        return new long[] { step.getColdRequestTime(), step.getWarmRequestTime(), step.getDnsTime(),
+            step.getConnectTime(), step.getTlsTime(), step.getWaitTime(), step.getDownloadTime(), };
+    }
+
+    /**
+     * Writes the metric families common to the sequences and the steps.
+     * 
+     * @param out The output for the metrics.
+     * @param kind The kind of the series, either <code>sequence</code> or <code>step</code>.
+     * @param series The series to be written.
+     * @throws IOException If the metrics cannot be written.
+     */
+    private void writeFamilies(@Nonnull final Appendable out, @Nonnull final String kind,
+            @Nonnull final List<Series> series) throws IOException {
+        final String prefix = PREFIX + kind + "_";
+
+        String name = prefix + "duration_seconds";
+        writeHeader(out, name, "histogram", "The duration of the monitoring " + kind + "s.");
+        out.append("# UNIT ").append(name).append(" seconds\n");
+        for (final Series item : series) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += item.counts.get(i);
+                writeSample(out, name + "_bucket", item.labels + ",le=\"" + seconds(buckets[i]) + "\"",
+                        Long.toString(cumulative));
+            }
+            cumulative += item.counts.get(buckets.length);
+            writeSample(out, name + "_bucket", item.labels + ",le=\"+Inf\"", Long.toString(cumulative));
+            writeSample(out, name + "_count", item.labels, Long.toString(cumulative));
+            writeSample(out, name + "_sum", item.labels, seconds(item.sum.get()));
+        }
+
+        name = prefix + "errors";
+        writeHeader(out, name, "counter", "The number of failed monitoring " + kind + "s.");
+        for (final Series item : series) {
+            writeSample(out, name + "_total", item.labels, Long.toString(item.errors.get()));
+        }
+
+        name = prefix + "last_duration_seconds";
+        writeHeader(out, name, "gauge", "The duration of the latest monitoring " + kind + ".");
+        out.append("# UNIT ").append(name).append(" seconds\n");
+        for (final Series item : series) {
+            writeSample(out, name, item.labels, seconds(item.lastDuration.get()));
+        }
+
+        name = prefix + "last_run_timestamp_seconds";
+        writeHeader(out, name, "gauge", "The end time of the latest monitoring " + kind + ".");
+        out.append("# UNIT ").append(name).append(" seconds\n");
+        for (final Series item : series) {
+            writeSample(out, name, item.labels, seconds(item.lastRun.get()));
+        }
+
+        name = prefix + "last_success_timestamp_seconds";
+        writeHeader(out, name, "gauge", "The end time of the latest successful monitoring " + kind + ".");
+        out.append("# UNIT ").append(name).append(" seconds\n");
+        for (final Series item : series) {
+            final long lastSuccess = item.lastSuccess.get();
+            if (lastSuccess > 0) {
+                writeSample(out, name, item.labels, seconds(lastSuccess));
+            }
+        }
+    }
+
+    /**
+     * Writes the type and help lines of a metric family.
+     * 
+     * @param out The output for the metrics.
+     * @param name The name of the metric family.
+     * @param type The type of the metric family.
+     * @param help The description of the metric family.
+     * @throws IOException If the lines cannot be written.
+     */
+    private static void writeHeader(@Nonnull final Appendable out, @Nonnull final String name,
+            @Nonnull final String type, @Nonnull final String help) throws IOException {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    /**
+     * Writes one sample line.
+     * 
+     * @param out The output for the metrics.
+     * @param name The name of the sample.
+     * @param labels The escaped labels of the sample, without braces.
+     * @param value The value of the sample.
+     * @throws IOException If the line cannot be written.
+     */
+    private static void writeSample(@Nonnull final Appendable out, @Nonnull final String name,
+            @Nonnull final String labels, @Nonnull final String value) throws IOException {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Formats the given milliseconds as seconds.
+     * 
+     * @param millis The milliseconds.
+     * @return The seconds with three decimals.
+     */
+    @Nonnull protected static String seconds(final long millis) {
+        final StringBuilder builder = new StringBuilder();
+        final long abs = Math.abs(millis);
+        if (millis < 0) {
+            builder.append('-');
+        }
+        builder.append(abs / 1000).append('.');
+        final long fraction = abs % 1000;
+        if (fraction < 100) {
+            builder.append(fraction < 10 ? "00" : "0");
+        }
+        return builder.append(fraction).toString();
+    }
+
+    /**
+     * Escapes the given label value.
+     * 
+     * @param value The label value.
+     * @return The value with the backslashes, double quotes and line feeds escaped.
+     */
+    @Nonnull protected static String escape(@Nonnull final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Get the series for the given key, creating it if it does not exist yet.
+     * 
+     * @param map The series mapped by their keys.
+     * @param key The key of the series.
+     * @param sequenceId The sequence identifier.
+     * @param stepId The step identifier, null for the sequence series.
+     * @return The series.
+     */
+    @Nonnull private Series getSeries(@Nonnull final ConcurrentMap<String, Series> map, @Nonnull final String key,
+            @Nonnull final String sequenceId, @Nullable final String stepId) {
+        Series series = map.get(key);
+        if (series == null) {
+            final Series newSeries = new Series(sequenceId, stepId, buckets);
+            series = map.putIfAbsent(key, newSeries);
+            if (series == null) {
+                series = newSeries;
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Get the series ordered by their keys.
+     * 
+     * @param map The series mapped by their keys.
+     * @return The ordered series.
+     */
+    @Nonnull private static List<Series> sorted(@Nonnull final Map<String, Series> map) {
+        return new ArrayList<>(new TreeMap<>(map).values());
+    }
+
+    /**
+     * The counters and histogram of one sequence or step.
+     */
+    private static class Series {
+
+        /** The escaped labels of the series, without braces. */
+        @Nonnull private final String labels;
+
+        /** The upper bounds of the histogram buckets in milliseconds. */
+        @Nonnull private final long[] bounds;
+
+        /** The non-cumulative counts of the histogram buckets, the last one being the +Inf bucket. */
+        @Nonnull private final AtomicLongArray counts;
+
+        /** The sum of the durations in milliseconds. */
+        @Nonnull private final AtomicLong sum = new AtomicLong();
+
+        /** The number of failures. */
+        @Nonnull private final AtomicLong errors = new AtomicLong();
+
+        /** The duration of the latest run in milliseconds. */
+        @Nonnull private final AtomicLong lastDuration = new AtomicLong();
+
+        /** The end time of the latest run in milliseconds. */
+        @Nonnull private final AtomicLong lastRun = new AtomicLong();
+
+        /** The end time of the latest successful run in milliseconds. */
+        @Nonnull private final AtomicLong lastSuccess = new AtomicLong();
+
+        /** The sums of the network phase times in milliseconds. */
+        @Nonnull private final AtomicLongArray phaseTimes = new AtomicLongArray(PHASES.length);
+
+        /**
+         * Constructor.
+         * @param sequenceId The sequence identifier.
+         * @param stepId The step identifier, null for a sequence.
+         * @param buckets The upper bounds of the histogram buckets in milliseconds.
+         */
+        private Series(@Nonnull final String sequenceId, @Nullable final String stepId,
+                @Nonnull final long[] buckets) {
+            labels = "sequence=\"" + escape(sequenceId) + "\""
+                    + (stepId == null ? "" : ",step=\"" + escape(stepId) + "\"");
+            bounds = buckets;
+            counts = new AtomicLongArray(buckets.length + 1);
+        }
+
+        /**
+         * Records one run.
+         * @param end The end time of the run in milliseconds.
+         * @param duration The duration of the run in milliseconds.
+         * @param failed Whether the run failed.
+         */
+        private void record(final long end, final long duration, final boolean failed) {
+            int index = Arrays.binarySearch(bounds, duration);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            counts.incrementAndGet(index);
+            sum.addAndGet(duration);
+            if (failed) {
+                errors.incrementAndGet();
+            } else {
+                updateMax(lastSuccess, end);
+            }
+            lastDuration.set(duration);
+            updateMax(lastRun, end);
+        }
+
+        /**
+         * Adds the given network phase times.
+         * @param times The phase times in milliseconds.
+         */
+        private void addPhaseTimes(@Nonnull final long[] times) {
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] != 0) {
+                    phaseTimes.addAndGet(i, times[i]);
+                }
+            }
+        }
+
+        /**
+         * Sets the given value if it is greater than the current one.
+         * @param target The value to be updated.
+         * @param value The candidate value.
+         */
+        private static void updateMax(@Nonnull final AtomicLong target, final long value) {
+            long current = target.get();
+            while (value > current && !target.compareAndSet(current, value)) {
+                current = target.get();
+            }
+        }
+    }
+}
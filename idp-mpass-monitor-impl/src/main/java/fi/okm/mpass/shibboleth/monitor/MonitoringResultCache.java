@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A thread-safe in-memory cache for {@link MonitoringSequenceResult}s. The results are kept in a bounded ring buffer
+ * per sequence identifier: when the buffer is full, the oldest result is overwritten.
+ */
+public class MonitoringResultCache {
+
+    /** The default number of results kept per sequence. */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /** The identifier used for the results without sequence identifier. */
+    private static final String NULL_ID = "";
+
+    /** The number of results kept per sequence. */
+    @Positive private final int capacity;
+
+    /** The ring buffers mapped by the sequence identifiers. */
+    @Nonnull private final ConcurrentMap<String, ResultRing> rings;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringResultCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     * @param resultCapacity The number of results kept per sequence.
+     */
+    public MonitoringResultCache(@Positive final int resultCapacity) {
+        capacity = (int) Constraint.isGreaterThan(0, resultCapacity, "The capacity must be greater than 0");
+        rings = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the number of results kept per sequence.
+     * @return The number of results kept per sequence.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a new result to the ring buffer of its sequence.
+     * @param result What to add.
+     */
+    public void addResult(@Nonnull final MonitoringSequenceResult result) {
+        Constraint.isNotNull(result, "The result cannot be null");
+        final String id = toKey(result.getId());
+        ResultRing ring = rings.get(id);
+        if (ring == null) {
+            final ResultRing newRing = new ResultRing(capacity);
+            ring = rings.putIfAbsent(id, newRing);
+            if (ring == null) {
+                ring = newRing;
+            }
+        }
+        ring.add(result);
+    }
+
+    /**
+     * Get the latest result for the given sequence.
+     * @param sequenceId The sequence identifier.
+     * @return The latest result, or null if none exists.
+     */
+    @Nullable public MonitoringSequenceResult getLatestResult(@Nullable final String sequenceId) {
+        final ResultRing ring = rings.get(toKey(sequenceId));
+        return ring == null ? null : ring.getLatest();
+    }
+
+    /**
+     * Get the cached results for the given sequence.
+     * @param sequenceId The sequence identifier.
+     * @return The results from the oldest to the latest, never null.
+     */
+    @Nonnull public List<MonitoringSequenceResult> getResults(@Nullable final String sequenceId) {
+        final ResultRing ring = rings.get(toKey(sequenceId));
+        return ring == null ? Collections.<MonitoringSequenceResult>emptyList() : ring.getAll();
+    }
+
+    /**
+     * Get the latest result for each of the cached sequences.
+     * @return The latest results, never null.
+     */
+    @Nonnull public List<MonitoringSequenceResult> getLatestResults() {
+        final List<MonitoringSequenceResult> results = new ArrayList<>();
+        for (final ResultRing ring : rings.values()) {
+            final MonitoringSequenceResult latest = ring.getLatest();
+            if (latest != null) {
+                results.add(latest);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Get the identifiers of the cached sequences.
+     * @return The identifiers of the cached sequences.
+     */
+    @Nonnull public Set<String> getSequenceIds() {
+        return Collections.unmodifiableSet(rings.keySet());
+    }
+
+    /**
+     * Converts the sequence identifier to a map key.
+     * @param sequenceId The sequence identifier.
+     * @return The map key.
+     */
+    @Nonnull private static String toKey(@Nullable final String sequenceId) {
+        return sequenceId == null ? NULL_ID : sequenceId;
+    }
+
+    /**
+     * A fixed-size ring buffer of results.
+     */
+    private static final class ResultRing {
+
+        /** The buffer. */
+        @Nonnull private final MonitoringSequenceResult[] buffer;
+
+        /** The position for the next result. */
+        private int next;
+
+        /** The number of results in the buffer. */
+        private int size;
+
+        /**
+         * Constructor.
+         * @param ringCapacity The size of the buffer.
+         */
+        private ResultRing(final int ringCapacity) {
+            buffer = new MonitoringSequenceResult[ringCapacity];
+        }
+
+        /**
+         * Add a result, overwriting the oldest one if the buffer is full.
+         * @param result What to add.
+         */
+        private synchronized void add(@Nonnull final MonitoringSequenceResult result) {
+            buffer[next] = result;
+            next = (next + 1) % buffer.length;
+            if (size < buffer.length) {
+                size++;
+            }
+        }
+
+        /**
+         * Get the latest result.
+         * @return The latest result, or null if the buffer is empty.
+         */
+        @Nullable private synchronized MonitoringSequenceResult getLatest() {
+            return size == 0 ? null : buffer[(next - 1 + buffer.length) % buffer.length];
+        }
+
+        /**
+         * Get all the results from the oldest to the latest.
+         * @return All the results.
+         */
+        @Nonnull private synchronized List<MonitoringSequenceResult> getAll() {
+            final List<MonitoringSequenceResult> results = new ArrayList<>(size);
+            final int first = (next - size + buffer.length) % buffer.length;
+            for (int i = 0; i < size; i++) {
+                results.add(buffer[(first + i) % buffer.length]);
+            }
+            return results;
+        }
+    }
+}
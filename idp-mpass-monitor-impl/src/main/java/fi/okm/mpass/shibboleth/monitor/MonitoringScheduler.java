@@ -0,0 +1,290 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Runs the configured {@link MonitoringSequence}s in the background and stores their results to a
+ * {@link MonitoringResultCache}.
+ * 
+ * <p>
+ * Each sequence is run at the configured interval, randomized with the configured jitter so that the sequences
+ * do not hit the upstream sources simultaneously. The next run is scheduled only after the previous one has
+ * finished, so that slow runs cannot pile up.
+ * </p>
+ */
+public class MonitoringScheduler extends AbstractIdentifiableInitializableComponent {
+
+    /** The default interval between the runs of a sequence in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 60000;
+
+    /** The default maximum jitter added to or subtracted from the interval in milliseconds. */
+    public static final long DEFAULT_JITTER = 5000;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringScheduler.class);
+
+    /** The sequences to be run. */
+    @Nonnull @NonnullElements private List<MonitoringSequence> sequences;
+
+    /** The cache where the results are stored. */
+    @Nonnull private MonitoringResultCache resultCache;
+
+    /** The in-memory statistics where the results are recorded. */
+    @Nullable private MonitoringStatistics statistics;
+
+    /** The metrics where the results are recorded. */
+    @Nullable private MonitoringMetrics metrics;
+
+    /** The delay before the first runs in milliseconds. */
+    @Duration @NonNegative private long initialDelay;
+
+    /** The interval between the runs of a sequence in milliseconds. */
+    @Duration @Positive private long interval;
+
+    /** The maximum jitter added to or subtracted from the interval in milliseconds. */
+    @Duration @NonNegative private long jitter;
+
+    /** The number of threads running the sequences. */
+    @Positive private int threads;
+
+    /** The executor scheduling the runs. */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringScheduler() {
+        super();
+        sequences = new ArrayList<>();
+        resultCache = new MonitoringResultCache();
+        interval = DEFAULT_INTERVAL;
+        jitter = DEFAULT_JITTER;
+        threads = 1;
+    }
+
+    /**
+     * Set the sequences to be run.
+     * @param newSequences What to set.
+     */
+    public void setSequences(@Nonnull @NonnullElements final List<MonitoringSequence> newSequences) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequences = new ArrayList<>(Constraint.isNotNull(newSequences, "The sequences cannot be null"));
+    }
+
+    /**
+     * Get the sequences to be run.
+     * @return The sequences to be run.
+     */
+    @Nonnull @NonnullElements public List<MonitoringSequence> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Set the cache where the results are stored.
+     * @param cache What to set.
+     */
+    public void setResultCache(@Nonnull final MonitoringResultCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        resultCache = Constraint.isNotNull(cache, "The result cache cannot be null");
+    }
+
+    /**
+     * Get the cache where the results are stored.
+     * @return The cache where the results are stored.
+     */
+    @Nonnull public MonitoringResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Set the in-memory statistics where the results are recorded.
+     * @param newStatistics What to set.
+     */
+    public void setStatistics(@Nullable final MonitoringStatistics newStatistics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        statistics = newStatistics;
+    }
+
+    /**
+     * Get the in-memory statistics where the results are recorded.
+     * @return The in-memory statistics where the results are recorded, null if not configured.
+     */
+    @Nullable public MonitoringStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Set the metrics where the results are recorded.
+     * @param newMetrics What to set.
+     */
+    public void setMetrics(@Nullable final MonitoringMetrics newMetrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metrics = newMetrics;
+    }
+
+    /**
+     * Set the delay before the first runs in milliseconds. Defaults to 0.
+     * @param delay What to set.
+     */
+    public void setInitialDelay(@Duration @NonNegative final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        initialDelay = Constraint.isGreaterThanOrEqual(0, delay, "Initial delay must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the interval between the runs of a sequence in milliseconds. Defaults to one minute.
+     * @param newInterval What to set.
+     */
+    public void setInterval(@Duration @Positive final long newInterval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        interval = Constraint.isGreaterThan(0, newInterval, "Interval must be greater than 0");
+    }
+
+    /**
+     * Set the maximum jitter added to or subtracted from the interval in milliseconds. Defaults to 5 seconds.
+     * @param newJitter What to set.
+     */
+    public void setJitter(@Duration @NonNegative final long newJitter) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        jitter = Constraint.isGreaterThanOrEqual(0, newJitter, "Jitter must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the number of threads running the sequences. Defaults to 1.
+     * @param newThreads What to set.
+     */
+    public void setThreads(@Positive final int newThreads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        threads = (int) Constraint.isGreaterThan(0, newThreads, "Number of threads must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (sequences.isEmpty()) {
+            throw new ComponentInitializationException("No monitoring sequences configured");
+        }
+        if (jitter >= interval) {
+            throw new ComponentInitializationException("Jitter must be smaller than the interval");
+        }
+        scheduler = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory("monitoring-scheduler"));
+        for (final MonitoringSequence sequence : sequences) {
+            scheduleRun(sequence, initialDelay + randomJitter(0, jitter));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Runs the given sequence and stores its result to the cache, the statistics and the metrics.
+     * @param sequence The sequence to be run.
+     * @return The result for the sequence.
+     */
+    @Nonnull public MonitoringSequenceResult runSequence(@Nonnull final MonitoringSequence sequence) {
+        log.debug("Running the monitoring sequence {}", sequence.getId());
+        final MonitoringSequenceResult result = sequence.run();
+        resultCache.addResult(result);
+        if (statistics != null) {
+            statistics.record(result);
+        }
+        if (metrics != null) {
+            metrics.record(result);
+        }
+        return result;
+    }
+
+    /**
+     * Schedules a run for the given sequence. The run schedules the next one when it has finished.
+     * @param sequence The sequence to be run.
+     * @param delay The delay before the run in milliseconds.
+     */
+    private void scheduleRun(@Nonnull final MonitoringSequence sequence, final long delay) {
+        final ScheduledExecutorService executor = scheduler;
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runSequence(sequence);
+                    } catch (final RuntimeException e) {
+                        log.error("Unexpected error while running the monitoring sequence {}", sequence.getId(), e);
+                    } finally {
+                        scheduleRun(sequence, interval + randomJitter(-jitter, jitter));
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            log.debug("The scheduler has been shut down, not scheduling {}", sequence.getId());
+        }
+    }
+
+    /**
+     * Get a random jitter between the given bounds.
+     * @param min The minimum jitter (inclusive).
+     * @param max The maximum jitter (inclusive).
+     * @return The random jitter.
+     */
+    private long randomJitter(final long min, final long max) {
+        if (max <= min) {
+            return min;
+        }
+        return min + ThreadLocalRandom.current().nextLong(max - min + 1);
+    }
+}
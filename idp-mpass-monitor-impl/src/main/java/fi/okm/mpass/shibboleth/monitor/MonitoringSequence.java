@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceHopResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A monitoring sequence: the initial URL and the {@link SequenceStepResolver}s to be run one after another.
+ */
+public class MonitoringSequence {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringSequence.class);
+
+    /** The identifier for the monitoring sequence. */
+    private String id;
+
+    /** The initial URL for the initial monitoring step. */
+    private String initialUrl;
+
+    /** The list of attached resolvers. */
+    @Nonnull private List<SequenceStepResolver> resolvers;
+
+    /** The time budget for a single run in milliseconds, 0 for no deadline. */
+    @Duration @NonNegative private long timeout;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringSequence() {
+        resolvers = new ArrayList<>();
+    }
+
+    /**
+     * Get the identifier for the monitoring sequence.
+     * @return The identifier for the monitoring sequence.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Set the identifier for the monitoring sequence.
+     * @param newId What to set.
+     */
+    public void setId(final String newId) {
+        id = newId;
+    }
+
+    /**
+     * Get the initial URL for the initial monitoring step.
+     * @return The initial URL for the initial monitoring step.
+     */
+    public String getInitialUrl() {
+        return initialUrl;
+    }
+
+    /**
+     * Set the initial URL for the initial monitoring step.
+     * @param url What to set.
+     */
+    public void setInitialUrl(@Nonnull @NotEmpty final String url) {
+        initialUrl = Constraint.isNotEmpty(url, "The initial URL cannot be empty");
+    }
+
+    /**
+     * Get the list of attached resolvers.
+     * @return The list of attached resolvers.
+     */
+    @Nonnull public List<SequenceStepResolver> getResolvers() {
+        return resolvers;
+    }
+
+    /**
+     * Set the list of attached resolvers.
+     * @param newResolvers What to set.
+     */
+    public void setResolvers(@Nonnull final List<SequenceStepResolver> newResolvers) {
+        resolvers = Constraint.isNotNull(newResolvers, "The list of resolvers cannot be null");
+    }
+
+    /**
+     * Get the time budget for a single run.
+     * @return The time budget for a single run in milliseconds, 0 for no deadline.
+     */
+    @Duration @NonNegative public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the time budget for a single run in milliseconds. The remaining time limits the timeouts of each request,
+     * and the request in flight is aborted when the deadline passes. Defaults to 0, i.e. no deadline.
+     * @param budget What to set.
+     */
+    public void setTimeout(@Duration @NonNegative final long budget) {
+        timeout = Constraint.isGreaterThanOrEqual(0, budget, "The timeout must be non-negative");
+    }
+
+    /**
+     * Runs the sequence with a new {@link HttpContext} and an empty cookie store.
+     * @return The result for the sequence.
+     */
+    @Nonnull public MonitoringSequenceResult run() {
+        final HttpContext context = HttpClientContext.create();
+        final CookieStore cookieStore = new BasicCookieStore();
+        context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
+        return run(context);
+    }
+
+    /**
+     * Runs the sequence with the given {@link HttpContext}. The sequence is stopped after the first failing step.
+     * Consecutive resolvers with the same identifier are recorded as a single step. The time spent in the HTTP
+     * requests over new and reused connections, as well as in their network phases, is recorded separately for each
+     * step, together with the individual requests (hops). If a timeout has been set, or the context already contains
+     * a {@link SequenceDeadline}, the step running when the earlier deadline passes is aborted and recorded as timed
+     * out.
+     * 
+     * @param context The context containing for instance cookies.
+     * @return The result for the sequence.
+     */
+    @Nonnull public MonitoringSequenceResult run(@Nonnull final HttpContext context) {
+        final MonitoringSequenceResult seqResult = new MonitoringSequenceResult();
+        seqResult.setId(id);
+        seqResult.setStartTime(System.currentTimeMillis());
+        final SequenceStep initial = new SequenceStep();
+        initial.setUrl(initialUrl);
+        final SequenceDeadline outer = SequenceDeadline.get(context);
+        final SequenceDeadline deadline = timeout > 0 && (outer == null || outer.getRemaining() > timeout)
+                ? new SequenceDeadline(timeout) : null;
+        if (deadline != null) {
+            context.setAttribute(SequenceDeadline.CONTEXT_KEY, deadline);
+        }
+        try {
+            runSteps(context, seqResult, initial);
+        } finally {
+            if (deadline != null) {
+                deadline.cancel();
+                if (outer != null) {
+                    context.setAttribute(SequenceDeadline.CONTEXT_KEY, outer);
+                } else {
+                    context.removeAttribute(SequenceDeadline.CONTEXT_KEY);
+                }
+            }
+        }
+        seqResult.setEndTime(System.currentTimeMillis());
+        return seqResult;
+    }
+
+    /**
+     * Runs the resolvers until the first failing step. The phase identifier of each step result is its position in
+     * the sequence, starting from 1.
+     * 
+     * @param context The context containing for instance cookies.
+     * @param seqResult The result for the sequence, where the step results are added.
+     * @param initialStep The initial step.
+     */
+    protected void runSteps(@Nonnull final HttpContext context, @Nonnull final MonitoringSequenceResult seqResult,
+            @Nonnull final SequenceStep initialStep) {
+        SequenceStep initial = initialStep;
+        boolean errorFound = false;
+        for (int i = 0; i < resolvers.size() && !errorFound; i++) {
+            final SequenceStepResolver resolver = resolvers.get(i);
+            final MonitoringSequenceStepResult stepResult;
+            final int resultsSize = seqResult.getStepResults().size();
+            final boolean editExisting;
+            if (i > 0 && resolver.getId().equals(seqResult.getStepResults().get(resultsSize - 1).getId())) {
+                stepResult = seqResult.getStepResults().get(resultsSize - 1);
+                editExisting = true;
+            } else {
+                stepResult = new MonitoringSequenceStepResult();
+                stepResult.setStartTime(System.currentTimeMillis());
+                stepResult.setId(resolver.getId());
+                stepResult.setPhaseId(resultsSize + 1);
+                editExisting = false;
+            }
+            log.debug("Performing step {} : {}", i, initial.toString());
+            final ConnectionTimings timings = new ConnectionTimings();
+            context.setAttribute(ConnectionTimings.CONTEXT_KEY, timings);
+            try {
+                initial = resolver.resolve(context, initial);
+            } catch (SequenceTimeoutException e) {
+                log.warn("The step {} ran out of time", resolver.getId(), e);
+                stepResult.setErrorMessage(e.getMessage());
+                stepResult.setTimedOut(true);
+                errorFound = true;
+            } catch (ResponseValidatorException e) {
+                log.warn("Response validation failed", e);
+                log.trace("The full response was {}", e.getResponseStr());
+                stepResult.setErrorMessage(e.getMessage());
+                errorFound = true;
+            } finally {
+                context.removeAttribute(ConnectionTimings.CONTEXT_KEY);
+            }
+            stepResult.setColdRequestTime(stepResult.getColdRequestTime() + timings.getColdTime());
+            stepResult.setWarmRequestTime(stepResult.getWarmRequestTime() + timings.getWarmTime());
+            stepResult.setDnsTime(stepResult.getDnsTime() + timings.getDnsTime());
+            stepResult.setConnectTime(stepResult.getConnectTime() + timings.getConnectTime());
+            stepResult.setTlsTime(stepResult.getTlsTime() + timings.getTlsTime());
+            stepResult.setWaitTime(stepResult.getWaitTime() + timings.getWaitTime());
+            stepResult.setDownloadTime(stepResult.getDownloadTime() + timings.getDownloadTime());
+            for (final MonitoringSequenceHopResult hop : timings.getHops()) {
+                stepResult.addHop(hop);
+            }
+            stepResult.setEndTime(System.currentTimeMillis());
+            if (editExisting) {
+                seqResult.getStepResults().set(resultsSize - 1, stepResult);
+            } else {
+                seqResult.addStepResult(stepResult);
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.QuantileSketch;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Thread-safe in-memory statistics of the {@link MonitoringSequenceResult}s over sliding windows.
+ * 
+ * <p>
+ * The results of each sequence and each of its steps are aggregated to one-minute buckets covering the last hour and
+ * to one-hour buckets covering the last week, each bucket containing the number of results, the number of failed
+ * results and a {@link QuantileSketch} of the durations. A window is served by merging the buckets it covers, so that
+ * the cost of a query does not depend on the number of results. The windows are aligned to the bucket boundaries:
+ * for instance the one-hour window consists of the current minute and the 59 previous ones.
+ * </p>
+ */
+public class MonitoringStatistics {
+
+    /** The phase identifier for the statistics of the whole sequences, not colliding with the step phases. */
+    public static final int SEQUENCE_PHASE_ID = -1;
+
+    /** The length of a minute bucket in milliseconds. */
+    private static final long MINUTE = 60L * 1000;
+
+    /** The length of an hour bucket in milliseconds. */
+    private static final long HOUR = 60 * MINUTE;
+
+    /** The number of the minute buckets kept per series. */
+    private static final int MINUTE_BUCKETS = 60;
+
+    /** The number of the hour buckets kept per series. */
+    private static final int HOUR_BUCKETS = 7 * 24;
+
+    /**
+     * The supported windows.
+     */
+    public enum Window {
+        /** The last five minutes. */
+        FIVE_MINUTES("5m", MINUTE, 5),
+        /** The last hour. */
+        ONE_HOUR("1h", MINUTE, MINUTE_BUCKETS),
+        /** The last 24 hours. */
+        ONE_DAY("24h", HOUR, 24),
+        /** The last seven days. */
+        SEVEN_DAYS("7d", HOUR, HOUR_BUCKETS);
+
+        /** The name of the window. */
+        @Nonnull private final String windowName;
+
+        /** The length of the buckets covering the window in milliseconds. */
+        private final long bucketLength;
+
+        /** The number of the buckets covering the window. */
+        private final int buckets;
+
+        /**
+         * Constructor.
+         * @param name The name of the window.
+         * @param length The length of the buckets covering the window in milliseconds.
+         * @param count The number of the buckets covering the window.
+         */
+        private Window(@Nonnull final String name, final long length, final int count) {
+            windowName = name;
+            bucketLength = length;
+            buckets = count;
+        }
+
+        /**
+         * Get the name of the window, for instance <code>5m</code>.
+         * @return The name of the window.
+         */
+        @Nonnull public String getName() {
+            return windowName;
+        }
+
+        /**
+         * Get the start of the window ending at the given time.
+         * @param now The end of the window in milliseconds.
+         * @return The start of the window in milliseconds.
+         */
+        public long getStart(final long now) {
+            return floor(now, bucketLength) - (buckets - 1) * bucketLength;
+        }
+
+        /**
+         * Get the window for the given name.
+         * @param name The name of the window.
+         * @return The window, or null if the name is unknown.
+         */
+        @Nullable public static Window fromName(@Nullable final String name) {
+            for (final Window window : values()) {
+                if (window.windowName.equals(name)) {
+                    return window;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** The series mapped by their keys. */
+    @Nonnull private final ConcurrentMap<String, Series> series;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringStatistics() {
+        series = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records the given result and its step results. The results are placed to the buckets by the start time of the
+     * sequence. A sequence is failed if any of its steps has failed.
+     * 
+     * @param result The result to be recorded.
+     */
+    public void record(@Nonnull final MonitoringSequenceResult result) {
+        Constraint.isNotNull(result, "The result cannot be null");
+        final long time = result.getStartTime();
+        boolean failed = false;
+        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
+        if (steps != null) {
+            for (final MonitoringSequenceStepResult step : steps) {
+                final boolean stepFailed = step.getErrorMessage() != null && !step.getErrorMessage().isEmpty();
+                failed = failed || stepFailed;
+                getSeries(result.getId(), step.getPhaseId()).record(time, step.getEndTime() - step.getStartTime(),
+                        stepFailed);
+            }
+        }
+        getSeries(result.getId(), SEQUENCE_PHASE_ID).record(time, result.getEndTime() - result.getStartTime(),
+                failed);
+    }
+
+    /**
+     * Merges aggregated results to the minute buckets, for instance when restoring the statistics from persisted
+     * rollups. The results outside the kept minute buckets are ignored.
+     * 
+     * @param sourceId The sequence identifier.
+     * @param phaseId The phase identifier, {@link #SEQUENCE_PHASE_ID} for the whole sequence.
+     * @param time A time within the minute bucket in milliseconds.
+     * @param count The number of results.
+     * @param errors The number of failed results.
+     * @param sketch The sketch of the durations.
+     */
+    public void mergeMinute(@Nullable final String sourceId, final int phaseId, final long time, final long count,
+            final long errors, @Nonnull final QuantileSketch sketch) {
+        getSeries(sourceId, phaseId).merge(true, time, count, errors, sketch);
+    }
+
+    /**
+     * Merges aggregated results to the hour buckets, for instance when restoring the statistics from persisted
+     * rollups. The results outside the kept hour buckets are ignored.
+     * 
+     * @param sourceId The sequence identifier.
+     * @param phaseId The phase identifier, {@link #SEQUENCE_PHASE_ID} for the whole sequence.
+     * @param time A time within the hour bucket in milliseconds.
+     * @param count The number of results.
+     * @param errors The number of failed results.
+     * @param sketch The sketch of the durations.
+     */
+    public void mergeHour(@Nullable final String sourceId, final int phaseId, final long time, final long count,
+            final long errors, @Nonnull final QuantileSketch sketch) {
+        getSeries(sourceId, phaseId).merge(false, time, count, errors, sketch);
+    }
+
+    /**
+     * Get the statistics of all the sequences and steps over the given window.
+     * 
+     * @param window The window.
+     * @param now The end of the window in milliseconds.
+     * @return The statistics ordered by the sequence and phase identifiers, only containing the series with results
+     * within the window.
+     */
+    @Nonnull public List<Statistic> getStatistics(@Nonnull final Window window, final long now) {
+        Constraint.isNotNull(window, "The window cannot be null");
+        final List<Statistic> statistics = new ArrayList<>();
+        for (final Series item : series.values()) {
+            final Statistic statistic = item.getStatistic(window, now);
+            if (statistic.getCount() > 0) {
+                statistics.add(statistic);
+            }
+        }
+        Collections.sort(statistics, new Comparator<Statistic>() {
+            @Override
+            public int compare(final Statistic first, final Statistic second) {
+                final String firstId = first.getSourceId() == null ? "" : first.getSourceId();
+                final String secondId = second.getSourceId() == null ? "" : second.getSourceId();
+                final int result = firstId.compareTo(secondId);
+                return result != 0 ? result : Integer.compare(first.getPhaseId(), second.getPhaseId());
+            }
+        });
+        return statistics;
+    }
+
+    /**
+     * Get the series for the given sequence and phase, creating it if it does not exist yet.
+     * 
+     * @param sourceId The sequence identifier.
+     * @param phaseId The phase identifier.
+     * @return The series.
+     */
+    @Nonnull private Series getSeries(@Nullable final String sourceId, final int phaseId) {
+        final String key = sourceId + "|" + phaseId;
+        Series item = series.get(key);
+        if (item == null) {
+            final Series newItem = new Series(sourceId, phaseId);
+            item = series.putIfAbsent(key, newItem);
+            if (item == null) {
+                item = newItem;
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Get the start of the bucket containing the given time.
+     * 
+     * @param time The time in milliseconds.
+     * @param length The length of the bucket in milliseconds.
+     * @return The start of the bucket in milliseconds.
+     */
+    private static long floor(final long time, final long length) {
+        final long offset = time % length;
+        return offset < 0 ? time - offset - length : time - offset;
+    }
+
+    /**
+     * The aggregated results of one sequence or step within one bucket.
+     */
+    private static class Bucket {
+
+        /** The start of the bucket in milliseconds. */
+        private long start = Long.MIN_VALUE;
+
+        /** The number of results. */
+        private long count;
+
+        /** The number of failed results. */
+        private long errors;
+
+        /** The sketch of the durations. */
+        @Nullable private QuantileSketch sketch;
+
+        /**
+         * Clears the bucket if it does not start at the given time.
+         * @param bucketStart The start of the bucket in milliseconds.
+         */
+        private void reset(final long bucketStart) {
+            if (start != bucketStart) {
+                start = bucketStart;
+                count = 0;
+                errors = 0;
+                sketch = new QuantileSketch();
+            }
+        }
+    }
+
+    /**
+     * The buckets of one sequence or step.
+     */
+    private static class Series {
+
+        /** The sequence identifier. */
+        @Nullable private final String sourceId;
+
+        /** The phase identifier. */
+        private final int phaseId;
+
+        /** The minute buckets, as a ring indexed by the minute. */
+        @Nonnull private final Bucket[] minutes;
+
+        /** The hour buckets, as a ring indexed by the hour. */
+        @Nonnull private final Bucket[] hours;
+
+        /**
+         * Constructor.
+         * @param source The sequence identifier.
+         * @param phase The phase identifier.
+         */
+        private Series(@Nullable final String source, final int phase) {
+            sourceId = source;
+            phaseId = phase;
+            minutes = newRing(MINUTE_BUCKETS);
+            hours = newRing(HOUR_BUCKETS);
+        }
+
+        /**
+         * Records one result to the minute and hour buckets. A result older than the retained buckets is ignored.
+         * @param time The time of the result in milliseconds.
+         * @param duration The duration in milliseconds.
+         * @param failed Whether the result failed.
+         */
+        private synchronized void record(final long time, final long duration, final boolean failed) {
+            for (final Bucket bucket : new Bucket[] { getBucket(minutes, MINUTE, time),
+                getBucket(hours, HOUR, time), }) {
+                if (bucket == null) {
+                    continue;
+                }
+                bucket.count++;
+                if (failed) {
+                    bucket.errors++;
+                }
+                bucket.sketch.record(duration);
+            }
+        }
+
+        /**
+         * Merges aggregated results to the minute or hour buckets. Results older than the retained buckets are
+         * ignored.
+         * @param toMinutes Whether the minute buckets are used, instead of the hour buckets.
+         * @param time A time within the bucket in milliseconds.
+         * @param count The number of results.
+         * @param errors The number of failed results.
+         * @param sketch The sketch of the durations.
+         */
+        private synchronized void merge(final boolean toMinutes, final long time, final long count,
+                final long errors, @Nonnull final QuantileSketch sketch) {
+            final Bucket bucket = toMinutes ? getBucket(minutes, MINUTE, time) : getBucket(hours, HOUR, time);
+            if (bucket == null) {
+                return;
+            }
+            bucket.count += count;
+            bucket.errors += errors;
+            bucket.sketch.merge(sketch);
+        }
+
+        /**
+         * Merges the buckets covering the given window.
+         * @param window The window.
+         * @param now The end of the window in milliseconds.
+         * @return The statistic for the window.
+         */
+        @Nonnull private synchronized Statistic getStatistic(@Nonnull final Window window, final long now) {
+            final Bucket[] ring = window.bucketLength == MINUTE ? minutes : hours;
+            final long from = window.getStart(now);
+            final long to = floor(now, window.bucketLength);
+            long count = 0;
+            long errors = 0;
+            final QuantileSketch sketch = new QuantileSketch();
+            for (final Bucket bucket : ring) {
+                if (bucket.start >= from && bucket.start <= to) {
+                    count += bucket.count;
+                    errors += bucket.errors;
+                    sketch.merge(bucket.sketch);
+                }
+            }
+            return new Statistic(sourceId, phaseId, count, errors, sketch);
+        }
+
+        /**
+         * Get the bucket for the given time from the given ring, clearing it if it contains an older bucket. The
+         * slot is not touched if it already contains a newer bucket, i.e. the time is older than the ring covers.
+         * @param ring The ring of buckets.
+         * @param length The length of the buckets in milliseconds.
+         * @param time The time in milliseconds.
+         * @return The bucket, or null if the time is older than the bucket in its slot.
+         */
+        @Nullable private static Bucket getBucket(@Nonnull final Bucket[] ring, final long length, final long time) {
+            final long start = floor(time, length);
+            final long slot = start / length - floor(start / length, ring.length);
+            final Bucket bucket = ring[(int) slot];
+            if (start < bucket.start) {
+                return null;
+            }
+            bucket.reset(start);
+            return bucket;
+        }
+
+        /**
+         * Creates a ring of empty buckets.
+         * @param size The size of the ring.
+         * @return The ring.
+         */
+        @Nonnull private static Bucket[] newRing(final int size) {
+            final Bucket[] ring = new Bucket[size];
+            for (int i = 0; i < size; i++) {
+                ring[i] = new Bucket();
+            }
+            return ring;
+        }
+    }
+
+    /**
+     * The statistics of one sequence or step over a window.
+     */
+    public static class Statistic {
+
+        /** The sequence identifier. */
+        @Nullable private final String sourceId;
+
+        /** The phase identifier, {@link MonitoringStatistics#SEQUENCE_PHASE_ID} for the whole sequence. */
+        private final int phaseId;
+
+        /** The number of results. */
+        private final long count;
+
+        /** The number of failed results. */
+        private final long errorCount;
+
+        /** The sketch of the durations. */
+        @Nonnull private final QuantileSketch sketch;
+
+        /**
+         * Constructor.
+         * @param source The sequence identifier.
+         * @param phase The phase identifier.
+         * @param total The number of results.
+         * @param errors The number of failed results.
+         * @param durations The sketch of the durations.
+         */
+        public Statistic(@Nullable final String source, final int phase, final long total, final long errors,
+                @Nonnull final QuantileSketch durations) {
+            sourceId = source;
+            phaseId = phase;
+            count = total;
+            errorCount = errors;
+            sketch = Constraint.isNotNull(durations, "The sketch cannot be null");
+        }
+
+        /**
+         * Get the sequence identifier.
+         * @return The sequence identifier.
+         */
+        @Nullable public String getSourceId() {
+            return sourceId;
+        }
+
+        /**
+         * Get the phase identifier.
+         * @return The phase identifier, {@link MonitoringStatistics#SEQUENCE_PHASE_ID} for the whole sequence.
+         */
+        public int getPhaseId() {
+            return phaseId;
+        }
+
+        /**
+         * Get the number of results.
+         * @return The number of results.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of failed results.
+         * @return The number of failed results.
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Get the share of the successful results.
+         * @return The share of the successful results between 0 and 1, or 1 if there are no results.
+         */
+        public double getSuccessRate() {
+            return count == 0 ? 1 : (double) (count - errorCount) / count;
+        }
+
+        /**
+         * Get the sketch of the durations.
+         * @return The sketch of the durations.
+         */
+        @Nonnull public QuantileSketch getSketch() {
+            return sketch;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpResponse;
+
+import fi.okm.mpass.shibboleth.support.AhoCorasickMatcher;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable chain of {@link ResponseValidator}s validating the contents of a response in one pass. The expected
+ * strings of all the {@link ContentContainsResponseValidator}s are searched with a single
+ * {@link AhoCorasickMatcher}, and the other {@link StreamingResponseValidator}s are fed the same chunks. The
+ * validators not supporting streaming require the full contents to be retained, see {@link #isContentRequired()}.
+ * The validation errors are reported in the order of the validators.
+ */
+public class ResponseValidatorChain {
+
+    /** The validators in this chain. */
+    @Nonnull @NonnullElements private final List<ResponseValidator> validators;
+
+    /** The matcher for the expected strings of the {@link ContentContainsResponseValidator}s. */
+    @Nonnull private final AhoCorasickMatcher matcher;
+
+    /** The index of the pattern in the matcher for each validator, or -1 if the validator is not matched by it. */
+    @Nonnull private final int[] patternIndexes;
+
+    /** Whether any of the validators requires the full contents. */
+    private final boolean contentRequired;
+
+    /**
+     * Constructor.
+     * @param chain The validators in this chain.
+     */
+    public ResponseValidatorChain(@Nonnull @NonnullElements final List<ResponseValidator> chain) {
+        validators = Collections.unmodifiableList(new ArrayList<>(Constraint.isNotNull(chain,
+                "The validators cannot be null")));
+        patternIndexes = new int[validators.size()];
+        Arrays.fill(patternIndexes, -1);
+        final List<String> patterns = new ArrayList<>();
+        boolean required = false;
+        for (int i = 0; i < validators.size(); i++) {
+            final ResponseValidator validator = validators.get(i);
+            if (validator instanceof ContentContainsResponseValidator) {
+                patternIndexes[i] = patterns.size();
+                patterns.add(((ContentContainsResponseValidator) validator).getExpected());
+            } else if (!(validator instanceof StreamingResponseValidator)) {
+                required = true;
+            }
+        }
+        matcher = new AhoCorasickMatcher(patterns);
+        contentRequired = required;
+    }
+
+    /**
+     * Get the validators in this chain.
+     * @return The validators in this chain.
+     */
+    @Nonnull @NonnullElements public List<ResponseValidator> getValidators() {
+        return validators;
+    }
+
+    /**
+     * Get whether any of the validators requires the full contents to be given to
+     * {@link ContentValidation#finish(String)}.
+     * @return Whether the full contents are required.
+     */
+    public boolean isContentRequired() {
+        return contentRequired;
+    }
+
+    /**
+     * Starts the validation of a given response.
+     * @param httpResponse The {@link HttpResponse} object, whose entity is not read yet.
+     * @return The validation for the contents of the response.
+     */
+    @Nonnull public ContentValidation startValidation(@Nonnull final HttpResponse httpResponse) {
+        return new ChainValidation(httpResponse);
+    }
+
+    /**
+     * The validation of one response by all the validators in the chain.
+     */
+    private class ChainValidation implements ContentValidation {
+
+        /** The response being validated. */
+        private final HttpResponse response;
+
+        /** The scan for the expected strings. */
+        private final AhoCorasickMatcher.Scan scan;
+
+        /** The validations of the other streaming validators, null for the rest of the validators. */
+        private final ContentValidation[] validations;
+
+        /**
+         * Constructor.
+         * @param httpResponse The response being validated.
+         */
+        ChainValidation(final HttpResponse httpResponse) {
+            response = httpResponse;
+            scan = matcher.newScan();
+            validations = new ContentValidation[validators.size()];
+            for (int i = 0; i < validations.length; i++) {
+                if (patternIndexes[i] < 0 && validators.get(i) instanceof StreamingResponseValidator) {
+                    validations[i] = ((StreamingResponseValidator) validators.get(i)).startValidation(response);
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void update(final char[] chars, final int offset, final int length) {
+            scan.update(chars, offset, length);
+            for (final ContentValidation validation : validations) {
+                if (validation != null) {
+                    validation.update(chars, offset, length);
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void finish(final String capture) throws ResponseValidatorException {
+            for (int i = 0; i < validations.length; i++) {
+                if (patternIndexes[i] >= 0) {
+                    if (!scan.isFound(patternIndexes[i])) {
+                        ((ContentContainsResponseValidator) validators.get(i)).reportMissing(capture);
+                    }
+                } else if (validations[i] != null) {
+                    validations[i].finish(capture);
+                } else {
+                    validators.get(i).validate(response, capture);
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@
 package fi.okm.mpass.shibboleth.monitor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -33,6 +34,7 @@ import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.okm.mpass.shibboleth.support.HtmlFieldExtractor;
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
@@ -52,6 +54,9 @@ public class SearchKeyResolver extends BaseSequenceStepResolver {
     
     /** The parameter keys which together with values are included in the result step parameters. */
     private final List<String> paramKeys;
+
+    /** The extractor for the URL and the parameter values. */
+    private final HtmlFieldExtractor extractor;
     
     /**
      * Constructor.
@@ -69,26 +74,28 @@ public class SearchKeyResolver extends BaseSequenceStepResolver {
             log.debug("Added param search key {}", paramSearchKeys[i]);
             paramKeys.add(paramSearchKeys[i]);
         }
+        extractor = new HtmlFieldExtractor(Collections.singleton(key), paramKeys);
     }
 
     /** {@inheritDoc} */
     public SequenceStep resolve(final HttpContext context, final SequenceStep startingStep) 
             throws ResponseValidatorException {
-        final String responseStr = resolveStep(context, startingStep, isFollowRedirects()).getResponse();
+        final HtmlFieldExtractor.Scan scan = extractor.newScan();
+        final String responseStr = resolveStep(context, startingStep, isFollowRedirects(), scan).getResponse();
         if (StringSupport.trimOrNull(responseStr) == null) {
             throw new ResponseValidatorException("Empty response content from the server");
         }
         final SequenceStep resultStep = initResultStep();
-        final String url = getValue(responseStr, key);
+        final HtmlFieldExtractor.Result fields = scan.getResult();
+        final String url = fields.getAttribute(key);
         if (StringSupport.trimOrNull(url) == null) {
             throw new ResponseValidatorException("Could not find an URL with the key " + key);
         }
-        final String normalizedUrl = url.replaceAll("&#x3a;", ":").replaceAll("&#x2f;", "/");
-        resultStep.setUrl(completeUrl(context, normalizedUrl));
+        resultStep.setUrl(completeUrl(context, url));
         log.debug("Starting to process parameter keys {}", paramKeys.size());
         for (final String paramKey : paramKeys) {
             log.debug("Processing parameter key {}", paramKey);
-            final String value = getParamValue(responseStr, paramKey);
+            final String value = fields.getField(paramKey);
             if (value != null) {
                 log.debug("Found value {} for {}", value, paramKey);
                 resultStep.getParameters().add(new BasicNameValuePair(paramKey, value));
@@ -96,4 +103,10 @@ public class SearchKeyResolver extends BaseSequenceStepResolver {
         }
         return resultStep;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isResponseContentRequired() {
+        return false;
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The deadline of a single run of a monitoring sequence. The remaining time is used to limit the connect, connection
+ * request and socket timeouts of each HTTP request, and the request in flight when the deadline passes is aborted.
+ * The instance is kept as an attribute in the {@link HttpContext} of the sequence.
+ */
+public class SequenceDeadline {
+
+    /** The attribute name for the instance in the {@link HttpContext}. */
+    public static final String CONTEXT_KEY = SequenceDeadline.class.getName();
+
+    /** The timer aborting the requests in flight when their deadlines pass, shared by all the sequences. */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitoring-deadline"));
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The time budget for the sequence in milliseconds. */
+    private final long timeout;
+
+    /** The deadline as given by {@link System#currentTimeMillis()}. */
+    private final long deadline;
+
+    /** The scheduled expiration. */
+    @Nonnull private final ScheduledFuture<?> expiration;
+
+    /** The request in flight, if any. */
+    @Nullable private HttpUriRequest request;
+
+    /** Whether the deadline has passed. */
+    private boolean expired;
+
+    /**
+     * Constructor. The deadline starts running immediately.
+     * @param budget The time budget for the sequence in milliseconds.
+     */
+    public SequenceDeadline(@Duration @Positive final long budget) {
+        timeout = Constraint.isGreaterThan(0, budget, "The time budget must be greater than 0");
+        deadline = System.currentTimeMillis() + timeout;
+        expiration = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the instance from the given context.
+     * @param context The HTTP context.
+     * @return The deadline, or null if the context does not have one.
+     */
+    @Nullable public static SequenceDeadline get(@Nullable final HttpContext context) {
+        if (context == null) {
+            return null;
+        }
+        final Object value = context.getAttribute(CONTEXT_KEY);
+        return value instanceof SequenceDeadline ? (SequenceDeadline) value : null;
+    }
+
+    /**
+     * Get the time budget for the sequence.
+     * @return The time budget for the sequence in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Get the time remaining until the deadline.
+     * @return The time remaining until the deadline in milliseconds, 0 if it has passed.
+     */
+    public long getRemaining() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Get whether the deadline has passed.
+     * @return Whether the deadline has passed.
+     */
+    public synchronized boolean isExpired() {
+        return expired || getRemaining() == 0;
+    }
+
+    /**
+     * Limits the timeouts of the given configuration to the time remaining until the deadline. The timeouts that are
+     * already shorter are kept as they are.
+     * @param config The request configuration.
+     * @return The limited request configuration.
+     */
+    @Nonnull public RequestConfig limit(@Nonnull final RequestConfig config) {
+        final int remaining = (int) Math.max(1, Math.min(getRemaining(), Integer.MAX_VALUE));
+        return RequestConfig.copy(config)
+                .setConnectTimeout(limit(config.getConnectTimeout(), remaining))
+                .setConnectionRequestTimeout(limit(config.getConnectionRequestTimeout(), remaining))
+                .setSocketTimeout(limit(config.getSocketTimeout(), remaining))
+                .build();
+    }
+
+    /**
+     * Sets the request in flight, to be aborted if the deadline passes before it is released. The request is aborted
+     * immediately if the deadline has already passed.
+     * @param newRequest The request in flight.
+     */
+    public synchronized void track(@Nonnull final HttpUriRequest newRequest) {
+        request = newRequest;
+        if (isExpired()) {
+            newRequest.abort();
+        }
+    }
+
+    /**
+     * Releases the given request once it has been completed.
+     * @param completed The completed request.
+     */
+    public synchronized void release(@Nullable final HttpUriRequest completed) {
+        if (request == completed) {
+            request = null;
+        }
+    }
+
+    /**
+     * Cancels the deadline once the sequence has finished.
+     */
+    public synchronized void cancel() {
+        expiration.cancel(false);
+        request = null;
+    }
+
+    /**
+     * Marks the deadline as passed and aborts the request in flight, if any.
+     */
+    protected synchronized void expire() {
+        expired = true;
+        if (request != null) {
+            request.abort();
+            request = null;
+        }
+    }
+
+    /**
+     * Limits the given timeout to the remaining time.
+     * @param current The current timeout, 0 or negative for an infinite or a system default timeout.
+     * @param remaining The remaining time in milliseconds.
+     * @return The limited timeout.
+     */
+    private static int limit(final int current, final int remaining) {
+        return current > 0 && current < remaining ? current : remaining;
+    }
+}
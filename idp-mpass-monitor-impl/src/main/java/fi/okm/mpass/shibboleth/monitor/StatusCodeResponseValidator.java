@@ -32,7 +32,7 @@ import org.slf4j.LoggerFactory;
 /**
  * A {@link ResponseValidator} that checks whether the response status code has expected value.
  */
-public class StatusCodeResponseValidator implements ResponseValidator {
+public class StatusCodeResponseValidator extends AbstractHeaderResponseValidator {
 
     /** Class logger. */
     @Nonnull
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.opensaml.profile.action.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import com.google.gson.Gson;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics;
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics.Statistic;
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics.Window;
+import fi.okm.mpass.shibboleth.rest.data.ErrorDTO;
+import fi.okm.mpass.shibboleth.rest.data.MonitoringStatisticDTO;
+import fi.okm.mpass.shibboleth.rest.data.MonitoringStatisticsDTO;
+import fi.okm.mpass.shibboleth.support.QuantileSketch;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.net.HttpServletSupport;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * This action writes the {@link MonitoringStatistics} over the window requested with the {@link #PARAM_WINDOW}
+ * parameter as {@link MonitoringStatisticsDTO} JSON to the servlet response. The statistics are served from the
+ * in-memory buckets, so that the database is not queried by the requests.
+ */
+@SuppressWarnings("rawtypes")
+public class BuildMonitoringStatisticsRestResponse extends AbstractProfileAction {
+
+    /** The request parameter for the name of the window. */
+    public static final String PARAM_WINDOW = "window";
+
+    /** The window used if the request does not contain the {@link #PARAM_WINDOW} parameter. */
+    public static final Window DEFAULT_WINDOW = Window.ONE_HOUR;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildMonitoringStatisticsRestResponse.class);
+
+    /** The statistics to be written. */
+    @NonnullAfterInit private MonitoringStatistics statistics;
+
+    /**
+     * Get the statistics to be written.
+     * @return The statistics to be written.
+     */
+    @NonnullAfterInit public MonitoringStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Set the statistics to be written.
+     * @param newStatistics What to set.
+     */
+    public void setStatistics(@Nonnull final MonitoringStatistics newStatistics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        statistics = Constraint.isNotNull(newStatistics, "The statistics cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        log.debug("Initializing");
+        super.doInitialize();
+        if (statistics == null) {
+            throw new ComponentInitializationException("The statistics cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+        HttpServletSupport.addNoCacheHeaders(httpResponse);
+        HttpServletSupport.setUTF8Encoding(httpResponse);
+        HttpServletSupport.setContentType(httpResponse, ContentType.APPLICATION_JSON.toString());
+
+        try {
+            final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
+            final String windowName = StringSupport.trimOrNull(httpRequest.getParameter(PARAM_WINDOW));
+            final Window window = windowName == null ? DEFAULT_WINDOW : Window.fromName(windowName);
+            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
+                out.append(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
+                        + " not allowed", "Only GET is allowed"));
+            } else if (window == null) {
+                log.debug("{}: Unsupported window requested {}", getLogPrefix(), windowName);
+                out.append(makeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Unsupported window " + windowName,
+                        PARAM_WINDOW));
+            } else {
+                final Gson gson = new Gson();
+                out.append(gson.toJson(buildDTO(window, System.currentTimeMillis())));
+                httpResponse.setStatus(HttpStatus.SC_OK);
+            }
+            out.flush();
+        } catch (IOException e) {
+            log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /**
+     * Builds the response object for the given window. The step statistics are attached to the statistics of their
+     * sequence.
+     * 
+     * @param window The window.
+     * @param now The end of the window in milliseconds.
+     * @return The response object.
+     */
+    @Nonnull protected MonitoringStatisticsDTO buildDTO(@Nonnull final Window window, final long now) {
+        final MonitoringStatisticsDTO result = new MonitoringStatisticsDTO();
+        result.setWindow(window.getName());
+        result.setStartTime(window.getStart(now));
+        result.setEndTime(now);
+        final List<MonitoringStatisticDTO> sequences = new ArrayList<>();
+        MonitoringStatisticDTO current = null;
+        for (final Statistic statistic : statistics.getStatistics(window, now)) {
+            final MonitoringStatisticDTO item = toDTO(statistic);
+            if (statistic.getPhaseId() == MonitoringStatistics.SEQUENCE_PHASE_ID) {
+                item.setSteps(new ArrayList<MonitoringStatisticDTO>());
+                sequences.add(item);
+                current = item;
+            } else if (current != null && isSameId(current.getId(), statistic.getSourceId())) {
+                current.getSteps().add(item);
+            }
+        }
+        result.setSequences(sequences);
+        return result;
+    }
+
+    /**
+     * Converts the given statistic to a response object.
+     * 
+     * @param statistic The statistic.
+     * @return The response object.
+     */
+    @Nonnull protected MonitoringStatisticDTO toDTO(@Nonnull final Statistic statistic) {
+        final MonitoringStatisticDTO dto = new MonitoringStatisticDTO();
+        dto.setId(statistic.getSourceId());
+        dto.setPhaseId(statistic.getPhaseId());
+        dto.setCount(statistic.getCount());
+        dto.setErrors(statistic.getErrorCount());
+        dto.setSuccessRate(statistic.getSuccessRate());
+        final QuantileSketch sketch = statistic.getSketch();
+        dto.setP50(sketch.getQuantile(0.5));
+        dto.setP95(sketch.getQuantile(0.95));
+        dto.setP99(sketch.getQuantile(0.99));
+        return dto;
+    }
+
+    /**
+     * Helper method for constructing a {@link ErrorDTO} with desired content and returning it as JSON
+     * string. The given code is also set as a status for {@link HttpServletResponse}.
+     * 
+     * @param code The status code of the error.
+     * @param message The message of the error.
+     * @param fields The fields for the error.
+     * @return The error as JSON.
+     */
+    protected String makeErrorResponse(final int code, final String message, final String fields) {
+        final ErrorDTO errorDTO = new ErrorDTO();
+        errorDTO.setCode(code);
+        errorDTO.setMessage(message);
+        errorDTO.setFields(fields);
+        getHttpServletResponse().setStatus(code);
+        final Gson gson = new Gson();
+        return gson.toJson(errorDTO);
+    }
+
+    /**
+     * Compares the given sequence identifiers.
+     * 
+     * @param first The first identifier.
+     * @param second The second identifier.
+     * @return Whether the identifiers are equal.
+     */
+    private static boolean isSameId(@Nullable final String first, @Nullable final String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,886 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics;
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import fi.okm.mpass.shibboleth.support.QuantileSketch;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Aggregates the monitoring results stored by {@link StoreMonitoringResult} to per-minute, per-hour and per-day
+ * rollup rows, and purges the aged rows.
+ * 
+ * <p>
+ * Each rollup row contains the number of results, the number of failed results and a {@link QuantileSketch} of the
+ * durations for one sequence and one bucket of time. The rows with phase identifier {@link #SEQUENCE_PHASE_ID}
+ * describe the whole sequences, and the other rows their steps. The results are bucketed by the start time of their
+ * sequence, the buckets being aligned to UTC. The minute rows are aggregated from the raw results, the hour rows
+ * from the minute rows and the day rows from the hour rows, so that the sketches are merged without losing accuracy.
+ * </p>
+ * 
+ * <p>
+ * The progress of each resolution is kept in a watermark table: a bucket is aggregated once it has ended and the
+ * settle time has passed, and the results stored after that are not included. The raw results and the minute and
+ * hour rows are purged after their configured retention times, but never before they have been aggregated to the
+ * next resolution.
+ * </p>
+ * 
+ * <p>
+ * If {@link MonitoringStatistics} are configured, they are restored from the minute and hour rows during the
+ * initialization, so that the windowed statistics survive restarts.
+ * </p>
+ */
+public class MonitoringResultRollup extends AbstractIdentifiableInitializableComponent {
+
+    /** The database table name storing the rollup rows. */
+    public static final String TABLE_NAME_ROLLUPS = "mpass_monitoring_rollup";
+
+    /** The database table name storing the rollup watermarks. */
+    public static final String TABLE_NAME_WATERMARKS = "mpass_monitoring_rollup_watermark";
+
+    /** The phase identifier for the rows describing the whole sequences, not colliding with the step phases. */
+    public static final int SEQUENCE_PHASE_ID = -1;
+
+    /** The default interval between the rollup runs in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 60000;
+
+    /** The default time to wait after the end of a bucket before aggregating it in milliseconds. */
+    public static final long DEFAULT_SETTLE_TIME = 300000;
+
+    /** The default retention time for the raw results in milliseconds. */
+    public static final long DEFAULT_RAW_RETENTION = 7L * 24 * 60 * 60 * 1000;
+
+    /** The default retention time for the minute rows in milliseconds. */
+    public static final long DEFAULT_MINUTE_RETENTION = 30L * 24 * 60 * 60 * 1000;
+
+    /** The default retention time for the hour rows in milliseconds. */
+    public static final long DEFAULT_HOUR_RETENTION = 400L * 24 * 60 * 60 * 1000;
+
+    /** The maximum number of buckets aggregated in one transaction. */
+    public static final int BUCKETS_PER_TRANSACTION = 60;
+
+    /**
+     * The resolutions of the rollup rows.
+     */
+    public enum Resolution {
+        /** One minute buckets. */
+        MINUTE(60L * 1000),
+        /** One hour buckets. */
+        HOUR(60L * 60 * 1000),
+        /** One day buckets. */
+        DAY(24L * 60 * 60 * 1000);
+
+        /** The length of the bucket in milliseconds. */
+        private final long length;
+
+        /**
+         * Constructor.
+         * @param bucketLength The length of the bucket in milliseconds.
+         */
+        private Resolution(final long bucketLength) {
+            length = bucketLength;
+        }
+
+        /**
+         * Get the length of the bucket in milliseconds.
+         * @return The length of the bucket in milliseconds.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Get the start of the bucket containing the given time.
+         * @param time The time in milliseconds.
+         * @return The start of the bucket in milliseconds.
+         */
+        public long floor(final long time) {
+            final long offset = time % length;
+            return offset < 0 ? time - offset - length : time - offset;
+        }
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringResultRollup.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** The interval between the rollup runs in milliseconds, 0 for no background runs. */
+    @Duration @NonNegative private long interval;
+
+    /** The time to wait after the end of a bucket before aggregating it in milliseconds. */
+    @Duration @NonNegative private long settleTime;
+
+    /** The retention time for the raw results in milliseconds, 0 for keeping them forever. */
+    @Duration @NonNegative private long rawRetention;
+
+    /** The retention time for the minute rows in milliseconds, 0 for keeping them forever. */
+    @Duration @NonNegative private long minuteRetention;
+
+    /** The retention time for the hour rows in milliseconds, 0 for keeping them forever. */
+    @Duration @NonNegative private long hourRetention;
+
+    /** The in-memory statistics to be restored from the rollup rows during the initialization. */
+    @Nullable private MonitoringStatistics statistics;
+
+    /** The executor running the rollups in the background. */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringResultRollup() {
+        super();
+        interval = DEFAULT_INTERVAL;
+        settleTime = DEFAULT_SETTLE_TIME;
+        rawRetention = DEFAULT_RAW_RETENTION;
+        minuteRetention = DEFAULT_MINUTE_RETENTION;
+        hourRetention = DEFAULT_HOUR_RETENTION;
+    }
+
+    /**
+     * Get the source datasource used to communicate with the database.
+     * 
+     * @return the data source;
+     */
+    @NonnullAfterInit public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Set the source datasource used to communicate with the database.
+     * 
+     * @param source the data source;
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Set the interval between the rollup runs in milliseconds. Defaults to one minute, 0 disables the background
+     * runs.
+     * @param newInterval What to set.
+     */
+    public void setInterval(@Duration @NonNegative final long newInterval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        interval = Constraint.isGreaterThanOrEqual(0, newInterval, "Interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the time to wait after the end of a bucket before aggregating it in milliseconds. Defaults to 5 minutes.
+     * @param time What to set.
+     */
+    public void setSettleTime(@Duration @NonNegative final long time) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        settleTime = Constraint.isGreaterThanOrEqual(0, time, "Settle time must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the retention time for the raw results in milliseconds. Defaults to 7 days, 0 keeps them forever.
+     * @param retention What to set.
+     */
+    public void setRawRetention(@Duration @NonNegative final long retention) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        rawRetention = Constraint.isGreaterThanOrEqual(0, retention, "Retention must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the retention time for the minute rows in milliseconds. Defaults to 30 days, 0 keeps them forever.
+     * @param retention What to set.
+     */
+    public void setMinuteRetention(@Duration @NonNegative final long retention) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        minuteRetention = Constraint.isGreaterThanOrEqual(0, retention,
+                "Retention must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the retention time for the hour rows in milliseconds. Defaults to 400 days, 0 keeps them forever.
+     * @param retention What to set.
+     */
+    public void setHourRetention(@Duration @NonNegative final long retention) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hourRetention = Constraint.isGreaterThanOrEqual(0, retention, "Retention must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the in-memory statistics to be restored from the rollup rows during the initialization.
+     * @param newStatistics What to set.
+     */
+    public void setStatistics(@Nullable final MonitoringStatistics newStatistics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        statistics = newStatistics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (statistics != null) {
+            try {
+                restore(statistics, System.currentTimeMillis());
+            } catch (final SQLException e) {
+                log.warn("Could not restore the monitoring statistics from the rollups", e);
+            }
+        }
+        if (interval > 0) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitoring-rollup"));
+            try {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            rollup();
+                        } catch (final SQLException | RuntimeException e) {
+                            log.error("Could not roll up the monitoring results", e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                throw new ComponentInitializationException("Could not schedule the rollups: " + e.getMessage());
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Aggregates all the settled buckets of all the resolutions and purges the aged rows.
+     * 
+     * @throws SQLException If the database operations fail.
+     */
+    public void rollup() throws SQLException {
+        rollup(System.currentTimeMillis());
+    }
+
+    /**
+     * Aggregates all the buckets settled at the given time and purges the rows aged at the given time.
+     * 
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the database operations fail.
+     */
+    public synchronized void rollup(final long now) throws SQLException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        Long lowerWatermark = null;
+        for (final Resolution resolution : Resolution.values()) {
+            lowerWatermark = rollup(resolution, now, lowerWatermark);
+        }
+        purge(now);
+    }
+
+    /**
+     * Get the watermark of the given resolution: the end of the last aggregated bucket.
+     * 
+     * @param resolution The resolution.
+     * @return The watermark in milliseconds, null if nothing has been aggregated.
+     * @throws SQLException If the database query fails.
+     */
+    @Nullable public Long getWatermark(@Nonnull final Resolution resolution) throws SQLException {
+        try (final Connection dbConn = getConnection()) {
+            return getWatermark(dbConn, resolution);
+        }
+    }
+
+    /**
+     * Merges the aggregated minute and hour rows to the given statistics. The hour buckets of the statistics are
+     * filled from the hour rows and the newer minute rows, and the minute buckets from the minute rows of the last
+     * hour. The results that have not been aggregated yet are not included.
+     * 
+     * @param target The statistics to merge the rows to.
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the database queries fail.
+     */
+    public void restore(@Nonnull final MonitoringStatistics target, final long now) throws SQLException {
+        Constraint.isNotNull(target, "The statistics cannot be null");
+        final Long minuteWatermark = getWatermark(Resolution.MINUTE);
+        if (minuteWatermark == null) {
+            return;
+        }
+        final long weekStart = MonitoringStatistics.Window.SEVEN_DAYS.getStart(now);
+        final long hourStart = MonitoringStatistics.Window.ONE_HOUR.getStart(now);
+        final Long hourWatermark = getWatermark(Resolution.HOUR);
+        long minutesFrom = weekStart;
+        if (hourWatermark != null && hourWatermark > weekStart) {
+            for (final Rollup rollup : getRollups(Resolution.HOUR, weekStart, hourWatermark)) {
+                target.mergeHour(rollup.getSourceId(), rollup.getPhaseId(), rollup.getBucketStart(),
+                        rollup.getCount(), rollup.getErrorCount(), rollup.getSketch());
+            }
+            minutesFrom = hourWatermark;
+        }
+        for (final Rollup rollup : getRollups(Resolution.MINUTE, Math.min(minutesFrom, hourStart),
+                minuteWatermark)) {
+            if (rollup.getBucketStart() >= minutesFrom) {
+                target.mergeHour(rollup.getSourceId(), rollup.getPhaseId(), rollup.getBucketStart(),
+                        rollup.getCount(), rollup.getErrorCount(), rollup.getSketch());
+            }
+            if (rollup.getBucketStart() >= hourStart) {
+                target.mergeMinute(rollup.getSourceId(), rollup.getPhaseId(), rollup.getBucketStart(),
+                        rollup.getCount(), rollup.getErrorCount(), rollup.getSketch());
+            }
+        }
+    }
+
+    /**
+     * Get the rollup rows of the given resolution whose buckets start within the given period.
+     * 
+     * @param resolution The resolution.
+     * @param from The start of the period in milliseconds (inclusive).
+     * @param to The end of the period in milliseconds (exclusive).
+     * @return The rollup rows, ordered by their bucket start times.
+     * @throws SQLException If the database query fails.
+     */
+    @Nonnull public List<Rollup> getRollups(@Nonnull final Resolution resolution, final long from, final long to)
+            throws SQLException {
+        final List<Rollup> rollups = new ArrayList<>();
+        try (final Connection dbConn = getConnection();
+                final PreparedStatement statement = dbConn.prepareStatement("SELECT sourceId, phaseId, bucketStart,"
+                        + " total, errors, sketch FROM " + TABLE_NAME_ROLLUPS + " WHERE resolution = ?"
+                        + " AND bucketStart >= ? AND bucketStart < ? ORDER BY bucketStart")) {
+            statement.setString(1, resolution.name());
+            statement.setLong(2, from);
+            statement.setLong(3, to);
+            try (final ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    rollups.add(new Rollup(set.getString(1), set.getInt(2), set.getLong(3), set.getLong(4),
+                            set.getLong(5), QuantileSketch.fromBytes(set.getBytes(6))));
+                }
+            }
+            dbConn.commit();
+        }
+        return rollups;
+    }
+
+    /**
+     * Aggregates the settled buckets of the given resolution.
+     * 
+     * @param resolution The resolution.
+     * @param now The current time in milliseconds.
+     * @param lowerWatermark The watermark of the next smaller resolution, null for the minute resolution.
+     * @return The watermark of the given resolution after the aggregation, null if nothing has been aggregated.
+     * @throws SQLException If the database operations fail.
+     */
+    @Nullable protected Long rollup(@Nonnull final Resolution resolution, final long now,
+            @Nullable final Long lowerWatermark) throws SQLException {
+        final boolean fromRaw = resolution == Resolution.MINUTE;
+        if (!fromRaw && lowerWatermark == null) {
+            return null;
+        }
+        try (final Connection dbConn = getConnection()) {
+            Long start = getWatermark(dbConn, resolution);
+            if (start == null) {
+                final Long earliest = fromRaw ? getEarliestResult(dbConn) : getEarliestRollup(dbConn,
+                        Resolution.values()[resolution.ordinal() - 1]);
+                if (earliest == null) {
+                    return null;
+                }
+                start = resolution.floor(earliest);
+            }
+            long end = resolution.floor(now - settleTime);
+            if (!fromRaw) {
+                end = Math.min(end, resolution.floor(lowerWatermark));
+            }
+            long watermark = start;
+            while (watermark < end) {
+                final long chunkEnd = Math.min(end, watermark + BUCKETS_PER_TRANSACTION * resolution.getLength());
+                final Map<String, Rollup> rollups = fromRaw ? aggregateResults(dbConn, watermark, chunkEnd)
+                        : aggregateRollups(dbConn, Resolution.values()[resolution.ordinal() - 1], resolution,
+                                watermark, chunkEnd);
+                try {
+                    storeRollups(dbConn, resolution, rollups.values());
+                    storeWatermark(dbConn, resolution, chunkEnd);
+                    dbConn.commit();
+                } catch (final SQLException e) {
+                    dbConn.rollback();
+                    throw e;
+                }
+                log.debug("Stored {} {} rollups until {}", rollups.size(), resolution, chunkEnd);
+                watermark = chunkEnd;
+            }
+            return watermark;
+        }
+    }
+
+    /**
+     * Aggregates the raw results whose sequences started within the given period to minute rollups.
+     * 
+     * @param dbConn The database connection.
+     * @param from The start of the period in milliseconds (inclusive).
+     * @param to The end of the period in milliseconds (exclusive).
+     * @return The rollups mapped by their keys.
+     * @throws SQLException If the database query fails.
+     */
+    @Nonnull protected Map<String, Rollup> aggregateResults(@Nonnull final Connection dbConn, final long from,
+            final long to) throws SQLException {
+        final Map<String, Rollup> rollups = new LinkedHashMap<>();
+        try (final PreparedStatement statement = dbConn.prepareStatement("SELECT r.id, r.sourceId, r.startTime,"
+                + " r.endTime, s.phaseId, s.errorMessage, s.startTime, s.endTime FROM "
+                + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS + " r LEFT JOIN "
+                + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS + " s ON s.resultId = r.id"
+                + " WHERE r.startTime >= ? AND r.startTime < ? ORDER BY r.id")) {
+            statement.setLong(1, from);
+            statement.setLong(2, to);
+            try (final ResultSet set = statement.executeQuery()) {
+                long currentId = -1;
+                String sourceId = null;
+                long bucket = 0;
+                long duration = 0;
+                boolean failed = false;
+                while (set.next()) {
+                    final long id = set.getLong(1);
+                    if (id != currentId) {
+                        if (currentId != -1) {
+                            getRollup(rollups, sourceId, SEQUENCE_PHASE_ID, bucket).add(duration, failed);
+                        }
+                        currentId = id;
+                        sourceId = set.getString(2);
+                        bucket = Resolution.MINUTE.floor(set.getLong(3));
+                        duration = set.getLong(4) - set.getLong(3);
+                        failed = false;
+                    }
+                    final int phaseId = set.getInt(5);
+                    if (!set.wasNull()) {
+                        final String error = set.getString(6);
+                        final boolean stepFailed = error != null && !error.isEmpty();
+                        failed = failed || stepFailed;
+                        getRollup(rollups, sourceId, phaseId, bucket).add(set.getLong(8) - set.getLong(7),
+                                stepFailed);
+                    }
+                }
+                if (currentId != -1) {
+                    getRollup(rollups, sourceId, SEQUENCE_PHASE_ID, bucket).add(duration, failed);
+                }
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Merges the rollups of the given smaller resolution whose buckets start within the given period to the given
+     * larger resolution.
+     * 
+     * @param dbConn The database connection.
+     * @param source The resolution to be merged.
+     * @param target The resolution of the result.
+     * @param from The start of the period in milliseconds (inclusive).
+     * @param to The end of the period in milliseconds (exclusive).
+     * @return The rollups mapped by their keys.
+     * @throws SQLException If the database query fails.
+     */
+    @Nonnull protected Map<String, Rollup> aggregateRollups(@Nonnull final Connection dbConn,
+            @Nonnull final Resolution source, @Nonnull final Resolution target, final long from, final long to)
+                    throws SQLException {
+        final Map<String, Rollup> rollups = new LinkedHashMap<>();
+        try (final PreparedStatement statement = dbConn.prepareStatement("SELECT sourceId, phaseId, bucketStart,"
+                + " total, errors, sketch FROM " + TABLE_NAME_ROLLUPS + " WHERE resolution = ?"
+                + " AND bucketStart >= ? AND bucketStart < ?")) {
+            statement.setString(1, source.name());
+            statement.setLong(2, from);
+            statement.setLong(3, to);
+            try (final ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    getRollup(rollups, set.getString(1), set.getInt(2), target.floor(set.getLong(3)))
+                        .merge(set.getLong(4), set.getLong(5), QuantileSketch.fromBytes(set.getBytes(6)));
+                }
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Purges the raw results, the minute rows and the hour rows that have aged and been aggregated.
+     * 
+     * @param now The current time in milliseconds.
+     * @throws SQLException If the database operations fail.
+     */
+    protected void purge(final long now) throws SQLException {
+        try (final Connection dbConn = getConnection()) {
+            try {
+                final Long minuteWatermark = getWatermark(dbConn, Resolution.MINUTE);
+                if (rawRetention > 0 && minuteWatermark != null) {
+                    final long cutoff = Math.min(now - rawRetention, minuteWatermark);
+                    try (final PreparedStatement steps = dbConn.prepareStatement("DELETE FROM "
+                            + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS + " WHERE resultId IN"
+                            + " (SELECT id FROM " + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS
+                            + " WHERE startTime < ?)");
+                            final PreparedStatement results = dbConn.prepareStatement("DELETE FROM "
+                            + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS + " WHERE startTime < ?")) {
+                        steps.setLong(1, cutoff);
+                        steps.executeUpdate();
+                        results.setLong(1, cutoff);
+                        final int purged = results.executeUpdate();
+                        log.debug("Purged {} raw results started before {}", purged, cutoff);
+                    }
+                }
+                purgeRollups(dbConn, Resolution.MINUTE, minuteRetention, now, getWatermark(dbConn, Resolution.HOUR));
+                purgeRollups(dbConn, Resolution.HOUR, hourRetention, now, getWatermark(dbConn, Resolution.DAY));
+                dbConn.commit();
+            } catch (final SQLException e) {
+                dbConn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Purges the rollups of the given resolution that have aged and been aggregated.
+     * 
+     * @param dbConn The database connection.
+     * @param resolution The resolution.
+     * @param retention The retention time in milliseconds, 0 for keeping the rows forever.
+     * @param now The current time in milliseconds.
+     * @param nextWatermark The watermark of the next larger resolution, null if nothing has been aggregated.
+     * @throws SQLException If the database operation fails.
+     */
+    private void purgeRollups(@Nonnull final Connection dbConn, @Nonnull final Resolution resolution,
+            final long retention, final long now, @Nullable final Long nextWatermark) throws SQLException {
+        if (retention == 0 || nextWatermark == null) {
+            return;
+        }
+        final long cutoff = Math.min(now - retention, nextWatermark);
+        try (final PreparedStatement statement = dbConn.prepareStatement("DELETE FROM " + TABLE_NAME_ROLLUPS
+                + " WHERE resolution = ? AND bucketStart < ?")) {
+            statement.setString(1, resolution.name());
+            statement.setLong(2, cutoff);
+            final int purged = statement.executeUpdate();
+            log.debug("Purged {} {} rollups started before {}", purged, resolution, cutoff);
+        }
+    }
+
+    /**
+     * Stores the given rollups.
+     * 
+     * @param dbConn The database connection.
+     * @param resolution The resolution of the rollups.
+     * @param rollups The rollups.
+     * @throws SQLException If the storage operation fails.
+     */
+    private void storeRollups(@Nonnull final Connection dbConn, @Nonnull final Resolution resolution,
+            @Nonnull final Iterable<Rollup> rollups) throws SQLException {
+        try (final PreparedStatement statement = dbConn.prepareStatement("INSERT INTO " + TABLE_NAME_ROLLUPS
+                + " (resolution, sourceId, phaseId, bucketStart, total, errors, sketch) VALUES (?,?,?,?,?,?,?)")) {
+            int batched = 0;
+            for (final Rollup rollup : rollups) {
+                statement.setString(1, resolution.name());
+                statement.setString(2, rollup.getSourceId());
+                statement.setInt(3, rollup.getPhaseId());
+                statement.setLong(4, rollup.getBucketStart());
+                statement.setLong(5, rollup.getCount());
+                statement.setLong(6, rollup.getErrorCount());
+                statement.setBytes(7, rollup.getSketch().toBytes());
+                statement.addBatch();
+                batched++;
+            }
+            if (batched > 0) {
+                statement.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Stores the watermark of the given resolution.
+     * 
+     * @param dbConn The database connection.
+     * @param resolution The resolution.
+     * @param watermark The watermark in milliseconds.
+     * @throws SQLException If the storage operation fails.
+     */
+    private void storeWatermark(@Nonnull final Connection dbConn, @Nonnull final Resolution resolution,
+            final long watermark) throws SQLException {
+        try (final PreparedStatement update = dbConn.prepareStatement("UPDATE " + TABLE_NAME_WATERMARKS
+                + " SET watermark = ? WHERE resolution = ?")) {
+            update.setLong(1, watermark);
+            update.setString(2, resolution.name());
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (final PreparedStatement insert = dbConn.prepareStatement("INSERT INTO " + TABLE_NAME_WATERMARKS
+                + " (resolution, watermark) VALUES (?,?)")) {
+            insert.setString(1, resolution.name());
+            insert.setLong(2, watermark);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Get the watermark of the given resolution.
+     * 
+     * @param dbConn The database connection.
+     * @param resolution The resolution.
+     * @return The watermark in milliseconds, null if nothing has been aggregated.
+     * @throws SQLException If the database query fails.
+     */
+    @Nullable private Long getWatermark(@Nonnull final Connection dbConn, @Nonnull final Resolution resolution)
+            throws SQLException {
+        try (final PreparedStatement statement = dbConn.prepareStatement("SELECT watermark FROM "
+                + TABLE_NAME_WATERMARKS + " WHERE resolution = ?")) {
+            statement.setString(1, resolution.name());
+            try (final ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getLong(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Get the start time of the earliest raw result.
+     * 
+     * @param dbConn The database connection.
+     * @return The start time in milliseconds, null if there are no results.
+     * @throws SQLException If the database query fails.
+     */
+    @Nullable private Long getEarliestResult(@Nonnull final Connection dbConn) throws SQLException {
+        return getMinimum(dbConn, "SELECT MIN(startTime) FROM " + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS,
+                null);
+    }
+
+    /**
+     * Get the start time of the earliest rollup bucket of the given resolution.
+     * 
+     * @param dbConn The database connection.
+     * @param resolution The resolution.
+     * @return The start time in milliseconds, null if there are no rollups.
+     * @throws SQLException If the database query fails.
+     */
+    @Nullable private Long getEarliestRollup(@Nonnull final Connection dbConn, @Nonnull final Resolution resolution)
+            throws SQLException {
+        return getMinimum(dbConn, "SELECT MIN(bucketStart) FROM " + TABLE_NAME_ROLLUPS + " WHERE resolution = ?",
+                resolution.name());
+    }
+
+    /**
+     * Runs the given query for a minimum value.
+     * 
+     * @param dbConn The database connection.
+     * @param query The query, with at most one parameter.
+     * @param parameter The value for the parameter, null if the query has no parameters.
+     * @return The minimum value, null if there are no rows.
+     * @throws SQLException If the database query fails.
+     */
+    @Nullable private Long getMinimum(@Nonnull final Connection dbConn, @Nonnull final String query,
+            @Nullable final String parameter) throws SQLException {
+        try (final PreparedStatement statement = dbConn.prepareStatement(query)) {
+            if (parameter != null) {
+                statement.setString(1, parameter);
+            }
+            try (final ResultSet set = statement.executeQuery()) {
+                if (set.next()) {
+                    final long minimum = set.getLong(1);
+                    return set.wasNull() ? null : minimum;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get the rollup for the given key, creating it if it does not exist yet.
+     * 
+     * @param rollups The rollups mapped by their keys.
+     * @param sourceId The sequence identifier.
+     * @param phaseId The phase identifier.
+     * @param bucketStart The start of the bucket in milliseconds.
+     * @return The rollup.
+     */
+    @Nonnull private Rollup getRollup(@Nonnull final Map<String, Rollup> rollups, final String sourceId,
+            final int phaseId, final long bucketStart) {
+        final String key = sourceId + "|" + phaseId + "|" + bucketStart;
+        Rollup rollup = rollups.get(key);
+        if (rollup == null) {
+            rollup = new Rollup(sourceId, phaseId, bucketStart, 0, 0, new QuantileSketch());
+            rollups.put(key, rollup);
+        }
+        return rollup;
+    }
+
+    /**
+     * Obtain a connection from the data source, without auto-commit.
+     * 
+     * <p>The caller must close the connection.</p>
+     * 
+     * @return a fresh connection
+     * @throws SQLException if an error occurs
+     */
+    @Nonnull private Connection getConnection() throws SQLException {
+        final Connection conn = getDataSource().getConnection();
+        conn.setAutoCommit(false);
+        return conn;
+    }
+
+    /**
+     * The aggregated results of one sequence or step within one bucket.
+     */
+    public static class Rollup {
+
+        /** The sequence identifier. */
+        private final String sourceId;
+
+        /** The phase identifier, {@link MonitoringResultRollup#SEQUENCE_PHASE_ID} for the whole sequence. */
+        private final int phaseId;
+
+        /** The start of the bucket in milliseconds. */
+        private final long bucketStart;
+
+        /** The number of results. */
+        private long count;
+
+        /** The number of failed results. */
+        private long errorCount;
+
+        /** The sketch of the durations. */
+        @Nonnull private final QuantileSketch sketch;
+
+        /**
+         * Constructor.
+         * @param source The sequence identifier.
+         * @param phase The phase identifier.
+         * @param start The start of the bucket in milliseconds.
+         * @param total The number of results.
+         * @param errors The number of failed results.
+         * @param durations The sketch of the durations.
+         */
+        public Rollup(final String source, final int phase, final long start, final long total, final long errors,
+                @Nonnull final QuantileSketch durations) {
+            sourceId = source;
+            phaseId = phase;
+            bucketStart = start;
+            count = total;
+            errorCount = errors;
+            sketch = Constraint.isNotNull(durations, "The sketch cannot be null");
+        }
+
+        /**
+         * Adds one result.
+         * @param duration The duration of the result in milliseconds.
+         * @param failed Whether the result failed.
+         */
+        protected void add(final long duration, final boolean failed) {
+            count++;
+            if (failed) {
+                errorCount++;
+            }
+            sketch.record(duration);
+        }
+
+        /**
+         * Adds the given aggregated results.
+         * @param total The number of results.
+         * @param errors The number of failed results.
+         * @param durations The sketch of the durations.
+         */
+        protected void merge(final long total, final long errors, @Nonnull final QuantileSketch durations) {
+            count += total;
+            errorCount += errors;
+            sketch.merge(durations);
+        }
+
+        /**
+         * Get the sequence identifier.
+         * @return The sequence identifier.
+         */
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        /**
+         * Get the phase identifier.
+         * @return The phase identifier, {@link MonitoringResultRollup#SEQUENCE_PHASE_ID} for the whole sequence.
+         */
+        public int getPhaseId() {
+            return phaseId;
+        }
+
+        /**
+         * Get the start of the bucket.
+         * @return The start of the bucket in milliseconds.
+         */
+        public long getBucketStart() {
+            return bucketStart;
+        }
+
+        /**
+         * Get the number of results.
+         * @return The number of results.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of failed results.
+         * @return The number of failed results.
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Get the sketch of the durations.
+         * @return The sketch of the durations.
+         */
+        @Nonnull public QuantileSketch getSketch() {
+            return sketch;
+        }
+    }
+}
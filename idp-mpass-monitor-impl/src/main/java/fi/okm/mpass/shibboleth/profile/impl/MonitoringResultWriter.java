@@ -0,0 +1,767 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Writes {@link MonitoringSequenceResult}s to the given {@link DataSource}. A batch of results is written in one
+ * transaction: the sequence rows first and then all the step rows as one batched statement.
+ * 
+ * <p>
+ * In the write-behind mode (the default), the results are put to a bounded queue without blocking and written in
+ * batches by a background thread. A batch is written when it is full, or when the oldest queued result has waited
+ * for the flush interval. When the queue is full, the {@link OverflowPolicy} decides which result is dropped. The
+ * queued results are flushed when the component is destroyed.
+ * </p>
+ * 
+ * <p>
+ * The timing columns of the step rows (<pre>dnsTime</pre>, <pre>connectTime</pre>, <pre>tlsTime</pre>,
+ * <pre>waitTime</pre> and <pre>downloadTime</pre>) are only written if they exist in the step table, which is
+ * checked on the first write. Tables created before the columns were introduced are written without them.
+ * </p>
+ */
+public class MonitoringResultWriter extends AbstractIdentifiableInitializableComponent {
+
+    /** The default maximum number of queued results. */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /** The default maximum number of results written in one transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** The default maximum time a queued result waits for its batch in milliseconds. */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /** The default maximum time to wait for the queue to be flushed on shutdown in milliseconds. */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
+    /**
+     * The policies for handling a new result when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** The new result is dropped. */
+        DROP_NEWEST,
+        /** The oldest queued result is dropped. */
+        DROP_OLDEST,
+        /**
+         * The oldest queued result of the same sequence is dropped, so that each sequence keeps its latest results.
+         * If the queue does not contain results from the same sequence, the new result is dropped.
+         */
+        COALESCE
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MonitoringResultWriter.class);
+
+    /** JDBC data source for retrieving connections. */
+    @NonnullAfterInit private DataSource dataSource;
+
+    /** Number of times to retry a transaction if it rolls back. */
+    @NonNegative private int transactionRetry;
+
+    /** Error messages that signal a transaction should be retried. */
+    @Nonnull @NonnullElements private Collection<String> retryableErrors;
+
+    /** Whether the results are queued and written by a background thread. */
+    private boolean writeBehind;
+
+    /** The maximum number of queued results. */
+    @Positive private int queueSize;
+
+    /** The maximum number of results written in one transaction. */
+    @Positive private int batchSize;
+
+    /** The maximum time a queued result waits for its batch in milliseconds. */
+    @Duration @NonNegative private long flushInterval;
+
+    /** The maximum time to wait for the queue to be flushed on shutdown in milliseconds. */
+    @Duration @NonNegative private long shutdownTimeout;
+
+    /** The policy for handling a new result when the queue is full. */
+    @Nonnull private OverflowPolicy overflowPolicy;
+
+    /** The queued results together with the times they were queued. */
+    @Nonnull private final ArrayDeque<QueuedResult> queue;
+
+    /** The lock guarding the queue and the writer state. */
+    @Nonnull private final ReentrantLock lock;
+
+    /** Signalled when results are queued, a flush is requested or the writer is stopped. */
+    @Nonnull private final Condition queued;
+
+    /** Signalled when the queue has been flushed. */
+    @Nonnull private final Condition flushed;
+
+    /** Whether a flush has been requested. */
+    private boolean flushRequested;
+
+    /** Whether the writer thread is writing a batch. */
+    private boolean writing;
+
+    /** Whether the writer has been stopped. */
+    private boolean stopped;
+
+    /** The background thread writing the queued results. */
+    @Nullable private Thread writerThread;
+
+    /** The number of results written to the database. */
+    @Nonnull private final AtomicLong writtenCount;
+
+    /** The number of results dropped because of a full queue or a failed transaction. */
+    @Nonnull private final AtomicLong droppedCount;
+    
+    /** Whether the step table has the timing columns, null until checked. */
+    @Nullable private volatile Boolean timingColumns;
+
+    /**
+     * Constructor.
+     */
+    public MonitoringResultWriter() {
+        super();
+        retryableErrors = new ArrayList<>();
+        writeBehind = true;
+        queueSize = DEFAULT_QUEUE_SIZE;
+        batchSize = DEFAULT_BATCH_SIZE;
+        flushInterval = DEFAULT_FLUSH_INTERVAL;
+        shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+        overflowPolicy = OverflowPolicy.COALESCE;
+        queue = new ArrayDeque<>();
+        lock = new ReentrantLock();
+        queued = lock.newCondition();
+        flushed = lock.newCondition();
+        writtenCount = new AtomicLong();
+        droppedCount = new AtomicLong();
+    }
+
+    /**
+     * Get the source datasource used to communicate with the database.
+     * 
+     * @return the data source;
+     */
+    @NonnullAfterInit public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Set the source datasource used to communicate with the database.
+     * 
+     * @param source the data source;
+     */
+    public void setDataSource(@Nonnull final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = Constraint.isNotNull(source, "DataSource cannot be null");
+    }
+
+    /**
+     * Get the number of retries to attempt for a failed transaction.
+     * 
+     * @return number of retries
+     */
+    public int getTransactionRetries() {
+        return transactionRetry;
+    }
+
+    /**
+     * Set the number of retries to attempt for a failed transaction. Defaults to 0.
+     * 
+     * @param retries the number of retries
+     */
+    public void setTransactionRetries(@NonNegative final int retries) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        transactionRetry = (int) Constraint.isGreaterThanOrEqual(0, retries,
+                "Retries must be greater than or equal to 0");
+    }
+
+    /**
+     * Get the error messages to check for classifying a driver error as retryable, generally indicating
+     * a lock violation or duplicate insert that signifies a broken database.
+     * 
+     * @return retryable messages
+     */
+    @Nonnull @NonnullElements public Collection<String> getRetryableErrors() {
+        return retryableErrors;
+    }
+
+    /**
+     * Set the error messages to check for classifying a driver error as retryable, generally indicating
+     * a lock violation or duplicate insert that signifies a broken database.
+     * 
+     * @param errors retryable messages
+     */
+    public void setRetryableErrors(@Nullable @NonnullElements final Collection<String> errors) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        retryableErrors = new ArrayList<>(StringSupport.normalizeStringCollection(errors));
+    }
+
+    /**
+     * Whether the results are queued and written by a background thread.
+     * @return Whether the results are queued and written by a background thread.
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Set whether the results are queued and written by a background thread. Defaults to true.
+     * @param flag What to set.
+     */
+    public void setWriteBehind(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        writeBehind = flag;
+    }
+
+    /**
+     * Set the maximum number of queued results. Defaults to 1000.
+     * @param size What to set.
+     */
+    public void setQueueSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        queueSize = (int) Constraint.isGreaterThan(0, size, "Queue size must be greater than 0");
+    }
+
+    /**
+     * Set the maximum number of results written in one transaction. Defaults to 100.
+     * @param size What to set.
+     */
+    public void setBatchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        batchSize = (int) Constraint.isGreaterThan(0, size, "Batch size must be greater than 0");
+    }
+
+    /**
+     * Set the maximum time a queued result waits for its batch in milliseconds. Defaults to one second.
+     * @param interval What to set.
+     */
+    public void setFlushInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        flushInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Flush interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the maximum time to wait for the queue to be flushed on shutdown in milliseconds. Defaults to 10 seconds.
+     * @param timeout What to set.
+     */
+    public void setShutdownTimeout(@Duration @NonNegative final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        shutdownTimeout = Constraint.isGreaterThanOrEqual(0, timeout,
+                "Shutdown timeout must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the policy for handling a new result when the queue is full. Defaults to {@link OverflowPolicy#COALESCE}.
+     * @param policy What to set.
+     */
+    public void setOverflowPolicy(@Nonnull final OverflowPolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        overflowPolicy = Constraint.isNotNull(policy, "Overflow policy cannot be null");
+    }
+
+    /**
+     * Get the number of results written to the database.
+     * @return The number of results written to the database.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Get the number of results dropped because of a full queue or a failed transaction.
+     * @return The number of results dropped.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Get the number of currently queued results.
+     * @return The number of currently queued results.
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (null == dataSource) {
+            throw new ComponentInitializationException("No database connection provided");
+        }
+        if (writeBehind) {
+            writerThread = new DaemonThreadFactory("monitoring-result-writer").newThread(new Runnable() {
+                @Override
+                public void run() {
+                    runWriter();
+                }
+            });
+            writerThread.start();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (writerThread != null) {
+            lock.lock();
+            try {
+                stopped = true;
+                queued.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writerThread.join(shutdownTimeout);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive()) {
+                log.warn("The queue was not flushed within {} ms, {} results were not written", shutdownTimeout,
+                        getQueuedCount());
+                writerThread.interrupt();
+            }
+            writerThread = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Puts the given result to the queue without blocking. If the queue is full, a result is dropped according to
+     * the overflow policy.
+     * 
+     * @param result The result to be written.
+     * @return True if the given result was queued, false if it was dropped.
+     */
+    public boolean enqueue(@Nonnull final MonitoringSequenceResult result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (!writeBehind) {
+            throw new IllegalStateException("The writer is not in the write-behind mode");
+        }
+        Constraint.isNotNull(result, "The result cannot be null");
+        lock.lock();
+        try {
+            if (stopped) {
+                log.warn("The writer has been stopped, dropping the result for {}", result.getId());
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (queue.size() >= queueSize && !makeRoom(result)) {
+                log.warn("The queue is full, dropping the result for {}", result.getId());
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            queue.addLast(new QueuedResult(result, System.currentTimeMillis()));
+            if (queue.size() >= batchSize || queue.size() == 1) {
+                queued.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the queued results and waits until they have been written.
+     * 
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        lock.lock();
+        try {
+            while ((!queue.isEmpty() || writing) && writerThread != null && writerThread.isAlive()) {
+                flushRequested = true;
+                queued.signalAll();
+                flushed.await(flushInterval + 1, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the given results in one transaction, retrying the transaction on retryable errors.
+     * 
+     * @param results The results to be written.
+     * @throws SQLException If the results could not be written.
+     */
+    public void write(@Nonnull @NonnullElements final List<MonitoringSequenceResult> results) throws SQLException {
+        int retries = getTransactionRetries();
+        while (true) {
+            try (final Connection dbConn = getConnection()) {
+                try {
+                    store(dbConn, results);
+                    dbConn.commit();
+                    log.debug("Stored {} monitoring results", results.size());
+                    writtenCount.addAndGet(results.size());
+                    return;
+                } catch (final SQLException e) {
+                    dbConn.rollback();
+                    throw e;
+                }
+            } catch (final SQLException e) {
+                if (!shouldRetry(e, retries)) {
+                    throw e;
+                }
+                retries = retries - 1;
+                log.info("Retrying monitoring result storing operation");
+            }
+        }
+    }
+
+    /**
+     * Removes a queued result to make room for the given one, according to the overflow policy.
+     * 
+     * @param result The result to be queued.
+     * @return True if a queued result was removed, false if the given result should be dropped.
+     */
+    private boolean makeRoom(@Nonnull final MonitoringSequenceResult result) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                final MonitoringSequenceResult oldest = queue.removeFirst().getResult();
+                log.warn("The queue is full, dropping the oldest result for {}", oldest.getId());
+                droppedCount.incrementAndGet();
+                return true;
+            case COALESCE:
+                final Iterator<QueuedResult> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    final MonitoringSequenceResult candidate = iterator.next().getResult();
+                    if (candidate.getId() == null ? result.getId() == null : candidate.getId().equals(result.getId())) {
+                        iterator.remove();
+                        log.debug("The queue is full, replacing an older result for {}", result.getId());
+                        droppedCount.incrementAndGet();
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The loop of the background thread: waits for a full batch, the flush interval, a flush request or a stop,
+     * and writes the queued results in batches. When stopped, the loop exits once the queue is empty.
+     */
+    private void runWriter() {
+        final List<MonitoringSequenceResult> batch = new ArrayList<>();
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (!stopped && !flushRequested && queue.size() < batchSize) {
+                        if (queue.isEmpty()) {
+                            queued.await();
+                        } else {
+                            final long wait = queue.peekFirst().getQueuedAt() + flushInterval
+                                    - System.currentTimeMillis();
+                            if (wait <= 0) {
+                                break;
+                            }
+                            queued.await(wait, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    if (queue.isEmpty()) {
+                        flushRequested = false;
+                        flushed.signalAll();
+                        if (stopped) {
+                            return;
+                        }
+                        continue;
+                    }
+                    while (batch.size() < batchSize && !queue.isEmpty()) {
+                        batch.add(queue.removeFirst().getResult());
+                    }
+                    writing = true;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    write(batch);
+                } catch (final SQLException | RuntimeException e) {
+                    log.error("Could not store {} monitoring results, dropping them", batch.size(), e);
+                    droppedCount.addAndGet(batch.size());
+                } finally {
+                    batch.clear();
+                    lock.lock();
+                    try {
+                        writing = false;
+                        if (queue.isEmpty()) {
+                            flushRequested = false;
+                            flushed.signalAll();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            log.debug("The writer thread was interrupted");
+        }
+    }
+
+    /**
+     * Stores the given results: the sequence rows one by one for their generated keys, and then all the step rows
+     * in one batch.
+     * 
+     * @param dbConn The database connection.
+     * @param results The monitoring sequence results.
+     * @throws SQLException If the storage operation fails.
+     */
+    protected void store(@Nonnull final Connection dbConn,
+            @Nonnull @NonnullElements final List<MonitoringSequenceResult> results) throws SQLException {
+        final String insertResult = "INSERT INTO " + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS
+                + " (sourceId, startTime, endTime) VALUES (?,?,?)";
+        try (final PreparedStatement resultStatement =
+                dbConn.prepareStatement(insertResult, Statement.RETURN_GENERATED_KEYS)) {
+            final boolean timings = hasTimingColumns(dbConn);
+            final String insertStep = "INSERT INTO " + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS
+                    + (timings ? " (resultId, phaseId, errorMessage, startTime, endTime, dnsTime, connectTime,"
+                            + " tlsTime, waitTime, downloadTime) VALUES (?,?,?,?,?,?,?,?,?,?)"
+                            : " (resultId, phaseId, errorMessage, startTime, endTime) VALUES (?,?,?,?,?)");
+            try (final PreparedStatement stepStatement = dbConn.prepareStatement(insertStep)) {
+                int steps = 0;
+                for (final MonitoringSequenceResult result : results) {
+                    final long resultId = storeResult(resultStatement, result);
+                    steps += addSteps(stepStatement, result, resultId, timings);
+                }
+                if (steps > 0) {
+                    log.trace("Executing the batch of {} step results", steps);
+                    stepStatement.executeBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the step table has the timing columns. The result of the first check is remembered.
+     * 
+     * @param dbConn The database connection.
+     * @return Whether the step table has the timing columns.
+     * @throws SQLException If the table could not be inspected.
+     */
+    protected boolean hasTimingColumns(@Nonnull final Connection dbConn) throws SQLException {
+        Boolean columns = timingColumns;
+        if (columns == null) {
+            columns = Boolean.FALSE;
+            try (final Statement statement = dbConn.createStatement();
+                    final ResultSet set = statement.executeQuery("SELECT * FROM "
+                            + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS + " WHERE 1 = 0")) {
+                final ResultSetMetaData metaData = set.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if ("downloadTime".equalsIgnoreCase(metaData.getColumnName(i))) {
+                        columns = Boolean.TRUE;
+                    }
+                }
+            }
+            if (!columns) {
+                log.warn("The table {} does not have the timing columns, they will not be stored",
+                        StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS);
+            }
+            timingColumns = columns;
+        }
+        return columns;
+    }
+
+    /**
+     * Stores the given {@link MonitoringSequenceResult} without the attached sequence step results.
+     * 
+     * @param statement The prepared insert statement returning the generated keys.
+     * @param result The monitoring sequence result.
+     * @return The identifier for the sequence result, generated by the database engine.
+     * @throws SQLException If the storage operation fails.
+     */
+    private long storeResult(@Nonnull final PreparedStatement statement,
+            @Nonnull final MonitoringSequenceResult result) throws SQLException {
+        statement.setString(1, result.getId());
+        statement.setLong(2, result.getStartTime());
+        statement.setLong(3, result.getEndTime());
+        statement.executeUpdate();
+        try (final ResultSet tableKeys = statement.getGeneratedKeys()) {
+            if (tableKeys.next()) {
+                final long key = tableKeys.getLong(1);
+                log.debug("Found key {}", key);
+                return key;
+            }
+        }
+        log.error("Could not get the generated key after insert!");
+        throw new SQLException("Could not get the generated key after insert!");
+    }
+
+    /**
+     * Adds the sequence step results from the given {@link MonitoringSequenceResult} to the batch.
+     * 
+     * @param statement The prepared step insert statement.
+     * @param result The monitoring sequence result, containing the sequence step results.
+     * @param resultId The identifier for the sequence result.
+     * @param timings Whether the timing columns are set.
+     * @return The number of step results added to the batch.
+     * @throws SQLException If the steps could not be added.
+     */
+    private int addSteps(@Nonnull final PreparedStatement statement, @Nonnull final MonitoringSequenceResult result,
+            final long resultId, final boolean timings) throws SQLException {
+        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
+        if (steps == null || steps.isEmpty()) {
+            log.debug("No step results exists to be stored");
+            return 0;
+        }
+        for (final MonitoringSequenceStepResult step : steps) {
+            statement.setLong(1, resultId);
+            statement.setInt(2, step.getPhaseId());
+            statement.setString(3, step.getErrorMessage() != null ? step.getErrorMessage() : "");
+            statement.setLong(4, step.getStartTime());
+            statement.setLong(5, step.getEndTime());
+            if (timings) {
+                statement.setLong(6, step.getDnsTime());
+                statement.setLong(7, step.getConnectTime());
+                statement.setLong(8, step.getTlsTime());
+                statement.setLong(9, step.getWaitTime());
+                statement.setLong(10, step.getDownloadTime());
+            }
+            statement.addBatch();
+        }
+        return steps.size();
+    }
+
+    /**
+     * Checks whether another attempt should be done after failed SQL event.
+     * @param e The cause for the failed SQL event.
+     * @param retries The amount of retries left.
+     * @return True if another attempt should be done, false otherwise.
+     */
+    protected boolean shouldRetry(@Nonnull final SQLException e, final int retries) {
+        boolean retry = false;
+        for (final String msg : getRetryableErrors()) {
+            if (e.getSQLState() != null && e.getSQLState().contains(msg)) {
+                log.warn("Caught retryable SQL exception", e);
+                retry = true;
+            }
+        }
+        if (!retry) {
+            log.error("Caught SQL exception", e);
+            return false;
+        }
+        if (retries - 1 < 0) {
+            log.warn("Error retryable, but retry limit exceeded");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Obtain a connection from the data source, without auto-commit.
+     * 
+     * <p>The caller must close the connection.</p>
+     * 
+     * @return a fresh connection
+     * @throws SQLException if an error occurs
+     */
+    @Nonnull private Connection getConnection() throws SQLException {
+        final Connection conn = getDataSource().getConnection();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        return conn;
+    }
+
+    /**
+     * A queued result together with the time it was queued, so that the flush interval is counted from the oldest
+     * result remaining in the queue.
+     */
+    private static final class QueuedResult {
+
+        /** The queued result. */
+        @Nonnull private final MonitoringSequenceResult result;
+
+        /** The time when the result was queued in milliseconds. */
+        private final long queuedAt;
+
+        /**
+         * Constructor.
+         * 
+         * @param queuedResult The queued result.
+         * @param time The time when the result was queued in milliseconds.
+         */
+        private QueuedResult(@Nonnull final MonitoringSequenceResult queuedResult, final long time) {
+            result = queuedResult;
+            queuedAt = time;
+        }
+
+        /**
+         * Get the queued result.
+         * 
+         * @return The queued result.
+         */
+        @Nonnull public MonitoringSequenceResult getResult() {
+            return result;
+        }
+
+        /**
+         * Get the time when the result was queued in milliseconds.
+         * 
+         * @return The time when the result was queued.
+         */
+        public long getQueuedAt() {
+            return queuedAt;
+        }
+    }
+}
@@ -26,26 +26,23 @@ package fi.okm.mpass.shibboleth.profile.impl;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import org.apache.http.client.CookieStore;
-import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.protocol.HttpContext;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import fi.okm.mpass.shibboleth.monitor.ResponseValidatorException;
-import fi.okm.mpass.shibboleth.monitor.SequenceStep;
+import fi.okm.mpass.shibboleth.monitor.MonitoringMetrics;
+import fi.okm.mpass.shibboleth.monitor.MonitoringSequence;
 import fi.okm.mpass.shibboleth.monitor.SequenceStepResolver;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
-import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
 import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
-import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
  * This actions runs the attached {@link SequenceStepResolver}s.
@@ -56,21 +53,26 @@ public class RunMonitoringSequence extends AbstractProfileAction {
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(RunMonitoringSequence.class);
 
-    /** The list of attached resolvers. */
-    private List<SequenceStepResolver> resolvers;
-    
-    /** The initial URL for the initial monitoring step. */
-    @Nonnull @NotEmpty private String initialUrl;
+    /** The monitoring sequence to be run. */
+    @Nonnull private final MonitoringSequence sequence;
+
+    /** The metrics where the results are recorded. */
+    @Nullable private MonitoringMetrics metrics;
     
-    /** The identifier for the monitoring sequence. */
-    @Nonnull @NotEmpty private String sequenceId;
+    /**
+     * Constructor.
+     */
+    public RunMonitoringSequence() {
+        super();
+        sequence = new MonitoringSequence();
+    }
     
     /**
      * Set the list of attached resolvers.
      * @param newResolvers What to set.
      */
     public void setResolvers(List<SequenceStepResolver> newResolvers) {
-        resolvers = newResolvers;
+        sequence.setResolvers(newResolvers);
     }
     
     /**
@@ -78,7 +80,7 @@ public class RunMonitoringSequence extends AbstractProfileAction {
      * @param url What to set.
      */
     public void setInitialUrl(@Nonnull @NotEmpty final String url) {
-        initialUrl = Constraint.isNotEmpty(url, "The initial URL cannot be empty");
+        sequence.setInitialUrl(url);
     }
     
     /**
@@ -86,7 +88,26 @@ public class RunMonitoringSequence extends AbstractProfileAction {
      * @param id What to set.
      */
     public void setSequenceId(@Nonnull @NotEmpty final String id) {
-        sequenceId = id;
+        sequence.setId(id);
+    }
+    
+    /**
+     * Set the time budget for a single run of the sequence in milliseconds. The remaining time limits the timeouts
+     * of each request, and the request in flight is aborted when the deadline passes. Defaults to 0, i.e. no deadline.
+     * @param timeout What to set.
+     */
+    public void setTimeout(@Duration @NonNegative final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequence.setTimeout(timeout);
+    }
+    
+    /**
+     * Set the metrics where the results are recorded.
+     * @param newMetrics What to set.
+     */
+    public void setMetrics(@Nullable final MonitoringMetrics newMetrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metrics = newMetrics;
     }
     
     /** {@inheritDoc} */
@@ -104,47 +125,10 @@ public class RunMonitoringSequence extends AbstractProfileAction {
 
         final MonitoringResultContext monitoringCtx = 
                 profileRequestContext.getSubcontext(MonitoringResultContext.class, true);
-        
-        final HttpContext context = HttpClientContext.create();
-        final CookieStore cookieStore = new BasicCookieStore();
-        context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
-        final MonitoringSequenceResult seqResult = new MonitoringSequenceResult();
-        seqResult.setId(sequenceId);
-        seqResult.setStartTime(System.currentTimeMillis());
-        SequenceStep initial = new SequenceStep();
-        initial.setUrl(initialUrl);
-        boolean errorFound = false;
-        for (int i = 0; i < resolvers.size() && !errorFound; i++) {
-            final SequenceStepResolver resolver = resolvers.get(i);
-            final MonitoringSequenceStepResult stepResult;
-            final int resultsSize = seqResult.getStepResults().size();
-            final boolean editExisting;
-            if (i > 0 && resolver.getId().equals(seqResult.getStepResults().get(resultsSize - 1).getId())) {
-                stepResult = seqResult.getStepResults().get(resultsSize - 1);
-                editExisting = true;
-            } else {
-                stepResult = new MonitoringSequenceStepResult();
-                stepResult.setStartTime(System.currentTimeMillis());
-                stepResult.setId(resolver.getId());
-                editExisting = false;
-            }
-            log.debug("Performing step {} : {}", i, initial.toString());
-            try {
-                initial = resolver.resolve(context, initial);
-            } catch (ResponseValidatorException e) {
-                log.warn("Response validation failed", e);
-                log.trace("The full response was {}", e.getResponseStr());
-                stepResult.setErrorMessage(e.getMessage());
-                errorFound = true;
-            }
-            stepResult.setEndTime(System.currentTimeMillis());
-            if (editExisting) {
-                seqResult.getStepResults().set(resultsSize - 1, stepResult);
-            } else {
-                seqResult.addStepResult(stepResult);
-            }
+        final MonitoringSequenceResult result = sequence.run();
+        if (metrics != null) {
+            metrics.record(result);
         }
-        seqResult.setEndTime(System.currentTimeMillis());
-        monitoringCtx.addResult(seqResult);
+        monitoringCtx.addResult(result);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,388 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.protocol.HttpContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringMetrics;
+import fi.okm.mpass.shibboleth.monitor.MonitoringSequence;
+import fi.okm.mpass.shibboleth.monitor.SequenceDeadline;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.DaemonThreadFactory;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * This action runs the attached {@link MonitoringSequence}s in parallel and puts their results to the
+ * {@link MonitoringResultContext}, in the order of the sequences.
+ * 
+ * <p>
+ * The sequences are run on a bounded pool of threads, each with its own HTTP context and cookie store. The sequence
+ * timeout is set as a {@link SequenceDeadline} to the HTTP context, so that the request in flight is aborted instead
+ * of leaving the thread blocked in a socket read, and the sequence returns its own result naming the step that ran
+ * out of time. Only a sequence not returning within the abort grace period after its timeout is cancelled and
+ * recorded as timed out. Waiting for the results is bounded by the timeout and the grace period multiplied by the
+ * number of rounds needed to run all the sequences on the threads.
+ * </p>
+ */
+@SuppressWarnings("rawtypes")
+public class RunMonitoringSequences extends AbstractProfileAction {
+
+    /** The default number of sequences run in parallel. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** The default maximum number of sequences waiting for a thread. */
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    /** The default timeout for a single sequence in milliseconds. */
+    public static final long DEFAULT_SEQUENCE_TIMEOUT = 60000;
+
+    /** The default time in milliseconds given for a sequence to return after its timeout. */
+    public static final long DEFAULT_ABORT_GRACE = 5000;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(RunMonitoringSequences.class);
+
+    /** The sequences to be run. */
+    @Nonnull @NonnullElements private List<MonitoringSequence> sequences;
+
+    /** The number of sequences run in parallel. */
+    @Positive private int threads;
+
+    /** The maximum number of sequences waiting for a thread. */
+    @Positive private int queueSize;
+
+    /** The timeout for a single sequence in milliseconds, measured from the start of its run. */
+    @Duration @Positive private long sequenceTimeout;
+
+    /** The time in milliseconds given for a sequence to return its own result after its timeout. */
+    @Duration @NonNegative private long abortGrace;
+
+    /** The metrics where the results are recorded. */
+    @Nullable private MonitoringMetrics metrics;
+
+    /** The executor running the sequences. */
+    private ThreadPoolExecutor executor;
+
+    /** The executor cancelling the sequences exceeding their timeout. */
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * Constructor.
+     */
+    public RunMonitoringSequences() {
+        super();
+        sequences = new ArrayList<>();
+        threads = DEFAULT_THREADS;
+        queueSize = DEFAULT_QUEUE_SIZE;
+        sequenceTimeout = DEFAULT_SEQUENCE_TIMEOUT;
+        abortGrace = DEFAULT_ABORT_GRACE;
+    }
+
+    /**
+     * Set the sequences to be run.
+     * @param newSequences What to set.
+     */
+    public void setSequences(@Nonnull @NonnullElements final List<MonitoringSequence> newSequences) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequences = new ArrayList<>(Constraint.isNotNull(newSequences, "The sequences cannot be null"));
+    }
+
+    /**
+     * Set the number of sequences run in parallel. Defaults to 4.
+     * @param newThreads What to set.
+     */
+    public void setThreads(@Positive final int newThreads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        threads = (int) Constraint.isGreaterThan(0, newThreads, "Number of threads must be greater than 0");
+    }
+
+    /**
+     * Set the maximum number of sequences waiting for a thread. Defaults to 100.
+     * @param size What to set.
+     */
+    public void setQueueSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        queueSize = (int) Constraint.isGreaterThan(0, size, "Queue size must be greater than 0");
+    }
+
+    /**
+     * Set the timeout for a single sequence in milliseconds, measured from the start of its run. Defaults to one
+     * minute.
+     * @param timeout What to set.
+     */
+    public void setSequenceTimeout(@Duration @Positive final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequenceTimeout = Constraint.isGreaterThan(0, timeout, "Sequence timeout must be greater than 0");
+    }
+
+    /**
+     * Set the time in milliseconds given for a sequence to return its own result after its timeout, before it is
+     * cancelled. Defaults to five seconds.
+     * @param grace What to set.
+     */
+    public void setAbortGrace(@Duration @NonNegative final long grace) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        abortGrace = Constraint.isGreaterThanOrEqual(0, grace, "Abort grace must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the metrics where the results are recorded.
+     * @param newMetrics What to set.
+     */
+    public void setMetrics(@Nullable final MonitoringMetrics newMetrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metrics = newMetrics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        log.debug("Initializing");
+        super.doInitialize();
+        if (sequences.isEmpty()) {
+            throw new ComponentInitializationException("No monitoring sequences configured");
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("monitoring-sequence"));
+        watchdog = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("monitoring-watchdog"));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final MonitoringResultContext monitoringCtx = 
+                profileRequestContext.getSubcontext(MonitoringResultContext.class, true);
+        for (final MonitoringSequenceResult result : runSequences()) {
+            if (metrics != null) {
+                metrics.record(result);
+            }
+            monitoringCtx.addResult(result);
+        }
+    }
+
+    /**
+     * Runs all the sequences in parallel and waits for them to finish or time out.
+     * @return The results in the order of the sequences.
+     */
+    @Nonnull protected List<MonitoringSequenceResult> runSequences() {
+        final long submitted = System.currentTimeMillis();
+        final long rounds = (sequences.size() + threads - 1) / threads;
+        final long waitDeadline = submitted + rounds * (sequenceTimeout + abortGrace);
+        final List<SequenceTask> tasks = new ArrayList<>(sequences.size());
+        for (final MonitoringSequence sequence : sequences) {
+            final SequenceTask task = new SequenceTask(sequence);
+            try {
+                executor.execute(task);
+            } catch (final RejectedExecutionException e) {
+                log.warn("{} Could not queue the monitoring sequence {}", getLogPrefix(), sequence.getId());
+                task.cancel(false);
+            }
+            tasks.add(task);
+        }
+        final List<MonitoringSequenceResult> results = new ArrayList<>(tasks.size());
+        for (final SequenceTask task : tasks) {
+            final String sequenceId = task.getSequence().getId();
+            try {
+                final long remaining = Math.max(0, waitDeadline - System.currentTimeMillis());
+                results.add(task.get(remaining, TimeUnit.MILLISECONDS));
+            } catch (final CancellationException e) {
+                results.add(cancelledResult(task, submitted));
+            } catch (final TimeoutException e) {
+                task.cancel(true);
+                results.add(cancelledResult(task, submitted));
+            } catch (final ExecutionException e) {
+                log.error("{} Unexpected error while running the monitoring sequence {}", getLogPrefix(), 
+                        sequenceId, e.getCause());
+                results.add(failedResult(sequenceId, task.getStartTime(), 
+                        sequenceId + ": Unexpected error " + e.getCause()));
+            } catch (final InterruptedException e) {
+                log.warn("{} Interrupted while waiting for the monitoring sequences", getLogPrefix());
+                for (final SequenceTask remaining : tasks) {
+                    remaining.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Builds a result for a sequence that was cancelled before or during its run.
+     * @param task The cancelled task.
+     * @param submitted The time when the task was submitted.
+     * @return The failed result.
+     */
+    @Nonnull private MonitoringSequenceResult cancelledResult(@Nonnull final SequenceTask task, 
+            final long submitted) {
+        final String sequenceId = task.getSequence().getId();
+        final long startTime = task.getStartTime();
+        if (startTime == 0) {
+            return failedResult(sequenceId, submitted, sequenceId + ": The sequence could not be started");
+        }
+        log.warn("{} The monitoring sequence {} timed out", getLogPrefix(), sequenceId);
+        final MonitoringSequenceResult result = failedResult(sequenceId, startTime, 
+                sequenceId + ": The sequence did not finish within " + sequenceTimeout + "ms");
+        result.getStepResults().get(0).setTimedOut(true);
+        return result;
+    }
+
+    /**
+     * Builds a result for a sequence that did not produce its own result.
+     * @param sequenceId The identifier of the sequence.
+     * @param startTime The start time for the result.
+     * @param errorMessage The error message for the result.
+     * @return The failed result.
+     */
+    @Nonnull protected MonitoringSequenceResult failedResult(final String sequenceId, final long startTime, 
+            final String errorMessage) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(sequenceId);
+        result.setStartTime(startTime);
+        final MonitoringSequenceStepResult stepResult = new MonitoringSequenceStepResult();
+        stepResult.setId(sequenceId);
+        stepResult.setStartTime(startTime);
+        stepResult.setErrorMessage(errorMessage);
+        stepResult.setEndTime(System.currentTimeMillis());
+        result.addStepResult(stepResult);
+        result.setEndTime(stepResult.getEndTime());
+        return result;
+    }
+
+    /**
+     * A task running a single sequence. The HTTP context of the run contains a {@link SequenceDeadline} for the
+     * sequence timeout, which aborts the request in flight, as interrupting the thread does not stop a blocking
+     * socket read. The task is cancelled by the watchdog only if it has not returned within the abort grace period
+     * after the deadline.
+     */
+    private class SequenceTask extends FutureTask<MonitoringSequenceResult> {
+
+        /** The sequence to be run. */
+        @Nonnull private final MonitoringSequence sequence;
+
+        /** The time when the run was started, 0 if not started. */
+        private volatile long startTime;
+
+        /**
+         * Constructor.
+         * @param newSequence The sequence to be run.
+         */
+        SequenceTask(@Nonnull final MonitoringSequence newSequence) {
+            super(new Callable<MonitoringSequenceResult>() {
+                @Override
+                public MonitoringSequenceResult call() {
+                    final HttpContext context = HttpClientContext.create();
+                    context.setAttribute(HttpClientContext.COOKIE_STORE, new BasicCookieStore());
+                    final SequenceDeadline deadline = new SequenceDeadline(sequenceTimeout);
+                    context.setAttribute(SequenceDeadline.CONTEXT_KEY, deadline);
+                    try {
+                        return newSequence.run(context);
+                    } finally {
+                        deadline.cancel();
+                    }
+                }
+            });
+            sequence = newSequence;
+        }
+
+        /**
+         * Get the sequence to be run.
+         * @return The sequence to be run.
+         */
+        @Nonnull MonitoringSequence getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the time when the run was started.
+         * @return The time when the run was started, 0 if not started.
+         */
+        long getStartTime() {
+            return startTime;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            startTime = System.currentTimeMillis();
+            final ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    cancel(true);
+                }
+            }, sequenceTimeout + abortGrace, TimeUnit.MILLISECONDS);
+            try {
+                super.run();
+            } finally {
+                timer.cancel(false);
+            }
+        }
+    }
+}
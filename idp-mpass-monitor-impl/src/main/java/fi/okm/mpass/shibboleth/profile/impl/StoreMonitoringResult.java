@@ -23,16 +23,10 @@
 
 package fi.okm.mpass.shibboleth.profile.impl;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,7 +40,6 @@ import org.slf4j.LoggerFactory;
 
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
-import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
@@ -58,6 +51,13 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * This action stores results from {@link MonitoringResultContext} to the given {@link DataSource}.
+ * 
+ * <p>
+ * The results are stored with a {@link MonitoringResultWriter}. If a shared writer in the write-behind mode is
+ * configured, the results are only queued and the action proceeds without waiting for the database. Otherwise the
+ * results are written within the request in one transaction, using the data source and retry settings of this
+ * action.
+ * </p>
  */
 @SuppressWarnings("rawtypes")
 public class StoreMonitoringResult extends AbstractProfileAction {
@@ -80,6 +80,12 @@ public class StoreMonitoringResult extends AbstractProfileAction {
     /** Error messages that signal a transaction should be retried. */
     @Nonnull @NonnullElements private Collection<String> retryableErrors;
     
+    /** The writer for the results. */
+    @NonnullAfterInit private MonitoringResultWriter resultWriter;
+
+    /** Whether the result writer was created by this action. */
+    private boolean ownWriter;
+
     /** MonitoringResultContext to operate on. */
     @Nullable private MonitoringResultContext monitoringCtx;
     
@@ -146,15 +152,55 @@ public class StoreMonitoringResult extends AbstractProfileAction {
         retryableErrors = new ArrayList(StringSupport.normalizeStringCollection(errors));
     }
 
+
+    /**
+     * Get the writer for the results.
+     * 
+     * @return The writer for the results.
+     */
+    @NonnullAfterInit public MonitoringResultWriter getResultWriter() {
+        return resultWriter;
+    }
+
+    /**
+     * Set the writer for the results. If not set, a synchronous writer is created from the data source and retry
+     * settings of this action.
+     * 
+     * @param writer What to set.
+     */
+    public void setResultWriter(@Nullable final MonitoringResultWriter writer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        resultWriter = writer;
+    }
     
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
         log.debug("Initializing");
         super.doInitialize();
+        if (resultWriter != null) {
+            return;
+        }
         if (null == dataSource) {
             throw new ComponentInitializationException(getLogPrefix() + " No database connection provided");
         }
+        resultWriter = new MonitoringResultWriter();
+        resultWriter.setId(StoreMonitoringResult.class.getName());
+        resultWriter.setDataSource(dataSource);
+        resultWriter.setTransactionRetries(transactionRetry);
+        resultWriter.setRetryableErrors(retryableErrors);
+        resultWriter.setWriteBehind(false);
+        resultWriter.initialize();
+        ownWriter = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (ownWriter) {
+            resultWriter.destroy();
+        }
+        super.doDestroy();
     }
 
     /** {@inheritDoc} */
@@ -180,156 +226,20 @@ public class StoreMonitoringResult extends AbstractProfileAction {
     protected void doExecute(
             @Nonnull final ProfileRequestContext profileRequestContext) {
         final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
-        final Map<Integer,Long> ids = new HashMap<>();
-        int retries = getTransactionRetries();
-        for (int i = 0; i < results.size(); i++) {
-            boolean keepLoop = true;
-            while (keepLoop) {
-                try (final Connection dbConn = getConnection(false)) {
-                    ids.put(i, store(dbConn, results.get(i)));
-                    log.debug("New id put to the map");
-                    dbConn.commit();
-                    log.debug("Connection successfully committed");
-                    keepLoop = false;
-                } catch (final SQLException e) {
-                    boolean retry = shouldRetry(e, retries);
-                    if (retry) {
-                        retries = retries - 1;
-                        log.info("{} Retrying monitoring result storing operation", getLogPrefix());
-                    } else {
-                        ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
-                        return;
-                    }
-                }
-            }
-            keepLoop = true;
-            while (keepLoop) {
-                try (final Connection dbConn = getConnection(false)) {
-                    storeStep(dbConn, results.get(i), ids.get(i));
-                    dbConn.commit();
-                    keepLoop = false;
-                } catch (final SQLException e) {
-                    boolean retry = shouldRetry(e, retries);
-                    if (retry) {
-                        retries = retries - 1;
-                        log.info("{} Retrying monitoring result step storing operation", getLogPrefix());
-                    } else {
-                        ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
-                        return;
-                    }
-                }                
-            }
-        }
-        ActionSupport.buildProceedEvent(profileRequestContext);
-    }
-
-    /**
-     * Checks whether another attempt should be done after failed SQL event.
-     * @param e The cause for the failed SQL event.
-     * @param retries The amount of retries already run.
-     * @return True if another attempt should be done, false otherwise.
-     */
-    protected boolean shouldRetry(final SQLException e, int retries) {
-        boolean retry = false;
-        if (getRetryableErrors() != null) {
-            for (final String msg : getRetryableErrors()) {
-                if (e.getSQLState() != null && e.getSQLState().contains(msg)) {
-                    log.warn("{} Caught retryable SQL exception", getLogPrefix(), e);
-                    retry = true;
-                }
-            }
-        }
-        if (retry) {
-            if (retries - 1 < 0) {
-                log.warn("{} Error retryable, but retry limit exceeded", getLogPrefix());
-                return false;
+        if (resultWriter.isWriteBehind()) {
+            for (final MonitoringSequenceResult result : results) {
+                resultWriter.enqueue(result);
             }
+            log.debug("{} Queued {} monitoring results", getLogPrefix(), results.size());
         } else {
-            log.error("{} Caught SQL exception", getLogPrefix(), e);
-            return false;
-        }
-        return true;
-    }
-    
-    /**
-     * Stores the given {@link MonitoringSequenceResult} without the attached sequence step results.
-     * @param dbConn The database connection.
-     * @param result The monitoring sequence result.
-     * @return The identifier for the sequence result, generated by the database engine.
-     * @throws SQLException If the storage operation fails.
-     */
-    protected synchronized long store(final Connection dbConn, final MonitoringSequenceResult result) 
-            throws SQLException {
-        final String insertResult = "INSERT INTO " + TABLE_NAME_MONITORING_RESULTS + 
-                " (sourceId, startTime, endTime) VALUES (?,?,?)";
-        final PreparedStatement statement = dbConn.prepareStatement(insertResult, Statement.RETURN_GENERATED_KEYS);
-        statement.setString(1, result.getId());
-        statement.setLong(2, result.getStartTime());
-        statement.setLong(3, result.getEndTime());
-        statement.executeUpdate();
-        final ResultSet tableKeys = statement.getGeneratedKeys();
-        if (tableKeys.next()) {
-            long key = tableKeys.getLong("id");
-            log.debug("Found key {}", key);
-            return key;
-        } else {
-            log.error("Could not get the generated key after insert!");
-            throw new SQLException("Could not get the generated key after insert!");
-        }
-    }
-
-    /**
-     * Stores the sequence step results from the given {@link MonitoringSequenceResult}.
-     * @param dbConn The database connection.
-     * @param result The monitoring sequence result, containing the sequence step results.
-     * @param resultId The identifier for the already stored sequence result.
-     * @throws SQLException If the storage operation fails.
-     */
-    protected void storeStep(final Connection dbConn, final MonitoringSequenceResult result, final Long resultId) 
-            throws SQLException {
-        log.debug("Starting to store step results");
-        final List<MonitoringSequenceStepResult> steps = result.getStepResults();
-        if (steps == null || steps.isEmpty()) {
-            log.debug("No step results exists to be stored");
-            return;
-        }
-        final String insertResult = "INSERT INTO " + TABLE_NAME_MONITORING_STEP_RESULTS + 
-                " (resultId, phaseId, errorMessage, startTime, endTime) VALUES (?,?,?,?,?)";
-        final PreparedStatement statement = dbConn.prepareStatement(insertResult);
-        for (final MonitoringSequenceStepResult step : result.getStepResults()) {
-            statement.setLong(1, resultId);
-            statement.setInt(2, step.getPhaseId());
-            if (step.getErrorMessage() != null) {
-                statement.setString(3,  step.getErrorMessage());
-            } else {
-                statement.setString(3, "");
+            try {
+                resultWriter.write(results);
+            } catch (final SQLException e) {
+                log.error("{} Could not store the monitoring results", getLogPrefix(), e);
+                ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+                return;
             }
-            statement.setLong(4, step.getStartTime());
-            statement.setLong(5, step.getEndTime());
-            log.trace("Adding a batch to the statement");
-            statement.addBatch();
-            log.trace("Batch added");
         }
-        log.trace("Executing the batch");
-        statement.executeBatch();
-        log.trace("Batch executed");
-        statement.close();
-    }
-    
-    /**
-     * Obtain a connection from the data source.
-     * 
-     * <p>The caller must close the connection.</p>
-     * 
-     * @param autoCommit auto-commit setting to apply to the connection
-     * 
-     * @return a fresh connection
-     * @throws SQLException if an error occurs
-     */
-    @Nonnull private Connection getConnection(final boolean autoCommit) throws SQLException {
-        final Connection conn = getDataSource().getConnection();
-        conn.setAutoCommit(autoCommit);
-        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-        return conn;
+        ActionSupport.buildProceedEvent(profileRequestContext);
     }
 }
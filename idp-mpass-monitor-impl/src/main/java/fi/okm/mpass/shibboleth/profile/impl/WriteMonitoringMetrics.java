@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringMetrics;
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.net.HttpServletSupport;
+
+/**
+ * This action writes the {@link MonitoringMetrics} to the servlet response in the OpenMetrics text format, to be
+ * scraped by Prometheus.
+ */
+@SuppressWarnings("rawtypes")
+public class WriteMonitoringMetrics extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(WriteMonitoringMetrics.class);
+
+    /** The metrics to be written. */
+    @NonnullAfterInit private MonitoringMetrics metrics;
+
+    /**
+     * Get the metrics to be written.
+     * @return The metrics to be written.
+     */
+    @NonnullAfterInit public MonitoringMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics to be written.
+     * @param newMetrics What to set.
+     */
+    public void setMetrics(@Nonnull final MonitoringMetrics newMetrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metrics = Constraint.isNotNull(newMetrics, "The metrics cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        log.debug("Initializing");
+        super.doInitialize();
+        if (metrics == null) {
+            throw new ComponentInitializationException("The metrics cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+        HttpServletSupport.addNoCacheHeaders(httpResponse);
+        HttpServletSupport.setUTF8Encoding(httpResponse);
+        HttpServletSupport.setContentType(httpResponse, MonitoringMetrics.CONTENT_TYPE);
+        try {
+            final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
+            metrics.write(out);
+            out.flush();
+        } catch (IOException e) {
+            log.error("{}: Could not write the metrics", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+}
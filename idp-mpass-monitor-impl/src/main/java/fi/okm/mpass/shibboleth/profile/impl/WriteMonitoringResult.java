@@ -29,6 +29,7 @@ import java.io.Writer;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.HttpStatus;
@@ -39,17 +40,23 @@ import org.slf4j.LoggerFactory;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import fi.okm.mpass.shibboleth.monitor.MonitoringResultCache;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.net.HttpServletSupport;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
- * This action writes the one-line result from {@link MonitoringResultContext} to the servlet response.
+ * This action writes the one-line result from {@link MonitoringResultContext} to the servlet response. If a
+ * {@link MonitoringResultCache} is configured, the latest result from the background monitoring is written instead.
  */
 @SuppressWarnings("rawtypes")
 public class WriteMonitoringResult extends AbstractProfileAction {
@@ -60,9 +67,49 @@ public class WriteMonitoringResult extends AbstractProfileAction {
     /** Error message returned when no results are available. */
     public static final String ERROR_MSG_NO_RESULTS = "ERROR: No results available";
 
+    /** Error message prefix returned when the latest result is too old. */
+    public static final String ERROR_MSG_STALE_RESULT = "ERROR: Latest result is stale";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(WriteMonitoringResult.class);
     
+    /** The cache for the results from the background monitoring, if used instead of the context. */
+    @Nullable private MonitoringResultCache resultCache;
+    
+    /** The identifier of the sequence whose result is written from the cache. */
+    @Nullable private String sequenceId;
+    
+    /** The maximum age of the result in milliseconds, 0 for no limit. */
+    @Duration @NonNegative private long maxResultAge;
+    
+    /**
+     * Set the cache for the results from the background monitoring. If set, the latest result is written from
+     * the cache instead of the {@link MonitoringResultContext}.
+     * @param cache What to set.
+     */
+    public void setResultCache(@Nullable final MonitoringResultCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        resultCache = cache;
+    }
+    
+    /**
+     * Set the identifier of the sequence whose result is written from the cache.
+     * @param id What to set.
+     */
+    public void setSequenceId(@Nullable final String id) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sequenceId = StringSupport.trimOrNull(id);
+    }
+    
+    /**
+     * Set the maximum age of the result in milliseconds, 0 for no limit. Older results are reported as stale.
+     * @param age What to set.
+     */
+    public void setMaxResultAge(@Duration @NonNegative final long age) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxResultAge = Constraint.isGreaterThanOrEqual(0, age, "Maximum result age must be greater than or equal to 0");
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -78,24 +125,54 @@ public class WriteMonitoringResult extends AbstractProfileAction {
         final HttpServletResponse httpResponse = getHttpServletResponse();
         HttpServletSupport.addNoCacheHeaders(httpResponse);
         HttpServletSupport.setUTF8Encoding(httpResponse);
-        final ProfileRequestContext prc = 
-                (ProfileRequestContext) getProfileContextLookupStrategy().apply(springRequestContext);
-        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class, false);
-        if (monitoringCtx == null) {
-            return writeAndReturn(httpResponse, ERROR_MSG_NO_CONTEXT);            
+        final MonitoringSequenceResult latest;
+        if (resultCache != null) {
+            latest = resultCache.getLatestResult(sequenceId);
+            if (latest == null) {
+                return writeAndReturn(httpResponse, ERROR_MSG_NO_RESULTS);
+            }
+        } else {
+            final ProfileRequestContext prc = 
+                    (ProfileRequestContext) getProfileContextLookupStrategy().apply(springRequestContext);
+            final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class, false);
+            if (monitoringCtx == null) {
+                return writeAndReturn(httpResponse, ERROR_MSG_NO_CONTEXT);            
+            }
+            final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
+            if (results == null || results.size() == 0) {
+                return writeAndReturn(httpResponse, ERROR_MSG_NO_RESULTS);
+            }
+            latest = results.get(results.size() - 1);
         }
-        final List<MonitoringSequenceResult> results = monitoringCtx.getResults();
-        if (results == null || results.size() == 0) {
-            return writeAndReturn(httpResponse, ERROR_MSG_NO_RESULTS);
+        final long age = System.currentTimeMillis() - latest.getEndTime();
+        if (maxResultAge > 0 && age > maxResultAge) {
+            log.warn("{} The latest result is {} ms old", getLogPrefix(), age);
+            return writeAndReturn(httpResponse, ERROR_MSG_STALE_RESULT + ", finished " + age + "ms ago");
         }
-        long start = results.get(results.size() - 1).getStartTime();
-        for (final MonitoringSequenceStepResult result : results.get(results.size() - 1).getStepResults()) {
+        long start = latest.getStartTime();
+        long coldTime = 0;
+        long warmTime = 0;
+        long dnsTime = 0;
+        long connectTime = 0;
+        long tlsTime = 0;
+        long waitTime = 0;
+        long downloadTime = 0;
+        for (final MonitoringSequenceStepResult result : latest.getStepResults()) {
             if (result.getErrorMessage() != null) {
                 return writeAndReturn(httpResponse, result.getErrorMessage());
             }
+            coldTime += result.getColdRequestTime();
+            warmTime += result.getWarmRequestTime();
+            dnsTime += result.getDnsTime();
+            connectTime += result.getConnectTime();
+            tlsTime += result.getTlsTime();
+            waitTime += result.getWaitTime();
+            downloadTime += result.getDownloadTime();
         }
-        return writeAndReturn(httpResponse, "OK: Full sequence took " + 
-                (results.get(results.size() -1).getEndTime() - start) + "ms");
+        return writeAndReturn(httpResponse, "OK: Full sequence took " + (latest.getEndTime() - start) + "ms"
+                + " (cold connections " + coldTime + "ms, warm connections " + warmTime + "ms; dns " + dnsTime
+                + "ms, connect " + connectTime + "ms, tls " + tlsTime + "ms, wait " + waitTime + "ms, download "
+                + downloadTime + "ms)");
     }
     
     /**
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable Aho-Corasick automaton for finding any number of patterns from a stream of characters in one pass.
+ * The matching state is kept in a {@link Scan}, so that the same automaton can be shared by concurrent scans.
+ */
+public final class AhoCorasickMatcher {
+
+    /** The patterns to be found. */
+    private final String[] patterns;
+
+    /** The transition characters for each state, sorted. */
+    private final char[][] transitionChars;
+
+    /** The target states of the transitions for each state, in the same order as the characters. */
+    private final int[][] transitionTargets;
+
+    /** The failure link for each state. */
+    private final int[] failures;
+
+    /** The indexes of the patterns ending at each state, including the ones reachable by the failure links. */
+    private final int[][] outputs;
+
+    /**
+     * Constructor.
+     * @param expected The patterns to be found, none of them can be empty.
+     */
+    public AhoCorasickMatcher(@Nonnull final List<String> expected) {
+        Constraint.isNotNull(expected, "The patterns cannot be null");
+        patterns = expected.toArray(new String[expected.size()]);
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<Character, Integer>());
+        ends.add(new ArrayList<Integer>());
+        for (int i = 0; i < patterns.length; i++) {
+            Constraint.isNotEmpty(patterns[i], "The patterns cannot be empty");
+            int state = 0;
+            for (int j = 0; j < patterns[i].length(); j++) {
+                final Character c = patterns[i].charAt(j);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    ends.add(new ArrayList<Integer>());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ends.get(state).add(i);
+        }
+        final int size = trie.size();
+        transitionChars = new char[size][];
+        transitionTargets = new int[size][];
+        for (int state = 0; state < size; state++) {
+            final TreeMap<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionTargets[state] = new int[transitions.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionTargets[state][i] = transition.getValue();
+                i++;
+            }
+        }
+        failures = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(ends.get(0));
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int child : transitionTargets[0]) {
+            failures[child] = 0;
+            outputs[child] = toArray(ends.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                final int child = transitionTargets[state][i];
+                final int failure = next(failures[state], transitionChars[state][i]);
+                failures[child] = failure;
+                final int[] own = toArray(ends.get(child));
+                final int[] inherited = outputs[failure];
+                final int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+                System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+                outputs[child] = merged;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Get the number of patterns.
+     * @return The number of patterns.
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * Get the pattern for the given index.
+     * @param index The index of the pattern.
+     * @return The pattern.
+     */
+    public String getPattern(final int index) {
+        return patterns[index];
+    }
+
+    /**
+     * Starts a new scan over a stream of characters.
+     * @return The new scan.
+     */
+    public Scan newScan() {
+        return new Scan();
+    }
+
+    /**
+     * Get the state following the given state with the given character, following the failure links if needed.
+     * @param from The current state.
+     * @param c The character.
+     * @return The next state.
+     */
+    private int next(final int from, final char c) {
+        int state = from;
+        while (true) {
+            final int i = Arrays.binarySearch(transitionChars[state], c);
+            if (i >= 0) {
+                return transitionTargets[state][i];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    /**
+     * Converts the given list of integers into an array.
+     * @param list The list to convert.
+     * @return The array.
+     */
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The state of one scan over a stream of characters. The instances are not thread-safe.
+     */
+    public final class Scan {
+
+        /** The patterns found so far. */
+        private final BitSet found = new BitSet(patterns.length);
+
+        /** The number of patterns not found yet. */
+        private int remaining = patterns.length;
+
+        /** The current state in the automaton. */
+        private int state;
+
+        /**
+         * Feeds the given characters to the scan. The characters are skipped once all the patterns have been found.
+         * @param chars The buffer containing the characters.
+         * @param offset The offset of the first character in the buffer.
+         * @param length The number of characters.
+         */
+        public void update(final char[] chars, final int offset, final int length) {
+            for (int i = offset; i < offset + length && !isAllFound(); i++) {
+                state = next(state, chars[i]);
+                for (final int pattern : outputs[state]) {
+                    if (!found.get(pattern)) {
+                        found.set(pattern);
+                        remaining--;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Get whether the pattern with the given index has been found.
+         * @param index The index of the pattern.
+         * @return Whether the pattern has been found.
+         */
+        public boolean isFound(final int index) {
+            return found.get(index);
+        }
+
+        /**
+         * Get whether all the patterns have been found.
+         * @return Whether all the patterns have been found.
+         */
+        public boolean isAllFound() {
+            return remaining == 0;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+/**
+ * The timings of the connection being opened by the current thread. The setup is started by the
+ * {@link TimingDnsResolver}, as the connection operator always resolves the target host first. The TLS handshake
+ * is added by the {@link TimingTLSSocketFactory} and the setup is finally claimed by the
+ * {@link ConnectionTrackingRequestExecutor} when the first request is sent over the new connection.
+ */
+final class ConnectionSetup {
+
+    /** The setup in progress for the current thread. */
+    private static final ThreadLocal<ConnectionSetup> CURRENT = new ThreadLocal<>();
+
+    /** The duration of the DNS lookup in nanoseconds. */
+    private final long dnsTime;
+
+    /** The time when the DNS lookup was finished, as given by {@link System#nanoTime()}. */
+    private final long resolvedAt;
+
+    /** The duration of the TLS handshake in nanoseconds. */
+    private long tlsTime;
+
+    /**
+     * Constructor.
+     * @param dns The duration of the DNS lookup in nanoseconds.
+     * @param resolved The time when the DNS lookup was finished, as given by {@link System#nanoTime()}.
+     */
+    private ConnectionSetup(final long dns, final long resolved) {
+        dnsTime = dns;
+        resolvedAt = resolved;
+    }
+
+    /**
+     * Starts a new setup for the current thread, replacing the possible earlier one.
+     * @param dns The duration of the DNS lookup in nanoseconds.
+     * @param resolved The time when the DNS lookup was finished, as given by {@link System#nanoTime()}.
+     */
+    static void begin(final long dns, final long resolved) {
+        CURRENT.set(new ConnectionSetup(dns, resolved));
+    }
+
+    /**
+     * Get the setup in progress for the current thread.
+     * @return The setup, or null if none is in progress.
+     */
+    static ConnectionSetup current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Get and remove the setup in progress for the current thread.
+     * @return The setup, or null if none is in progress.
+     */
+    static ConnectionSetup claim() {
+        final ConnectionSetup setup = CURRENT.get();
+        CURRENT.remove();
+        return setup;
+    }
+
+    /**
+     * Add the duration of a TLS handshake.
+     * @param time The duration in nanoseconds.
+     */
+    void addTlsTime(final long time) {
+        tlsTime += time;
+    }
+
+    /**
+     * Get the duration of the DNS lookup.
+     * @return The duration in nanoseconds.
+     */
+    long getDnsTime() {
+        return dnsTime;
+    }
+
+    /**
+     * Get the duration of the TLS handshake.
+     * @return The duration in nanoseconds.
+     */
+    long getTlsTime() {
+        return tlsTime;
+    }
+
+    /**
+     * Get the time spent in opening the TCP connection, i.e. the time from the end of the DNS lookup until the given
+     * moment, excluding the TLS handshake.
+     * @param now The time when the connection was ready for the first request, as given by {@link System#nanoTime()}.
+     * @return The duration in nanoseconds.
+     */
+    long getConnectTime(final long now) {
+        return Math.max(0, now - resolvedAt - tlsTime);
+    }
+}
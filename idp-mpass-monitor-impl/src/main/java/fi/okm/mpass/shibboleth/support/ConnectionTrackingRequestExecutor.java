@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * A {@link HttpRequestExecutor} recording to the {@link HttpContext} whether a request was sent over a newly opened
+ * connection instead of a reused pooled one. The network phases of the request are recorded to the
+ * {@link RequestPhaseTimings} in the context: the setup of a new connection, as measured by {@link TimingDnsResolver}
+ * and {@link TimingTLSSocketFactory}, and the time until the response headers were received.
+ */
+public class ConnectionTrackingRequestExecutor extends HttpRequestExecutor {
+
+    /** The context attribute set to {@link Boolean#TRUE} when a request was sent over a new connection. */
+    public static final String CONTEXT_KEY_NEW_CONNECTION = "fi.okm.mpass.shibboleth.support.newConnection";
+
+    /** {@inheritDoc} */
+    @Override
+    public HttpResponse execute(final HttpRequest request, final HttpClientConnection conn, 
+            final HttpContext context) throws IOException, HttpException {
+        if (context == null) {
+            return super.execute(request, conn, context);
+        }
+        final RequestPhaseTimings timings = RequestPhaseTimings.getOrCreate(context);
+        final long start = System.nanoTime();
+        if (conn.getMetrics().getRequestCount() == 0) {
+            context.setAttribute(CONTEXT_KEY_NEW_CONNECTION, Boolean.TRUE);
+            final ConnectionSetup setup = ConnectionSetup.claim();
+            if (setup != null) {
+                timings.addConnectionSetup(setup.getDnsTime(), setup.getConnectTime(start), setup.getTlsTime());
+            }
+        }
+        final HttpResponse response = super.execute(request, conn, context);
+        timings.addWaitTime(System.nanoTime() - start);
+        return response;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A thread-safe collector of {@link RecordedExchange}s, and the compact archive format for storing them.
+ * 
+ * <p>
+ * The archive is a GZIP stream starting with a magic number and a version byte, followed by the exchanges in the
+ * order they were recorded, each preceded by a non-zero marker byte and the last one followed by a zero byte. The
+ * strings are written as UTF-8 byte arrays, and the byte arrays with their lengths, -1 standing for null.
+ * The request bodies are not part of the archive.
+ * </p>
+ */
+public class ExchangeRecorder {
+
+    /** The magic number starting the archive. */
+    public static final int MAGIC = 0x4d505252;
+
+    /** The version of the archive format. */
+    public static final int VERSION = 2;
+
+    /** The recorded exchanges. */
+    @Nonnull private final List<RecordedExchange> exchanges;
+
+    /**
+     * Constructor.
+     */
+    public ExchangeRecorder() {
+        exchanges = new ArrayList<>();
+    }
+
+    /**
+     * Records the given exchange.
+     * @param exchange The exchange to be recorded.
+     */
+    public void record(@Nonnull final RecordedExchange exchange) {
+        Constraint.isNotNull(exchange, "The exchange cannot be null");
+        synchronized (exchanges) {
+            exchanges.add(exchange);
+        }
+    }
+
+    /**
+     * Get the recorded exchanges.
+     * @return A copy of the recorded exchanges, in the order they were recorded.
+     */
+    @Nonnull public List<RecordedExchange> getExchanges() {
+        synchronized (exchanges) {
+            return new ArrayList<>(exchanges);
+        }
+    }
+
+    /**
+     * Removes all the recorded exchanges.
+     */
+    public void clear() {
+        synchronized (exchanges) {
+            exchanges.clear();
+        }
+    }
+
+    /**
+     * Writes the recorded exchanges to the given stream as an archive. The stream is not closed.
+     * 
+     * @param out The output for the archive.
+     * @throws IOException If the archive cannot be written.
+     */
+    public void write(@Nonnull final OutputStream out) throws IOException {
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        for (final RecordedExchange exchange : getExchanges()) {
+            data.writeByte(1);
+            writeString(data, exchange.getResolverId());
+            writeString(data, exchange.getMethod());
+            writeString(data, exchange.getUri());
+            data.writeShort(exchange.getStatusCode());
+            writeString(data, exchange.getReasonPhrase());
+            data.writeInt(exchange.getHeaders().size());
+            for (final Header header : exchange.getHeaders()) {
+                writeString(data, header.getName());
+                writeString(data, header.getValue());
+            }
+            writeBytes(data, exchange.getBody());
+            data.writeLong(exchange.getStartTime());
+            data.writeLong(exchange.getWaitTime());
+            data.writeLong(exchange.getDownloadTime());
+        }
+        data.writeByte(0);
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Reads the exchanges from the given archive. The stream is not closed.
+     * 
+     * @param in The input for the archive.
+     * @return The exchanges, in the order they were recorded.
+     * @throws IOException If the archive cannot be read or it is not valid.
+     */
+    @Nonnull public static List<RecordedExchange> read(@Nonnull final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an exchange archive");
+        }
+        final int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported exchange archive version " + version);
+        }
+        final List<RecordedExchange> result = new ArrayList<>();
+        while (data.readByte() != 0) {
+            final String resolverId = readString(data);
+            final RecordedExchange exchange = new RecordedExchange(readString(data), readString(data));
+            exchange.setResolverId(resolverId);
+            exchange.setStatusCode(data.readUnsignedShort());
+            exchange.setReasonPhrase(readString(data));
+            final int headers = data.readInt();
+            for (int i = 0; i < headers; i++) {
+                exchange.addHeader(readString(data), readString(data));
+            }
+            exchange.setBody(readBytes(data));
+            exchange.setStartTime(data.readLong());
+            exchange.setWaitTime(data.readLong());
+            exchange.setDownloadTime(data.readLong());
+            result.add(exchange);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a nullable string.
+     * @param data The output.
+     * @param value The string.
+     * @throws IOException If the string cannot be written.
+     */
+    private static void writeString(@Nonnull final DataOutputStream data, @Nullable final String value)
+            throws IOException {
+        writeBytes(data, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Reads a nullable string.
+     * @param data The input.
+     * @return The string.
+     * @throws IOException If the string cannot be read.
+     */
+    @Nullable private static String readString(@Nonnull final DataInputStream data) throws IOException {
+        final byte[] value = readBytes(data);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Writes a nullable byte array with its length.
+     * @param data The output.
+     * @param value The byte array.
+     * @throws IOException If the array cannot be written.
+     */
+    private static void writeBytes(@Nonnull final DataOutputStream data, @Nullable final byte[] value)
+            throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+        } else {
+            data.writeInt(value.length);
+            data.write(value);
+        }
+    }
+
+    /**
+     * Reads a nullable byte array with its length.
+     * @param data The input.
+     * @return The byte array.
+     * @throws IOException If the array cannot be read.
+     */
+    @Nullable private static byte[] readBytes(@Nonnull final DataInputStream data) throws IOException {
+        final int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        data.readFully(value);
+        return value;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Extracts the requested attribute and field values from an HTML document in a single pass. The document is
+ * tokenized into elements separated by the angle brackets outside quoted values, and the quoted
+ * <code>name="value"</code> attributes are collected from each of them. The same applies to the text outside the
+ * tags, so that also attribute-like fragments are found. The values are HTML-decoded.
+ * 
+ * <p>An attribute is found from the first element containing it, for instance the <code>action</code> of a form. A
+ * field is found from the first element containing the field name as an attribute value, typically as its
+ * <code>name</code>, and its value is the <code>value</code> attribute of that element, for instance the value of
+ * a form input.</p>
+ * 
+ * <p>The document may also be fed in chunks to a {@link Scan}, for instance while it is read from a response, so
+ * that it does not need to be kept in memory.</p>
+ */
+public class HtmlFieldExtractor {
+
+    /** The name of the attribute containing the field value. */
+    public static final String VALUE_ATTRIBUTE = "value";
+
+    /** The names of the attributes to be extracted. */
+    @Nonnull @NonnullElements private final Set<String> attributeNames;
+
+    /** The names of the fields to be extracted. */
+    @Nonnull @NonnullElements private final Set<String> fieldNames;
+
+    /**
+     * Constructor.
+     * @param attributes The names of the attributes to be extracted.
+     * @param fields The names of the fields to be extracted.
+     */
+    public HtmlFieldExtractor(@Nonnull @NonnullElements final Collection<String> attributes,
+            @Nonnull @NonnullElements final Collection<String> fields) {
+        attributeNames = new HashSet<>(Constraint.isNotNull(attributes, "The attribute names cannot be null"));
+        fieldNames = new HashSet<>(Constraint.isNotNull(fields, "The field names cannot be null"));
+    }
+
+    /**
+     * Extracts the requested attributes and fields from the given document. The scanning is stopped once all of them
+     * have been found.
+     * @param document The HTML document.
+     * @return The extracted values.
+     */
+    @Nonnull public Result extract(@Nonnull final CharSequence document) {
+        final Scan scan = newScan();
+        for (int i = 0; i < document.length() && !scan.result.isComplete(); i++) {
+            scan.process(document.charAt(i));
+        }
+        return scan.getResult();
+    }
+
+    /**
+     * Starts a new scan, to which the document is written in one or more chunks.
+     * @return The new scan.
+     */
+    @Nonnull public Scan newScan() {
+        return new Scan();
+    }
+
+    /**
+     * Checks whether the given character may be a part of an attribute name.
+     * @param c The character.
+     * @return Whether the character may be a part of an attribute name.
+     */
+    protected static boolean isNameChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '.';
+    }
+
+    /**
+     * A scan of one document, written to it in one or more chunks. The chunks are ignored once all the requested
+     * attributes and fields have been found.
+     */
+    public class Scan extends Writer {
+
+        /** The values extracted so far. */
+        private final Result result = new Result();
+
+        /** The attributes of the current element as name-value pairs. */
+        private final List<String[]> element = new ArrayList<>();
+
+        /** The current attribute name. */
+        private final StringBuilder name = new StringBuilder();
+
+        /** The current quoted value. */
+        private final StringBuilder value = new StringBuilder();
+
+        /** The quote character of the current value, 0 if not inside a quoted value. */
+        private char quote;
+
+        /** Whether the equals sign has been found after the current attribute name. */
+        private boolean equalsFound;
+
+        /** The previous character, 0 in the beginning of the document. */
+        private char previous;
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final char[] chars, final int offset, final int length) {
+            for (int i = offset; i < offset + length && !result.isComplete(); i++) {
+                process(chars[i]);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void flush() {
+            // nothing to flush
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+        /**
+         * Get the values extracted from the document written so far.
+         * @return The extracted values.
+         */
+        @Nonnull public Result getResult() {
+            if (!result.isComplete()) {
+                result.collect(element);
+            }
+            return result;
+        }
+
+        /**
+         * Processes the next character of the document.
+         * @param c The character.
+         */
+        private void process(final char c) {
+            if (quote != 0) {
+                if (c == quote) {
+                    element.add(new String[] { name.toString(), StringEscapeUtils.unescapeHtml(value.toString()) });
+                    name.setLength(0);
+                    value.setLength(0);
+                    quote = 0;
+                    equalsFound = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '<' || c == '>') {
+                result.collect(element);
+                element.clear();
+                name.setLength(0);
+                equalsFound = false;
+            } else if (equalsFound) {
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (!Character.isWhitespace(c)) {
+                    name.setLength(0);
+                    equalsFound = false;
+                }
+            } else if (c == '=') {
+                equalsFound = name.length() > 0;
+            } else if (isNameChar(c)) {
+                if (!isNameChar(previous)) {
+                    name.setLength(0);
+                }
+                name.append(c);
+            } else if (!Character.isWhitespace(c)) {
+                name.setLength(0);
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * The values extracted from one document.
+     */
+    public class Result {
+
+        /** The extracted attribute values mapped by their names. */
+        private final Map<String, String> attributes = new HashMap<>();
+
+        /** The extracted field values mapped by their names, null values for the fields without a value. */
+        private final Map<String, String> fields = new HashMap<>();
+
+        /**
+         * Collects the requested attributes and fields from the given element.
+         * @param element The attributes of the element as name-value pairs.
+         */
+        private void collect(final List<String[]> element) {
+            String fieldValue = null;
+            for (final String[] attribute : element) {
+                if (VALUE_ATTRIBUTE.equals(attribute[0])) {
+                    fieldValue = attribute[1];
+                    break;
+                }
+            }
+            for (final String[] attribute : element) {
+                if (attributeNames.contains(attribute[0]) && !attributes.containsKey(attribute[0])) {
+                    attributes.put(attribute[0], attribute[1]);
+                }
+                if (fieldNames.contains(attribute[1]) && !fields.containsKey(attribute[1])) {
+                    fields.put(attribute[1], fieldValue);
+                }
+            }
+        }
+
+        /**
+         * Checks whether all the requested attributes and fields have been found.
+         * @return Whether all the requested attributes and fields have been found.
+         */
+        private boolean isComplete() {
+            return attributes.size() == attributeNames.size() && fields.size() == fieldNames.size();
+        }
+
+        /**
+         * Get the value of the given attribute.
+         * @param name The name of the attribute.
+         * @return The decoded value of the attribute, or null if it was not found.
+         */
+        @Nullable public String getAttribute(@Nonnull final String name) {
+            return attributes.get(name);
+        }
+
+        /**
+         * Get the value of the given field.
+         * @param name The name of the field.
+         * @return The decoded value of the field, or null if it was not found or it had no value.
+         */
+        @Nullable public String getField(@Nonnull final String name) {
+            return fields.get(name);
+        }
+
+        /**
+         * Get the extracted attribute values.
+         * @return The extracted attribute values mapped by their names.
+         */
+        @Nonnull public Map<String, String> getAttributes() {
+            return Collections.unmodifiableMap(attributes);
+        }
+    }
+}
@@ -25,11 +25,16 @@ package fi.okm.mpass.shibboleth.support;
 
 import javax.annotation.Nonnull;
 
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 
 /**
  * This class extends {@link net.shibboleth.utilities.java.support.httpclient.HttpClientBuilder} by disabling the
- * automatic redirects completely (including internal redirects) if httpFollowRedirects is set to false.
+ * automatic redirects completely (including internal redirects) if httpFollowRedirects is set to false. The built
+ * clients record whether their requests were sent over new or reused connections and the durations of the network
+ * phases, see {@link ConnectionTrackingRequestExecutor}.
  */
 public class HttpClientBuilder extends net.shibboleth.utilities.java.support.httpclient.HttpClientBuilder {
     
@@ -38,6 +43,7 @@ public class HttpClientBuilder extends net.shibboleth.utilities.java.support.htt
      */
     public HttpClientBuilder() {
         super();
+        initializeDefaults();
     }
 
     /**
@@ -46,6 +52,39 @@ public class HttpClientBuilder extends net.shibboleth.utilities.java.support.htt
      */
     public HttpClientBuilder(@Nonnull org.apache.http.impl.client.HttpClientBuilder builder) {
         super(builder);
+        initializeDefaults();
+    }
+    
+    /**
+     * Sets the defaults for the monitoring clients: the connections are kept alive for the reuse by the following
+     * requests and tracked by {@link ConnectionTrackingRequestExecutor}. The DNS lookups are timed by
+     * {@link TimingDnsResolver}.
+     */
+    private void initializeDefaults() {
+        setConnectionCloseAfterResponse(false);
+        getApacheBuilder().setRequestExecutor(new ConnectionTrackingRequestExecutor());
+        getApacheBuilder().setDnsResolver(new TimingDnsResolver());
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The TLS socket factory is wrapped into a {@link TimingTLSSocketFactory} for the built client, unless the
+     * TLS certificates are disregarded.</p>
+     */
+    @Override
+    public HttpClient buildClient() throws Exception {
+        final LayeredConnectionSocketFactory tlsSocketFactory = getTLSSocketFactory();
+        if (isConnectionDisregardTLSCertificate() || tlsSocketFactory instanceof TimingTLSSocketFactory) {
+            return super.buildClient();
+        }
+        setTLSSocketFactory(new TimingTLSSocketFactory(tlsSocketFactory != null ? tlsSocketFactory
+                : SSLConnectionSocketFactory.getSocketFactory()));
+        try {
+            return super.buildClient();
+        } finally {
+            setTLSSocketFactory(tlsSocketFactory);
+        }
     }
     
     /** {@inheritDoc} */
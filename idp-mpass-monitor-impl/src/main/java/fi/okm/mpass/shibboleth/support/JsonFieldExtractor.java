@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Extracts the values for the requested keys from a JSON document in a single streaming pass. The keys are searched
+ * from all the objects in the document, regardless of their depth, and the first occurrence of each key is used.
+ * Only the primitive values are extracted, the values are returned in their decoded string form.
+ */
+public class JsonFieldExtractor {
+
+    /** The keys to be extracted. */
+    @Nonnull @NonnullElements private final Set<String> keys;
+
+    /**
+     * Constructor.
+     * @param fieldKeys The keys to be extracted.
+     */
+    public JsonFieldExtractor(@Nonnull @NonnullElements final Collection<String> fieldKeys) {
+        keys = new HashSet<>(Constraint.isNotNull(fieldKeys, "The field keys cannot be null"));
+    }
+
+    /**
+     * Extracts the values for the requested keys from the given document. The reading is stopped once all of them
+     * have been found.
+     * @param document The JSON document.
+     * @return The extracted values mapped by their keys.
+     * @throws IOException If the document is not well-formed JSON.
+     */
+    @Nonnull public Map<String, String> extract(@Nonnull final String document) throws IOException {
+        final Map<String, String> values = new HashMap<>();
+        try (final JsonReader reader = new JsonReader(new StringReader(document))) {
+            reader.setLenient(true);
+            String name = null;
+            while (values.size() < keys.size()) {
+                final JsonToken token = reader.peek();
+                switch (token) {
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        break;
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        break;
+                    case NAME:
+                        name = reader.nextName();
+                        continue;
+                    case STRING:
+                    case NUMBER:
+                        collect(values, name, reader.nextString());
+                        break;
+                    case BOOLEAN:
+                        collect(values, name, String.valueOf(reader.nextBoolean()));
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        break;
+                    default:
+                        return values;
+                }
+                name = null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Stores the given value if its key was requested and not yet found.
+     * @param values The values found so far.
+     * @param name The key of the value, or null if the value is not an object member.
+     * @param value The value.
+     */
+    private void collect(final Map<String, String> values, final String name, final String value) {
+        if (name != null && keys.contains(name) && !values.containsKey(name)) {
+            values.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A mergeable sketch of a distribution of non-negative values, typically latencies in milliseconds, for estimating
+ * its quantiles.
+ * 
+ * <p>
+ * The values are counted in logarithmic buckets, each power of two being split to {@link #SUB_BUCKETS} linear
+ * buckets, in the same way as in the HdrHistogram. The values smaller than {@link #SUB_BUCKETS} are counted exactly,
+ * and the relative error for the larger ones is at most 1 / {@link #SUB_BUCKETS}. Two sketches are merged by adding
+ * their bucket counts, so that the sketches of short periods can be combined to the sketches of longer ones without
+ * losing accuracy. The sketch is serialized to a compact byte array containing only the non-empty buckets.
+ * </p>
+ * 
+ * <p>This class is not thread-safe.</p>
+ */
+public class QuantileSketch {
+
+    /** The number of linear sub-buckets within each power of two. */
+    public static final int SUB_BUCKETS = 32;
+
+    /** The number of bits in the sub-bucket index. */
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /** The version of the serialized format. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The bucket counts, indexed by {@link #bucketIndex(long)}. */
+    @Nonnull private long[] counts;
+
+    /** The total number of recorded values. */
+    private long count;
+
+    /** The sum of the recorded values. */
+    private long sum;
+
+    /** The smallest recorded value. */
+    private long min;
+
+    /** The largest recorded value. */
+    private long max;
+
+    /**
+     * Constructor.
+     */
+    public QuantileSketch() {
+        counts = new long[2 * SUB_BUCKETS];
+        min = Long.MAX_VALUE;
+    }
+
+    /**
+     * Records the given value.
+     * @param value The value to be recorded, negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        final long recorded = Math.max(0, value);
+        final int index = bucketIndex(recorded);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        count++;
+        sum += recorded;
+        min = Math.min(min, recorded);
+        max = Math.max(max, recorded);
+    }
+
+    /**
+     * Adds the values recorded in the given sketch to this one.
+     * @param other The sketch to be merged.
+     */
+    public void merge(@Nonnull final QuantileSketch other) {
+        Constraint.isNotNull(other, "The sketch to be merged cannot be null");
+        if (other.count == 0) {
+            return;
+        }
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Get the number of recorded values.
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the smallest recorded value.
+     * @return The smallest recorded value, 0 if none recorded.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Get the largest recorded value.
+     * @return The largest recorded value, 0 if none recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     * @return The sum of the recorded values.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the mean of the recorded values.
+     * @return The mean of the recorded values, 0 if none recorded.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Estimates the given quantile of the recorded values. The estimate is the upper bound of the bucket containing
+     * the value at the quantile, limited to the range of the recorded values.
+     * 
+     * @param quantile The quantile between 0 and 1, for instance 0.95 for the 95th percentile.
+     * @return The estimated value at the quantile, 0 if none recorded.
+     */
+    public long getQuantile(final double quantile) {
+        Constraint.isTrue(quantile >= 0 && quantile <= 1, "The quantile must be between 0 and 1");
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, bucketUpperBound(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Serializes the sketch to a byte array.
+     * @return The serialized sketch.
+     */
+    @Nonnull public byte[] toBytes() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+        writeVarLong(out, count);
+        if (count > 0) {
+            writeVarLong(out, sum);
+            writeVarLong(out, min);
+            writeVarLong(out, max);
+            int previous = -1;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    writeVarLong(out, i - previous);
+                    writeVarLong(out, counts[i]);
+                    previous = i;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Deserializes a sketch from the given byte array.
+     * @param bytes The serialized sketch, as produced by {@link #toBytes()}.
+     * @return The sketch.
+     * @throws IllegalArgumentException If the bytes do not contain a valid sketch.
+     */
+    @Nonnull public static QuantileSketch fromBytes(@Nonnull final byte[] bytes) {
+        Constraint.isNotNull(bytes, "The serialized sketch cannot be null");
+        final int[] position = new int[] { 0 };
+        if (bytes.length == 0 || bytes[position[0]++] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch format");
+        }
+        final QuantileSketch sketch = new QuantileSketch();
+        final long total = readVarLong(bytes, position);
+        if (total == 0) {
+            return sketch;
+        }
+        sketch.sum = readVarLong(bytes, position);
+        sketch.min = readVarLong(bytes, position);
+        sketch.max = readVarLong(bytes, position);
+        sketch.counts = new long[bucketIndex(sketch.max) + 1];
+        int index = -1;
+        while (position[0] < bytes.length) {
+            index += (int) readVarLong(bytes, position);
+            if (index < 0 || index >= sketch.counts.length) {
+                throw new IllegalArgumentException("Invalid bucket index in the sketch");
+            }
+            sketch.counts[index] = readVarLong(bytes, position);
+            sketch.count += sketch.counts[index];
+        }
+        if (sketch.count != total) {
+            throw new IllegalArgumentException("The bucket counts do not match the total count");
+        }
+        return sketch;
+    }
+
+    /**
+     * Get the index of the bucket for the given value.
+     * @param value The non-negative value.
+     * @return The index of the bucket.
+     */
+    protected static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the largest value counted in the bucket of the given index.
+     * @param index The index of the bucket.
+     * @return The largest value counted in the bucket.
+     */
+    protected static long bucketUpperBound(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Writes the given non-negative value as a variable-length quantity of 7-bit groups.
+     * @param out The output.
+     * @param value The value.
+     */
+    private static void writeVarLong(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Reads a variable-length quantity written by {@link #writeVarLong(ByteArrayOutputStream, long)}.
+     * @param bytes The input.
+     * @param position The current position in the input, updated by this method.
+     * @return The value.
+     */
+    private static long readVarLong(final byte[] bytes, final int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IllegalArgumentException("Truncated sketch");
+            }
+            final byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length value in the sketch");
+    }
+}
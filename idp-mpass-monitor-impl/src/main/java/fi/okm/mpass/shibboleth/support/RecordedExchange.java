@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An HTTP request and its response, as recorded by {@link ExchangeRecorder}. The request body is never recorded, as
+ * it may contain the credentials of the monitoring account.
+ */
+public class RecordedExchange {
+
+    /** The identifier of the resolver executing the request. */
+    @Nullable private String resolverId;
+
+    /** The request method. */
+    @Nonnull private String method;
+
+    /** The request URI. */
+    @Nonnull private String uri;
+
+    /** The response status code. */
+    private int statusCode;
+
+    /** The response reason phrase. */
+    @Nullable private String reasonPhrase;
+
+    /** The response headers. */
+    @Nonnull private List<Header> headers;
+
+    /** The decoded response body, or null if the response has no body. */
+    @Nullable private byte[] body;
+
+    /** The start time of the request in milliseconds. */
+    private long startTime;
+
+    /** The time from sending the request until receiving the response headers in milliseconds. */
+    private long waitTime;
+
+    /** The time spent downloading the response body in milliseconds. */
+    private long downloadTime;
+
+    /**
+     * Constructor.
+     * 
+     * @param requestMethod The request method.
+     * @param requestUri The request URI.
+     */
+    public RecordedExchange(@Nonnull final String requestMethod, @Nonnull final String requestUri) {
+        method = Constraint.isNotNull(requestMethod, "The method cannot be null");
+        uri = Constraint.isNotNull(requestUri, "The URI cannot be null");
+        headers = new ArrayList<>();
+    }
+
+    /**
+     * Get the identifier of the resolver executing the request.
+     * @return The identifier of the resolver.
+     */
+    @Nullable public String getResolverId() {
+        return resolverId;
+    }
+
+    /**
+     * Set the identifier of the resolver executing the request.
+     * @param id What to set.
+     */
+    public void setResolverId(@Nullable final String id) {
+        resolverId = id;
+    }
+
+    /**
+     * Get the request method.
+     * @return The request method.
+     */
+    @Nonnull public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the request URI.
+     * @return The request URI.
+     */
+    @Nonnull public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Get the response status code.
+     * @return The response status code.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Set the response status code.
+     * @param code What to set.
+     */
+    public void setStatusCode(final int code) {
+        statusCode = code;
+    }
+
+    /**
+     * Get the response reason phrase.
+     * @return The response reason phrase.
+     */
+    @Nullable public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * Set the response reason phrase.
+     * @param phrase What to set.
+     */
+    public void setReasonPhrase(@Nullable final String phrase) {
+        reasonPhrase = phrase;
+    }
+
+    /**
+     * Get the response headers.
+     * @return The response headers.
+     */
+    @Nonnull public List<Header> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Add a response header.
+     * @param name The name of the header.
+     * @param value The value of the header.
+     */
+    public void addHeader(@Nonnull final String name, @Nullable final String value) {
+        headers.add(new BasicHeader(name, value));
+    }
+
+    /**
+     * Get the first response header with the given name.
+     * @param name The name of the header, case-insensitive.
+     * @return The value of the header, or null if it does not exist.
+     */
+    @Nullable public String getFirstHeader(@Nonnull final String name) {
+        for (final Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the decoded response body.
+     * @return The decoded response body, or null if the response has no body.
+     */
+    @Nullable public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Set the decoded response body.
+     * @param newBody What to set.
+     */
+    public void setBody(@Nullable final byte[] newBody) {
+        body = newBody;
+    }
+
+    /**
+     * Get the start time of the request.
+     * @return The start time of the request in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Set the start time of the request.
+     * @param time What to set.
+     */
+    public void setStartTime(final long time) {
+        startTime = time;
+    }
+
+    /**
+     * Get the time from sending the request until receiving the response headers.
+     * @return The time in milliseconds.
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Set the time from sending the request until receiving the response headers.
+     * @param time What to set.
+     */
+    public void setWaitTime(final long time) {
+        waitTime = time;
+    }
+
+    /**
+     * Get the time spent downloading the response body.
+     * @return The time in milliseconds.
+     */
+    public long getDownloadTime() {
+        return downloadTime;
+    }
+
+    /**
+     * Set the time spent downloading the response body.
+     * @param time What to set.
+     */
+    public void setDownloadTime(final long time) {
+        downloadTime = time;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The network phases of the HTTP requests, accumulated over all the requests executed with the same
+ * {@link HttpContext}, including the redirects followed by the client itself. The instance is kept as an attribute
+ * in the context, and it is filled by {@link ConnectionTrackingRequestExecutor}. The durations are measured in
+ * nanoseconds and given in milliseconds.
+ */
+public class RequestPhaseTimings {
+
+    /** The attribute name for this object in the {@link HttpContext}. */
+    public static final String CONTEXT_KEY = RequestPhaseTimings.class.getName();
+
+    /** The time spent in the DNS lookups in nanoseconds. */
+    private long dnsTime;
+
+    /** The time spent opening the TCP connections in nanoseconds. */
+    private long connectTime;
+
+    /** The time spent in the TLS handshakes in nanoseconds. */
+    private long tlsTime;
+
+    /** The time from sending the requests until receiving the response headers in nanoseconds. */
+    private long waitTime;
+
+    /**
+     * Add the timings of a newly opened connection.
+     * @param dns The duration of the DNS lookup in nanoseconds.
+     * @param connect The duration of opening the TCP connection in nanoseconds.
+     * @param tls The duration of the TLS handshake in nanoseconds.
+     */
+    public void addConnectionSetup(final long dns, final long connect, final long tls) {
+        dnsTime += dns;
+        connectTime += connect;
+        tlsTime += tls;
+    }
+
+    /**
+     * Add the time from sending a request until receiving its response headers.
+     * @param wait The duration in nanoseconds.
+     */
+    public void addWaitTime(final long wait) {
+        waitTime += wait;
+    }
+
+    /**
+     * Get the time spent in the DNS lookups.
+     * @return The time spent in the DNS lookups in milliseconds.
+     */
+    public long getDnsTime() {
+        return TimeUnit.NANOSECONDS.toMillis(dnsTime);
+    }
+
+    /**
+     * Get the time spent opening the TCP connections.
+     * @return The time spent opening the TCP connections in milliseconds.
+     */
+    public long getConnectTime() {
+        return TimeUnit.NANOSECONDS.toMillis(connectTime);
+    }
+
+    /**
+     * Get the time spent in the TLS handshakes.
+     * @return The time spent in the TLS handshakes in milliseconds.
+     */
+    public long getTlsTime() {
+        return TimeUnit.NANOSECONDS.toMillis(tlsTime);
+    }
+
+    /**
+     * Get the time from sending the requests until receiving the response headers (time to first byte).
+     * @return The time to first byte in milliseconds.
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime);
+    }
+
+    /**
+     * Get the timings from the given context.
+     * @param context The HTTP context.
+     * @return The timings, or null if none have been attached to the context.
+     */
+    @Nullable public static RequestPhaseTimings get(@Nullable final HttpContext context) {
+        if (context == null) {
+            return null;
+        }
+        final Object timings = context.getAttribute(CONTEXT_KEY);
+        return timings instanceof RequestPhaseTimings ? (RequestPhaseTimings) timings : null;
+    }
+
+    /**
+     * Get the timings from the given context, attaching a new instance to it if none exists.
+     * @param context The HTTP context.
+     * @return The timings.
+     */
+    @Nonnull public static RequestPhaseTimings getOrCreate(@Nonnull final HttpContext context) {
+        RequestPhaseTimings timings = get(context);
+        if (timings == null) {
+            timings = new RequestPhaseTimings();
+            context.setAttribute(CONTEXT_KEY, timings);
+        }
+        return timings;
+    }
+}
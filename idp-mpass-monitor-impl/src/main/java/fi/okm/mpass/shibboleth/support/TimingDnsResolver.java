@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+/**
+ * A {@link DnsResolver} measuring the duration of the lookups. A lookup starts the {@link ConnectionSetup} for the
+ * current thread.
+ */
+public class TimingDnsResolver implements DnsResolver {
+
+    /** The resolver doing the actual lookups. */
+    private final DnsResolver delegate;
+
+    /**
+     * Constructor using the {@link SystemDefaultDnsResolver}.
+     */
+    public TimingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE);
+    }
+
+    /**
+     * Constructor.
+     * @param resolver The resolver doing the actual lookups.
+     */
+    public TimingDnsResolver(final DnsResolver resolver) {
+        delegate = resolver;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        final long start = System.nanoTime();
+        final InetAddress[] addresses = delegate.resolve(host);
+        final long end = System.nanoTime();
+        ConnectionSetup.begin(end - start, end);
+        return addresses;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A {@link LayeredConnectionSocketFactory} measuring the duration of the TLS handshakes done by the wrapped factory.
+ * The TCP connection is opened by this class, and the TLS layer is created separately on top of it, in the same way
+ * as {@link org.apache.http.conn.ssl.SSLConnectionSocketFactory} does.
+ */
+public class TimingTLSSocketFactory implements LayeredConnectionSocketFactory {
+
+    /** The factory doing the actual work. */
+    private final LayeredConnectionSocketFactory delegate;
+
+    /**
+     * Constructor.
+     * @param factory The factory doing the actual work.
+     */
+    public TimingTLSSocketFactory(final LayeredConnectionSocketFactory factory) {
+        delegate = factory;
+    }
+
+    /**
+     * Get the factory doing the actual work.
+     * @return The factory doing the actual work.
+     */
+    public LayeredConnectionSocketFactory getDelegate() {
+        return delegate;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createSocket(final HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket connectSocket(final int connectTimeout, final Socket socket, final HttpHost host,
+            final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpContext context)
+            throws IOException {
+        final Socket sock = socket != null ? socket : createSocket(context);
+        if (sock instanceof SSLSocket) {
+            // the handshake cannot be separated from the connection
+            return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        }
+        if (localAddress != null) {
+            sock.bind(localAddress);
+        }
+        try {
+            if (connectTimeout > 0 && sock.getSoTimeout() == 0) {
+                sock.setSoTimeout(connectTimeout);
+            }
+            sock.connect(remoteAddress, connectTimeout);
+        } catch (IOException e) {
+            try {
+                sock.close();
+            } catch (IOException ignore) {
+                // the original exception is more relevant
+            }
+            throw e;
+        }
+        return createLayeredSocket(sock, host.getHostName(), remoteAddress.getPort(), context);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Socket createLayeredSocket(final Socket socket, final String target, final int port,
+            final HttpContext context) throws IOException {
+        final long start = System.nanoTime();
+        final Socket layered = delegate.createLayeredSocket(socket, target, port, context);
+        final ConnectionSetup setup = ConnectionSetup.current();
+        if (setup != null) {
+            setup.addTlsTime(System.nanoTime() - start);
+        }
+        return layered;
+    }
+}
@@ -26,10 +26,15 @@ package fi.okm.mpass.shibboleth.monitor;
 import java.io.StringReader;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.protocol.HttpContext;
 import org.mockito.Mockito;
@@ -45,6 +50,7 @@ import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceHopResult;
 import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
 
 /**
@@ -89,6 +95,112 @@ public class AbstractSequenceStepResolverTest {
         Assert.assertTrue(thrown);
     }
     
+    @Test
+    public void testSharedClient() throws Exception {
+        HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+        Mockito.when(clientBuilder.buildClient()).thenReturn(Mockito.mock(HttpClient.class));
+        final SearchKeyResolver resolver1 = new SearchKeyResolver("mock", clientBuilder);
+        final SearchKeyResolver resolver2 = new SearchKeyResolver("mock", clientBuilder);
+        resolver2.setFollowRedirects(false);
+        final HttpClient client = resolver1.initializeHttpClient();
+        Assert.assertNotNull(client);
+        Assert.assertSame(resolver1.initializeHttpClient(), client);
+        Assert.assertSame(resolver2.initializeHttpClient(), client);
+        Mockito.verify(clientBuilder, Mockito.times(1)).buildClient();
+        Mockito.verify(clientBuilder, Mockito.never()).setHttpFollowRedirects(Mockito.anyBoolean());
+    }
+    
+    @Test
+    public void testCloseSharedClient() throws Exception {
+        HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+        final CloseableHttpClient firstClient = Mockito.mock(CloseableHttpClient.class);
+        final CloseableHttpClient secondClient = Mockito.mock(CloseableHttpClient.class);
+        Mockito.when(clientBuilder.buildClient()).thenReturn(firstClient, secondClient);
+        final SearchKeyResolver resolver1 = new SearchKeyResolver("mock", clientBuilder);
+        final SearchKeyResolver resolver2 = new SearchKeyResolver("mock", clientBuilder);
+        Assert.assertSame(resolver1.initializeHttpClient(), firstClient);
+        Assert.assertSame(resolver2.initializeHttpClient(), firstClient);
+        resolver1.close();
+        resolver1.close();
+        Mockito.verify(firstClient, Mockito.never()).close();
+        resolver2.close();
+        Mockito.verify(firstClient, Mockito.times(1)).close();
+        Assert.assertSame(resolver1.initializeHttpClient(), secondClient);
+        resolver1.close();
+        Mockito.verify(secondClient, Mockito.times(1)).close();
+    }
+    
+    @Test
+    public void testRedirectsDisabledPerRequest() throws Exception {
+        final BaseSequenceStepResolver redirectResolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        final HttpGet request = new HttpGet(BASE_URL);
+        request.setConfig(RequestConfig.custom().setSocketTimeout(1234).build());
+        redirectResolver.disableRedirects(Mockito.mock(HttpClient.class), request);
+        Assert.assertFalse(request.getConfig().isRedirectsEnabled());
+        Assert.assertEquals(request.getConfig().getSocketTimeout(), 1234);
+    }
+    
+    @Test
+    public void testRedirectHops() throws Exception {
+        final BaseSequenceStepResolver redirectResolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        redirectResolver.setId("mockId");
+        final HttpContext redirectContext = HttpClientContext.create();
+        final ConnectionTimings timings = new ConnectionTimings();
+        redirectContext.setAttribute(ConnectionTimings.CONTEXT_KEY, timings);
+        final String response = resolveWithRedirectServer(redirectResolver, redirectContext, "/first");
+        Assert.assertEquals(response, "final");
+        final List<MonitoringSequenceHopResult> hops = timings.getHops();
+        Assert.assertEquals(hops.size(), 3);
+        Assert.assertEquals(hops.get(0).getUrl(), BASE_URL + "/first");
+        Assert.assertEquals(hops.get(0).getStatusCode(), 302);
+        Assert.assertEquals(hops.get(1).getUrl(), BASE_URL + "/second");
+        Assert.assertEquals(hops.get(1).getStatusCode(), 302);
+        Assert.assertEquals(hops.get(2).getUrl(), BASE_URL + "/final");
+        Assert.assertEquals(hops.get(2).getStatusCode(), 200);
+        Assert.assertEquals(hops.get(2).getBytes(), 5);
+    }
+
+    @Test
+    public void testRedirectLoop() throws Exception {
+        final BaseSequenceStepResolver redirectResolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        redirectResolver.setId("mockId");
+        final String response = resolveWithRedirectServer(redirectResolver, HttpClientContext.create(), "/loop");
+        Assert.assertTrue(response.contains("Redirect loop detected"));
+    }
+
+    @Test
+    public void testMaxRedirects() throws Exception {
+        final BaseSequenceStepResolver redirectResolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        redirectResolver.setId("mockId");
+        redirectResolver.setMaxRedirects(3);
+        final String response = resolveWithRedirectServer(redirectResolver, HttpClientContext.create(), "/chain/0");
+        Assert.assertTrue(response.contains("Too many redirects"));
+    }
+
+    /**
+     * Resolves a step starting from the given path with a server redirecting the requests.
+     * 
+     * @param redirectResolver The resolver.
+     * @param redirectContext The HTTP context.
+     * @param path The path of the starting step.
+     * @return The response body, or the exception message if the resolution failed.
+     * @throws Exception
+     */
+    protected String resolveWithRedirectServer(final BaseSequenceStepResolver redirectResolver,
+            final HttpContext redirectContext, final String path) throws Exception {
+        final Connection connection = new SocketConnection(new ContainerSocketProcessor(new RedirectContainer()));
+        connection.connect(new InetSocketAddress(CONTAINER_PORT));
+        final SequenceStep step = new SequenceStep();
+        step.setUrl(BASE_URL + path);
+        try {
+            return redirectResolver.resolveStep(redirectContext, step, true).getResponse();
+        } catch (ResponseValidatorException e) {
+            return e.getMessage();
+        } finally {
+            connection.close();
+        }
+    }
+
     /**
      * Executes the resolver with server returning desired content.
      * 
@@ -148,4 +260,38 @@ public class AbstractSequenceStepResolverTest {
         }
     }
 
+    /**
+     * Container redirecting the requests based on their paths.
+     */
+    class RedirectContainer implements Container {
+
+        @Override
+        /** {@inheritDoc} */
+        public void handle(Request request, Response response) {
+            final String path = request.getPath().getPath();
+            try {
+                if (path.startsWith("/chain/")) {
+                    redirect(response, "/chain/" + (Integer.parseInt(path.substring(7)) + 1));
+                } else if (path.equals("/loop")) {
+                    redirect(response, BASE_URL + "/loop");
+                } else if (path.equals("/first")) {
+                    redirect(response, "second");
+                } else if (path.equals("/second")) {
+                    redirect(response, BASE_URL + "/final");
+                } else {
+                    response.setContentType("text/plain");
+                    response.setCode(200);
+                    IOUtils.copy(new StringReader("final"), response.getOutputStream());
+                }
+                response.getOutputStream().close();
+            } catch (Exception e) {
+                log.error("Container-side exception ", e);
+            }
+        }
+
+        protected void redirect(final Response response, final String location) {
+            response.setCode(302);
+            response.setValue("Location", location);
+        }
+    }
 }
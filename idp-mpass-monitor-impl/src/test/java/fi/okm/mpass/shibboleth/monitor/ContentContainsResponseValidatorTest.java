@@ -59,4 +59,20 @@ public class ContentContainsResponseValidatorTest extends AbstractResponseValida
     public void testWrongContent() throws ResponseValidatorException {
         Assert.assertTrue(isExceptionThrown(null, "randomContent"));
     }
+
+    @Test
+    public void testStreamedContains() throws ResponseValidatorException {
+        final ContentValidation validation = ((StreamingResponseValidator) validator).startValidation(null);
+        validation.update("randomCont".toCharArray(), 0, 10);
+        validation.update("mockContent".toCharArray(), 0, 8);
+        validation.update("mockContent".toCharArray(), 8, 3);
+        validation.finish(null);
+    }
+
+    @Test(expectedExceptions = ResponseValidatorException.class)
+    public void testStreamedWrongContent() throws ResponseValidatorException {
+        final ContentValidation validation = ((StreamingResponseValidator) validator).startValidation(null);
+        validation.update("mockCont".toCharArray(), 0, 8);
+        validation.finish("mockCont");
+    }
 }
@@ -84,4 +84,35 @@ public class FormPostTargetResolverTest extends AbstractSequenceStepResolverTest
         Assert.assertEquals(result.getParameters().get(0).getValue(), param1value);
     }
 
+    @Test
+    public void testEncodedAction() throws Exception {
+        final String param1 = "mockParam1";
+        resolver = new FormPostTargetResolver(clientBuilder, param1);
+        final String content = "<form method='post' action=\"http&#x3a;&#x2f;&#x2f;localhost&#x2f;mock?a=1&amp;b=2\">"
+                + "<input value=\"&lt;mock&gt;\" type=\"hidden\" name=\"" + param1 + "\"/></form>";
+        final SequenceStep result = executeWithServer(resolver, context, startingStep, content);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getUrl(), "http://localhost/mock?a=1&b=2");
+        Assert.assertEquals(result.getParameters().size(), 1);
+        Assert.assertEquals(result.getParameters().get(0).getValue(), "<mock>");
+    }
+
+    @Test
+    public void testActionBeyondCapture() throws Exception {
+        final String param1 = "mockParam1";
+        final FormPostTargetResolver formResolver = new FormPostTargetResolver(clientBuilder, param1);
+        formResolver.setCaptureSize(16);
+        resolver = formResolver;
+        final StringBuilder content = new StringBuilder("<html><head>");
+        for (int i = 0; i < 1000; i++) {
+            content.append("<meta name=\"filler").append(i).append("\" content=\"mock\">");
+        }
+        content.append("</head><body><form action=\"/mockAction\">");
+        content.append("<input name=\"" + param1 + "\" value=\"mockValue\"></form></body></html>");
+        final SequenceStep result = executeWithServer(resolver, context, startingStep, content.toString());
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getUrl(), BASE_URL + "/mockAction");
+        Assert.assertEquals(result.getParameters().size(), 1);
+        Assert.assertEquals(result.getParameters().get(0).getValue(), "mockValue");
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.protocol.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link LoadGenerator}.
+ */
+public class LoadGeneratorTest {
+
+    /** The generator to be tested. */
+    private LoadGenerator generator;
+
+    /** The sequence run by the generator. */
+    private MonitoringSequence sequence;
+
+    /** The number of calls to the second resolver. */
+    private AtomicInteger calls;
+
+    @BeforeMethod
+    public void initTests() {
+        calls = new AtomicInteger();
+        sequence = new MonitoringSequence();
+        sequence.setId("mockSequence");
+        sequence.setInitialUrl("http://localhost/");
+        sequence.setResolvers(Arrays.asList(new MockResolver("step1", 0), new MockResolver("step2", 3)));
+        generator = new LoadGenerator();
+        generator.setId("mockGenerator");
+        generator.setSequence(sequence);
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoSequence() throws ComponentInitializationException {
+        generator = new LoadGenerator();
+        generator.setId("mockGenerator");
+        generator.setIterations(1);
+        generator.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoEnd() throws ComponentInitializationException {
+        generator.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testPoolTooSmall() throws ComponentInitializationException {
+        sequence.setResolvers(Arrays.<SequenceStepResolver>asList(new FormPostTargetResolver(new HttpClientBuilder())));
+        generator.setVirtualUsers(3);
+        generator.setIterations(1);
+        generator.initialize();
+    }
+
+    @Test
+    public void testPoolSized() throws ComponentInitializationException {
+        final HttpClientBuilder builder = new HttpClientBuilder();
+        builder.setMaxConnectionsPerRoute(3);
+        builder.setMaxConnectionsTotal(3);
+        sequence.setResolvers(Arrays.<SequenceStepResolver>asList(new FormPostTargetResolver(builder)));
+        generator.setVirtualUsers(3);
+        generator.setIterations(1);
+        generator.initialize();
+        Assert.assertTrue(generator.isInitialized());
+    }
+
+    @Test
+    public void testIterations() throws Exception {
+        generator.setVirtualUsers(4);
+        generator.setIterations(5);
+        generator.initialize();
+        final LoadReport report = generator.run();
+        Assert.assertEquals(report.getSequence().getCount(), 20);
+        Assert.assertEquals(report.getSequence().getErrorCount(), 6);
+        Assert.assertEquals(report.getSteps().size(), 2);
+        Assert.assertEquals(report.getStep("step1").getCount(), 20);
+        Assert.assertEquals(report.getStep("step1").getErrorCount(), 0);
+        Assert.assertEquals(report.getStep("step2").getCount(), 20);
+        Assert.assertEquals(report.getStep("step2").getErrorCount(), 6);
+        Assert.assertTrue(report.getThroughput() > 0);
+        Assert.assertTrue(report.getEndTime() >= report.getStartTime());
+    }
+
+    @Test
+    public void testDuration() throws Exception {
+        generator.setVirtualUsers(2);
+        generator.setDuration(200);
+        generator.initialize();
+        final long start = System.currentTimeMillis();
+        final LoadReport report = generator.run();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertTrue(report.getSequence().getCount() > 0);
+        Assert.assertEquals(report.getStep("step2").getCount(), report.getSequence().getCount());
+    }
+
+    @Test
+    public void testStages() throws Exception {
+        final List<LoadGenerator.Stage> stages = new ArrayList<>();
+        stages.add(new LoadGenerator.Stage(1000, 10));
+        stages.add(new LoadGenerator.Stage(1000, 10));
+        stages.add(new LoadGenerator.Stage(500, 5));
+        stages.add(new LoadGenerator.Stage(0, 2));
+        generator.setStages(stages);
+        generator.initialize();
+        Assert.assertEquals(generator.getActiveUsers(0), 0);
+        Assert.assertEquals(generator.getActiveUsers(100), 1);
+        Assert.assertEquals(generator.getActiveUsers(550), 5);
+        Assert.assertEquals(generator.getActiveUsers(1000), 10);
+        Assert.assertEquals(generator.getActiveUsers(1999), 10);
+        Assert.assertEquals(generator.getActiveUsers(2250), 8);
+        Assert.assertEquals(generator.getActiveUsers(2500), 2);
+        Assert.assertEquals(generator.getActiveUsers(100000), 2);
+    }
+
+    @Test
+    public void testRampUp() throws Exception {
+        generator.setVirtualUsers(4);
+        generator.setRampUp(400);
+        generator.setIterations(1);
+        generator.initialize();
+        Assert.assertEquals(generator.getActiveUsers(0), 0);
+        Assert.assertEquals(generator.getActiveUsers(250), 2);
+        Assert.assertEquals(generator.getActiveUsers(400), 4);
+        final LoadReport report = generator.run();
+        Assert.assertEquals(report.getSequence().getCount(), 4);
+    }
+
+    /**
+     * A resolver sleeping for a while and failing every given call.
+     */
+    private class MockResolver implements SequenceStepResolver {
+
+        /** The resolver identifier. */
+        private final String id;
+
+        /** Every how manyth call fails, 0 for never. */
+        private final int failEvery;
+
+        /**
+         * Constructor.
+         * @param id The resolver identifier.
+         * @param fail Every how manyth call fails, 0 for never.
+         */
+        MockResolver(final String resolverId, final int fail) {
+            id = resolverId;
+            failEvery = fail;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public List<ResponseValidator> getValidators() {
+            return new ArrayList<>();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void addValidator(final ResponseValidator validator) {
+            // no validators
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public SequenceStep resolve(final HttpContext context, final SequenceStep startingStep)
+                throws ResponseValidatorException {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new ResponseValidatorException("Interrupted");
+            }
+            if (failEvery > 0 && calls.incrementAndGet() % failEvery == 0) {
+                throw new ResponseValidatorException("mockError");
+            }
+            return startingStep;
+        }
+    }
+}
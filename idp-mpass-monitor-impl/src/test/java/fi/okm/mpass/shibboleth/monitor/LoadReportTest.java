@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link LoadReport}.
+ */
+public class LoadReportTest {
+
+    @Test
+    public void testMerge() throws Exception {
+        final LoadReport first = new LoadReport();
+        first.record(MonitoringStatisticsTest.buildResult("seq1", 1000, 100, null, null));
+        first.record(MonitoringStatisticsTest.buildResult("seq1", 2000, 200, null, "mockError"));
+        final LoadReport second = new LoadReport();
+        second.record(MonitoringStatisticsTest.buildResult("seq1", 3000, 300, "mockError", null));
+        final LoadReport merged = new LoadReport();
+        merged.merge(first);
+        merged.merge(second);
+        merged.setStartTime(0);
+        merged.setEndTime(2000);
+        Assert.assertEquals(merged.getSequence().getCount(), 3);
+        Assert.assertEquals(merged.getSequence().getErrorCount(), 2);
+        Assert.assertEquals(merged.getSequence().getSketch().getMax(), 600);
+        Assert.assertEquals(merged.getThroughput(), 1.5);
+        Assert.assertEquals(merged.getSteps().size(), 2);
+        Assert.assertEquals(merged.getSteps().get(0).getId(), "1");
+        Assert.assertEquals(merged.getStep("1").getErrorCount(), 1);
+        Assert.assertEquals(merged.getStep("2").getErrorCount(), 1);
+        Assert.assertEquals(merged.getStep("2").getSketch().getMin(), 100);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final LoadReport report = new LoadReport();
+        report.setStartTime(1000);
+        report.setEndTime(3000);
+        report.record(MonitoringStatisticsTest.buildResult("seq1", 1000, 100, null, null));
+        final StringBuilder builder = new StringBuilder();
+        report.write(builder);
+        final String[] lines = builder.toString().split("\\r?\\n");
+        Assert.assertEquals(lines.length, 5);
+        Assert.assertTrue(lines[0].startsWith("Duration 2000 ms, 1 sequences, 0.50 sequences/s"));
+        Assert.assertTrue(lines[1].startsWith("step "));
+        Assert.assertTrue(lines[2].startsWith(LoadReport.SEQUENCE_NAME));
+        Assert.assertTrue(lines[2].endsWith(" 200"));
+        Assert.assertTrue(lines[3].startsWith("1 "));
+    }
+}
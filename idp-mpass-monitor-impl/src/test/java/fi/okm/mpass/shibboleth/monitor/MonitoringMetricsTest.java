@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+
+/**
+ * Unit tests for {@link MonitoringMetrics}.
+ */
+public class MonitoringMetricsTest {
+
+    /** The metrics to be tested. */
+    private MonitoringMetrics metrics;
+
+    @BeforeMethod
+    public void initTests() {
+        metrics = new MonitoringMetrics(new long[] { 1000, 100 });
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final String output = write();
+        Assert.assertTrue(output.contains("# TYPE mpass_monitoring_sequence_duration_seconds histogram\n"));
+        Assert.assertFalse(output.contains("_bucket{"));
+        Assert.assertTrue(output.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testRecord() throws IOException {
+        metrics.record(MonitoringStatisticsTest.buildResult("seq1", 10000, 50, null, null));
+        metrics.record(MonitoringStatisticsTest.buildResult("seq1", 20000, 500, "mockError", null));
+        final MonitoringSequenceResult result = MonitoringStatisticsTest.buildResult("seq1", 30000, 1000, null, null);
+        result.getStepResults().get(0).setDnsTime(1500);
+        metrics.record(result);
+        final String output = write();
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_sequence_duration_seconds_bucket{sequence=\"seq1\",le=\"0.100\"} 1\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_sequence_duration_seconds_bucket{sequence=\"seq1\",le=\"1.000\"} 2\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_sequence_duration_seconds_bucket{sequence=\"seq1\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(output.contains("mpass_monitoring_sequence_duration_seconds_count{sequence=\"seq1\"} 3\n"));
+        Assert.assertTrue(output.contains("mpass_monitoring_sequence_duration_seconds_sum{sequence=\"seq1\"} 3.100\n"));
+        Assert.assertTrue(output.contains("mpass_monitoring_sequence_errors_total{sequence=\"seq1\"} 1\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_sequence_last_duration_seconds{sequence=\"seq1\"} 2.000\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_sequence_last_success_timestamp_seconds{sequence=\"seq1\"} 32.000\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_step_duration_seconds_bucket{sequence=\"seq1\",step=\"1\",le=\"1.000\"} 3\n"));
+        Assert.assertTrue(output.contains("mpass_monitoring_step_errors_total{sequence=\"seq1\",step=\"1\"} 1\n"));
+        Assert.assertTrue(output.contains("mpass_monitoring_step_errors_total{sequence=\"seq1\",step=\"2\"} 0\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_step_last_success_timestamp_seconds{sequence=\"seq1\",step=\"1\"} 31.000\n"));
+        Assert.assertTrue(output.contains(
+                "mpass_monitoring_step_phase_seconds_total{sequence=\"seq1\",step=\"1\",phase=\"dns\"} 1.500\n"));
+    }
+
+    @Test
+    public void testNoSuccess() throws IOException {
+        metrics.record(MonitoringStatisticsTest.buildResult("seq1", 10000, 50, "mockError", null));
+        final String output = write();
+        Assert.assertTrue(output.contains("mpass_monitoring_sequence_last_run_timestamp_seconds{sequence=\"seq1\"}"));
+        Assert.assertFalse(output.contains(
+                "mpass_monitoring_sequence_last_success_timestamp_seconds{sequence=\"seq1\"}"));
+    }
+
+    @Test
+    public void testEscape() throws IOException {
+        metrics.record(MonitoringStatisticsTest.buildResult("a\"b\\c\nd", 10000, 50, null, null));
+        Assert.assertTrue(write().contains("{sequence=\"a\\\"b\\\\c\\nd\"}"));
+    }
+
+    @Test
+    public void testSeconds() {
+        Assert.assertEquals(MonitoringMetrics.seconds(0), "0.000");
+        Assert.assertEquals(MonitoringMetrics.seconds(5), "0.005");
+        Assert.assertEquals(MonitoringMetrics.seconds(50), "0.050");
+        Assert.assertEquals(MonitoringMetrics.seconds(12345), "12.345");
+        Assert.assertEquals(MonitoringMetrics.seconds(-1500), "-1.500");
+    }
+
+    @Test
+    public void testConcurrentRecords() throws Exception {
+        final int threads = 8;
+        final int rounds = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < rounds; j++) {
+                        metrics.record(MonitoringStatisticsTest.buildResult("seq1", j, j % 200, null, null));
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(write().contains(
+                "mpass_monitoring_sequence_duration_seconds_count{sequence=\"seq1\"} " + threads * rounds + "\n"));
+    }
+
+    /**
+     * Writes the metrics to a string.
+     * 
+     * @return The metrics.
+     * @throws IOException If the metrics cannot be written.
+     */
+    protected String write() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        metrics.write(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+
+/**
+ * Unit tests for {@link MonitoringResultCache}.
+ */
+public class MonitoringResultCacheTest {
+
+    @Test
+    public void testEmpty() {
+        final MonitoringResultCache cache = new MonitoringResultCache(3);
+        Assert.assertNull(cache.getLatestResult("mockId"));
+        Assert.assertTrue(cache.getResults("mockId").isEmpty());
+        Assert.assertTrue(cache.getLatestResults().isEmpty());
+        Assert.assertTrue(cache.getSequenceIds().isEmpty());
+    }
+
+    @Test
+    public void testRingBuffer() {
+        final MonitoringResultCache cache = new MonitoringResultCache(3);
+        for (int i = 0; i < 5; i++) {
+            cache.addResult(initResult("mockId", i));
+        }
+        cache.addResult(initResult("mockId2", 10));
+        Assert.assertEquals(cache.getLatestResult("mockId").getStartTime(), 4);
+        Assert.assertEquals(cache.getLatestResult("mockId2").getStartTime(), 10);
+        final List<MonitoringSequenceResult> results = cache.getResults("mockId");
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertEquals(results.get(0).getStartTime(), 2);
+        Assert.assertEquals(results.get(1).getStartTime(), 3);
+        Assert.assertEquals(results.get(2).getStartTime(), 4);
+        Assert.assertEquals(cache.getLatestResults().size(), 2);
+        Assert.assertEquals(cache.getSequenceIds().size(), 2);
+    }
+
+    @Test
+    public void testNullId() {
+        final MonitoringResultCache cache = new MonitoringResultCache();
+        cache.addResult(initResult(null, 1));
+        Assert.assertEquals(cache.getLatestResult(null).getStartTime(), 1);
+        Assert.assertEquals(cache.getResults(null).size(), 1);
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long startTime) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(startTime);
+        result.setEndTime(startTime);
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.http.protocol.HttpContext;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link MonitoringScheduler}.
+ */
+public class MonitoringSchedulerTest {
+
+    /** The scheduler to be tested. */
+    private MonitoringScheduler scheduler;
+
+    /** The sequence to be run. */
+    private MonitoringSequence sequence;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        final SequenceStepResolver resolver = Mockito.mock(SequenceStepResolver.class);
+        Mockito.when(resolver.getId()).thenReturn("mockStep");
+        Mockito.when(resolver.resolve((HttpContext) Mockito.any(), (SequenceStep) Mockito.any()))
+            .thenReturn(new SequenceStep());
+        sequence = new MonitoringSequence();
+        sequence.setId("mockSequence");
+        sequence.setInitialUrl("http://localhost/mock");
+        sequence.setResolvers(Arrays.asList(resolver));
+        scheduler = new MonitoringScheduler();
+        scheduler.setId("mockScheduler");
+        scheduler.setSequences(Arrays.asList(sequence));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.destroy();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoSequences() throws Exception {
+        scheduler.setSequences(new ArrayList<MonitoringSequence>());
+        scheduler.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testTooLargeJitter() throws Exception {
+        scheduler.setInterval(1000);
+        scheduler.setJitter(1000);
+        scheduler.initialize();
+    }
+
+    @Test
+    public void testRunSequence() throws Exception {
+        scheduler.setInitialDelay(3600000);
+        scheduler.initialize();
+        final MonitoringSequenceResult result = scheduler.runSequence(sequence);
+        Assert.assertEquals(result.getId(), "mockSequence");
+        Assert.assertEquals(result.getStepResults().size(), 1);
+        Assert.assertSame(scheduler.getResultCache().getLatestResult("mockSequence"), result);
+    }
+
+    @Test
+    public void testScheduled() throws Exception {
+        final MonitoringResultCache cache = new MonitoringResultCache(2);
+        scheduler.setResultCache(cache);
+        scheduler.setJitter(0);
+        scheduler.setInterval(10);
+        scheduler.initialize();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getResults("mockSequence").size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(cache.getResults("mockSequence").size(), 2);
+        Assert.assertNull(cache.getLatestResult("mockSequence").getStepResults().get(0).getErrorMessage());
+    }
+}
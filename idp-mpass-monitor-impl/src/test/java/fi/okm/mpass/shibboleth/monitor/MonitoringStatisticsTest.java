@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.protocol.HttpContext;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics.Statistic;
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics.Window;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.QuantileSketch;
+
+/**
+ * Unit tests for {@link MonitoringStatistics}.
+ */
+public class MonitoringStatisticsTest {
+
+    /** One minute in milliseconds. */
+    private static final long MINUTE = 60L * 1000;
+
+    /** One hour in milliseconds. */
+    private static final long HOUR = 60 * MINUTE;
+
+    /** The current time, aligned to a day. */
+    private long now;
+
+    /** The statistics to be tested. */
+    private MonitoringStatistics statistics;
+
+    @BeforeMethod
+    public void initTests() {
+        now = 1000 * 24 * HOUR;
+        statistics = new MonitoringStatistics();
+    }
+
+    @Test
+    public void testEmpty() {
+        for (final Window window : Window.values()) {
+            Assert.assertTrue(statistics.getStatistics(window, now).isEmpty());
+        }
+    }
+
+    @Test
+    public void testWindowNames() {
+        Assert.assertEquals(Window.fromName("5m"), Window.FIVE_MINUTES);
+        Assert.assertEquals(Window.fromName("1h"), Window.ONE_HOUR);
+        Assert.assertEquals(Window.fromName("24h"), Window.ONE_DAY);
+        Assert.assertEquals(Window.fromName("7d"), Window.SEVEN_DAYS);
+        Assert.assertNull(Window.fromName("2h"));
+        Assert.assertNull(Window.fromName(null));
+        Assert.assertEquals(Window.FIVE_MINUTES.getStart(now + 30000), now - 4 * MINUTE);
+        Assert.assertEquals(Window.SEVEN_DAYS.getStart(now), now - 167 * HOUR);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        statistics.record(buildResult("seq1", now - 10 * MINUTE, 100, null, null));
+        statistics.record(buildResult("seq1", now - 2 * MINUTE, 200, "mockError", null));
+        statistics.record(buildResult("seq1", now, 300, null, null));
+        statistics.record(buildResult("seq2", now - 30 * HOUR, 400, null, null));
+
+        final List<Statistic> fiveMinutes = statistics.getStatistics(Window.FIVE_MINUTES, now);
+        Assert.assertEquals(fiveMinutes.size(), 3);
+        assertStatistic(fiveMinutes.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 1);
+        assertStatistic(fiveMinutes.get(1), "seq1", 1, 2, 1);
+        assertStatistic(fiveMinutes.get(2), "seq1", 2, 2, 0);
+        Assert.assertEquals(fiveMinutes.get(0).getSuccessRate(), 0.5);
+        Assert.assertEquals(fiveMinutes.get(0).getSketch().getMax(), 600);
+
+        final List<Statistic> hour = statistics.getStatistics(Window.ONE_HOUR, now);
+        Assert.assertEquals(hour.size(), 3);
+        assertStatistic(hour.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 3, 1);
+
+        final List<Statistic> day = statistics.getStatistics(Window.ONE_DAY, now);
+        Assert.assertEquals(day.size(), 3);
+        assertStatistic(day.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 3, 1);
+
+        final List<Statistic> week = statistics.getStatistics(Window.SEVEN_DAYS, now);
+        Assert.assertEquals(week.size(), 6);
+        assertStatistic(week.get(3), "seq2", MonitoringStatistics.SEQUENCE_PHASE_ID, 1, 0);
+        Assert.assertEquals(week.get(3).getSketch().getMin(), 800);
+    }
+
+    @Test
+    public void testExpiredBuckets() throws Exception {
+        statistics.record(buildResult("seq1", now - 2 * MINUTE, 100, null, null));
+        statistics.record(buildResult("seq1", now + 59 * MINUTE, 100, null, null));
+        final List<Statistic> hour = statistics.getStatistics(Window.ONE_HOUR, now + 59 * MINUTE);
+        assertStatistic(hour.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 1, 0);
+        final List<Statistic> day = statistics.getStatistics(Window.ONE_DAY, now + 59 * MINUTE);
+        assertStatistic(day.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 0);
+        Assert.assertTrue(statistics.getStatistics(Window.ONE_DAY, now + 25 * HOUR).isEmpty());
+    }
+
+    @Test
+    public void testLateResultIgnored() throws Exception {
+        statistics.record(buildResult("seq1", now, 100, null, null));
+        statistics.record(buildResult("seq1", now - 60 * MINUTE, 200, null, null));
+        statistics.record(buildResult("seq1", now - 24 * HOUR, 300, null, null));
+        final List<Statistic> hour = statistics.getStatistics(Window.ONE_HOUR, now);
+        assertStatistic(hour.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 1, 0);
+        Assert.assertEquals(hour.get(0).getSketch().getMin(), 200);
+        final List<Statistic> day = statistics.getStatistics(Window.ONE_DAY, now);
+        assertStatistic(day.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 0);
+    }
+
+    @Test
+    public void testMerge() {
+        final QuantileSketch sketch = new QuantileSketch();
+        sketch.record(100);
+        sketch.record(200);
+        statistics.mergeMinute("seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, now - MINUTE, 2, 1, sketch);
+        statistics.mergeHour("seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, now - HOUR, 2, 1, sketch);
+        statistics.mergeHour("seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, now - 8 * 24 * HOUR, 2, 1, sketch);
+        assertStatistic(statistics.getStatistics(Window.FIVE_MINUTES, now).get(0), "seq1",
+                MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 1);
+        assertStatistic(statistics.getStatistics(Window.ONE_DAY, now).get(0), "seq1",
+                MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 1);
+        assertStatistic(statistics.getStatistics(Window.SEVEN_DAYS, now).get(0), "seq1",
+                MonitoringStatistics.SEQUENCE_PHASE_ID, 2, 1);
+    }
+
+    @Test
+    public void testSequencePhases() throws Exception {
+        final long start = System.currentTimeMillis();
+        statistics.record(runSequence("seq1", "first", "second"));
+        final List<Statistic> hour = statistics.getStatistics(Window.ONE_HOUR, System.currentTimeMillis());
+        Assert.assertEquals(hour.size(), 3);
+        assertStatistic(hour.get(0), "seq1", MonitoringStatistics.SEQUENCE_PHASE_ID, 1, 0);
+        assertStatistic(hour.get(1), "seq1", 1, 1, 0);
+        assertStatistic(hour.get(2), "seq1", 2, 1, 0);
+        Assert.assertTrue(hour.get(0).getSketch().getMax() <= System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Asserts the contents of the given statistic.
+     * 
+     * @param statistic The statistic.
+     * @param sourceId The expected sequence identifier.
+     * @param phaseId The expected phase identifier.
+     * @param count The expected number of results.
+     * @param errors The expected number of failed results.
+     */
+    protected void assertStatistic(final Statistic statistic, final String sourceId, final int phaseId,
+            final long count, final long errors) {
+        Assert.assertEquals(statistic.getSourceId(), sourceId);
+        Assert.assertEquals(statistic.getPhaseId(), phaseId);
+        Assert.assertEquals(statistic.getCount(), count);
+        Assert.assertEquals(statistic.getErrorCount(), errors);
+    }
+
+    /**
+     * Builds a sequence result with two steps of the given duration.
+     * 
+     * @param id The sequence identifier.
+     * @param start The start time of the sequence.
+     * @param duration The duration of each step.
+     * @param firstError The error message of the first step.
+     * @param secondError The error message of the second step.
+     * @return The sequence result.
+     */
+    public static MonitoringSequenceResult buildResult(final String id, final long start, final long duration,
+            final String firstError, final String secondError) throws Exception {
+        final MonitoringSequenceResult result = runSequence(id, "first", "second");
+        result.setStartTime(start);
+        final String[] errors = new String[] { firstError, secondError };
+        for (int i = 0; i < errors.length; i++) {
+            final MonitoringSequenceStepResult step = result.getStepResults().get(i);
+            step.setStartTime(start + i * duration);
+            step.setEndTime(start + (i + 1) * duration);
+            step.setErrorMessage(errors[i]);
+        }
+        result.setEndTime(start + errors.length * duration);
+        return result;
+    }
+
+    /**
+     * Runs a {@link MonitoringSequence} with successful steps of the given identifiers.
+     * 
+     * @param id The sequence identifier.
+     * @param stepIds The step identifiers.
+     * @return The sequence result.
+     * @throws Exception If the resolvers cannot be mocked.
+     */
+    public static MonitoringSequenceResult runSequence(final String id, final String... stepIds) throws Exception {
+        final List<SequenceStepResolver> resolvers = new ArrayList<>();
+        for (final String stepId : stepIds) {
+            final SequenceStepResolver resolver = Mockito.mock(SequenceStepResolver.class);
+            Mockito.when(resolver.getId()).thenReturn(stepId);
+            Mockito.when(resolver.resolve((HttpContext) Mockito.any(), (SequenceStep) Mockito.any()))
+                .thenReturn(new SequenceStep());
+            resolvers.add(resolver);
+        }
+        final MonitoringSequence sequence = new MonitoringSequence();
+        sequence.setId(id);
+        sequence.setInitialUrl("http://localhost/" + id);
+        sequence.setResolvers(resolvers);
+        return sequence.run();
+    }
+}
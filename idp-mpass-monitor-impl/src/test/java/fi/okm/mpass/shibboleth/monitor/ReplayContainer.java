@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ContentType;
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.core.Container;
+import org.simpleframework.http.core.ContainerSocketProcessor;
+import org.simpleframework.transport.connect.Connection;
+import org.simpleframework.transport.connect.SocketConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.support.RecordedExchange;
+
+/**
+ * A container serving {@link RecordedExchange}s locally, for network-free regression tests of the resolvers.
+ * 
+ * <p>
+ * The requests are matched to the recorded exchanges by their method, path and query, regardless of the host. The
+ * exchanges with the same key are served in the order they were recorded, the last one being repeated. The origins
+ * of the recorded URIs are replaced with the base URL of the container in the Location headers and in the textual
+ * response bodies, and the Domain and Secure attributes are removed from the cookies, so that the client keeps
+ * talking to the container. The responses are served either as fast as possible or with the recorded wait and
+ * download times.
+ * </p>
+ */
+public class ReplayContainer implements Container {
+
+    /** The response headers not replayed, as they are set by the container itself. */
+    private static final Set<String> SKIPPED_HEADERS = new LinkedHashSet<>(Arrays.asList("connection",
+            "content-length", "content-encoding", "keep-alive", "transfer-encoding"));
+
+    /** The pattern for the cookie attributes removed from the replayed cookies. */
+    private static final Pattern COOKIE_ATTRIBUTES = Pattern.compile("(?i);\\s*(domain=[^;]*|secure)(?=;|$)");
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ReplayContainer.class);
+
+    /** The recorded exchanges mapped by their method, path and query. */
+    @Nonnull private final Map<String, Deque<RecordedExchange>> exchanges;
+
+    /** The origins of the recorded URIs. */
+    @Nonnull private final Set<String> origins;
+
+    /** The base URL of the container. */
+    @Nonnull private final String baseUrl;
+
+    /** Whether the responses are served with the recorded wait and download times. */
+    private final boolean recordedTiming;
+
+    /**
+     * Constructor.
+     * 
+     * @param recorded The recorded exchanges, in the order they were recorded.
+     * @param url The base URL of the container, without trailing slash.
+     * @param timing Whether the responses are served with the recorded wait and download times.
+     */
+    public ReplayContainer(@Nonnull final List<RecordedExchange> recorded, @Nonnull final String url,
+            final boolean timing) {
+        exchanges = new HashMap<>();
+        origins = new LinkedHashSet<>();
+        baseUrl = url;
+        recordedTiming = timing;
+        for (final RecordedExchange exchange : recorded) {
+            final URI uri = URI.create(exchange.getUri());
+            origins.add(uri.getScheme() + "://" + uri.getRawAuthority());
+            final String key = exchange.getMethod() + " " + getTarget(uri);
+            Deque<RecordedExchange> queue = exchanges.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                exchanges.put(key, queue);
+            }
+            queue.add(exchange);
+        }
+    }
+
+    /**
+     * Starts serving the given exchanges on the given port.
+     * 
+     * @param recorded The recorded exchanges, in the order they were recorded.
+     * @param port The local port.
+     * @param timing Whether the responses are served with the recorded wait and download times.
+     * @return The connection, to be closed after the replay.
+     * @throws IOException If the server cannot be started.
+     */
+    public static Connection start(@Nonnull final List<RecordedExchange> recorded, final int port,
+            final boolean timing) throws IOException {
+        final Connection connection = new SocketConnection(new ContainerSocketProcessor(
+                new ReplayContainer(recorded, "http://localhost:" + port, timing)));
+        connection.connect(new InetSocketAddress(port));
+        return connection;
+    }
+
+    /**
+     * Replaces the recorded origins in the given string with the base URL of the container.
+     * 
+     * @param value The string.
+     * @return The string pointing to the container.
+     */
+    @Nonnull public String rewrite(@Nonnull final String value) {
+        String result = value;
+        for (final String origin : origins) {
+            result = result.replace(origin, baseUrl);
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(final Request request, final Response response) {
+        final String key = request.getMethod() + " " + request.getTarget();
+        try {
+            final RecordedExchange exchange = nextExchange(key);
+            if (exchange == null) {
+                log.warn("No recorded exchange for {}", key);
+                response.setCode(404);
+                response.setContentLength(0);
+                response.close();
+                return;
+            }
+            sleep(exchange.getWaitTime());
+            response.setCode(exchange.getStatusCode());
+            if (exchange.getReasonPhrase() != null) {
+                response.setDescription(exchange.getReasonPhrase());
+            }
+            for (final Header header : exchange.getHeaders()) {
+                final String name = header.getName();
+                if (!SKIPPED_HEADERS.contains(name.toLowerCase())) {
+                    response.addValue(name, replayHeader(name, header.getValue()));
+                }
+            }
+            final byte[] body = replayBody(exchange);
+            response.setContentLength(body.length);
+            if (recordedTiming && exchange.getDownloadTime() > 0) {
+                response.commit();
+                sleep(exchange.getDownloadTime());
+            }
+            final OutputStream out = response.getOutputStream();
+            out.write(body);
+            out.close();
+        } catch (IOException e) {
+            log.error("Could not replay the exchange for {}", key, e);
+        }
+    }
+
+    /**
+     * Get the next exchange for the given key.
+     * 
+     * @param key The method, path and query of the request.
+     * @return The exchange, or null if none was recorded.
+     */
+    protected RecordedExchange nextExchange(@Nonnull final String key) {
+        synchronized (exchanges) {
+            final Deque<RecordedExchange> queue = exchanges.get(key);
+            if (queue == null) {
+                return null;
+            }
+            return queue.size() > 1 ? queue.poll() : queue.peek();
+        }
+    }
+
+    /**
+     * Get the header value to be replayed.
+     * 
+     * @param name The name of the header.
+     * @param value The recorded value of the header.
+     * @return The value to be replayed.
+     */
+    protected String replayHeader(@Nonnull final String name, final String value) {
+        if (value == null) {
+            return null;
+        } else if ("location".equalsIgnoreCase(name)) {
+            return rewrite(value);
+        } else if ("set-cookie".equalsIgnoreCase(name)) {
+            return COOKIE_ATTRIBUTES.matcher(value).replaceAll("");
+        }
+        return value;
+    }
+
+    /**
+     * Get the response body to be replayed. The textual bodies are decoded with the recorded character set, and
+     * the recorded origins are rewritten.
+     * 
+     * @param exchange The recorded exchange.
+     * @return The body to be replayed.
+     */
+    @Nonnull protected byte[] replayBody(@Nonnull final RecordedExchange exchange) {
+        final byte[] body = exchange.getBody();
+        if (body == null) {
+            return new byte[0];
+        }
+        final String contentType = exchange.getFirstHeader("Content-Type");
+        if (contentType == null || !isTextual(contentType)) {
+            return body;
+        }
+        Charset charset = null;
+        try {
+            charset = ContentType.parse(contentType).getCharset();
+        } catch (RuntimeException e) {
+            log.debug("Could not parse the content type {}", contentType, e);
+        }
+        if (charset == null) {
+            charset = StandardCharsets.UTF_8;
+        }
+        return rewrite(new String(body, charset)).getBytes(charset);
+    }
+
+    /**
+     * Get whether the given content type is textual.
+     * 
+     * @param contentType The content type.
+     * @return Whether the content type is textual.
+     */
+    protected boolean isTextual(@Nonnull final String contentType) {
+        final String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml")
+                || type.contains("javascript") || type.contains("x-www-form-urlencoded");
+    }
+
+    /**
+     * Get the path and query of the given URI.
+     * 
+     * @param uri The URI.
+     * @return The path and query, as sent in the request line.
+     */
+    @Nonnull protected static String getTarget(@Nonnull final URI uri) {
+        final String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    /**
+     * Sleeps for the given time if the recorded timing is used.
+     * 
+     * @param millis The time in milliseconds.
+     */
+    private void sleep(final long millis) {
+        if (recordedTiming && millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
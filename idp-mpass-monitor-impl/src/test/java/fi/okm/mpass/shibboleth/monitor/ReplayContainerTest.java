@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.protocol.HttpContext;
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.core.Container;
+import org.simpleframework.http.core.ContainerSocketProcessor;
+import org.simpleframework.transport.connect.Connection;
+import org.simpleframework.transport.connect.SocketConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.support.ExchangeRecorder;
+import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+import fi.okm.mpass.shibboleth.support.RecordedExchange;
+
+/**
+ * Unit tests for recording exchanges with {@link BaseSequenceStepResolver} and replaying them with
+ * {@link ReplayContainer}.
+ */
+public class ReplayContainerTest {
+
+    /** The port for the replay container. */
+    public static final int REPLAY_PORT = AbstractSequenceStepResolverTest.CONTAINER_PORT + 1;
+
+    /** The base URL of the replay container. */
+    public static final String REPLAY_URL = "http://localhost:" + REPLAY_PORT;
+
+    /** The base URL of the recorded server. */
+    private static final String BASE_URL = AbstractSequenceStepResolverTest.BASE_URL;
+
+    /** The time the recorded server waits before responding to the page in milliseconds. */
+    private static final long PAGE_DELAY = 100;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ReplayContainerTest.class);
+
+    /** The resolver recording and replaying the exchanges. */
+    private BaseSequenceStepResolver resolver;
+
+    /** The recorder for the exchanges. */
+    private ExchangeRecorder recorder;
+
+    @BeforeMethod
+    public void initTests() {
+        recorder = new ExchangeRecorder();
+        resolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        resolver.setId("mockId");
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        final String response = record();
+        Assert.assertTrue(response.contains(BASE_URL + "/next"));
+        final List<RecordedExchange> exchanges = recorder.getExchanges();
+        Assert.assertEquals(exchanges.size(), 2);
+        Assert.assertEquals(exchanges.get(0).getResolverId(), "mockId");
+        Assert.assertEquals(exchanges.get(0).getMethod(), "GET");
+        Assert.assertEquals(exchanges.get(0).getUri(), BASE_URL + "/first");
+        Assert.assertEquals(exchanges.get(0).getStatusCode(), 302);
+        Assert.assertEquals(exchanges.get(0).getFirstHeader("Location"), BASE_URL + "/page");
+        Assert.assertEquals(exchanges.get(1).getUri(), BASE_URL + "/page");
+        Assert.assertEquals(exchanges.get(1).getStatusCode(), 200);
+        Assert.assertEquals(new String(exchanges.get(1).getBody(), "UTF-8"), response);
+        Assert.assertTrue(exchanges.get(1).getWaitTime() >= PAGE_DELAY);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        record();
+        final List<RecordedExchange> exchanges = archiveAndRead();
+        resolver.setRecorder(null);
+        final CookieStore cookieStore = new BasicCookieStore();
+        final HttpContext context = HttpClientContext.create();
+        context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
+        final ConnectionTimings timings = new ConnectionTimings();
+        context.setAttribute(ConnectionTimings.CONTEXT_KEY, timings);
+        final Connection connection = ReplayContainer.start(exchanges, REPLAY_PORT, false);
+        final String response;
+        try {
+            response = resolver.resolveStep(context, newStep(REPLAY_URL + "/first"), true).getResponse();
+        } finally {
+            connection.close();
+        }
+        Assert.assertTrue(response.contains(REPLAY_URL + "/next"));
+        Assert.assertFalse(response.contains(BASE_URL));
+        Assert.assertEquals(timings.getHops().size(), 2);
+        Assert.assertEquals(timings.getHops().get(1).getUrl(), REPLAY_URL + "/page");
+        Assert.assertEquals(cookieStore.getCookies().size(), 1);
+        Assert.assertEquals(cookieStore.getCookies().get(0).getValue(), "mockSession");
+    }
+
+    @Test
+    public void testReplayRecordedTiming() throws Exception {
+        record();
+        final List<RecordedExchange> exchanges = archiveAndRead();
+        resolver.setRecorder(null);
+        final Connection connection = ReplayContainer.start(exchanges, REPLAY_PORT, true);
+        final long start = System.currentTimeMillis();
+        try {
+            resolver.resolveStep(HttpClientContext.create(), newStep(REPLAY_URL + "/first"), true);
+        } finally {
+            connection.close();
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= PAGE_DELAY);
+    }
+
+    @Test
+    public void testReplayOrder() throws Exception {
+        final List<RecordedExchange> exchanges = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final RecordedExchange exchange = new RecordedExchange("GET", "https://example.org/path?a=b");
+            exchange.setStatusCode(200 + i);
+            exchanges.add(exchange);
+        }
+        final ReplayContainer container = new ReplayContainer(exchanges, REPLAY_URL, false);
+        Assert.assertEquals(container.nextExchange("GET /path?a=b").getStatusCode(), 200);
+        Assert.assertEquals(container.nextExchange("GET /path?a=b").getStatusCode(), 201);
+        Assert.assertEquals(container.nextExchange("GET /path?a=b").getStatusCode(), 201);
+        Assert.assertNull(container.nextExchange("GET /path"));
+        Assert.assertNull(container.nextExchange("POST /path?a=b"));
+        Assert.assertEquals(container.rewrite("<a href=\"https://example.org/x\">"),
+                "<a href=\"" + REPLAY_URL + "/x\">");
+        Assert.assertEquals(container.replayHeader("Set-Cookie", "a=b; Domain=example.org; Path=/; Secure"),
+                "a=b; Path=/");
+    }
+
+    /**
+     * Resolves a step against the recorded server, recording the exchanges.
+     * 
+     * @return The response of the step.
+     * @throws Exception If the step cannot be resolved.
+     */
+    protected String record() throws Exception {
+        resolver.setRecorder(recorder);
+        final Connection connection = new SocketConnection(new ContainerSocketProcessor(new RecordedContainer()));
+        connection.connect(new InetSocketAddress(AbstractSequenceStepResolverTest.CONTAINER_PORT));
+        try {
+            return resolver.resolveStep(HttpClientContext.create(), newStep(BASE_URL + "/first"), true)
+                    .getResponse();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes the recorded exchanges to an archive and reads them back.
+     * 
+     * @return The exchanges read from the archive.
+     * @throws Exception If the archive cannot be written or read.
+     */
+    protected List<RecordedExchange> archiveAndRead() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.write(out);
+        return ExchangeRecorder.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Builds a step for the given URL.
+     * 
+     * @param url The URL.
+     * @return The step.
+     */
+    protected SequenceStep newStep(final String url) {
+        final SequenceStep step = new SequenceStep();
+        step.setUrl(url);
+        return step;
+    }
+
+    /**
+     * Container redirecting to a page with absolute links, and setting a cookie for its domain.
+     */
+    class RecordedContainer implements Container {
+
+        @Override
+        /** {@inheritDoc} */
+        public void handle(Request request, Response response) {
+            try {
+                if (request.getPath().getPath().equals("/first")) {
+                    response.setCode(302);
+                    response.setValue("Location", BASE_URL + "/page");
+                    response.setValue("Set-Cookie", "session=mockSession; Domain=localhost.local; Path=/");
+                } else {
+                    Thread.sleep(PAGE_DELAY);
+                    response.setContentType("text/html; charset=UTF-8");
+                    response.setCode(200);
+                    IOUtils.copy(new StringReader("<a href=\"" + BASE_URL + "/next\">next</a>"),
+                            response.getOutputStream(), "UTF-8");
+                }
+                response.getOutputStream().close();
+            } catch (Exception e) {
+                log.error("Container-side exception ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ResponseValidatorChain}.
+ */
+public class ResponseValidatorChainTest {
+
+    HttpResponse response;
+
+    @BeforeMethod
+    public void initTests() {
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    }
+
+    @Test
+    public void testStreamingValidators() throws Exception {
+        final ResponseValidatorChain chain = new ResponseValidatorChain(Arrays.<ResponseValidator>asList(
+                new ContentContainsResponseValidator("first"), new StatusCodeResponseValidator(200),
+                new ContentContainsResponseValidator("second")));
+        Assert.assertFalse(chain.isContentRequired());
+        Assert.assertNull(validate(chain, "the second and the fi", "rst"));
+    }
+
+    @Test
+    public void testFailureOrder() throws Exception {
+        final ResponseValidatorChain chain = new ResponseValidatorChain(Arrays.<ResponseValidator>asList(
+                new ContentContainsResponseValidator("first"), new StatusCodeResponseValidator(302),
+                new ContentContainsResponseValidator("second")));
+        final ResponseValidatorException e = validate(chain, "only the ", "second");
+        Assert.assertNotNull(e);
+        Assert.assertEquals(e.getMessage(), "Expected string 'first' missing!");
+        Assert.assertEquals(e.getResponseStr(), "capture");
+        Assert.assertTrue(validate(chain, "the first ", "and second").getMessage().startsWith("Invalid status"));
+    }
+
+    @Test
+    public void testNonStreamingValidator() throws Exception {
+        final List<String> contents = new ArrayList<>();
+        final ResponseValidatorChain chain = new ResponseValidatorChain(Arrays.<ResponseValidator>asList(
+                new ContentContainsResponseValidator("first"), new ResponseValidator() {
+                    public void validate(final HttpResponse httpResponse, final String str) {
+                        contents.add(str);
+                    }
+                }));
+        Assert.assertTrue(chain.isContentRequired());
+        Assert.assertNull(validate(chain, "the first", ""));
+        Assert.assertEquals(contents, Arrays.asList("capture"));
+    }
+
+    @Test
+    public void testEmptyChain() throws Exception {
+        final ResponseValidatorChain chain = new ResponseValidatorChain(new ArrayList<ResponseValidator>());
+        Assert.assertFalse(chain.isContentRequired());
+        Assert.assertNull(validate(chain, "anything", ""));
+    }
+
+    /**
+     * Feeds the given chunks to a validation started from the chain and finishes it.
+     * 
+     * @param chain The chain.
+     * @param first The first chunk.
+     * @param second The second chunk.
+     * @return The exception thrown by the validation, null if none.
+     */
+    protected ResponseValidatorException validate(final ResponseValidatorChain chain, final String first,
+            final String second) {
+        final ContentValidation validation = chain.startValidation(response);
+        validation.update(first.toCharArray(), 0, first.length());
+        validation.update(("xx" + second).toCharArray(), 2, second.length());
+        try {
+            validation.finish("capture");
+        } catch (ResponseValidatorException e) {
+            return e;
+        }
+        return null;
+    }
+}
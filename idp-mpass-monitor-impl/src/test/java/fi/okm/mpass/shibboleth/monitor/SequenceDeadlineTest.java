@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.monitor;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.support.HttpClientBuilder;
+
+/**
+ * Unit tests for {@link SequenceDeadline}.
+ */
+public class SequenceDeadlineTest {
+
+    /** The server accepting connections but never responding. */
+    private ServerSocket server;
+
+    /** The connections accepted by the server. */
+    private List<Socket> accepted;
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        server = new ServerSocket(0);
+        accepted = new ArrayList<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        accepted.add(server.accept());
+                    }
+                } catch (IOException e) {
+                    // the server was closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterMethod
+    public void stopServer() throws IOException {
+        server.close();
+        for (final Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        final SequenceDeadline deadline = new SequenceDeadline(10000);
+        try {
+            final RequestConfig config = deadline.limit(RequestConfig.custom().setConnectTimeout(500)
+                    .setSocketTimeout(60000).setRedirectsEnabled(false).build());
+            Assert.assertEquals(config.getConnectTimeout(), 500);
+            Assert.assertTrue(config.getSocketTimeout() <= 10000 && config.getSocketTimeout() > 9000);
+            Assert.assertTrue(config.getConnectionRequestTimeout() <= 10000);
+            Assert.assertTrue(config.getConnectionRequestTimeout() > 9000);
+            Assert.assertFalse(config.isRedirectsEnabled());
+            Assert.assertFalse(deadline.isExpired());
+        } finally {
+            deadline.cancel();
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        final SequenceDeadline deadline = new SequenceDeadline(50);
+        final HttpGet request = new HttpGet("http://localhost/");
+        deadline.track(request);
+        Assert.assertFalse(request.isAborted());
+        Thread.sleep(200);
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(deadline.getRemaining(), 0);
+        Assert.assertTrue(request.isAborted());
+        final HttpGet next = new HttpGet("http://localhost/");
+        deadline.track(next);
+        Assert.assertTrue(next.isAborted());
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        final SequenceDeadline deadline = new SequenceDeadline(50);
+        final HttpGet request = new HttpGet("http://localhost/");
+        deadline.track(request);
+        deadline.release(request);
+        Thread.sleep(200);
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertFalse(request.isAborted());
+    }
+
+    @Test
+    public void testHangingStep() throws Exception {
+        final SearchKeyResolver resolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        resolver.setId("hanging");
+        final MonitoringSequence sequence = new MonitoringSequence();
+        sequence.setId("mockSequence");
+        sequence.setInitialUrl("http://localhost:" + server.getLocalPort() + "/");
+        sequence.setResolvers(new ArrayList<SequenceStepResolver>());
+        sequence.getResolvers().add(resolver);
+        sequence.setTimeout(300);
+        final long start = System.currentTimeMillis();
+        final MonitoringSequenceResult result = sequence.run();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(result.getStepResults().size(), 1);
+        final MonitoringSequenceStepResult stepResult = result.getStepResults().get(0);
+        Assert.assertTrue(stepResult.isTimedOut());
+        Assert.assertTrue(stepResult.getErrorMessage().startsWith("hanging: The sequence did not finish within 300ms"));
+    }
+
+    @Test
+    public void testExpiredBeforeStep() throws Exception {
+        final SearchKeyResolver resolver = new SearchKeyResolver("mock", new HttpClientBuilder());
+        resolver.setId("late");
+        final SequenceDeadline deadline = new SequenceDeadline(1);
+        Thread.sleep(50);
+        final HttpContext context = HttpClientContext.create();
+        context.setAttribute(SequenceDeadline.CONTEXT_KEY, deadline);
+        final SequenceStep step = new SequenceStep();
+        step.setUrl("http://localhost:" + server.getLocalPort() + "/");
+        try {
+            resolver.resolveStep(context, step, true);
+            Assert.fail("The step should have timed out");
+        } catch (SequenceTimeoutException e) {
+            Assert.assertTrue(accepted.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.opensaml.profile.action.EventIds;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatistics;
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatisticsTest;
+import fi.okm.mpass.shibboleth.rest.data.ErrorDTO;
+import fi.okm.mpass.shibboleth.rest.data.MonitoringStatisticDTO;
+import fi.okm.mpass.shibboleth.rest.data.MonitoringStatisticsDTO;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link BuildMonitoringStatisticsRestResponse}.
+ */
+public class BuildMonitoringStatisticsRestResponseTest {
+
+    /** The action to be tested. */
+    private BuildMonitoringStatisticsRestResponse action;
+
+    /** The statistics used by the action. */
+    private MonitoringStatistics statistics;
+
+    /** The servlet request. */
+    private MockHttpServletRequest httpRequest;
+
+    @BeforeMethod
+    public void initTests() {
+        statistics = new MonitoringStatistics();
+        action = new BuildMonitoringStatisticsRestResponse();
+        action.setStatistics(statistics);
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        action.setHttpServletRequest(httpRequest);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoStatistics() throws ComponentInitializationException {
+        action = new BuildMonitoringStatisticsRestResponse();
+        action.initialize();
+    }
+
+    @Test
+    public void testInvalidMethod() throws Exception {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        verifyErrorDTO(HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    @Test
+    public void testInvalidWindow() throws Exception {
+        httpRequest.setParameter(BuildMonitoringStatisticsRestResponse.PARAM_WINDOW, "2h");
+        final ErrorDTO error = verifyErrorDTO(HttpStatus.SC_BAD_REQUEST);
+        Assert.assertEquals(error.getFields(), BuildMonitoringStatisticsRestResponse.PARAM_WINDOW);
+    }
+
+    @Test
+    public void testIOException() throws Exception {
+        final HttpServletResponse mockResponse = Mockito.mock(HttpServletResponse.class);
+        Mockito.doThrow(new IOException("mockException")).when(mockResponse).getOutputStream();
+        action.setHttpServletResponse(mockResponse);
+        action.initialize();
+        ActionTestingSupport.assertEvent(action.execute((RequestContext) null), EventIds.IO_ERROR);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final MonitoringStatisticsDTO result = executeAction();
+        Assert.assertEquals(result.getWindow(), BuildMonitoringStatisticsRestResponse.DEFAULT_WINDOW.getName());
+        Assert.assertTrue(result.getSequences().isEmpty());
+    }
+
+    @Test
+    public void testWithResults() throws Exception {
+        final long now = System.currentTimeMillis();
+        statistics.record(MonitoringStatisticsTest.buildResult("seq1", now, 100, null, "mockError"));
+        statistics.record(MonitoringStatisticsTest.buildResult("seq1", now, 200, null, null));
+        statistics.record(MonitoringStatisticsTest.buildResult("seq2", now, 300, null, null));
+        httpRequest.setParameter(BuildMonitoringStatisticsRestResponse.PARAM_WINDOW, "24h");
+        final MonitoringStatisticsDTO result = executeAction();
+        Assert.assertEquals(result.getWindow(), "24h");
+        Assert.assertTrue(result.getStartTime() <= now);
+        Assert.assertEquals(result.getSequences().size(), 2);
+        final MonitoringStatisticDTO seq1 = result.getSequences().get(0);
+        Assert.assertEquals(seq1.getId(), "seq1");
+        Assert.assertEquals(seq1.getCount(), 2);
+        Assert.assertEquals(seq1.getErrors(), 1);
+        Assert.assertEquals(seq1.getSuccessRate(), 0.5);
+        Assert.assertEquals(seq1.getP99(), 400);
+        Assert.assertEquals(seq1.getSteps().size(), 2);
+        Assert.assertEquals(seq1.getSteps().get(1).getPhaseId(), 2);
+        Assert.assertEquals(seq1.getSteps().get(1).getErrors(), 1);
+        Assert.assertNull(seq1.getSteps().get(1).getSteps());
+        Assert.assertEquals(result.getSequences().get(1).getId(), "seq2");
+    }
+
+    /**
+     * Runs the action and parses the response.
+     * 
+     * @return The parsed response.
+     * @throws Exception If the action cannot be run.
+     */
+    protected MonitoringStatisticsDTO executeAction() throws Exception {
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        return new Gson().fromJson(httpResponse.getContentAsString(), MonitoringStatisticsDTO.class);
+    }
+
+    /**
+     * Runs the action and verifies the {@link ErrorDTO} contents produced by it.
+     * 
+     * @param code The expected status code.
+     * @return The parsed error.
+     * @throws Exception If the action cannot be run.
+     */
+    protected ErrorDTO verifyErrorDTO(final int code) throws Exception {
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), code);
+        final ErrorDTO errorDTO = new Gson().fromJson(httpResponse.getContentAsString(), ErrorDTO.class);
+        Assert.assertNotNull(errorDTO);
+        Assert.assertEquals(errorDTO.getCode(), code);
+        return errorDTO;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatisticsTest;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.profile.impl.MonitoringResultRollup.Resolution;
+import fi.okm.mpass.shibboleth.profile.impl.MonitoringResultRollup.Rollup;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link MonitoringResultRollup}.
+ */
+public class MonitoringResultRollupTest {
+
+    /** The start of a day used as the base time for the results. */
+    private static final long DAY_START = Resolution.DAY.floor(1500000000000L);
+
+    /** The datasource used for storing monitoring results. */
+    private DataSource dataSource;
+
+    /** The rollup to be tested. */
+    private MonitoringResultRollup rollup;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource(
+                "/fi/okm/mpass/shibboleth/storage/MonitoringResultStore.sql", "MonitoringResultStore");
+        final MonitoringResultWriter writer = new MonitoringResultWriter();
+        writer.setId("mockWriter");
+        writer.setDataSource(dataSource);
+        writer.setWriteBehind(false);
+        writer.initialize();
+        writer.write(Arrays.asList(initResult(DAY_START + 10000, 100, 40, ""),
+                initResult(DAY_START + 20000, 200, 60, "mockError"),
+                initResult(DAY_START + 61000, 300, 80, null)));
+        writer.destroy();
+        rollup = new MonitoringResultRollup();
+        rollup.setId("mockRollup");
+        rollup.setDataSource(dataSource);
+        rollup.setInterval(0);
+        rollup.setSettleTime(0);
+        rollup.setRawRetention(0);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        rollup.destroy();
+        DatabaseTestingSupport.InitializeDataSource("/fi/okm/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testNothingSettled() throws Exception {
+        rollup.initialize();
+        rollup.rollup(DAY_START + 30000);
+        Assert.assertNull(rollup.getWatermark(Resolution.MINUTE));
+        Assert.assertTrue(rollup.getRollups(Resolution.MINUTE, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testMinutes() throws Exception {
+        rollup.initialize();
+        rollup.rollup(DAY_START + 120000);
+        final List<Rollup> minutes = rollup.getRollups(Resolution.MINUTE, 0, Long.MAX_VALUE);
+        Assert.assertEquals(minutes.size(), 6);
+        assertRollup(find(minutes, MonitoringResultRollup.SEQUENCE_PHASE_ID, DAY_START), 2, 1, 200);
+        assertRollup(find(minutes, 1, DAY_START), 2, 0, 60);
+        assertRollup(find(minutes, 2, DAY_START), 2, 1, 140);
+        assertRollup(find(minutes, MonitoringResultRollup.SEQUENCE_PHASE_ID, DAY_START + 60000), 1, 0, 300);
+        Assert.assertEquals(rollup.getWatermark(Resolution.MINUTE), Long.valueOf(DAY_START + 120000));
+        Assert.assertNull(rollup.getWatermark(Resolution.HOUR));
+        Assert.assertTrue(rollup.getRollups(Resolution.HOUR, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testAllResolutions() throws Exception {
+        rollup.initialize();
+        rollup.rollup(DAY_START + Resolution.DAY.getLength() + 1000);
+        rollup.rollup(DAY_START + Resolution.DAY.getLength() + 2000);
+        Assert.assertEquals(rollup.getRollups(Resolution.MINUTE, 0, Long.MAX_VALUE).size(), 6);
+        final List<Rollup> hours = rollup.getRollups(Resolution.HOUR, 0, Long.MAX_VALUE);
+        Assert.assertEquals(hours.size(), 3);
+        assertRollup(find(hours, MonitoringResultRollup.SEQUENCE_PHASE_ID, DAY_START), 3, 1, 300);
+        final List<Rollup> days = rollup.getRollups(Resolution.DAY, 0, Long.MAX_VALUE);
+        Assert.assertEquals(days.size(), 3);
+        final Rollup day = find(days, MonitoringResultRollup.SEQUENCE_PHASE_ID, DAY_START);
+        assertRollup(day, 3, 1, 300);
+        Assert.assertEquals(day.getSketch().getMin(), 100);
+        Assert.assertTrue(Math.abs(day.getSketch().getQuantile(0.5) - 200) <= 200 / 32 + 1);
+        Assert.assertEquals(rollup.getWatermark(Resolution.DAY),
+                Long.valueOf(DAY_START + Resolution.DAY.getLength()));
+        Assert.assertEquals(countRows(StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS), 3);
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        final long day = Resolution.DAY.getLength();
+        rollup.setRawRetention(day);
+        rollup.setMinuteRetention(day);
+        rollup.initialize();
+        rollup.rollup(DAY_START + day);
+        Assert.assertEquals(countRows(StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS), 3);
+        rollup.rollup(DAY_START + 2 * day + 1000);
+        Assert.assertEquals(countRows(StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS), 0);
+        Assert.assertEquals(countRows(StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS), 0);
+        Assert.assertTrue(rollup.getRollups(Resolution.MINUTE, 0, Long.MAX_VALUE).isEmpty());
+        Assert.assertEquals(rollup.getRollups(Resolution.HOUR, 0, Long.MAX_VALUE).size(), 3);
+        Assert.assertEquals(rollup.getRollups(Resolution.DAY, 0, Long.MAX_VALUE).size(), 3);
+    }
+
+    protected void assertRollup(final Rollup rollup, final long count, final long errors, final long max) {
+        Assert.assertNotNull(rollup);
+        Assert.assertEquals(rollup.getCount(), count);
+        Assert.assertEquals(rollup.getErrorCount(), errors);
+        Assert.assertEquals(rollup.getSketch().getCount(), count);
+        Assert.assertEquals(rollup.getSketch().getMax(), max);
+    }
+
+    protected Rollup find(final List<Rollup> rollups, final int phaseId, final long bucketStart) {
+        for (final Rollup rollup : rollups) {
+            if (rollup.getPhaseId() == phaseId && rollup.getBucketStart() == bucketStart) {
+                Assert.assertEquals(rollup.getSourceId(), "mockId");
+                return rollup;
+            }
+        }
+        return null;
+    }
+
+    protected int countRows(final String table) throws Exception {
+        try (final Connection connection = dataSource.getConnection();
+                final PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + table);
+                final ResultSet set = statement.executeQuery()) {
+            Assert.assertTrue(set.next());
+            return set.getInt(1);
+        }
+    }
+
+    protected MonitoringSequenceResult initResult(final long startTime, final long duration, final long firstStep,
+            final String secondError) throws Exception {
+        final MonitoringSequenceResult result = MonitoringStatisticsTest.runSequence("mockId", "first", "second");
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + duration);
+        final MonitoringSequenceStepResult first = result.getStepResults().get(0);
+        first.setStartTime(startTime);
+        first.setEndTime(startTime + firstStep);
+        final MonitoringSequenceStepResult second = result.getStepResults().get(1);
+        second.setStartTime(startTime + firstStep);
+        second.setEndTime(startTime + duration);
+        second.setErrorMessage(secondError);
+        return result;
+    }
+}
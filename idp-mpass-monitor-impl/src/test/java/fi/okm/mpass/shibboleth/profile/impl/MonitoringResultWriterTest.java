@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.sql.DataSource;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import fi.okm.mpass.shibboleth.profile.impl.MonitoringResultWriter.OverflowPolicy;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+
+/**
+ * Unit tests for {@link MonitoringResultWriter}.
+ */
+public class MonitoringResultWriterTest {
+
+    /** The datasource used for storing monitoring results. */
+    private DataSource dataSource;
+
+    /** The writer to be tested. */
+    private MonitoringResultWriter writer;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource(
+                "/fi/okm/mpass/shibboleth/storage/MonitoringResultStore.sql", "MonitoringResultStore");
+        writer = new MonitoringResultWriter();
+        writer.setId("mockId");
+        writer.setDataSource(dataSource);
+        writer.setFlushInterval(60000);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        writer.destroy();
+        DatabaseTestingSupport.InitializeDataSource("/fi/okm/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    @Test
+    public void testWriteInOneTransaction() throws Exception {
+        writer.setWriteBehind(false);
+        writer.initialize();
+        writer.write(Arrays.asList(initResult("first", 1000, 2), initResult("second", 2000, 3)));
+        Assert.assertEquals(writer.getWrittenCount(), 2);
+        Assert.assertEquals(getSourceIds(), Arrays.asList("first", "second"));
+        Assert.assertEquals(countSteps("first"), 2);
+        Assert.assertEquals(countSteps("second"), 3);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        writer.initialize();
+        Assert.assertTrue(writer.enqueue(initResult("first", 1000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("second", 2000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("third", 3000, 1)));
+        writer.flush();
+        Assert.assertEquals(writer.getQueuedCount(), 0);
+        Assert.assertEquals(writer.getWrittenCount(), 3);
+        Assert.assertEquals(getSourceIds(), Arrays.asList("first", "second", "third"));
+        Assert.assertEquals(countSteps("third"), 1);
+    }
+
+    @Test
+    public void testFullBatch() throws Exception {
+        writer.setBatchSize(2);
+        writer.initialize();
+        writer.enqueue(initResult("first", 1000, 1));
+        writer.enqueue(initResult("second", 2000, 1));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(writer.getWrittenCount(), 2);
+    }
+
+    @Test
+    public void testFlushIntervalAfterPartialBatch() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final DataSource blockingSource = Mockito.mock(DataSource.class);
+        Mockito.when(blockingSource.getConnection()).thenAnswer(new Answer<Connection>() {
+            public Connection answer(final InvocationOnMock invocation) throws Throwable {
+                released.await();
+                return dataSource.getConnection();
+            }
+        });
+        writer.setDataSource(blockingSource);
+        writer.setBatchSize(2);
+        writer.setFlushInterval(1000);
+        writer.initialize();
+        writer.enqueue(initResult("first", 1000, 1));
+        writer.enqueue(initResult("second", 2000, 1));
+        final long queuedAt = System.currentTimeMillis();
+        writer.enqueue(initResult("third", 3000, 1));
+        writer.enqueue(initResult("fourth", 4000, 1));
+        writer.enqueue(initResult("fifth", 5000, 1));
+        Thread.sleep(800);
+        released.countDown();
+        // the fifth result is left alone after two full batches, but it has been queued for the flush interval
+        final long deadline = queuedAt + 1500;
+        while (writer.getWrittenCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(writer.getWrittenCount(), 5);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        initSmallQueue(OverflowPolicy.DROP_NEWEST);
+        Assert.assertTrue(writer.enqueue(initResult("first", 1000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("second", 2000, 1)));
+        Assert.assertFalse(writer.enqueue(initResult("third", 3000, 1)));
+        Assert.assertEquals(writer.getDroppedCount(), 1);
+        writer.destroy();
+        Assert.assertEquals(getSourceIds(), Arrays.asList("first", "second"));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        initSmallQueue(OverflowPolicy.DROP_OLDEST);
+        Assert.assertTrue(writer.enqueue(initResult("first", 1000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("second", 2000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("third", 3000, 1)));
+        Assert.assertEquals(writer.getDroppedCount(), 1);
+        writer.destroy();
+        Assert.assertEquals(getSourceIds(), Arrays.asList("second", "third"));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        initSmallQueue(OverflowPolicy.COALESCE);
+        Assert.assertTrue(writer.enqueue(initResult("first", 1000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("second", 2000, 1)));
+        Assert.assertTrue(writer.enqueue(initResult("first", 3000, 1)));
+        Assert.assertFalse(writer.enqueue(initResult("third", 4000, 1)));
+        Assert.assertEquals(writer.getDroppedCount(), 2);
+        writer.destroy();
+        Assert.assertEquals(getSourceIds(), Arrays.asList("second", "first"));
+        Assert.assertEquals(getStartTimes(), Arrays.asList(2000L, 3000L));
+    }
+
+    @Test
+    public void testFailedWrite() throws Exception {
+        final DataSource failingSource = Mockito.mock(DataSource.class);
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.prepareStatement((String) Mockito.any(), Mockito.anyInt()))
+            .thenThrow(new SQLException("mock", "mockState"));
+        Mockito.when(failingSource.getConnection()).thenReturn(connection);
+        writer.setDataSource(failingSource);
+        writer.initialize();
+        Assert.assertTrue(writer.enqueue(initResult("first", 1000, 1)));
+        writer.flush();
+        Assert.assertEquals(writer.getWrittenCount(), 0);
+        Assert.assertEquals(writer.getDroppedCount(), 1);
+        Mockito.verify(connection).rollback();
+    }
+
+    @Test
+    public void testWithoutTimingColumns() throws Exception {
+        try (final Connection connection = dataSource.getConnection();
+                final Statement statement = connection.createStatement()) {
+            for (final String column : Arrays.asList("dnsTime", "connectTime", "tlsTime", "waitTime",
+                    "downloadTime")) {
+                statement.executeUpdate("ALTER TABLE " + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS
+                        + " DROP COLUMN " + column);
+            }
+        }
+        writer.setWriteBehind(false);
+        writer.initialize();
+        writer.write(Arrays.asList(initResult("first", 1000, 2)));
+        Assert.assertEquals(writer.getWrittenCount(), 1);
+        Assert.assertEquals(countSteps("first"), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testEnqueueWithoutWriteBehind() throws Exception {
+        writer.setWriteBehind(false);
+        writer.initialize();
+        writer.enqueue(initResult("first", 1000, 1));
+    }
+
+    /**
+     * Initializes the writer with a queue of two results that is not written before the shutdown.
+     * @param policy The overflow policy.
+     * @throws Exception If the initialization fails.
+     */
+    protected void initSmallQueue(final OverflowPolicy policy) throws Exception {
+        writer.setQueueSize(2);
+        writer.setOverflowPolicy(policy);
+        writer.initialize();
+    }
+
+    protected MonitoringSequenceResult initResult(final String id, final long startTime, final int steps) {
+        final MonitoringSequenceResult result = new MonitoringSequenceResult();
+        result.setId(id);
+        result.setStartTime(startTime);
+        result.setEndTime(startTime + 100);
+        for (int i = 0; i < steps; i++) {
+            final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
+            step.setPhaseId(i + 1);
+            step.setStartTime(startTime + i);
+            step.setEndTime(startTime + i + 1);
+            result.addStepResult(step);
+        }
+        return result;
+    }
+
+    protected List<String> getSourceIds() throws SQLException {
+        final List<String> ids = new ArrayList<>();
+        try (final Connection connection = dataSource.getConnection();
+                final PreparedStatement statement = connection.prepareStatement("SELECT sourceId FROM "
+                        + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS + " ORDER BY id");
+                final ResultSet set = statement.executeQuery()) {
+            while (set.next()) {
+                ids.add(set.getString(1));
+            }
+        }
+        return ids;
+    }
+
+    protected List<Long> getStartTimes() throws SQLException {
+        final List<Long> times = new ArrayList<>();
+        try (final Connection connection = dataSource.getConnection();
+                final PreparedStatement statement = connection.prepareStatement("SELECT startTime FROM "
+                        + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS + " ORDER BY id");
+                final ResultSet set = statement.executeQuery()) {
+            while (set.next()) {
+                times.add(set.getLong(1));
+            }
+        }
+        return times;
+    }
+
+    protected int countSteps(final String sourceId) throws SQLException {
+        try (final Connection connection = dataSource.getConnection();
+                final PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM "
+                        + StoreMonitoringResult.TABLE_NAME_MONITORING_STEP_RESULTS + " s JOIN "
+                        + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS + " r ON s.resultId = r.id"
+                        + " WHERE r.sourceId = ?")) {
+            statement.setString(1, sourceId);
+            try (final ResultSet set = statement.executeQuery()) {
+                Assert.assertTrue(set.next());
+                return set.getInt(1);
+            }
+        }
+    }
+}
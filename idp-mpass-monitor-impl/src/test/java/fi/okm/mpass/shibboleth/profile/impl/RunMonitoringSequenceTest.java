@@ -37,6 +37,7 @@ import org.testng.annotations.Test;
 import fi.okm.mpass.shibboleth.monitor.ResponseValidatorException;
 import fi.okm.mpass.shibboleth.monitor.SequenceStep;
 import fi.okm.mpass.shibboleth.monitor.SequenceStepResolver;
+import fi.okm.mpass.shibboleth.monitor.SequenceTimeoutException;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
@@ -139,4 +140,22 @@ public class RunMonitoringSequenceTest {
         Assert.assertEquals(monitoringCtx.getResults().get(0).getStepResults().size(), 1);
         Assert.assertNull(monitoringCtx.getResults().get(0).getStepResults().get(0).getErrorMessage());
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTimeout() throws Exception {
+        final List<SequenceStepResolver> resolvers = initResolvers(3, 7, false);
+        Mockito.when(resolvers.get(1).resolve((HttpContext)Mockito.any(), (SequenceStep)Mockito.any()))
+            .thenThrow(new SequenceTimeoutException(errorMessage));
+        action.setResolvers(resolvers);
+        action.setTimeout(1000);
+        action.initialize();
+        action.execute(prc);
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class);
+        Assert.assertNotNull(monitoringCtx);
+        Assert.assertEquals(monitoringCtx.getResults().get(0).getStepResults().size(), 2);
+        Assert.assertFalse(monitoringCtx.getResults().get(0).getStepResults().get(0).isTimedOut());
+        Assert.assertTrue(monitoringCtx.getResults().get(0).getStepResults().get(1).isTimedOut());
+        Assert.assertEquals(monitoringCtx.getResults().get(0).getStepResults().get(1).getErrorMessage(), errorMessage);
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringSequence;
+import fi.okm.mpass.shibboleth.monitor.SequenceDeadline;
+import fi.okm.mpass.shibboleth.monitor.SequenceStep;
+import fi.okm.mpass.shibboleth.monitor.SequenceStepResolver;
+import fi.okm.mpass.shibboleth.monitor.SequenceTimeoutException;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
+import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link RunMonitoringSequences}.
+ */
+public class RunMonitoringSequencesTest {
+
+    /** The action to be tested. */
+    RunMonitoringSequences action;
+
+    /** The cookie stores seen by the resolvers. */
+    List<CookieStore> cookieStores;
+
+    /** The request context containing the profile context. */
+    protected RequestContext src;
+    
+    /** The profile context containing the relying party context. */
+    protected ProfileRequestContext<?, ?> prc;
+
+    @BeforeMethod
+    public void initTests() throws Exception {
+        action = new RunMonitoringSequences();
+        cookieStores = new ArrayList<>();
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        action.destroy();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoSequences() throws Exception {
+        action.initialize();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testParallel() throws Exception {
+        action.setSequences(Arrays.asList(initSequence("seq1", 200), initSequence("seq2", 200), 
+                initSequence("seq3", 200)));
+        action.setThreads(3);
+        action.initialize();
+        final long start = System.currentTimeMillis();
+        action.execute(prc);
+        Assert.assertTrue(System.currentTimeMillis() - start < 600);
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class);
+        Assert.assertNotNull(monitoringCtx);
+        Assert.assertEquals(monitoringCtx.getResults().size(), 3);
+        for (int i = 0; i < 3; i++) {
+            final MonitoringSequenceResult result = monitoringCtx.getResults().get(i);
+            Assert.assertEquals(result.getId(), "seq" + (i + 1));
+            Assert.assertEquals(result.getStepResults().size(), 1);
+            Assert.assertNull(result.getStepResults().get(0).getErrorMessage());
+        }
+        Assert.assertEquals(cookieStores.size(), 3);
+        Assert.assertNotSame(cookieStores.get(0), cookieStores.get(1));
+        Assert.assertNotSame(cookieStores.get(1), cookieStores.get(2));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTimeout() throws Exception {
+        action.setSequences(Arrays.asList(initSequence("fast", 0), initSequence("slow", 5000)));
+        action.setSequenceTimeout(500);
+        action.setAbortGrace(200);
+        action.initialize();
+        action.execute(prc);
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class);
+        Assert.assertEquals(monitoringCtx.getResults().size(), 2);
+        Assert.assertNull(monitoringCtx.getResults().get(0).getStepResults().get(0).getErrorMessage());
+        final MonitoringSequenceResult slow = monitoringCtx.getResults().get(1);
+        Assert.assertEquals(slow.getId(), "slow");
+        Assert.assertTrue(slow.getStepResults().get(0).getErrorMessage().contains("did not finish"));
+        Assert.assertTrue(slow.getStepResults().get(0).isTimedOut());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTimeoutAbortsRequest() throws Exception {
+        final HttpGet request = new HttpGet("http://localhost/blocking");
+        final SequenceStepResolver resolver = Mockito.mock(SequenceStepResolver.class);
+        Mockito.when(resolver.getId()).thenReturn("mock");
+        Mockito.when(resolver.resolve((HttpContext) Mockito.any(), (SequenceStep) Mockito.any()))
+            .thenAnswer(new Answer<SequenceStep>() {
+                @Override
+                public SequenceStep answer(final InvocationOnMock invocation) throws Throwable {
+                    final SequenceDeadline deadline = SequenceDeadline.get((HttpContext) 
+                            invocation.getArguments()[0]);
+                    deadline.track(request);
+                    // ignores interrupts like a blocking socket read
+                    final long start = System.currentTimeMillis();
+                    while (!request.isAborted() && System.currentTimeMillis() - start < 5000) {
+                        Thread.yield();
+                    }
+                    if (request.isAborted()) {
+                        throw new SequenceTimeoutException("The request was aborted");
+                    }
+                    return new SequenceStep();
+                }
+            });
+        final MonitoringSequence sequence = new MonitoringSequence();
+        sequence.setId("blocking");
+        sequence.setInitialUrl("http://localhost/blocking");
+        sequence.setResolvers(Arrays.asList(resolver));
+        action.setSequences(Arrays.asList(sequence));
+        action.setSequenceTimeout(300);
+        action.initialize();
+        final long start = System.currentTimeMillis();
+        action.execute(prc);
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        Assert.assertTrue(request.isAborted());
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class);
+        Assert.assertEquals(monitoringCtx.getResults().size(), 1);
+        final MonitoringSequenceStepResult step = monitoringCtx.getResults().get(0).getStepResults().get(0);
+        Assert.assertEquals(step.getId(), "mock");
+        Assert.assertEquals(step.getErrorMessage(), "The request was aborted");
+        Assert.assertTrue(step.isTimedOut());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWaitBounded() throws Exception {
+        action.setSequences(Arrays.asList(initSequence("slow1", 5000), initSequence("slow2", 5000)));
+        action.setThreads(1);
+        action.setSequenceTimeout(300);
+        action.setAbortGrace(200);
+        action.initialize();
+        final long start = System.currentTimeMillis();
+        action.execute(prc);
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        final MonitoringResultContext monitoringCtx = prc.getSubcontext(MonitoringResultContext.class);
+        Assert.assertEquals(monitoringCtx.getResults().size(), 2);
+        Assert.assertNotNull(monitoringCtx.getResults().get(1).getStepResults().get(0).getErrorMessage());
+    }
+
+    protected MonitoringSequence initSequence(final String id, final long delay) throws Exception {
+        final SequenceStepResolver resolver = Mockito.mock(SequenceStepResolver.class);
+        Mockito.when(resolver.getId()).thenReturn("mock");
+        Mockito.when(resolver.resolve((HttpContext) Mockito.any(), (SequenceStep) Mockito.any()))
+            .thenAnswer(new Answer<SequenceStep>() {
+                @Override
+                public SequenceStep answer(final InvocationOnMock invocation) throws Throwable {
+                    final HttpContext context = (HttpContext) invocation.getArguments()[0];
+                    synchronized (cookieStores) {
+                        cookieStores.add((CookieStore) context.getAttribute(HttpClientContext.COOKIE_STORE));
+                    }
+                    Thread.sleep(delay);
+                    return new SequenceStep();
+                }
+            });
+        final MonitoringSequence sequence = new MonitoringSequence();
+        sequence.setId(id);
+        sequence.setInitialUrl("http://localhost/" + id);
+        sequence.setResolvers(Arrays.asList(resolver));
+        return sequence;
+    }
+}
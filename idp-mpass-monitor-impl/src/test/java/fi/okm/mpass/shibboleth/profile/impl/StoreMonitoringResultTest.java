@@ -177,6 +177,32 @@ public class StoreMonitoringResultTest {
         ActionTestingSupport.assertEvent(action.execute(src), EventIds.IO_ERROR);
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        final MonitoringResultWriter writer = new MonitoringResultWriter();
+        writer.setId("mockWriter");
+        writer.setDataSource(dataSource);
+        writer.setFlushInterval(60000);
+        writer.initialize();
+        action = new StoreMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setResultWriter(writer);
+        action.initialize();
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        long startTime = System.currentTimeMillis() - 1000;
+        long endTime = System.currentTimeMillis();
+        monitoringCtx.addResult(initMonitoringResult(startTime, endTime));
+        prc.addSubcontext(monitoringCtx);
+        Assert.assertNull(action.execute(src));
+        Assert.assertEquals(1, writer.getQueuedCount());
+        writer.destroy();
+        final Connection connection = dataSource.getConnection();
+        final PreparedStatement statement = connection.prepareStatement("SELECT * from " + StoreMonitoringResult.TABLE_NAME_MONITORING_RESULTS);
+        final ResultSet set = statement.executeQuery();
+        assertResult(connection, set, 0, startTime, endTime);
+        Assert.assertFalse(set.next());
+    }
+
     protected void assertResult(final Connection connection, final ResultSet set, final int id, final long startTime, final long endTime) throws Exception {
         Assert.assertTrue(set.next());
         Assert.assertEquals(id, set.getBigDecimal(1).longValue());
@@ -188,6 +214,11 @@ public class StoreMonitoringResultTest {
         Assert.assertTrue(stepSet.next());
         Assert.assertEquals(startTime, stepSet.getLong("startTime"));
         Assert.assertEquals(endTime, stepSet.getLong("endTime"));
+        Assert.assertEquals(1, stepSet.getLong("dnsTime"));
+        Assert.assertEquals(2, stepSet.getLong("connectTime"));
+        Assert.assertEquals(3, stepSet.getLong("tlsTime"));
+        Assert.assertEquals(4, stepSet.getLong("waitTime"));
+        Assert.assertEquals(5, stepSet.getLong("downloadTime"));
         Assert.assertFalse(stepSet.next());
     }
     
@@ -199,6 +230,11 @@ public class StoreMonitoringResultTest {
         final MonitoringSequenceStepResult step = new MonitoringSequenceStepResult();
         step.setStartTime(startTime);
         step.setEndTime(endTime);
+        step.setDnsTime(1);
+        step.setConnectTime(2);
+        step.setTlsTime(3);
+        step.setWaitTime(4);
+        step.setDownloadTime(5);
         monitoringResult.addStepResult(step);
         return monitoringResult;
     }
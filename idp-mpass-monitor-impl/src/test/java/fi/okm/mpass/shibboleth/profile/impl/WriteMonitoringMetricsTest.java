@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.mockito.Mockito;
+import org.opensaml.profile.action.EventIds;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.monitor.MonitoringMetrics;
+import fi.okm.mpass.shibboleth.monitor.MonitoringStatisticsTest;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link WriteMonitoringMetrics}.
+ */
+public class WriteMonitoringMetricsTest {
+
+    /** The action to be tested. */
+    private WriteMonitoringMetrics action;
+
+    /** The metrics used by the action. */
+    private MonitoringMetrics metrics;
+
+    @BeforeMethod
+    public void initTests() {
+        metrics = new MonitoringMetrics();
+        action = new WriteMonitoringMetrics();
+        action.setMetrics(metrics);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoMetrics() throws ComponentInitializationException {
+        action = new WriteMonitoringMetrics();
+        action.initialize();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        metrics.record(MonitoringStatisticsTest.buildResult("seq1", System.currentTimeMillis(), 100, null, null));
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertTrue(httpResponse.getContentType().startsWith("application/openmetrics-text"));
+        final String output = httpResponse.getContentAsString();
+        Assert.assertTrue(output.contains("mpass_monitoring_sequence_errors_total{sequence=\"seq1\"} 0\n"));
+        Assert.assertTrue(output.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testIOError() throws Exception {
+        final HttpServletResponse httpResponse = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(httpResponse.getOutputStream()).thenThrow(new IOException("mock"));
+        action.setHttpServletResponse(httpResponse);
+        action.initialize();
+        final Event event = action.execute((RequestContext) null);
+        Assert.assertEquals(event.getId(), EventIds.IO_ERROR);
+    }
+}
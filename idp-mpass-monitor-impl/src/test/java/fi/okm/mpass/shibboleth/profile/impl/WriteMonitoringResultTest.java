@@ -37,6 +37,7 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import fi.okm.mpass.shibboleth.monitor.MonitoringResultCache;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringResultContext;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceResult;
 import fi.okm.mpass.shibboleth.monitor.context.MonitoringSequenceStepResult;
@@ -115,6 +116,51 @@ public class WriteMonitoringResultTest {
         Assert.assertTrue(httpResponse.getContentAsString().contains("OK:"));
     }
     
+    @Test
+    public void testStaleResult() throws Exception {
+        action = new WriteMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setMaxResultAge(1000);
+        action.initialize();
+        final MonitoringSequenceResult seqResult = initSeqResult(null);
+        seqResult.setEndTime(System.currentTimeMillis() - 5000);
+        final MonitoringResultContext monitoringCtx = new MonitoringResultContext();
+        monitoringCtx.addResult(seqResult);
+        prc.addSubcontext(monitoringCtx);
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertTrue(httpResponse.getContentAsString().startsWith(WriteMonitoringResult.ERROR_MSG_STALE_RESULT));
+    }
+    
+    @Test
+    public void testCacheNoResults() throws Exception {
+        action = new WriteMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setResultCache(new MonitoringResultCache());
+        action.setSequenceId("mockSequence");
+        action.initialize();
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getContentAsString(), WriteMonitoringResult.ERROR_MSG_NO_RESULTS);
+    }
+    
+    @Test
+    public void testCacheWithError() throws Exception {
+        final MonitoringResultCache cache = new MonitoringResultCache();
+        final MonitoringSequenceResult seqResult = initSeqResult(errorMessage);
+        seqResult.setId("mockSequence");
+        cache.addResult(seqResult);
+        action = new WriteMonitoringResult();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.setResultCache(cache);
+        action.setSequenceId("mockSequence");
+        action.setMaxResultAge(60000);
+        action.initialize();
+        action.execute(src);
+        MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getContentAsString(), errorMessage);
+    }
+    
     @Test
     public void testIOError() throws Exception {
         HttpServletResponse httpResponse = Mockito.mock(HttpServletResponse.class);
@@ -132,6 +178,8 @@ public class WriteMonitoringResultTest {
         stepResult.setEndTime(System.currentTimeMillis());
         stepResult.setErrorMessage(newErrorMessage);
         final MonitoringSequenceResult seqResult = new MonitoringSequenceResult();
+        seqResult.setStartTime(stepResult.getStartTime());
+        seqResult.setEndTime(stepResult.getEndTime());
         seqResult.addStepResult(stepResult);
         return seqResult;
     }
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link AhoCorasickMatcher}.
+ */
+public class AhoCorasickMatcherTest {
+
+    @Test
+    public void testOverlappingPatterns() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers", "x"));
+        Assert.assertEquals(matcher.size(), 5);
+        final AhoCorasickMatcher.Scan scan = matcher.newScan();
+        update(scan, "ushers");
+        Assert.assertTrue(scan.isFound(0));
+        Assert.assertTrue(scan.isFound(1));
+        Assert.assertFalse(scan.isFound(2));
+        Assert.assertTrue(scan.isFound(3));
+        Assert.assertFalse(scan.isFound(4));
+        Assert.assertFalse(scan.isAllFound());
+    }
+
+    @Test
+    public void testChunkBoundaries() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("mockContent", "Cont"));
+        final AhoCorasickMatcher.Scan scan = matcher.newScan();
+        update(scan, "random mo");
+        update(scan, "ckCo");
+        Assert.assertFalse(scan.isFound(0));
+        update(scan, "ntent");
+        Assert.assertTrue(scan.isAllFound());
+    }
+
+    @Test
+    public void testIndependentScans() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Collections.singletonList("abc"));
+        final AhoCorasickMatcher.Scan first = matcher.newScan();
+        final AhoCorasickMatcher.Scan second = matcher.newScan();
+        update(first, "xxabcxx");
+        update(second, "abxc");
+        Assert.assertTrue(first.isAllFound());
+        Assert.assertFalse(second.isAllFound());
+    }
+
+    @Test
+    public void testNoPatterns() {
+        Assert.assertTrue(new AhoCorasickMatcher(Collections.<String>emptyList()).newScan().isAllFound());
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testEmptyPattern() {
+        new AhoCorasickMatcher(Arrays.asList("abc", ""));
+    }
+
+    protected void update(final AhoCorasickMatcher.Scan scan, final String chunk) {
+        scan.update(chunk.toCharArray(), 0, chunk.length());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ExchangeRecorder}.
+ */
+public class ExchangeRecorderTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final ExchangeRecorder recorder = new ExchangeRecorder();
+        final RecordedExchange post = new RecordedExchange("POST", "https://example.org/login?x=1");
+        post.setResolverId("mockId");
+        post.setStatusCode(302);
+        post.setReasonPhrase("Found");
+        post.addHeader("Location", "https://example.org/next");
+        post.addHeader("Set-Cookie", "a=b");
+        post.addHeader("Set-Cookie", "c=d");
+        post.setStartTime(1000);
+        post.setWaitTime(20);
+        post.setDownloadTime(3);
+        recorder.record(post);
+        final RecordedExchange get = new RecordedExchange("GET", "https://example.org/next");
+        get.setStatusCode(200);
+        get.setBody("<html>\u00e4</html>".getBytes("UTF-8"));
+        recorder.record(get);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.write(out);
+        final List<RecordedExchange> exchanges = ExchangeRecorder.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(exchanges.size(), 2);
+        final RecordedExchange first = exchanges.get(0);
+        Assert.assertEquals(first.getResolverId(), "mockId");
+        Assert.assertEquals(first.getMethod(), "POST");
+        Assert.assertEquals(first.getUri(), "https://example.org/login?x=1");
+        Assert.assertEquals(first.getStatusCode(), 302);
+        Assert.assertEquals(first.getReasonPhrase(), "Found");
+        Assert.assertEquals(first.getHeaders().size(), 3);
+        Assert.assertEquals(first.getFirstHeader("location"), "https://example.org/next");
+        Assert.assertEquals(first.getHeaders().get(2).getValue(), "c=d");
+        Assert.assertNull(first.getBody());
+        Assert.assertEquals(first.getStartTime(), 1000);
+        Assert.assertEquals(first.getWaitTime(), 20);
+        Assert.assertEquals(first.getDownloadTime(), 3);
+        final RecordedExchange second = exchanges.get(1);
+        Assert.assertNull(second.getResolverId());
+        Assert.assertNull(second.getReasonPhrase());
+        Assert.assertEquals(new String(second.getBody(), "UTF-8"), "<html>\u00e4</html>");
+    }
+
+    @Test
+    public void testLongStrings() throws IOException {
+        final StringBuilder builder = new StringBuilder("https://example.org/?q=");
+        while (builder.length() < 70000) {
+            builder.append("\u00e4abcdefgh");
+        }
+        final ExchangeRecorder recorder = new ExchangeRecorder();
+        final RecordedExchange exchange = new RecordedExchange("GET", builder.toString());
+        exchange.addHeader("X-Long", builder.toString());
+        recorder.record(exchange);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.write(out);
+        final RecordedExchange read = ExchangeRecorder.read(new ByteArrayInputStream(out.toByteArray())).get(0);
+        Assert.assertEquals(read.getUri(), builder.toString());
+        Assert.assertEquals(read.getFirstHeader("X-Long"), builder.toString());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final ExchangeRecorder recorder = new ExchangeRecorder();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.write(out);
+        Assert.assertTrue(ExchangeRecorder.read(new ByteArrayInputStream(out.toByteArray())).isEmpty());
+        recorder.record(new RecordedExchange("GET", "http://localhost/"));
+        Assert.assertEquals(recorder.getExchanges().size(), 1);
+        recorder.clear();
+        Assert.assertTrue(recorder.getExchanges().isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidArchive() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(new byte[] { 1, 2, 3, 4, 5 });
+        gzip.finish();
+        ExchangeRecorder.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link HtmlFieldExtractor}.
+ */
+public class HtmlFieldExtractorTest {
+
+    @Test
+    public void testForm() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.singleton("action"),
+                Arrays.asList("SAMLResponse", "RelayState", "missing"));
+        final HtmlFieldExtractor.Result result = extractor.extract("<html><body onload=\"submit()\">"
+                + "<form method='post' action=\"https&#x3a;&#x2f;&#x2f;sp.example.org&#x2f;acs?a=1&amp;b=2\">"
+                + "<input type=\"hidden\" value=\"PHNhbWw+\" name=\"SAMLResponse\"/>"
+                + "<input type=\"hidden\" name=\"RelayState\" value='ss&#58;mem&#58;1 &lt;&gt;'/>"
+                + "<input type=\"submit\" value=\"Continue\"/></form></body></html>");
+        Assert.assertEquals(result.getAttribute("action"), "https://sp.example.org/acs?a=1&b=2");
+        Assert.assertEquals(result.getField("SAMLResponse"), "PHNhbWw+");
+        Assert.assertEquals(result.getField("RelayState"), "ss:mem:1 <>");
+        Assert.assertNull(result.getField("missing"));
+    }
+
+    @Test
+    public void testQuotedBrackets() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.singleton("href"),
+                Collections.singleton("ctx"));
+        final HtmlFieldExtractor.Result result = extractor.extract("<a title=\"a > b\" href=\"/next\">"
+                + "<input data-value=\"wrong\" name=\"ctx\" value=\"right\">");
+        Assert.assertEquals(result.getAttribute("href"), "/next");
+        Assert.assertEquals(result.getField("ctx"), "right");
+    }
+
+    @Test
+    public void testFirstOccurrence() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.singleton("action"),
+                Collections.singleton("p"));
+        final HtmlFieldExtractor.Result result = extractor.extract("<form action = \"/first\">"
+                + "<input name=\"p\" value=\"1\"><form action=\"/second\"><input name=\"p\" value=\"2\">");
+        Assert.assertEquals(result.getAttribute("action"), "/first");
+        Assert.assertEquals(result.getField("p"), "1");
+    }
+
+    @Test
+    public void testFieldWithoutValue() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.<String>emptySet(),
+                Collections.singleton("p"));
+        final HtmlFieldExtractor.Result result = extractor.extract("<input name=\"p\"><input value=\"v\">");
+        Assert.assertNull(result.getField("p"));
+    }
+
+    @Test
+    public void testFragment() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.singleton("mockKey"),
+                Collections.singleton("ctx"));
+        final HtmlFieldExtractor.Result result = extractor.extract("mockKey=\"/mockValue\" name=\"ctx\" value=\"v\"");
+        Assert.assertEquals(result.getAttribute("mockKey"), "/mockValue");
+        Assert.assertEquals(result.getField("ctx"), "v");
+    }
+
+    @Test
+    public void testScanInChunks() {
+        final HtmlFieldExtractor extractor = new HtmlFieldExtractor(Collections.singleton("action"),
+                Arrays.asList("SAMLResponse", "RelayState"));
+        final char[] document = ("<form method='post' action=\"/acs?a=1&amp;b=2\">"
+                + "<input type=\"hidden\" value=\"PHNhbWw+\" name=\"SAMLResponse\"/>"
+                + "<input type=\"hidden\" name=\"RelayState\" value='ss&#58;mem&#58;1'/></form>").toCharArray();
+        final HtmlFieldExtractor.Scan scan = extractor.newScan();
+        for (int i = 0; i < document.length; i += 3) {
+            scan.write(document, i, Math.min(3, document.length - i));
+        }
+        final HtmlFieldExtractor.Result result = scan.getResult();
+        Assert.assertEquals(result.getAttribute("action"), "/acs?a=1&b=2");
+        Assert.assertEquals(result.getField("SAMLResponse"), "PHNhbWw+");
+        Assert.assertEquals(result.getField("RelayState"), "ss:mem:1");
+    }
+}
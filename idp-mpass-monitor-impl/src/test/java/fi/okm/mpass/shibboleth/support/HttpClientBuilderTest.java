@@ -30,6 +30,8 @@ import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
 import org.simpleframework.http.Request;
 import org.simpleframework.http.Response;
 import org.simpleframework.http.core.Container;
@@ -64,6 +66,27 @@ public class HttpClientBuilderTest {
         Assert.assertEquals(executeWithServer(client), url);
     }
     
+    @Test
+    public void testConnectionTracking() throws Exception {
+        final HttpClientBuilder clientBuilder = new HttpClientBuilder();
+        clientBuilder.setHttpFollowRedirects(false);
+        final HttpClient client = clientBuilder.buildClient();
+        final Connection connection = new SocketConnection(new ContainerSocketProcessor(new SimpleContainer()));
+        connection.connect(new InetSocketAddress(CONTAINER_PORT));
+        try {
+            final HttpClientContext context = HttpClientContext.create();
+            EntityUtils.consume(client.execute(new HttpGet(url), context).getEntity());
+            Assert.assertEquals(context.getAttribute(ConnectionTrackingRequestExecutor.CONTEXT_KEY_NEW_CONNECTION),
+                    Boolean.TRUE);
+            Assert.assertNotNull(RequestPhaseTimings.get(context));
+            context.removeAttribute(ConnectionTrackingRequestExecutor.CONTEXT_KEY_NEW_CONNECTION);
+            EntityUtils.consume(client.execute(new HttpGet(url), context).getEntity());
+            Assert.assertNull(context.getAttribute(ConnectionTrackingRequestExecutor.CONTEXT_KEY_NEW_CONNECTION));
+        } finally {
+            connection.close();
+        }
+    }
+    
     protected String executeWithServer(final HttpClient httpClient) 
             throws Exception {
         final Container container = new SimpleContainer();
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link JsonFieldExtractor}.
+ */
+public class JsonFieldExtractorTest {
+
+    @Test
+    public void testNestedKeys() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(Arrays.asList("AuthURL", "count", "flag", "none"));
+        final Map<String, String> values = extractor.extract("{ \"list\": [1, {\"AuthURL\": [\"skipped\"]}], "
+                + "\"nested\": { \"AuthURL\": \"https:\\/\\/idp.example.org\\/sso?a=1\\u0026b=2\", \"count\": 3 }, "
+                + "\"flag\": true, \"AuthURL\": \"ignored\" }");
+        Assert.assertEquals(values.get("AuthURL"), "https://idp.example.org/sso?a=1&b=2");
+        Assert.assertEquals(values.get("count"), "3");
+        Assert.assertEquals(values.get("flag"), "true");
+        Assert.assertFalse(values.containsKey("none"));
+    }
+
+    @Test
+    public void testStopsWhenFound() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(Arrays.asList("key"));
+        Assert.assertEquals(extractor.extract("{ \"key\": \"value\", \"rest\": ").get("key"), "value");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMalformed() throws IOException {
+        new JsonFieldExtractor(Arrays.asList("key")).extract("{ \"key\":\"value }");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.support;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link QuantileSketch}.
+ */
+public class QuantileSketchTest {
+
+    @Test
+    public void testEmpty() {
+        final QuantileSketch sketch = new QuantileSketch();
+        Assert.assertEquals(sketch.getCount(), 0);
+        Assert.assertEquals(sketch.getQuantile(0.5), 0);
+        Assert.assertEquals(sketch.getMin(), 0);
+        Assert.assertEquals(sketch.getMax(), 0);
+        Assert.assertEquals(QuantileSketch.fromBytes(sketch.toBytes()).getCount(), 0);
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 20; i++) {
+            sketch.record(i);
+        }
+        Assert.assertEquals(sketch.getQuantile(0.5), 10);
+        Assert.assertEquals(sketch.getQuantile(0.95), 19);
+        Assert.assertEquals(sketch.getQuantile(1), 20);
+        Assert.assertEquals(sketch.getQuantile(0), 1);
+        Assert.assertEquals(sketch.getSum(), 210);
+        Assert.assertEquals(sketch.getMean(), 10.5, 0.0001);
+    }
+
+    @Test
+    public void testRelativeError() {
+        final Random random = new Random(42);
+        final long[] values = new long[10000];
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 16);
+            sketch.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double quantile : new double[] { 0.01, 0.5, 0.9, 0.95, 0.99, 0.999 }) {
+            final long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            final long estimate = sketch.getQuantile(quantile);
+            Assert.assertTrue(estimate >= exact, "Estimate " + estimate + " below " + exact);
+            Assert.assertTrue(estimate - exact <= exact / QuantileSketch.SUB_BUCKETS + 1,
+                    "Estimate " + estimate + " too far from " + exact);
+        }
+        Assert.assertEquals(sketch.getQuantile(1), values[values.length - 1]);
+    }
+
+    @Test
+    public void testMergeAndSerialize() {
+        final QuantileSketch first = new QuantileSketch();
+        final QuantileSketch second = new QuantileSketch();
+        final QuantileSketch all = new QuantileSketch();
+        final Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            final long value = random.nextInt(1000000);
+            (i % 2 == 0 ? first : second).record(value);
+            all.record(value);
+        }
+        final QuantileSketch merged = QuantileSketch.fromBytes(first.toBytes());
+        merged.merge(QuantileSketch.fromBytes(second.toBytes()));
+        Assert.assertEquals(merged.getCount(), all.getCount());
+        Assert.assertEquals(merged.getSum(), all.getSum());
+        Assert.assertEquals(merged.getMin(), all.getMin());
+        Assert.assertEquals(merged.getMax(), all.getMax());
+        Assert.assertEquals(merged.toBytes(), all.toBytes());
+        for (final double quantile : new double[] { 0.5, 0.95, 0.99 }) {
+            Assert.assertEquals(merged.getQuantile(quantile), all.getQuantile(quantile));
+        }
+    }
+
+    @Test
+    public void testLargeValues() {
+        final QuantileSketch sketch = new QuantileSketch();
+        sketch.record(Long.MAX_VALUE);
+        sketch.record(-5);
+        Assert.assertEquals(sketch.getMin(), 0);
+        Assert.assertEquals(sketch.getQuantile(1), Long.MAX_VALUE);
+        Assert.assertEquals(QuantileSketch.fromBytes(sketch.toBytes()).getQuantile(1), Long.MAX_VALUE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBytes() {
+        QuantileSketch.fromBytes(new byte[] { 1, 5, 3 });
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testInvalidQuantile() {
+        new QuantileSketch().getQuantile(1.5);
+    }
+}
@@ -1,2 +1,4 @@
 DROP TABLE mpass_monitoring_step_result;
 DROP TABLE mpass_monitoring_result;
+DROP TABLE mpass_monitoring_rollup;
+DROP TABLE mpass_monitoring_rollup_watermark;
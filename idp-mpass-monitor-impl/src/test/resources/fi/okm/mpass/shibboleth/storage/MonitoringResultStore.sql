@@ -10,5 +10,25 @@ CREATE TABLE mpass_monitoring_step_result (
     phaseId TINYINT NOT NULL,
     errorMessage VARCHAR(200),
     startTime BIGINT NOT NULL,
-    endTime BIGINT NOT NULL
+    endTime BIGINT NOT NULL,
+    dnsTime BIGINT DEFAULT 0 NOT NULL,
+    connectTime BIGINT DEFAULT 0 NOT NULL,
+    tlsTime BIGINT DEFAULT 0 NOT NULL,
+    waitTime BIGINT DEFAULT 0 NOT NULL,
+    downloadTime BIGINT DEFAULT 0 NOT NULL
+    );
+CREATE INDEX mpass_monitoring_result_start ON mpass_monitoring_result (startTime);
+CREATE TABLE mpass_monitoring_rollup (
+    resolution VARCHAR(6) NOT NULL,
+    sourceId VARCHAR(20) NOT NULL,
+    phaseId TINYINT NOT NULL,
+    bucketStart BIGINT NOT NULL,
+    total BIGINT NOT NULL,
+    errors BIGINT NOT NULL,
+    sketch VARBINARY(16384) NOT NULL,
+    PRIMARY KEY (resolution, sourceId, phaseId, bucketStart)
+    );
+CREATE TABLE mpass_monitoring_rollup_watermark (
+    resolution VARCHAR(6) NOT NULL PRIMARY KEY,
+    watermark BIGINT NOT NULL
     );
\ No newline at end of file
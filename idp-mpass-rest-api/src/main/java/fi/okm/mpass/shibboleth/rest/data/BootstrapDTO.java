@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.rest.data;
+
+import java.util.List;
+
+/**
+ * Data transfer object for bootstrapping a discovery client with a single request: it contains the meta
+ * information of the proxy, the authentication sources, the authentication tags and the connected services.
+ */
+public class BootstrapDTO {
+
+    /** The meta information of the proxy. */
+    private MetaDTO meta;
+
+    /** The authentication sources. */
+    private List<AuthnSourceDTO> authnSources;
+
+    /** The authentication tags. */
+    private List<AuthnTagDTO> tags;
+
+    /** The connected services. */
+    private List<ServiceDTO> services;
+
+    /**
+     * Get the meta information of the proxy.
+     * @return The meta information of the proxy.
+     */
+    public MetaDTO getMeta() {
+        return meta;
+    }
+
+    /**
+     * Set the meta information of the proxy.
+     * @param newMeta What to set.
+     */
+    public void setMeta(final MetaDTO newMeta) {
+        this.meta = newMeta;
+    }
+
+    /**
+     * Get the authentication sources.
+     * @return The authentication sources.
+     */
+    public List<AuthnSourceDTO> getAuthnSources() {
+        return authnSources;
+    }
+
+    /**
+     * Set the authentication sources.
+     * @param sources What to set.
+     */
+    public void setAuthnSources(final List<AuthnSourceDTO> sources) {
+        this.authnSources = sources;
+    }
+
+    /**
+     * Get the authentication tags.
+     * @return The authentication tags.
+     */
+    public List<AuthnTagDTO> getTags() {
+        return tags;
+    }
+
+    /**
+     * Set the authentication tags.
+     * @param newTags What to set.
+     */
+    public void setTags(final List<AuthnTagDTO> newTags) {
+        this.tags = newTags;
+    }
+
+    /**
+     * Get the connected services.
+     * @return The connected services.
+     */
+    public List<ServiceDTO> getServices() {
+        return services;
+    }
+
+    /**
+     * Set the connected services.
+     * @param newServices What to set.
+     */
+    public void setServices(final List<ServiceDTO> newServices) {
+        this.services = newServices;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.rest.data;
+
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Data transfer object for the monitoring statistics of one sequence or one of its steps over a window.
+ */
+public class MonitoringStatisticDTO {
+
+    /** The identifier of the sequence. */
+    private String id;
+
+    /** The phase identifier of the step, -1 for the whole sequence. */
+    @SerializedName("phase_id")
+    private int phaseId;
+
+    /** The number of results. */
+    private long count;
+
+    /** The number of failed results. */
+    private long errors;
+
+    /** The share of the successful results between 0 and 1. */
+    @SerializedName("success_rate")
+    private double successRate;
+
+    /** The median duration in milliseconds. */
+    private long p50;
+
+    /** The 95th percentile of the durations in milliseconds. */
+    private long p95;
+
+    /** The 99th percentile of the durations in milliseconds. */
+    private long p99;
+
+    /** The statistics of the steps of the sequence. */
+    private List<MonitoringStatisticDTO> steps;
+
+    /**
+     * Get the identifier of the sequence.
+     * @return The identifier of the sequence.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Set the identifier of the sequence.
+     * @param newId What to set.
+     */
+    public void setId(final String newId) {
+        this.id = newId;
+    }
+
+    /**
+     * Get the phase identifier of the step.
+     * @return The phase identifier of the step, -1 for the whole sequence.
+     */
+    public int getPhaseId() {
+        return phaseId;
+    }
+
+    /**
+     * Set the phase identifier of the step.
+     * @param newPhaseId What to set.
+     */
+    public void setPhaseId(final int newPhaseId) {
+        this.phaseId = newPhaseId;
+    }
+
+    /**
+     * Get the number of results.
+     * @return The number of results.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Set the number of results.
+     * @param newCount What to set.
+     */
+    public void setCount(final long newCount) {
+        this.count = newCount;
+    }
+
+    /**
+     * Get the number of failed results.
+     * @return The number of failed results.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Set the number of failed results.
+     * @param newErrors What to set.
+     */
+    public void setErrors(final long newErrors) {
+        this.errors = newErrors;
+    }
+
+    /**
+     * Get the share of the successful results.
+     * @return The share of the successful results between 0 and 1.
+     */
+    public double getSuccessRate() {
+        return successRate;
+    }
+
+    /**
+     * Set the share of the successful results.
+     * @param rate What to set.
+     */
+    public void setSuccessRate(final double rate) {
+        this.successRate = rate;
+    }
+
+    /**
+     * Get the median duration.
+     * @return The median duration in milliseconds.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Set the median duration.
+     * @param duration What to set.
+     */
+    public void setP50(final long duration) {
+        this.p50 = duration;
+    }
+
+    /**
+     * Get the 95th percentile of the durations.
+     * @return The 95th percentile of the durations in milliseconds.
+     */
+    public long getP95() {
+        return p95;
+    }
+
+    /**
+     * Set the 95th percentile of the durations.
+     * @param duration What to set.
+     */
+    public void setP95(final long duration) {
+        this.p95 = duration;
+    }
+
+    /**
+     * Get the 99th percentile of the durations.
+     * @return The 99th percentile of the durations in milliseconds.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Set the 99th percentile of the durations.
+     * @param duration What to set.
+     */
+    public void setP99(final long duration) {
+        this.p99 = duration;
+    }
+
+    /**
+     * Get the statistics of the steps of the sequence.
+     * @return The statistics of the steps, null for a step.
+     */
+    public List<MonitoringStatisticDTO> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Set the statistics of the steps of the sequence.
+     * @param newSteps What to set.
+     */
+    public void setSteps(final List<MonitoringStatisticDTO> newSteps) {
+        this.steps = newSteps;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.rest.data;
+
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Data transfer object for the monitoring statistics of all the sequences over a window.
+ */
+public class MonitoringStatisticsDTO {
+
+    /** The name of the window, for instance 1h. */
+    private String window;
+
+    /** The start of the window in milliseconds since the epoch. */
+    @SerializedName("start_time")
+    private long startTime;
+
+    /** The end of the window in milliseconds since the epoch. */
+    @SerializedName("end_time")
+    private long endTime;
+
+    /** The statistics of the sequences. */
+    private List<MonitoringStatisticDTO> sequences;
+
+    /**
+     * Get the name of the window.
+     * @return The name of the window.
+     */
+    public String getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the name of the window.
+     * @param newWindow What to set.
+     */
+    public void setWindow(final String newWindow) {
+        this.window = newWindow;
+    }
+
+    /**
+     * Get the start of the window.
+     * @return The start of the window in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Set the start of the window.
+     * @param time What to set.
+     */
+    public void setStartTime(final long time) {
+        this.startTime = time;
+    }
+
+    /**
+     * Get the end of the window.
+     * @return The end of the window in milliseconds since the epoch.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Set the end of the window.
+     * @param time What to set.
+     */
+    public void setEndTime(final long time) {
+        this.endTime = time;
+    }
+
+    /**
+     * Get the statistics of the sequences.
+     * @return The statistics of the sequences.
+     */
+    public List<MonitoringStatisticDTO> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Set the statistics of the sequences.
+     * @param newSequences What to set.
+     */
+    public void setSequences(final List<MonitoringStatisticDTO> newSequences) {
+        this.sequences = newSequences;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.rest.data;
+
+/**
+ * Data transfer object for a single typeahead search result.
+ */
+public class SearchResultDTO extends TitledDTO {
+    
+    /** The type for results that are authentication sources. */
+    public static final String TYPE_AUTHN_SOURCE = "authnSource";
+    
+    /** The type for results that are Wilma instances. */
+    public static final String TYPE_WILMA = "wilma";
+    
+    /** The type of this result. */
+    private String type;
+    
+    /** The description for this result. */
+    private String description;
+    
+    /** The icon URL for this result. */
+    private String iconUrl;
+    
+    /**
+     * Constructor.
+     *
+     * @param id The identifier for this result.
+     * @param title The human-readable title for this result.
+     * @param type The type of this result.
+     * @param description The description for this result.
+     * @param iconUrl The icon URL for this result.
+     */
+    public SearchResultDTO(final String id, final String title, final String type, final String description,
+            final String iconUrl) {
+        setId(id);
+        setTitle(title);
+        setType(type);
+        setDescription(description);
+        setIconUrl(iconUrl);
+    }
+
+    /**
+     * @return Returns the type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @param type The type to set.
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return Returns the description.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param description The description to set.
+     */
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return Returns the iconUrl.
+     */
+    public String getIconUrl() {
+        return iconUrl;
+    }
+
+    /**
+     * @param iconUrl The iconUrl to set.
+     */
+    public void setIconUrl(String iconUrl) {
+        this.iconUrl = iconUrl;
+    }
+}
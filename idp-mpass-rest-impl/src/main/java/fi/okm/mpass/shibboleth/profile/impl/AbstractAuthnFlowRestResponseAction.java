@@ -29,7 +29,10 @@ import java.io.Writer;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
@@ -46,9 +49,8 @@ import org.springframework.http.HttpMethod;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-import com.google.gson.Gson;
-
 import fi.okm.mpass.shibboleth.authn.AuthenticationDiscoveryContext;
+import fi.okm.mpass.shibboleth.rest.data.AuthnSourceDTO;
 import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.profile.ActionSupport;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -82,6 +84,9 @@ public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestRe
     /** The list of supported locales (parseable by {@link Locale.forLanguageTag(String)}). */
     private List<String> supportedLocales;
     
+    /** The pre-serialized responses mapped by the (upper case) locale, if the responses never change. */
+    private Map<String, SerializedResponse> serializedResponses;
+    
     /**
      * Set all the configured authentication flows to filter from.
      * @param allFlows What to set.
@@ -235,6 +240,39 @@ public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestRe
         return tags;
     }
     
+    /**
+     * Builds the {@link AuthnSourceDTO}s for all the active and non-ignored authentication flows, for each of
+     * the supported locales.
+     * 
+     * @return The authentication sources, mapped by the (upper case) locale.
+     */
+    protected Map<String, List<AuthnSourceDTO>> buildAuthnSources() {
+        final Map<String, List<AuthnSourceDTO>> authnSources = new HashMap<>();
+        for (final String locale : getSupportedLocales()) {
+            authnSources.put(locale, new ArrayList<AuthnSourceDTO>());
+        }
+        for (final AuthenticationFlowDescriptor flow : getFlows()) {
+            final String id = (flow.getId().startsWith("authn")) ? flow.getId().substring(6) : flow.getId();
+            if (getActiveFlowIds().contains(id) && !isIgnoredFlow(flow, id)) {
+                log.debug("{} Adding flow {}", getLogPrefix(), id);
+                final String titleProperty = getAdditionalInfo().getProperty(id + ".title", id + ".title");
+                final String iconUrlProperty = getAdditionalInfo().getProperty(id + ".iconUrl", id + ".iconUrl");
+                final List<String> tags = getTags(flow, id);
+                for (final String locale : getSupportedLocales()) {
+                    authnSources.get(locale).add(new AuthnSourceDTO(id, 
+                        getMessageSource().getMessage(titleProperty, null, Locale.forLanguageTag(locale)), 
+                        tags,
+                        getMessageSource().getMessage(iconUrlProperty, null, Locale.forLanguageTag(locale)),
+                        "true".equalsIgnoreCase(getAdditionalInfo().getProperty(id + ".isRegistry")),
+                        flow.isForcedAuthenticationSupported(), flow.isPassiveAuthenticationSupported()));
+                }
+            } else {
+                log.trace("{} Ignoring {}", getLogPrefix(), id);
+            }
+        }
+        return authnSources;
+    }
+    
     /** {@inheritDoc} */
     @Override
     @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
@@ -242,10 +280,16 @@ public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestRe
         final HttpServletRequest httpRequest = getHttpServletRequest();
         final String lang = (StringSupport.trimOrNull(httpRequest.getParameter("lang")) == null) 
                 ? supportedLocales.get(0) : StringSupport.trim(httpRequest.getParameter("lang")).toUpperCase();
-        pushHttpResponseProperties();
         final HttpServletResponse httpResponse = getHttpServletResponse();
+        final SerializedResponse serialized = HttpMethod.GET.toString().equals(httpRequest.getMethod())
+                ? getSerializedResponse(lang) : null;
         
         try {
+            if (serialized != null) {
+                writeSerializedResponse(serialized);
+                return ActionSupport.buildProceedEvent(this);
+            }
+            pushHttpResponseProperties();
             final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
             
             if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
@@ -259,12 +303,8 @@ public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestRe
             } else {
                 final Object response = getResponse(lang);
                 if (response != null) {
-                    final Gson gson = new Gson();
-                    final LocalizedResponse localizedResponse = new LocalizedResponse();
-                    localizedResponse.setLang(lang);
-                    localizedResponse.setResponse(response);
-                    out.append(gson.toJson(localizedResponse));
                     httpResponse.setStatus(HttpStatus.SC_OK);
+                    writeLocalizedResponse(out, lang, response);
                 } else {
                     out.append(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED,
                             "Not implemented on the server side", ""));
@@ -279,6 +319,29 @@ public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestRe
         return ActionSupport.buildProceedEvent(this);
     }
     
+    /**
+     * Serializes the given responses once, so that they are written as such for every request. This should only be
+     * used for responses that never change after initialization.
+     * 
+     * @param responses The response objects mapped by the (upper case) locale.
+     */
+    protected void setSerializedResponses(@Nonnull final Map<String, ?> responses) {
+        final Map<String, SerializedResponse> serialized = new HashMap<>();
+        for (final Map.Entry<String, ?> entry : responses.entrySet()) {
+            serialized.put(entry.getKey(), serializeLocalizedResponse(entry.getKey(), entry.getValue()));
+        }
+        serializedResponses = serialized;
+    }
+    
+    /**
+     * Get the pre-serialized response corresponding to the given language.
+     * @param lang The language code.
+     * @return The pre-serialized response, or null if it needs to be built with {@link #getResponse(String)}.
+     */
+    protected SerializedResponse getSerializedResponse(final String lang) {
+        return serializedResponses != null ? serializedResponses.get(lang) : null;
+    }
+    
     /**
      * Get the response object corresponding to the given language to be returned if not null.
      * @param lang the language code.
@@ -23,14 +23,25 @@
 
 package fi.okm.mpass.shibboleth.profile.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.entity.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 
 import fi.okm.mpass.shibboleth.rest.data.ErrorDTO;
 import net.shibboleth.idp.profile.AbstractProfileAction;
@@ -45,6 +56,9 @@ public class AbstractRestResponseAction extends AbstractProfileAction {
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractRestResponseAction.class);
     
+    /** The JSON serializer, shared by all the requests. */
+    private static final Gson GSON = new Gson();
+    
     /**
      * Push common REST/JSON settings to {@link HttpServletResponse}.
      */
@@ -55,6 +69,49 @@ public class AbstractRestResponseAction extends AbstractProfileAction {
         HttpServletSupport.setContentType(httpResponse, ContentType.APPLICATION_JSON.toString());
     }
 
+    /**
+     * Writes the given pre-serialized response to {@link HttpServletResponse} together with its entity tag. The
+     * clients are allowed to store the response but must revalidate it: if the <pre>If-None-Match</pre> header of
+     * the request matches the entity tag, only the status 304 is returned.
+     * 
+     * @param response The pre-serialized response.
+     * @throws IOException If the response cannot be written.
+     */
+    protected void writeSerializedResponse(@Nonnull final SerializedResponse response) throws IOException {
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+        HttpServletSupport.setUTF8Encoding(httpResponse);
+        HttpServletSupport.setContentType(httpResponse, ContentType.APPLICATION_JSON.toString());
+        httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        httpResponse.setHeader(HttpHeaders.ETAG, response.getETag());
+        if (response.matches(httpRequest.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            log.trace("{} The response {} has not been modified", getLogPrefix(), response.getETag());
+            httpResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+            return;
+        }
+        httpResponse.setStatus(HttpStatus.SC_OK);
+        httpResponse.setContentLength(response.getBytes().length);
+        final OutputStream out = httpResponse.getOutputStream();
+        out.write(response.getBytes());
+        out.flush();
+    }
+
+    /**
+     * Writes an error response with the no-cache headers.
+     * 
+     * @param code The status code of the error.
+     * @param message The message of the error.
+     * @param fields The fields for the error.
+     * @throws IOException If the response cannot be written.
+     */
+    protected void writeErrorResponse(final int code, final String message, final String fields) 
+            throws IOException {
+        pushHttpResponseProperties();
+        final Writer out = new OutputStreamWriter(getHttpServletResponse().getOutputStream(), "UTF-8");
+        out.append(makeErrorResponse(code, message, fields));
+        out.flush();
+    }
+    
     /**
      * Helper method for constructing a {@link ErrorDTO} with desired content and returning it as JSON
      * string. The given code is also set as a status for {@link HttpServletResponse}.
@@ -70,8 +127,54 @@ public class AbstractRestResponseAction extends AbstractProfileAction {
         errorDTO.setMessage(message);
         errorDTO.setFields(fields);
         getHttpServletResponse().setStatus(code);
-        final Gson gson = new Gson();
-        return gson.toJson(errorDTO);
+        return GSON.toJson(errorDTO);
+    }
+    
+    /**
+     * Streams the given response wrapped in a {@link LocalizedResponse} as JSON to the given writer, without building
+     * the full JSON string in memory. The writer is flushed but not closed.
+     * 
+     * @param out The writer, typically wrapping the output stream of {@link HttpServletResponse}.
+     * @param lang The language used in the response.
+     * @param response The response.
+     * @throws IOException If the response cannot be written.
+     */
+    protected void writeLocalizedResponse(@Nonnull final Writer out, final String lang, final Object response) 
+            throws IOException {
+        final LocalizedResponse localizedResponse = new LocalizedResponse();
+        localizedResponse.setLang(lang);
+        localizedResponse.setResponse(response);
+        final JsonWriter writer = new JsonWriter(out);
+        GSON.toJson(localizedResponse, LocalizedResponse.class, writer);
+        writer.flush();
+    }
+    
+    /**
+     * Serializes the given response wrapped in a {@link LocalizedResponse} into UTF-8 bytes, to be written as such
+     * for every request.
+     * 
+     * @param lang The language used in the response.
+     * @param response The response.
+     * @return The serialized response.
+     */
+    @Nonnull protected SerializedResponse serializeLocalizedResponse(final String lang, final Object response) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeLocalizedResponse(new OutputStreamWriter(bytes, StandardCharsets.UTF_8), lang, response);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not serialize the response in memory", e);
+        }
+        return new SerializedResponse(bytes.toByteArray());
+    }
+    
+    /**
+     * Serializes the given response into UTF-8 bytes, to be written as such for every request.
+     * 
+     * @param response The response.
+     * @return The serialized response.
+     */
+    @Nonnull protected SerializedResponse serializeResponse(@Nonnull final Object response) {
+        return new SerializedResponse(GSON.toJson(response));
     }
     
     /**
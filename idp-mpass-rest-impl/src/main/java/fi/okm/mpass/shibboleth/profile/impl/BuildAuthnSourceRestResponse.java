@@ -23,10 +23,7 @@
 
 package fi.okm.mpass.shibboleth.profile.impl;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -35,7 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fi.okm.mpass.shibboleth.rest.data.AuthnSourceDTO;
-import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 
 /**
@@ -54,29 +50,8 @@ public class BuildAuthnSourceRestResponse extends AbstractAuthnFlowRestResponseA
     protected void doInitialize() throws ComponentInitializationException {
         log.debug("Initializing");
         super.doInitialize();
-        flowInformation = new HashMap<>();
-        for (final String locale : getSupportedLocales()) {
-            flowInformation.put(locale, new ArrayList<AuthnSourceDTO>());
-        }
-        for (final AuthenticationFlowDescriptor flow : getFlows()) {
-            final String id = (flow.getId().startsWith("authn")) ? flow.getId().substring(6) : flow.getId();
-            if (getActiveFlowIds().contains(id) && !isIgnoredFlow(flow, id)) {
-                log.debug("{} Adding flow {}", getLogPrefix(), id);
-                final String titleProperty = getAdditionalInfo().getProperty(id + ".title", id + ".title");
-                final String iconUrlProperty = getAdditionalInfo().getProperty(id + ".iconUrl", id + ".iconUrl");
-                final List<String> tags = getTags(flow, id);
-                for (final String locale : getSupportedLocales()) {
-                    flowInformation.get(locale).add(new AuthnSourceDTO(id, 
-                        getMessageSource().getMessage(titleProperty, null, Locale.forLanguageTag(locale)), 
-                        tags,
-                        getMessageSource().getMessage(iconUrlProperty, null, Locale.forLanguageTag(locale)),
-                        "true".equalsIgnoreCase(getAdditionalInfo().getProperty(id + ".isRegistry")),
-                        flow.isForcedAuthenticationSupported(), flow.isPassiveAuthenticationSupported()));
-                }
-            } else {
-                log.trace("{} Ignoring {}", getLogPrefix(), id);
-            }
-        }
+        flowInformation = buildAuthnSources();
+        setSerializedResponses(flowInformation);
     }
     
     /** {@inheritDoc} */
@@ -85,6 +85,7 @@ public class BuildAuthnTagsRestResponse extends AbstractAuthnFlowRestResponseAct
                 log.trace("{} Ignoring {}", getLogPrefix(), id);
             }
         }
+        setSerializedResponses(tagInformation);
     }
 
     /** {@inheritDoc} */
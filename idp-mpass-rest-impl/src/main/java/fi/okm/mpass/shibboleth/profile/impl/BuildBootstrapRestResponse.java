@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.okm.mpass.shibboleth.profile.impl.BuildServiceRestResponse.ServiceCatalog;
+import fi.okm.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.okm.mpass.shibboleth.rest.data.AuthnTagDTO;
+import fi.okm.mpass.shibboleth.rest.data.BootstrapDTO;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * This action builds a response containing a {@link BootstrapDTO}: the meta information, the authentication
+ * sources, the authentication tags and the services in a single document.
+ * 
+ * <p>
+ * The document is composed from the responses of the configured meta, authentication source, authentication tag
+ * and service actions, and it is serialized once per supported language. The serialized documents are rebuilt
+ * by the first request after any of the composed responses has changed, i.e. after the metadata has been
+ * reloaded or the actions have been re-initialized with a reloaded flow configuration. The supported languages are
+ * those of the authentication source action; the services are built in each of them, also in the languages not
+ * supported by the service action itself.
+ * </p>
+ */
+public class BuildBootstrapRestResponse extends AbstractRestResponseAction {
+
+    /** The parameter for the language. */
+    public static final String PARAM_LANG = "lang";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildBootstrapRestResponse.class);
+
+    /** The action for the meta information. */
+    private BuildMetaRestResponse metaAction;
+
+    /** The action for the authentication sources, also defining the supported languages. */
+    private BuildAuthnSourceRestResponse authnSourceAction;
+
+    /** The action for the authentication tags. */
+    private BuildAuthnTagsRestResponse authnTagsAction;
+
+    /** The action for the services. */
+    private BuildServiceRestResponse serviceAction;
+
+    /** The documents built from the latest responses of the actions. */
+    private volatile BootstrapDocuments documents;
+
+    /**
+     * Set the action for the meta information.
+     * @param action What to set.
+     */
+    public void setMetaAction(@Nonnull final BuildMetaRestResponse action) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metaAction = Constraint.isNotNull(action, "The meta action cannot be null");
+    }
+
+    /**
+     * Set the action for the authentication sources, also defining the supported languages.
+     * @param action What to set.
+     */
+    public void setAuthnSourceAction(@Nonnull final BuildAuthnSourceRestResponse action) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        authnSourceAction = Constraint.isNotNull(action, "The authentication source action cannot be null");
+    }
+
+    /**
+     * Set the action for the authentication tags.
+     * @param action What to set.
+     */
+    public void setAuthnTagsAction(@Nonnull final BuildAuthnTagsRestResponse action) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        authnTagsAction = Constraint.isNotNull(action, "The authentication tags action cannot be null");
+    }
+
+    /**
+     * Set the action for the services.
+     * @param action What to set.
+     */
+    public void setServiceAction(@Nonnull final BuildServiceRestResponse action) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        serviceAction = Constraint.isNotNull(action, "The service action cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        log.debug("Initializing");
+        super.doInitialize();
+        if (metaAction == null || authnSourceAction == null || authnTagsAction == null || serviceAction == null) {
+            throw new ComponentInitializationException("The meta, authentication source, authentication tags "
+                    + "and service actions must be set");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+        final List<String> supportedLocales = authnSourceAction.getSupportedLocales();
+
+        try {
+            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
+                writeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod() + " not allowed",
+                        "Only GET is allowed");
+                return ActionSupport.buildProceedEvent(this);
+            }
+            final String langParam = StringSupport.trimOrNull(httpRequest.getParameter(PARAM_LANG));
+            final String lang = langParam == null ? supportedLocales.get(0) : langParam.toUpperCase();
+            if (!supportedLocales.contains(lang)) {
+                log.warn("{}: Unsupported language attempted {}", getLogPrefix(), lang);
+                writeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Language '" + lang + "' not supported", 
+                        "Supported languages: " + supportedLocales);
+                return ActionSupport.buildProceedEvent(this);
+            }
+            final BootstrapDocuments current = getDocuments();
+            if (current != null && current.getResponse(lang) != null) {
+                writeSerializedResponse(current.getResponse(lang));
+            } else {
+                writeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side", "");
+            }
+        } catch (IOException e) {
+            log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /**
+     * Get the documents for the current responses of the actions, rebuilding them if any of the responses has
+     * changed since the previous call.
+     * 
+     * @return The documents, or null if the meta information or the services are not available.
+     */
+    @Nullable protected BootstrapDocuments getDocuments() {
+        final ServiceCatalog catalog = serviceAction.getServiceCatalog();
+        if (catalog == null || metaAction.getMetaDTO() == null) {
+            log.debug("{} The meta information or the services are not available", getLogPrefix());
+            return null;
+        }
+        final List<Object> sources = getSources(catalog);
+        BootstrapDocuments current = documents;
+        if (current != null && current.isBuiltFrom(sources)) {
+            return current;
+        }
+        synchronized (this) {
+            current = documents;
+            if (current == null || !current.isBuiltFrom(sources)) {
+                log.debug("{} The composed responses changed, rebuilding the bootstrap documents", getLogPrefix());
+                current = new BootstrapDocuments(sources, buildDocuments(catalog));
+                documents = current;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the current responses of the actions the documents are composed from.
+     * 
+     * @param catalog The current catalog of the services.
+     * @return The responses of the actions, compared by identity.
+     */
+    @Nonnull protected List<Object> getSources(@Nonnull final ServiceCatalog catalog) {
+        final List<Object> sources = new ArrayList<>();
+        sources.add(catalog);
+        sources.add(metaAction.getMetaDTO());
+        for (final String lang : authnSourceAction.getSupportedLocales()) {
+            sources.add(authnSourceAction.getResponse(lang));
+            sources.add(authnTagsAction.getResponse(lang));
+        }
+        return sources;
+    }
+
+    /**
+     * Builds the serialized documents for all the supported languages.
+     * 
+     * @param catalog The current catalog of the services.
+     * @return The serialized documents, mapped by the (upper case) language.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull protected Map<String, SerializedResponse> buildDocuments(@Nonnull final ServiceCatalog catalog) {
+        final Map<String, SerializedResponse> responses = new HashMap<>();
+        for (final String lang : authnSourceAction.getSupportedLocales()) {
+            final BootstrapDTO bootstrap = new BootstrapDTO();
+            bootstrap.setMeta(metaAction.getMetaDTO());
+            bootstrap.setAuthnSources((List<AuthnSourceDTO>) authnSourceAction.getResponse(lang));
+            bootstrap.setTags((List<AuthnTagDTO>) authnTagsAction.getResponse(lang));
+            bootstrap.setServices(catalog.getServices(lang));
+            responses.put(lang, serializeLocalizedResponse(lang, bootstrap));
+        }
+        return responses;
+    }
+
+    /**
+     * The serialized documents, together with the responses of the actions they were built from.
+     */
+    protected static class BootstrapDocuments {
+
+        /** The responses of the actions the documents were built from. */
+        private final List<Object> sources;
+
+        /** The serialized documents, mapped by the (upper case) language. */
+        private final Map<String, SerializedResponse> responses;
+
+        /**
+         * Constructor.
+         * @param composedSources The responses of the actions the documents were built from.
+         * @param serializedResponses The serialized documents, mapped by the (upper case) language.
+         */
+        protected BootstrapDocuments(final List<Object> composedSources,
+                final Map<String, SerializedResponse> serializedResponses) {
+            sources = composedSources;
+            responses = serializedResponses;
+        }
+
+        /**
+         * Checks whether the documents were built from the given responses, compared by identity.
+         * @param currentSources The current responses of the actions.
+         * @return Whether the documents were built from the given responses.
+         */
+        public boolean isBuiltFrom(final List<Object> currentSources) {
+            if (currentSources.size() != sources.size()) {
+                return false;
+            }
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i) != currentSources.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the serialized document in the given language.
+         * @param lang The (upper case) language.
+         * @return The serialized document, or null if the language is not supported.
+         */
+        public SerializedResponse getResponse(final String lang) {
+            return responses.get(lang);
+        }
+    }
+}
@@ -39,8 +39,6 @@ import org.springframework.http.HttpMethod;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-import com.google.gson.Gson;
-
 import fi.okm.mpass.shibboleth.rest.data.MetaDTO;
 import net.shibboleth.idp.profile.ActionSupport;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -49,7 +47,8 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
  * This class builds a JSON response corresponding to the attached {@link MetaDTO} object.
- * The JSON is directly to the {@link HttpServletResponse}'s output.
+ * The object is serialized once during the initialization, and the JSON is written directly to the
+ * {@link HttpServletResponse}'s output.
  */
 public class BuildMetaRestResponse extends AbstractRestResponseAction {
 
@@ -59,6 +58,9 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
     /** The proxy meta object to be returned to the client. */
     @Nonnull private MetaDTO metaDTO;
 
+    /** The pre-serialized proxy meta object, null if the object has not been set. */
+    private SerializedResponse serializedMeta;
+
     /** 
      * Get the proxy meta object to be returned to the client.
      * 
@@ -74,6 +76,7 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
      * @param newMetaDto The object to set, cannot be null.
      */
     public void setMetaDTO(MetaDTO newMetaDto) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
         metaDTO = Constraint.isNotNull(newMetaDto, "metaDTO cannot be null!");
     }
     
@@ -82,6 +85,7 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
     protected void doInitialize() throws ComponentInitializationException {
         log.debug("Initializing");
         super.doInitialize();
+        serializedMeta = metaDTO != null ? serializeResponse(metaDTO) : null;
     }
     
     /** {@inheritDoc} */
@@ -89,19 +93,19 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
     @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);        
         final HttpServletRequest httpRequest = getHttpServletRequest();
-        pushHttpResponseProperties();
         final HttpServletResponse httpResponse = getHttpServletResponse();
 
         try {
+            if (serializedMeta != null && HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+                writeSerializedResponse(serializedMeta);
+                return ActionSupport.buildProceedEvent(this);
+            }
+            pushHttpResponseProperties();
             final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
 
             if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
                 log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
                 out.append(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod() + " not allowed", "Only GET is allowed"));
-            } else if (metaDTO != null) {
-                final Gson gson = new Gson();
-                out.append(gson.toJson(getMetaDTO()));
-                httpResponse.setStatus(HttpStatus.SC_OK);
             } else {
                 out.append(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side", ""));
             }
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.okm.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.okm.mpass.shibboleth.rest.data.SearchResultDTO;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * This action builds a typeahead search response containing {@link SearchResultDTO}s. The query is read from
+ * the <pre>q</pre> parameter and the maximum number of results from the <pre>limit</pre> parameter.
+ * 
+ * <p>
+ * The authentication sources and the Wilma instances (if a {@link DataSource} is configured) are kept in an
+ * immutable {@link SearchIndex} per locale. The indexes are rebuilt on a background thread every refresh interval
+ * and swapped in at once, so that the requests never wait for a rebuild but keep using the previous indexes.
+ * </p>
+ */
+public class BuildSearchRestResponse extends AbstractAuthnFlowRestResponseAction {
+    
+    /** The SQL query for selecting the Wilma instances. */
+    public static final String SQL_SELECT_WILMA = "SELECT techId, discoName, description, discoLogoUrl "
+            + "FROM mpass_authsources_wilma";
+    
+    /** The default refresh interval for the index in milliseconds. */
+    public static final long DEFAULT_REFRESH_INTERVAL = 300000;
+    
+    /** The default number of results if not requested. */
+    public static final int DEFAULT_LIMIT = 10;
+    
+    /** The default maximum number of results that can be requested. */
+    public static final int DEFAULT_MAX_LIMIT = 50;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildSearchRestResponse.class);
+    
+    /** The optional data source for the Wilma instances. */
+    @Nullable private DataSource dataSource;
+    
+    /** The refresh interval for the index in milliseconds, 0 for never. */
+    @Duration @NonNegative private long refreshInterval;
+    
+    /** The number of results if not requested. */
+    @Positive private int defaultLimit;
+    
+    /** The maximum number of results that can be requested. */
+    @Positive private int maxLimit;
+    
+    /** The search indexes, mapped by the (upper case) locale. */
+    @Nonnull private volatile Map<String, SearchIndex> indexes;
+    
+    /** The scheduler rebuilding the indexes, null if they are never rebuilt. */
+    @Nullable private ScheduledExecutorService scheduler;
+    
+    /** Constructor. */
+    public BuildSearchRestResponse() {
+        super();
+        refreshInterval = DEFAULT_REFRESH_INTERVAL;
+        defaultLimit = DEFAULT_LIMIT;
+        maxLimit = DEFAULT_MAX_LIMIT;
+        indexes = Collections.emptyMap();
+    }
+    
+    /**
+     * Set the optional data source for the Wilma instances.
+     * @param source What to set.
+     */
+    public void setDataSource(@Nullable final DataSource source) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        dataSource = source;
+    }
+    
+    /**
+     * Set the refresh interval for the index in milliseconds, 0 for never.
+     * @param interval What to set.
+     */
+    @Duration public void setRefreshInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        refreshInterval = Constraint.isGreaterThanOrEqual(0, interval, "The refresh interval cannot be negative");
+    }
+    
+    /**
+     * Set the number of results if not requested.
+     * @param limit What to set.
+     */
+    public void setDefaultLimit(@Positive final int limit) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        defaultLimit = (int) Constraint.isGreaterThan(0, limit, "The default limit must be positive");
+    }
+    
+    /**
+     * Set the maximum number of results that can be requested.
+     * @param limit What to set.
+     */
+    public void setMaxLimit(@Positive final int limit) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxLimit = (int) Constraint.isGreaterThan(0, limit, "The maximum limit must be positive");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        log.debug("Initializing");
+        super.doInitialize();
+        if (defaultLimit > maxLimit) {
+            throw new ComponentInitializationException("The default limit cannot exceed the maximum limit");
+        }
+        refresh();
+        if (refreshInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "search-index-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (final RuntimeException e) {
+                        log.error("{} Unexpected error while rebuilding the search indexes", getLogPrefix(), e);
+                    }
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        super.doDestroy();
+    }
+    
+    /**
+     * Rebuild the search indexes from the authentication sources and the Wilma instances. If the Wilma instances
+     * cannot be read, the previous indexes are kept.
+     */
+    public synchronized void refresh() {
+        final List<SearchResultDTO> wilmas = getWilmaInstances();
+        if (wilmas == null) {
+            log.warn("{} Could not read the Wilma instances, keeping the previous search indexes", getLogPrefix());
+            return;
+        }
+        final Map<String, List<AuthnSourceDTO>> authnSources = buildAuthnSources();
+        final Map<String, SearchIndex> newIndexes = new HashMap<>();
+        for (final String locale : getSupportedLocales()) {
+            final List<SearchResultDTO> results = new ArrayList<>(wilmas);
+            for (final AuthnSourceDTO authnSource : authnSources.get(locale)) {
+                results.add(new SearchResultDTO(authnSource.getId(), authnSource.getTitle(), 
+                        SearchResultDTO.TYPE_AUTHN_SOURCE, null, authnSource.getIconUrl()));
+            }
+            newIndexes.put(locale, new SearchIndex(results));
+        }
+        indexes = Collections.unmodifiableMap(newIndexes);
+        log.debug("{} Rebuilt the search indexes with {} Wilma instances", getLogPrefix(), wilmas.size());
+    }
+    
+    /**
+     * Read the Wilma instances from the data source. The connection is read-only during the query, and its previous
+     * mode is restored before it is returned to a pool shared with the writers.
+     * 
+     * @return The Wilma instances, empty if no data source is configured, null if they could not be read.
+     */
+    @Nullable protected List<SearchResultDTO> getWilmaInstances() {
+        final List<SearchResultDTO> wilmas = new ArrayList<>();
+        if (dataSource == null) {
+            return wilmas;
+        }
+        try (final Connection connection = dataSource.getConnection()) {
+            final boolean readOnly = connection.isReadOnly();
+            try {
+                connection.setReadOnly(true);
+                try (final PreparedStatement statement = connection.prepareStatement(SQL_SELECT_WILMA);
+                        final ResultSet set = statement.executeQuery()) {
+                    while (set.next()) {
+                        wilmas.add(new SearchResultDTO(set.getString(1), set.getString(2), 
+                                SearchResultDTO.TYPE_WILMA, set.getString(3), set.getString(4)));
+                    }
+                }
+            } finally {
+                restoreReadOnly(connection, readOnly);
+            }
+        } catch (final SQLException e) {
+            log.error("{} Could not read the Wilma instances", getLogPrefix(), e);
+            return null;
+        }
+        return wilmas;
+    }
+    
+    /**
+     * Restore the previous read-only mode of the given connection. The failure is only logged, as it must not hide
+     * the result or the failure of the query.
+     * 
+     * @param connection The connection obtained from the data source.
+     * @param readOnly The previous read-only mode.
+     */
+    private void restoreReadOnly(@Nonnull final Connection connection, final boolean readOnly) {
+        try {
+            if (connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+        } catch (final SQLException e) {
+            log.warn("{} Could not restore the read-only mode of the connection", getLogPrefix(), e);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected Object getResponse(final String lang) {
+        final SearchIndex index = indexes.get(lang.toUpperCase());
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.search(getHttpServletRequest().getParameter("q"), getLimit());
+    }
+    
+    /**
+     * Get the number of results requested with the <pre>limit</pre> parameter, bounded by the maximum limit.
+     * 
+     * @return The number of results to be returned.
+     */
+    protected int getLimit() {
+        final String limit = StringSupport.trimOrNull(getHttpServletRequest().getParameter("limit"));
+        if (limit == null) {
+            return defaultLimit;
+        }
+        try {
+            return Math.max(0, Math.min(Integer.parseInt(limit), maxLimit));
+        } catch (final NumberFormatException e) {
+            log.debug("{} Ignoring invalid limit {}", getLogPrefix(), limit);
+            return defaultLimit;
+        }
+    }
+}
@@ -25,16 +25,24 @@ package fi.okm.mpass.shibboleth.profile.impl;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.HttpStatus;
+import org.joda.time.DateTime;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.saml.ext.saml2mdui.Description;
@@ -45,6 +53,7 @@ import org.opensaml.saml.ext.saml2mdui.UIInfo;
 import org.opensaml.saml.metadata.IterableMetadataSource;
 import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml.saml2.metadata.Extensions;
 import org.opensaml.saml.saml2.metadata.RoleDescriptor;
@@ -55,8 +64,6 @@ import org.springframework.http.HttpMethod;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-import com.google.gson.Gson;
-
 import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
 import net.shibboleth.idp.profile.ActionSupport;
 import net.shibboleth.idp.saml.metadata.RelyingPartyMetadataProvider;
@@ -69,9 +76,39 @@ import net.shibboleth.utilities.java.support.service.ServiceableComponent;
 
 /**
  * This action builds a response containing {@link ServiceDTO}s.
+ * 
+ * <p>
+ * The services and their serialized responses are cached for one generation of the metadata, and rebuilt by the
+ * first request after the metadata service has been reloaded or one of the chained resolvers has been updated.
+ * The UIInfo of each service provider is extracted once per generation into {@link ServiceInfo}, from which the
+ * services of each supported language are kept in an immutable {@link ServiceIndex}, serving the requests
+ * with the <pre>offset</pre>, <pre>limit</pre>, <pre>q</pre> or <pre>fields</pre> parameters.
+ * </p>
  */
 public class BuildServiceRestResponse extends AbstractRestResponseAction {
     
+    /** The parameter for the language. */
+    public static final String PARAM_LANG = "lang";
+    
+    /** The parameter for the number of services to skip. */
+    public static final String PARAM_OFFSET = "offset";
+    
+    /** The parameter for the maximum number of services. */
+    public static final String PARAM_LIMIT = "limit";
+    
+    /** The parameter for the search query. */
+    public static final String PARAM_QUERY = "q";
+    
+    /** The parameter for the comma-separated list of fields to be included. */
+    public static final String PARAM_FIELDS = "fields";
+    
+    /** The header for the total number of services matching the query. */
+    public static final String HEADER_TOTAL_COUNT = "X-Total-Count";
+    
+    /** The fields of the services that can be requested. */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList("id", "title", 
+            "serviceUrl", "ssoUrl", "description", "iconUrl"));
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(BuildServiceRestResponse.class);
 
@@ -80,6 +117,12 @@ public class BuildServiceRestResponse extends AbstractRestResponseAction {
     
     /** The URL for the unsolicited SSO. */
     private String unsolicitedUrl;
+    
+    /** The list of supported languages, the first one being the default. */
+    @Nonnull private List<String> supportedLocales;
+    
+    /** The services built from the latest generation of the metadata. */
+    private volatile ServiceCatalog serviceCatalog;
 
     /**
      * Constructor.
@@ -88,6 +131,21 @@ public class BuildServiceRestResponse extends AbstractRestResponseAction {
      */
     public BuildServiceRestResponse(@Nonnull final ReloadableService<MetadataResolver> resolverService) {
         service = Constraint.isNotNull(resolverService, "MetadataResolver Service cannot be null");
+        supportedLocales = Collections.singletonList("FI");
+    }
+    
+    /**
+     * Set the list of supported languages, the first one being the default. Defaults to FI.
+     * @param locales What to set.
+     */
+    public void setSupportedLocales(@Nonnull final List<String> locales) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
+        final List<String> upperCase = new ArrayList<>();
+        for (final String locale : locales) {
+            upperCase.add(locale.toUpperCase(Locale.ROOT));
+        }
+        supportedLocales = upperCase;
     }
     
     /**
@@ -110,77 +168,31 @@ public class BuildServiceRestResponse extends AbstractRestResponseAction {
     @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         final HttpServletRequest httpRequest = getHttpServletRequest();
-        pushHttpResponseProperties();
         final HttpServletResponse httpResponse = getHttpServletResponse();
         
         try {
-            final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
-            
             if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
                 log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
-                out.append(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
-                        + " not allowed", "Only GET is allowed"));
+                writeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod() + " not allowed",
+                        "Only GET is allowed");
             } else {
-                final List<ServiceDTO> response = new ArrayList<ServiceDTO>();
-                ServiceableComponent<MetadataResolver> component = null;
-                component = service.getServiceableComponent();
-                if (null == component) {
-                    log.error("{} Error accessing underlying metadata source: Invalid configuration.", 
-                            getLogPrefix());
-                } else {
-                    final MetadataResolver resolver = component.getComponent();
-                    if (resolver instanceof RelyingPartyMetadataProvider && 
-                            ((RelyingPartyMetadataProvider)resolver).getEmbeddedResolver() 
-                            instanceof ChainingMetadataResolver) {
-                        final ChainingMetadataResolver embedded = 
-                                (ChainingMetadataResolver)((RelyingPartyMetadataProvider)resolver).getEmbeddedResolver();
-                        for (final MetadataResolver chained : embedded.getResolvers()) {
-                            final Iterator<EntityDescriptor> iterator = ((IterableMetadataSource)chained).iterator();
-                            while (iterator.hasNext()) {
-                                final EntityDescriptor entity = iterator.next();
-                                final List<RoleDescriptor> roleDescriptors = entity.getRoleDescriptors();
-                                if (roleDescriptors != null && !roleDescriptors.isEmpty() && roleDescriptors.get(0) instanceof SPSSODescriptor) {
-                                    final SPSSODescriptor spDescriptor = (SPSSODescriptor) roleDescriptors.get(0);
-                                    final ServiceDTO service = new ServiceDTO();
-                                    service.setId(entity.getID());
-                                    final UIInfo uiInfo = getUIInfo(spDescriptor);
-                                    if (uiInfo != null) {
-                                        //TODO support languages
-                                        service.setIconUrl(getLogoUrl(uiInfo, null));
-                                        service.setTitle(getTitle(uiInfo, null));
-                                        service.setDescription(getDescription(uiInfo, null));
-                                        service.setServiceUrl(getServiceUrl(uiInfo, null));                                    
-                                    }
-                                    if (StringSupport.trimOrNull(unsolicitedUrl) != null) {
-                                        service.setSsoUrl(unsolicitedUrl + "?providerId=" + entity.getEntityID());
-                                    }
-                                    if (StringSupport.trimOrNull(service.getId()) != null &&
-                                            StringSupport.trimOrNull(service.getTitle()) != null &&
-                                            StringSupport.trimOrNull(service.getServiceUrl()) != null) {
-                                        response.add(service);
-                                    }
-                                } else {
-                                    log.debug("{} No SPSSODescriptor found", getLogPrefix());
-                                }
-                            }
-                        }
-                        final Gson gson = new Gson();
-                        final LocalizedResponse localizedResponse = new LocalizedResponse();
-                        localizedResponse.setLang("FI");
-                        localizedResponse.setResponse(response);
-                        out.append(gson.toJson(localizedResponse));
-                        httpResponse.setStatus(HttpStatus.SC_OK);
-                    } else {
-                        log.error("{} Unsupported metadata resolver, not IterableMetadataSource: {}", getLogPrefix(), resolver.getClass());
-                        out.append(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED,
-                                "Not implemented on the server side", ""));
-                    }
+                final String langParam = StringSupport.trimOrNull(httpRequest.getParameter(PARAM_LANG));
+                final String lang = langParam == null ? supportedLocales.get(0) : langParam.toUpperCase(Locale.ROOT);
+                if (!supportedLocales.contains(lang)) {
+                    log.warn("{}: Unsupported language attempted {}", getLogPrefix(), lang);
+                    writeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Language '" + lang + "' not supported", 
+                            "Supported languages: " + supportedLocales);
+                    return ActionSupport.buildProceedEvent(this);
                 }
-                if (null != component) {
-                    component.unpinComponent();
+                final ServiceCatalog catalog = getServiceCatalog();
+                if (catalog == null) {
+                    writeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side", "");
+                } else if (isQuery(httpRequest)) {
+                    writeQueryResponse(httpRequest, lang, catalog.getIndex(lang));
+                } else {
+                    writeSerializedResponse(catalog.getResponse(lang));
                 }
             }
-            out.flush();
         } catch (IOException e) {
             log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
             httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
@@ -189,6 +201,271 @@ public class BuildServiceRestResponse extends AbstractRestResponseAction {
         return ActionSupport.buildProceedEvent(this);
     }
     
+    /**
+     * Checks whether the request has any of the paging, search or projection parameters.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return Whether the request has any of the paging, search or projection parameters.
+     */
+    protected boolean isQuery(@Nonnull final HttpServletRequest httpRequest) {
+        return httpRequest.getParameter(PARAM_OFFSET) != null || httpRequest.getParameter(PARAM_LIMIT) != null
+                || httpRequest.getParameter(PARAM_QUERY) != null || httpRequest.getParameter(PARAM_FIELDS) != null;
+    }
+    
+    /**
+     * Writes a page of the services matching the query in the request. The total number of matching services is
+     * set to the {@link #HEADER_TOTAL_COUNT} header.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param lang The language.
+     * @param index The index of the services in the language.
+     * @throws IOException If the response cannot be written.
+     */
+    protected void writeQueryResponse(@Nonnull final HttpServletRequest httpRequest, @Nonnull final String lang,
+            @Nonnull final ServiceIndex index) throws IOException {
+        final int offset = parseNonNegative(httpRequest.getParameter(PARAM_OFFSET), 0);
+        if (offset < 0) {
+            writeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Invalid offset", PARAM_OFFSET);
+            return;
+        }
+        final int limit = parseNonNegative(httpRequest.getParameter(PARAM_LIMIT), Integer.MAX_VALUE);
+        if (limit < 0) {
+            writeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Invalid limit", PARAM_LIMIT);
+            return;
+        }
+        final Set<String> fields = new HashSet<>();
+        final String fieldsParam = StringSupport.trimOrNull(httpRequest.getParameter(PARAM_FIELDS));
+        if (fieldsParam != null) {
+            for (final String field : fieldsParam.split(",")) {
+                final String trimmed = field.trim();
+                if (!FIELDS.contains(trimmed)) {
+                    writeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Unknown field '" + trimmed + "'", PARAM_FIELDS);
+                    return;
+                }
+                fields.add(trimmed);
+            }
+        }
+        final ServiceIndex.Page page = index.query(httpRequest.getParameter(PARAM_QUERY), offset, limit);
+        final List<ServiceDTO> services;
+        if (fields.isEmpty()) {
+            services = page.getServices();
+        } else {
+            services = new ArrayList<>(page.getServices().size());
+            for (final ServiceDTO entry : page.getServices()) {
+                services.add(project(entry, fields));
+            }
+        }
+        pushHttpResponseProperties();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+        httpResponse.setHeader(HEADER_TOTAL_COUNT, String.valueOf(page.getTotal()));
+        httpResponse.setStatus(HttpStatus.SC_OK);
+        writeLocalizedResponse(new OutputStreamWriter(httpResponse.getOutputStream(), StandardCharsets.UTF_8), 
+                lang, services);
+    }
+    
+    /**
+     * Parses a non-negative integer parameter.
+     * 
+     * @param value The parameter value.
+     * @param defaultValue The value if the parameter is not set.
+     * @return The parsed value, or -1 if the value is invalid.
+     */
+    protected int parseNonNegative(final String value, final int defaultValue) {
+        final String trimmed = StringSupport.trimOrNull(value);
+        if (trimmed == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(trimmed));
+        } catch (final NumberFormatException e) {
+            log.debug("{} Invalid integer parameter {}", getLogPrefix(), trimmed);
+            return -1;
+        }
+    }
+    
+    /**
+     * Copies the given fields of the given service to a new object.
+     * 
+     * @param source The service.
+     * @param fields The fields to be copied.
+     * @return The service with the given fields.
+     */
+    protected ServiceDTO project(@Nonnull final ServiceDTO source, @Nonnull final Set<String> fields) {
+        final ServiceDTO projected = new ServiceDTO();
+        if (fields.contains("id")) {
+            projected.setId(source.getId());
+        }
+        if (fields.contains("title")) {
+            projected.setTitle(source.getTitle());
+        }
+        if (fields.contains("serviceUrl")) {
+            projected.setServiceUrl(source.getServiceUrl());
+        }
+        if (fields.contains("ssoUrl")) {
+            projected.setSsoUrl(source.getSsoUrl());
+        }
+        if (fields.contains("description")) {
+            projected.setDescription(source.getDescription());
+        }
+        if (fields.contains("iconUrl")) {
+            projected.setIconUrl(source.getIconUrl());
+        }
+        return projected;
+    }
+    
+    /**
+     * Get the catalog of the services for the current metadata. The catalog is cached and only rebuilt when the
+     * generation of the metadata has changed, i.e. the metadata service has been reloaded or one of the chained
+     * resolvers has been updated.
+     * 
+     * @return The catalog of the services, or null if the metadata cannot be iterated.
+     */
+    protected ServiceCatalog getServiceCatalog() {
+        final ServiceableComponent<MetadataResolver> component = service.getServiceableComponent();
+        if (null == component) {
+            log.error("{} Error accessing underlying metadata source: Invalid configuration.", getLogPrefix());
+            return null;
+        }
+        try {
+            final MetadataResolver resolver = component.getComponent();
+            if (!(resolver instanceof RelyingPartyMetadataProvider) || 
+                    !(((RelyingPartyMetadataProvider) resolver).getEmbeddedResolver() 
+                            instanceof ChainingMetadataResolver)) {
+                log.error("{} Unsupported metadata resolver, not IterableMetadataSource: {}", getLogPrefix(), 
+                        resolver.getClass());
+                return null;
+            }
+            final ChainingMetadataResolver embedded = 
+                    (ChainingMetadataResolver) ((RelyingPartyMetadataProvider) resolver).getEmbeddedResolver();
+            final List<Object> generation = getGeneration(resolver, embedded);
+            ServiceCatalog catalog = serviceCatalog;
+            if (catalog != null && catalog.isGeneration(generation)) {
+                return catalog;
+            }
+            synchronized (this) {
+                catalog = serviceCatalog;
+                if (catalog == null || !catalog.isGeneration(generation)) {
+                    log.debug("{} Metadata generation changed, rebuilding the services", getLogPrefix());
+                    final List<ServiceInfo> services = extractServices(embedded);
+                    final Map<String, ServiceIndex> indexes = new HashMap<>();
+                    for (final String lang : supportedLocales) {
+                        indexes.put(lang, new ServiceIndex(buildServices(services, lang)));
+                    }
+                    catalog = new ServiceCatalog(generation, services, indexes);
+                    serviceCatalog = catalog;
+                }
+            }
+            return catalog;
+        } finally {
+            component.unpinComponent();
+        }
+    }
+    
+    /**
+     * Get the generation of the given metadata. It changes whenever the metadata service has been reloaded or one of
+     * the chained resolvers has been updated. The generation consists of the resolvers themselves, compared by
+     * identity, and their reload and update times.
+     * 
+     * @param resolver The metadata resolver of the service.
+     * @param embedded The chaining resolver embedded in the metadata resolver.
+     * @return The generation of the metadata.
+     */
+    protected List<Object> getGeneration(final MetadataResolver resolver, final ChainingMetadataResolver embedded) {
+        final List<Object> generation = new ArrayList<>();
+        generation.add(resolver);
+        final DateTime reloaded = service.getLastSuccessfulReloadInstant();
+        generation.add(reloaded != null ? reloaded.getMillis() : 0L);
+        for (final MetadataResolver chained : embedded.getResolvers()) {
+            generation.add(chained);
+            if (chained instanceof RefreshableMetadataResolver) {
+                final DateTime updated = ((RefreshableMetadataResolver) chained).getLastUpdate();
+                generation.add(updated != null ? updated.getMillis() : 0L);
+            }
+        }
+        return generation;
+    }
+    
+    /**
+     * Extracts the information of all the service providers in the chained resolvers. The UIInfo of each service
+     * provider is traversed only once, and its values are stored in {@link LocalizedValues} mapped by language.
+     * 
+     * @param embedded The chaining resolver.
+     * @return The information of the service providers that can be listed.
+     */
+    protected List<ServiceInfo> extractServices(final ChainingMetadataResolver embedded) {
+        final List<ServiceInfo> services = new ArrayList<>();
+        for (final MetadataResolver chained : embedded.getResolvers()) {
+            final Iterator<EntityDescriptor> iterator = ((IterableMetadataSource)chained).iterator();
+            while (iterator.hasNext()) {
+                final EntityDescriptor entity = iterator.next();
+                final List<RoleDescriptor> roleDescriptors = entity.getRoleDescriptors();
+                if (roleDescriptors != null && !roleDescriptors.isEmpty() 
+                        && roleDescriptors.get(0) instanceof SPSSODescriptor) {
+                    final ServiceInfo info = extractService(entity, (SPSSODescriptor) roleDescriptors.get(0));
+                    if (info != null && info.isListable()) {
+                        services.add(info);
+                    }
+                } else {
+                    log.debug("{} No SPSSODescriptor found", getLogPrefix());
+                }
+            }
+        }
+        log.debug("{} Extracted {} services", getLogPrefix(), services.size());
+        return services;
+    }
+    
+    /**
+     * Extracts the information of a single service provider.
+     * 
+     * @param entity The entity descriptor of the service provider.
+     * @param spDescriptor The SP SSO descriptor of the service provider.
+     * @return The information of the service provider, or null if it has no identifier.
+     */
+    protected ServiceInfo extractService(final EntityDescriptor entity, final SPSSODescriptor spDescriptor) {
+        if (StringSupport.trimOrNull(entity.getID()) == null) {
+            return null;
+        }
+        final LocalizedValues.Builder titles = new LocalizedValues.Builder();
+        final LocalizedValues.Builder descriptions = new LocalizedValues.Builder();
+        final LocalizedValues.Builder logoUrls = new LocalizedValues.Builder();
+        final LocalizedValues.Builder serviceUrls = new LocalizedValues.Builder();
+        final UIInfo uiInfo = getUIInfo(spDescriptor);
+        if (uiInfo != null) {
+            for (final DisplayName displayName : uiInfo.getDisplayNames()) {
+                titles.add(displayName.getXMLLang(), displayName.getValue());
+            }
+            for (final Description description : uiInfo.getDescriptions()) {
+                descriptions.add(description.getXMLLang(), description.getValue());
+            }
+            for (final Logo logo : uiInfo.getLogos()) {
+                logoUrls.add(logo.getXMLLang(), logo.getURL());
+            }
+            for (final InformationURL url : uiInfo.getInformationURLs()) {
+                serviceUrls.add(url.getXMLLang(), url.getValue());
+            }
+        }
+        final String ssoUrl = StringSupport.trimOrNull(unsolicitedUrl) != null ? 
+                unsolicitedUrl + "?providerId=" + entity.getEntityID() : null;
+        return new ServiceInfo(entity.getID(), ssoUrl, titles.build(), descriptions.build(), logoUrls.build(), 
+                serviceUrls.build());
+    }
+    
+    /**
+     * Builds the {@link ServiceDTO}s in the given language. The values missing in the language are taken from the
+     * values without a language, the default (first supported) language or the first declared value, in that order.
+     * 
+     * @param services The information of the service providers.
+     * @param lang The (upper case) language.
+     * @return The services.
+     */
+    protected List<ServiceDTO> buildServices(final List<ServiceInfo> services, final String lang) {
+        final List<ServiceDTO> response = new ArrayList<>(services.size());
+        for (final ServiceInfo info : services) {
+            response.add(info.toService(lang, supportedLocales.get(0)));
+        }
+        return response;
+    }
+    
     protected UIInfo getUIInfo(final SPSSODescriptor spDescriptor) {
         final Extensions extensions = spDescriptor.getExtensions();
         if (extensions != null) {
@@ -208,57 +485,97 @@ public class BuildServiceRestResponse extends AbstractRestResponseAction {
         }
         return null;
     }
-    
-    protected String getLogoUrl(final UIInfo uiInfo, final String lang) {
-        final List<Logo> logos = uiInfo.getLogos();
-        if (logos == null || logos.isEmpty()) {
-            return null;
-        }
-        for (final Logo logo : logos) {
-            if (logo.getXMLLang() != null && logo.getXMLLang().equals(lang)) {
-                return logo.getURL();
+
+    /**
+     * The services built from one generation of the metadata, together with their serialized responses.
+     */
+    protected class ServiceCatalog {
+        
+        /** The generation of the metadata. */
+        private final List<Object> generation;
+        
+        /** The information of the service providers. */
+        private final List<ServiceInfo> services;
+        
+        /** The indexes of the services, mapped by the (upper case) language. */
+        private final Map<String, ServiceIndex> indexes;
+        
+        /** The serialized responses containing all the services, mapped by the (upper case) language. */
+        private final Map<String, SerializedResponse> responses;
+        
+        /**
+         * Constructor.
+         * @param metadataGeneration The generation of the metadata.
+         * @param serviceInfos The information of the service providers.
+         * @param serviceIndexes The indexes of the services, mapped by the (upper case) language.
+         */
+        protected ServiceCatalog(final List<Object> metadataGeneration, final List<ServiceInfo> serviceInfos,
+                final Map<String, ServiceIndex> serviceIndexes) {
+            generation = metadataGeneration;
+            services = serviceInfos;
+            indexes = serviceIndexes;
+            responses = new HashMap<>();
+            for (final Map.Entry<String, ServiceIndex> entry : indexes.entrySet()) {
+                responses.put(entry.getKey(), serializeLocalizedResponse(entry.getKey(), 
+                        entry.getValue().getServices()));
             }
         }
-        return logos.get(0).getURL();
-    }
-    
-    protected String getDescription(final UIInfo uiInfo, final String lang) {
-       final List<Description> descriptions = uiInfo.getDescriptions();
-       if (descriptions == null || descriptions.isEmpty()) {
-           return null;
-       }
-       for (final Description description : descriptions) {
-           if (description.getXMLLang() != null && description.getXMLLang().equals(lang)) {
-               return description.getValue();
-           }
-       }
-       return descriptions.get(0).getValue();
-    }
-    
-    protected String getTitle(final UIInfo uiInfo, final String lang) {
-        final List<DisplayName> displayNames = uiInfo.getDisplayNames();
-        if (displayNames == null || displayNames.isEmpty()) {
-            return null;
+        
+        /**
+         * Get the generation of the metadata.
+         * @return The generation of the metadata.
+         */
+        public List<Object> getGeneration() {
+            return generation;
         }
-        for (final DisplayName displayName : displayNames) {
-            if (displayName.getXMLLang() != null && displayName.getXMLLang().equals(lang)) {
-                return displayName.getValue();
+        
+        /**
+         * Checks whether the catalog was built from the given generation of the metadata. The resolvers are compared
+         * by identity and the times by value.
+         * @param currentGeneration The current generation of the metadata.
+         * @return Whether the catalog was built from the given generation.
+         */
+        public boolean isGeneration(final List<Object> currentGeneration) {
+            if (currentGeneration.size() != generation.size()) {
+                return false;
             }
+            for (int i = 0; i < generation.size(); i++) {
+                final Object built = generation.get(i);
+                final Object current = currentGeneration.get(i);
+                if (built != current && !(built instanceof Long && built.equals(current))) {
+                    return false;
+                }
+            }
+            return true;
         }
-        return displayNames.get(0).getValue();
-    }
-
-    protected String getServiceUrl(final UIInfo uiInfo, final String lang) {
-        final List<InformationURL> urls = uiInfo.getInformationURLs();
-        if (urls == null || urls.isEmpty()) {
-            return null;
+        
+        /**
+         * Get the index of the services in the given language.
+         * @param lang The (upper case) language.
+         * @return The index of the services, or null if the language is not supported.
+         */
+        public ServiceIndex getIndex(final String lang) {
+            return indexes.get(lang);
         }
-        for (final InformationURL url : urls) {
-            if (url.getXMLLang() != null && url.getXMLLang().equals(lang)) {
-                return url.getValue();
-            }
+        
+        /**
+         * Get all the services in the given language. The services in the languages not supported by this action,
+         * but for instance by the bootstrap document, are built from the information of the service providers.
+         * @param lang The (upper case) language.
+         * @return The services.
+         */
+        public List<ServiceDTO> getServices(final String lang) {
+            final ServiceIndex index = indexes.get(lang);
+            return index != null ? index.getServices() : buildServices(services, lang);
+        }
+        
+        /**
+         * Get the serialized response containing all the services in the given language.
+         * @param lang The (upper case) language.
+         * @return The serialized response, or null if the language is not supported.
+         */
+        public SerializedResponse getResponse(final String lang) {
+            return responses.get(lang);
         }
-        return urls.get(0).getValue();
     }
-
 }
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * An immutable set of the values of a single UIInfo element type, mapped by their language.
+ * 
+ * <p>
+ * The languages are stored in lower case, and a value tagged with a regional variant (e.g. <pre>fi-FI</pre>) is
+ * also available with its primary language (<pre>fi</pre>) unless the primary language has its own value. The
+ * value for a language is looked up in the following order: the value in the requested language, the value without
+ * a language, the value in the default language and finally the first declared value.
+ * </p>
+ */
+public final class LocalizedValues {
+    
+    /** The key for the values without a language. */
+    private static final String NO_LANG = "";
+    
+    /** The values without any entries. */
+    private static final LocalizedValues EMPTY = new LocalizedValues(Collections.<String, String>emptyMap(), null);
+    
+    /** The values mapped by their lower case languages. */
+    @Nonnull private final Map<String, String> values;
+    
+    /** The first declared value. */
+    @Nullable private final String first;
+    
+    /**
+     * Constructor.
+     *
+     * @param localizedValues The values mapped by their lower case languages.
+     * @param firstValue The first declared value.
+     */
+    private LocalizedValues(@Nonnull final Map<String, String> localizedValues, @Nullable final String firstValue) {
+        values = localizedValues;
+        first = firstValue;
+    }
+    
+    /**
+     * Get the values without any entries.
+     * 
+     * @return The values without any entries.
+     */
+    @Nonnull public static LocalizedValues empty() {
+        return EMPTY;
+    }
+    
+    /**
+     * Get the value in the given language, falling back in the order described in the class documentation.
+     * 
+     * @param lang The requested language, case insensitive.
+     * @param defaultLang The default language, case insensitive.
+     * @return The value, or null if there are no values.
+     */
+    @Nullable public String get(@Nullable final String lang, @Nullable final String defaultLang) {
+        String value = values.get(normalize(lang));
+        if (value == null) {
+            value = values.get(NO_LANG);
+        }
+        if (value == null) {
+            value = values.get(normalize(defaultLang));
+        }
+        return value == null ? first : value;
+    }
+    
+    /**
+     * Checks whether there are any values.
+     * 
+     * @return Whether there are any values.
+     */
+    public boolean isEmpty() {
+        return first == null;
+    }
+    
+    /**
+     * Normalizes the language to lower case.
+     * 
+     * @param lang The language.
+     * @return The language in lower case, or the key for the values without a language.
+     */
+    @Nonnull private static String normalize(@Nullable final String lang) {
+        final String trimmed = StringSupport.trimOrNull(lang);
+        return trimmed == null ? NO_LANG : trimmed.toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * A builder for {@link LocalizedValues}.
+     */
+    public static final class Builder {
+        
+        /** The values mapped by their lower case languages. */
+        @Nonnull private final Map<String, String> values = new HashMap<>();
+        
+        /** The values mapped by the primary languages of their regional variants. */
+        @Nonnull private final Map<String, String> primaryValues = new HashMap<>();
+        
+        /** The first declared value. */
+        @Nullable private String first;
+        
+        /**
+         * Adds a value. Empty values are ignored, and only the first value of each language is kept.
+         * 
+         * @param lang The language of the value, may be null.
+         * @param value The value.
+         * @return This builder.
+         */
+        @Nonnull public Builder add(@Nullable final String lang, @Nullable final String value) {
+            final String trimmed = StringSupport.trimOrNull(value);
+            if (trimmed == null) {
+                return this;
+            }
+            if (first == null) {
+                first = trimmed;
+            }
+            final String key = normalize(lang);
+            if (!values.containsKey(key)) {
+                values.put(key, trimmed);
+            }
+            final int separator = key.indexOf('-');
+            if (separator > 0 && !primaryValues.containsKey(key.substring(0, separator))) {
+                primaryValues.put(key.substring(0, separator), trimmed);
+            }
+            return this;
+        }
+        
+        /**
+         * Builds the values.
+         * 
+         * @return The values.
+         */
+        @Nonnull public LocalizedValues build() {
+            if (first == null) {
+                return EMPTY;
+            }
+            final Map<String, String> result = new HashMap<>(primaryValues);
+            result.putAll(values);
+            if (result.size() == 1) {
+                final Map.Entry<String, String> entry = result.entrySet().iterator().next();
+                return new LocalizedValues(Collections.singletonMap(entry.getKey(), entry.getValue()), first);
+            }
+            return new LocalizedValues(Collections.unmodifiableMap(result), first);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.rest.data.SearchResultDTO;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable index for typeahead searches over the titles of {@link SearchResultDTO}s.
+ * 
+ * <p>
+ * The index is a sorted array of all the suffixes of the normalized titles, so that both prefix and substring
+ * queries are answered with a single binary search followed by a scan of the matching range, without touching the
+ * entries outside of it. The titles are normalized to lower case without diacritical marks. The results are ranked:
+ * titles starting with the query come first, then titles containing a word starting with the query and finally the
+ * other substring matches. 
+ * Within the same rank the results are in the alphabetical order of the titles.
+ * </p>
+ */
+public final class SearchIndex {
+    
+    /** The rank for the matches in the beginning of the title. */
+    private static final int RANK_TITLE_PREFIX = 0;
+    
+    /** The rank for the matches in the beginning of a word in the title. */
+    private static final int RANK_WORD_PREFIX = 1;
+    
+    /** The rank for the other substring matches. */
+    private static final int RANK_SUBSTRING = 2;
+
+    /** The pattern for the combining diacritical marks. */
+    private static final Pattern DIACRITICAL_MARKS = Pattern.compile("\\p{M}+");
+    
+    /** The indexed entries, in the alphabetical order of their titles. */
+    @Nonnull private final SearchResultDTO[] entries;
+    
+    /** The normalized titles of the entries. */
+    @Nonnull private final String[] keys;
+    
+    /** The entry index for each suffix, in the sorted order of the suffixes. */
+    @Nonnull private final int[] suffixEntries;
+    
+    /** The offset in the key for each suffix, in the sorted order of the suffixes. */
+    @Nonnull private final int[] suffixOffsets;
+    
+    /**
+     * Constructor.
+     *
+     * @param results The entries to be indexed. Entries without title are ignored.
+     */
+    public SearchIndex(@Nonnull final Collection<SearchResultDTO> results) {
+        Constraint.isNotNull(results, "The entries cannot be null");
+        final List<SearchResultDTO> sorted = new ArrayList<>();
+        for (final SearchResultDTO result : results) {
+            if (result != null && result.getTitle() != null) {
+                sorted.add(result);
+            }
+        }
+        Collections.sort(sorted, new Comparator<SearchResultDTO>() {
+            @Override
+            public int compare(final SearchResultDTO o1, final SearchResultDTO o2) {
+                final int result = normalize(o1.getTitle()).compareTo(normalize(o2.getTitle()));
+                return result != 0 ? result : o1.getTitle().compareTo(o2.getTitle());
+            }
+        });
+        entries = sorted.toArray(new SearchResultDTO[sorted.size()]);
+        keys = new String[entries.length];
+        int suffixCount = 0;
+        for (int i = 0; i < entries.length; i++) {
+            keys[i] = normalize(entries[i].getTitle());
+            suffixCount += keys[i].length();
+        }
+        final Integer[] suffixes = new Integer[suffixCount];
+        final int[] entryOf = new int[suffixCount];
+        final int[] offsetOf = new int[suffixCount];
+        int position = 0;
+        for (int i = 0; i < keys.length; i++) {
+            for (int offset = 0; offset < keys[i].length(); offset++) {
+                suffixes[position] = position;
+                entryOf[position] = i;
+                offsetOf[position] = offset;
+                position++;
+            }
+        }
+        Arrays.sort(suffixes, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer o1, final Integer o2) {
+                return keys[entryOf[o1]].substring(offsetOf[o1])
+                        .compareTo(keys[entryOf[o2]].substring(offsetOf[o2]));
+            }
+        });
+        suffixEntries = new int[suffixCount];
+        suffixOffsets = new int[suffixCount];
+        for (int i = 0; i < suffixCount; i++) {
+            suffixEntries[i] = entryOf[suffixes[i]];
+            suffixOffsets[i] = offsetOf[suffixes[i]];
+        }
+    }
+    
+    /**
+     * Get the number of indexed entries.
+     * 
+     * @return The number of indexed entries.
+     */
+    public int size() {
+        return entries.length;
+    }
+    
+    /**
+     * Search the entries whose title contains the given query.
+     * 
+     * @param query The query, normalized in the same way as the titles before matching.
+     * @param limit The maximum number of results.
+     * @return The ranked results, never null.
+     */
+    @Nonnull public List<SearchResultDTO> search(@Nullable final String query, final int limit) {
+        final String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        final int start = lowerBound(normalized);
+        int end = start;
+        while (end < suffixEntries.length && keys[suffixEntries[end]].startsWith(normalized, suffixOffsets[end])) {
+            end++;
+        }
+        // the hits are ordered by their rank and then by the entry, i.e. the alphabetical order of the titles
+        final long[] hits = new long[end - start];
+        for (int i = start; i < end; i++) {
+            final int entry = suffixEntries[i];
+            hits[i - start] = ((long) rank(keys[entry], suffixOffsets[i]) << Integer.SIZE) | entry;
+        }
+        Arrays.sort(hits);
+        final List<SearchResultDTO> results = new ArrayList<>(Math.min(hits.length, limit));
+        final Set<Integer> found = new HashSet<>();
+        for (int i = 0; i < hits.length && results.size() < limit; i++) {
+            final int entry = (int) hits[i];
+            if (found.add(entry)) {
+                results.add(entries[entry]);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Find the position of the first suffix that is not smaller than the given query.
+     * 
+     * @param query The normalized query.
+     * @return The position of the first suffix that is not smaller than the query.
+     */
+    private int lowerBound(@Nonnull final String query) {
+        int low = 0;
+        int high = suffixEntries.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (compareSuffix(middle, query) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Compare the suffix in the given position to the query without creating substrings.
+     * 
+     * @param position The position of the suffix.
+     * @param query The normalized query.
+     * @return Negative, zero or positive as the suffix is smaller, equal or greater than the query.
+     */
+    private int compareSuffix(final int position, @Nonnull final String query) {
+        final String key = keys[suffixEntries[position]];
+        final int offset = suffixOffsets[position];
+        final int length = Math.min(key.length() - offset, query.length());
+        for (int i = 0; i < length; i++) {
+            final int difference = key.charAt(offset + i) - query.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (key.length() - offset) - query.length();
+    }
+    
+    /**
+     * Rank a match in the given offset of the key.
+     * 
+     * @param key The normalized title.
+     * @param offset The offset of the match.
+     * @return The rank of the match, smaller is better.
+     */
+    private static int rank(@Nonnull final String key, final int offset) {
+        if (offset == 0) {
+            return RANK_TITLE_PREFIX;
+        }
+        return Character.isLetterOrDigit(key.charAt(offset - 1)) ? RANK_SUBSTRING : RANK_WORD_PREFIX;
+    }
+    
+    /**
+     * Normalize the given string for indexing and querying: trimmed, lower case and without diacritical marks.
+     * 
+     * @param value The string to be normalized.
+     * @return The normalized string, empty if the value was null.
+     */
+    @Nonnull public static String normalize(@Nullable final String value) {
+        if (value == null) {
+            return "";
+        }
+        final String decomposed = Normalizer.normalize(value.trim().toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return DIACRITICAL_MARKS.matcher(decomposed).replaceAll("");
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A JSON response serialized once into UTF-8 bytes, together with a strong entity tag computed from the bytes.
+ * The instances are immutable and can be shared by all the requests.
+ */
+public class SerializedResponse {
+
+    /** The number of digest bytes used in the entity tag. */
+    private static final int ETAG_BYTES = 16;
+
+    /** The hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The serialized response. */
+    @Nonnull private final byte[] bytes;
+
+    /** The entity tag, including the quotes. */
+    @Nonnull private final String etag;
+
+    /**
+     * Constructor.
+     * @param json The JSON response.
+     */
+    public SerializedResponse(@Nonnull final String json) {
+        this(Constraint.isNotNull(json, "The JSON response cannot be null").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Constructor.
+     * @param utf8Json The JSON response as UTF-8 bytes, not to be modified afterwards.
+     */
+    public SerializedResponse(@Nonnull final byte[] utf8Json) {
+        bytes = Constraint.isNotNull(utf8Json, "The JSON response cannot be null");
+        etag = computeETag(bytes);
+    }
+
+    /**
+     * Get the serialized response. The returned array must not be modified.
+     * @return The serialized response as UTF-8 bytes.
+     */
+    @Nonnull public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the strong entity tag of the response.
+     * @return The entity tag, including the quotes.
+     */
+    @Nonnull public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Checks whether the given <pre>If-None-Match</pre> header value matches the entity tag of the response. As
+     * defined for the header, the weak comparison is used.
+     * 
+     * @param ifNoneMatch The header value.
+     * @return Whether the header value matches.
+     */
+    public boolean matches(@Nullable final String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String tag = candidate.trim();
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a strong entity tag from the given bytes.
+     * 
+     * @param content The bytes.
+     * @return The entity tag, including the quotes.
+     */
+    @Nonnull protected static String computeETag(@Nonnull final byte[] content) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        final StringBuilder builder = new StringBuilder(ETAG_BYTES * 2 + 2);
+        builder.append('"');
+        for (int i = 0; i < ETAG_BYTES; i++) {
+            builder.append(HEX[(digest[i] >> 4) & 0xf]).append(HEX[digest[i] & 0xf]);
+        }
+        return builder.append('"').toString();
+    }
+}
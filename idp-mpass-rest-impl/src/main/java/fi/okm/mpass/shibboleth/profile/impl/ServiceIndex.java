@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable index for paging and searching {@link ServiceDTO}s of a single language.
+ * 
+ * <p>
+ * The services are kept in the alphabetical order of their titles. The words of the titles and descriptions,
+ * normalized as in {@link SearchIndex#normalize(String)}, are kept in a sorted array together with the sorted
+ * positions of the services containing them. A query matches the services containing a word starting with each of
+ * the words in the query, and the matches are returned in the alphabetical order of the titles.
+ * </p>
+ */
+public final class ServiceIndex {
+
+    /** The pattern for the separators between the words. */
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    /** The indexed services, in the alphabetical order of their titles. */
+    @Nonnull private final ServiceDTO[] entries;
+
+    /** The indexed services as an unmodifiable list. */
+    @Nonnull private final List<ServiceDTO> services;
+
+    /** The distinct normalized words, sorted. */
+    @Nonnull private final String[] tokens;
+
+    /** The sorted positions of the services containing each word. */
+    @Nonnull private final int[][] postings;
+
+    /**
+     * Constructor.
+     *
+     * @param allServices The services to be indexed. Services without title are ignored.
+     */
+    public ServiceIndex(@Nonnull final Collection<ServiceDTO> allServices) {
+        Constraint.isNotNull(allServices, "The services cannot be null");
+        final List<ServiceDTO> sorted = new ArrayList<>();
+        for (final ServiceDTO service : allServices) {
+            if (service != null && service.getTitle() != null) {
+                sorted.add(service);
+            }
+        }
+        Collections.sort(sorted, new Comparator<ServiceDTO>() {
+            @Override
+            public int compare(final ServiceDTO o1, final ServiceDTO o2) {
+                int result = SearchIndex.normalize(o1.getTitle()).compareTo(SearchIndex.normalize(o2.getTitle()));
+                if (result == 0) {
+                    result = o1.getTitle().compareTo(o2.getTitle());
+                }
+                return result != 0 || o1.getId() == null || o2.getId() == null 
+                        ? result : o1.getId().compareTo(o2.getId());
+            }
+        });
+        entries = sorted.toArray(new ServiceDTO[sorted.size()]);
+        services = Collections.unmodifiableList(Arrays.asList(entries));
+        final Map<String, List<Integer>> words = new TreeMap<>();
+        for (int i = 0; i < entries.length; i++) {
+            addWords(words, entries[i].getTitle(), i);
+            addWords(words, entries[i].getDescription(), i);
+        }
+        tokens = words.keySet().toArray(new String[words.size()]);
+        postings = new int[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            final List<Integer> positions = words.get(tokens[i]);
+            postings[i] = new int[positions.size()];
+            for (int j = 0; j < postings[i].length; j++) {
+                postings[i][j] = positions.get(j);
+            }
+        }
+    }
+
+    /**
+     * Get the number of indexed services.
+     * 
+     * @return The number of indexed services.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Get all the indexed services.
+     * 
+     * @return The services in the alphabetical order of their titles.
+     */
+    @Nonnull public List<ServiceDTO> getServices() {
+        return services;
+    }
+
+    /**
+     * Get a page of the services matching the given query.
+     * 
+     * @param query The query, all of its words must match the beginning of a word in the title or description. All
+     * the services match an empty query.
+     * @param offset The number of matching services to skip.
+     * @param limit The maximum number of services on the page.
+     * @return The page of the matching services.
+     */
+    @Nonnull public Page query(@Nullable final String query, final int offset, final int limit) {
+        final String[] terms = split(query);
+        final int from = Math.max(0, offset);
+        final int max = Math.max(0, limit);
+        if (terms.length == 0) {
+            final int to = (int) Math.min((long) from + max, entries.length);
+            return new Page(entries.length, from < to ? services.subList(from, to) 
+                    : Collections.<ServiceDTO>emptyList());
+        }
+        final int[] matched = new int[entries.length];
+        for (int term = 0; term < terms.length; term++) {
+            for (int i = lowerBound(terms[term]); i < tokens.length && tokens[i].startsWith(terms[term]); i++) {
+                for (final int entry : postings[i]) {
+                    if (matched[entry] == term) {
+                        matched[entry] = term + 1;
+                    }
+                }
+            }
+        }
+        int total = 0;
+        final List<ServiceDTO> page = new ArrayList<>();
+        for (int entry = 0; entry < entries.length; entry++) {
+            if (matched[entry] == terms.length) {
+                if (total >= from && page.size() < max) {
+                    page.add(entries[entry]);
+                }
+                total++;
+            }
+        }
+        return new Page(total, page);
+    }
+
+    /**
+     * Find the position of the first word that is not smaller than the given term.
+     * 
+     * @param term The normalized term.
+     * @return The position of the first word that is not smaller than the term.
+     */
+    private int lowerBound(@Nonnull final String term) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (tokens[middle].compareTo(term) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add the words of the given text to the given map.
+     * 
+     * @param words The positions of the services, mapped by the words.
+     * @param text The text, may be null.
+     * @param position The position of the service.
+     */
+    private static void addWords(@Nonnull final Map<String, List<Integer>> words, @Nullable final String text,
+            final int position) {
+        for (final String word : split(text)) {
+            List<Integer> positions = words.get(word);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                words.put(word, positions);
+            }
+            if (positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+                positions.add(position);
+            }
+        }
+    }
+
+    /**
+     * Split the given text into normalized words.
+     * 
+     * @param text The text, may be null.
+     * @return The normalized words.
+     */
+    @Nonnull private static String[] split(@Nullable final String text) {
+        final String normalized = SearchIndex.normalize(text);
+        if (normalized.isEmpty()) {
+            return new String[0];
+        }
+        final List<String> words = new ArrayList<>();
+        for (final String word : SEPARATORS.split(normalized)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * A page of the services matching a query.
+     */
+    public static final class Page {
+
+        /** The total number of matching services. */
+        private final int total;
+
+        /** The services on the page. */
+        @Nonnull private final List<ServiceDTO> services;
+
+        /**
+         * Constructor.
+         * @param totalCount The total number of matching services.
+         * @param pageServices The services on the page.
+         */
+        private Page(final int totalCount, @Nonnull final List<ServiceDTO> pageServices) {
+            total = totalCount;
+            services = pageServices;
+        }
+
+        /**
+         * Get the total number of matching services.
+         * @return The total number of matching services.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Get the services on the page.
+         * @return The services on the page.
+         */
+        @Nonnull public List<ServiceDTO> getServices() {
+            return services;
+        }
+    }
+}
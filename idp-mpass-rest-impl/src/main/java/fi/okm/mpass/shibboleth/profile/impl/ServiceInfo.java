@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * The information of a single service provider, extracted once from its metadata and UIInfo.
+ */
+public final class ServiceInfo {
+    
+    /** The identifier of the service. */
+    @Nonnull private final String id;
+    
+    /** The URL for the unsolicited SSO to the service. */
+    @Nullable private final String ssoUrl;
+    
+    /** The titles of the service. */
+    @Nonnull private final LocalizedValues titles;
+    
+    /** The descriptions of the service. */
+    @Nonnull private final LocalizedValues descriptions;
+    
+    /** The logo URLs of the service. */
+    @Nonnull private final LocalizedValues logoUrls;
+    
+    /** The information URLs of the service. */
+    @Nonnull private final LocalizedValues serviceUrls;
+    
+    /**
+     * Constructor.
+     *
+     * @param serviceId The identifier of the service.
+     * @param unsolicitedSsoUrl The URL for the unsolicited SSO to the service.
+     * @param serviceTitles The titles of the service.
+     * @param serviceDescriptions The descriptions of the service.
+     * @param serviceLogoUrls The logo URLs of the service.
+     * @param serviceInfoUrls The information URLs of the service.
+     */
+    public ServiceInfo(@Nonnull final String serviceId, @Nullable final String unsolicitedSsoUrl,
+            @Nonnull final LocalizedValues serviceTitles, @Nonnull final LocalizedValues serviceDescriptions,
+            @Nonnull final LocalizedValues serviceLogoUrls, @Nonnull final LocalizedValues serviceInfoUrls) {
+        id = Constraint.isNotNull(StringSupport.trimOrNull(serviceId), "The service id cannot be empty");
+        ssoUrl = unsolicitedSsoUrl;
+        titles = Constraint.isNotNull(serviceTitles, "The titles cannot be null");
+        descriptions = Constraint.isNotNull(serviceDescriptions, "The descriptions cannot be null");
+        logoUrls = Constraint.isNotNull(serviceLogoUrls, "The logo URLs cannot be null");
+        serviceUrls = Constraint.isNotNull(serviceInfoUrls, "The service URLs cannot be null");
+    }
+    
+    /**
+     * Get the identifier of the service.
+     * 
+     * @return The identifier of the service.
+     */
+    @Nonnull public String getId() {
+        return id;
+    }
+    
+    /**
+     * Checks whether the service has the title and the service URL required for listing it.
+     * 
+     * @return Whether the service can be listed.
+     */
+    public boolean isListable() {
+        return !titles.isEmpty() && !serviceUrls.isEmpty();
+    }
+    
+    /**
+     * Builds the {@link ServiceDTO} in the given language.
+     * 
+     * @param lang The requested language, case insensitive.
+     * @param defaultLang The default language, case insensitive.
+     * @return The service in the given language.
+     */
+    @Nonnull public ServiceDTO toService(@Nullable final String lang, @Nullable final String defaultLang) {
+        final ServiceDTO service = new ServiceDTO();
+        service.setId(id);
+        service.setSsoUrl(ssoUrl);
+        service.setTitle(titles.get(lang, defaultLang));
+        service.setDescription(descriptions.get(lang, defaultLang));
+        service.setIconUrl(logoUrls.get(lang, defaultLang));
+        service.setServiceUrl(serviceUrls.get(lang, defaultLang));
+        return service;
+    }
+}
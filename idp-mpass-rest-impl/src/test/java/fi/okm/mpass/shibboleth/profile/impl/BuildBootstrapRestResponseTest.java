@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import fi.okm.mpass.shibboleth.authn.AuthenticationDiscoveryContext;
+import fi.okm.mpass.shibboleth.rest.data.MetaDTO;
+import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.service.ReloadableService;
+
+/**
+ * Unit tests for {@link BuildBootstrapRestResponse}.
+ */
+public class BuildBootstrapRestResponseTest {
+
+    /** The action to be tested. */
+    private BuildBootstrapRestResponse action;
+
+    /** The action for the services. */
+    private MockServiceAction serviceAction;
+
+    /**
+     * Initialize test variables.
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void initTests() throws Exception {
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId("authn/mockFlow");
+        flow.setSupportedPrincipals(Arrays.<Principal>asList(
+                new TestPrincipal(AuthenticationDiscoveryContext.SOURCE_PRINCIPAL_PREFIX + "mockFlow"),
+                new TestPrincipal(AuthenticationDiscoveryContext.TAG_PRINCIPAL_PREFIX + "mockTag")));
+        final StaticMessageSource messageSource = new StaticMessageSource();
+        messageSource.setUseCodeAsDefaultMessage(true);
+        messageSource.addMessage("mockFlow.title", Locale.forLanguageTag("FI"), "Kirjautuminen");
+        messageSource.addMessage("mockFlow.title", Locale.forLanguageTag("EN"), "Login");
+        final Properties additionalInfo = new Properties();
+        additionalInfo.setProperty("mockTag.title", "mockTag.title");
+
+        final BuildAuthnSourceRestResponse sourceAction = new BuildAuthnSourceRestResponse();
+        final BuildAuthnTagsRestResponse tagsAction = new BuildAuthnTagsRestResponse();
+        for (final AbstractAuthnFlowRestResponseAction flowAction : 
+                Arrays.<AbstractAuthnFlowRestResponseAction>asList(sourceAction, tagsAction)) {
+            flowAction.setFlows(Arrays.asList(flow));
+            flowAction.setActiveFlowIds("mockFlow");
+            flowAction.setAdditionalInfo(additionalInfo);
+            flowAction.setMessageSource(messageSource);
+            flowAction.setSupportedLocales(Arrays.asList("fi", "en"));
+            flowAction.initialize();
+        }
+        final MetaDTO meta = new MetaDTO();
+        meta.setId("mockId");
+        meta.setSamlEntityId("mockEntityId");
+        final BuildMetaRestResponse metaAction = new BuildMetaRestResponse();
+        metaAction.setMetaDTO(meta);
+        serviceAction = new MockServiceAction();
+        serviceAction.setServices("Palvelu", "Service");
+
+        action = new BuildBootstrapRestResponse();
+        action.setMetaAction(metaAction);
+        action.setAuthnSourceAction(sourceAction);
+        action.setAuthnTagsAction(tagsAction);
+        action.setServiceAction(serviceAction);
+        action.setHttpServletRequest(buildRequest(null));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+    }
+
+    /**
+     * Tests initialization without the composed actions.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoActions() throws ComponentInitializationException {
+        new BuildBootstrapRestResponse().initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidMethod() throws Exception {
+        final MockHttpServletRequest httpRequest = buildRequest(null);
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        action.setHttpServletRequest(httpRequest);
+        Assert.assertEquals(execute().getStatus(), HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with unsupported language.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidLanguage() throws Exception {
+        action.setHttpServletRequest(buildRequest("sv"));
+        Assert.assertEquals(execute().getStatus(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action without the services available.
+     * @throws Exception
+     */
+    @Test
+    public void testNoServices() throws Exception {
+        serviceAction.catalog = null;
+        Assert.assertEquals(execute().getStatus(), HttpStatus.SC_NOT_IMPLEMENTED);
+    }
+
+    /**
+     * Runs action successfully in the default and the requested language.
+     * @throws Exception
+     */
+    @Test
+    public void testSuccess() throws Exception {
+        MockHttpServletResponse httpResponse = execute();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertNotNull(httpResponse.getHeader("ETag"));
+        JsonObject json = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        Assert.assertEquals(json.get("lang").getAsString(), "FI");
+        JsonObject bootstrap = json.getAsJsonObject("response");
+        Assert.assertEquals(bootstrap.getAsJsonObject("meta").get("saml_entity_id").getAsString(), "mockEntityId");
+        Assert.assertEquals(bootstrap.getAsJsonArray("authnSources").size(), 1);
+        Assert.assertEquals(bootstrap.getAsJsonArray("authnSources").get(0).getAsJsonObject().get("title")
+                .getAsString(), "Kirjautuminen");
+        Assert.assertEquals(bootstrap.getAsJsonArray("tags").size(), 1);
+        Assert.assertEquals(bootstrap.getAsJsonArray("services").get(0).getAsJsonObject().get("title")
+                .getAsString(), "Palvelu");
+
+        action.setHttpServletRequest(buildRequest("en"));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        json = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        bootstrap = json.getAsJsonObject("response");
+        Assert.assertEquals(json.get("lang").getAsString(), "EN");
+        Assert.assertEquals(bootstrap.getAsJsonArray("authnSources").get(0).getAsJsonObject().get("title")
+                .getAsString(), "Login");
+        Assert.assertEquals(bootstrap.getAsJsonArray("services").get(0).getAsJsonObject().get("title")
+                .getAsString(), "Service");
+    }
+
+    /**
+     * Tests that the documents are cached until the services change, and that the ETag is honored.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        final MockHttpServletResponse first = execute();
+        final String etag = first.getHeader("ETag");
+        final BuildBootstrapRestResponse.BootstrapDocuments documents = action.getDocuments();
+        Assert.assertSame(action.getDocuments(), documents);
+
+        final MockHttpServletRequest httpRequest = buildRequest(null);
+        httpRequest.addHeader("If-None-Match", etag);
+        action.setHttpServletRequest(httpRequest);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(((MockHttpServletResponse) action.getHttpServletResponse()).getStatus(),
+                HttpStatus.SC_NOT_MODIFIED);
+
+        serviceAction.setServices("Uusi palvelu", "New service");
+        Assert.assertNotSame(action.getDocuments(), documents);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse second = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(second.getStatus(), HttpStatus.SC_OK);
+        Assert.assertFalse(etag.equals(second.getHeader("ETag")));
+    }
+
+    /**
+     * Initializes the action if needed and executes it with the current request.
+     * @return The HTTP response.
+     * @throws ComponentInitializationException
+     */
+    protected MockHttpServletResponse execute() throws ComponentInitializationException {
+        if (!action.isInitialized()) {
+            action.initialize();
+        }
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        return (MockHttpServletResponse) action.getHttpServletResponse();
+    }
+
+    /**
+     * Builds a GET request with the given language.
+     * @param lang The language, may be null.
+     * @return The request.
+     */
+    protected MockHttpServletRequest buildRequest(final String lang) {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        if (lang != null) {
+            httpRequest.addParameter(BuildBootstrapRestResponse.PARAM_LANG, lang);
+        }
+        return httpRequest;
+    }
+
+    /**
+     * A service action returning a fixed catalog instead of reading the metadata.
+     */
+    protected static class MockServiceAction extends BuildServiceRestResponse {
+
+        /** The current catalog. */
+        private ServiceCatalog catalog;
+
+        /** Constructor. */
+        @SuppressWarnings("unchecked")
+        protected MockServiceAction() {
+            super(Mockito.mock(ReloadableService.class));
+        }
+
+        /**
+         * Replaces the catalog with a single service having the given Finnish and English titles. Only the
+         * Finnish services are indexed, as with the default supported languages of the action.
+         * @param titles The Finnish and English titles, or nothing for an empty catalog.
+         */
+        protected void setServices(final String... titles) {
+            final List<ServiceInfo> services = new ArrayList<>();
+            if (titles.length > 0) {
+                final LocalizedValues.Builder localizedTitles = new LocalizedValues.Builder();
+                final List<String> langs = Arrays.asList("fi", "en");
+                for (int i = 0; i < titles.length && i < langs.size(); i++) {
+                    localizedTitles.add(langs.get(i), titles[i]);
+                }
+                services.add(new ServiceInfo("mockService", null, localizedTitles.build(), LocalizedValues.empty(),
+                        LocalizedValues.empty(), new LocalizedValues.Builder().add(null, 
+                                "https://service.example.org").build()));
+            }
+            final List<ServiceDTO> finnish = new ArrayList<>();
+            for (final ServiceInfo info : services) {
+                finnish.add(info.toService("FI", "FI"));
+            }
+            catalog = new ServiceCatalog(Collections.<Object>emptyList(), services, 
+                    Collections.singletonMap("FI", new ServiceIndex(finnish)));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected ServiceCatalog getServiceCatalog() {
+            return catalog;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.io.UnsupportedEncodingException;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.mockito.Mockito;
 import org.opensaml.profile.action.EventIds;
@@ -164,6 +165,28 @@ public class BuildMetaRestResponseTest {
         Assert.assertEquals(resultDTO.getOrganization(), metaDTO.getOrganization());
     }
 
+    /**
+     * Runs action with the entity tag of the pre-serialized response.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testNotModified() throws ComponentInitializationException {
+        action.setMetaDTO(populateMetaDTO());
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final String etag = ((MockHttpServletResponse) action.getHttpServletResponse()).getHeader(HttpHeaders.ETAG);
+        Assert.assertNotNull(etag);
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpRequest.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        action.setHttpServletRequest(httpRequest);
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        action.setHttpServletResponse(httpResponse);
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NOT_MODIFIED);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+    }
+
     /**
      * Populate the {@link MetaDTO} contents.
      * @return
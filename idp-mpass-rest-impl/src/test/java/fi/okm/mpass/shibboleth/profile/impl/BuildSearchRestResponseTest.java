@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.security.Principal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import fi.okm.mpass.shibboleth.authn.AuthenticationDiscoveryContext;
+import fi.okm.mpass.shibboleth.rest.data.SearchResultDTO;
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link BuildSearchRestResponse}.
+ */
+public class BuildSearchRestResponseTest {
+
+    /** The action to be tested. */
+    private BuildSearchRestResponse action;
+
+    /** The datasource containing the Wilma instances. */
+    private DataSource dataSource;
+
+    /**
+     * Initialize test variables.
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void initTests() throws Exception {
+        dataSource = DatabaseTestingSupport.GetMockDataSource("/fi/okm/mpass/shibboleth/storage/AuthSourceStore.sql", 
+                "AuthSourceStore");
+        populateDatabase("espoo", "Espoo Wilma");
+        populateDatabase("helsinki", "Helsinki Wilma");
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId("authn/mockFlow");
+        flow.setSupportedPrincipals(Arrays.<Principal>asList(
+                new TestPrincipal(AuthenticationDiscoveryContext.SOURCE_PRINCIPAL_PREFIX + "mockFlow")));
+        final StaticMessageSource messageSource = new StaticMessageSource();
+        messageSource.setUseCodeAsDefaultMessage(true);
+        messageSource.addMessage("mockFlow.title", Locale.forLanguageTag("FI"), "Wilmaton kirjautuminen");
+        messageSource.addMessage("mockFlow.title", Locale.forLanguageTag("EN"), "Login without Wilma");
+        action = new BuildSearchRestResponse();
+        action.setFlows(Arrays.asList(flow));
+        action.setActiveFlowIds("mockFlow");
+        action.setAdditionalInfo(new Properties());
+        action.setMessageSource(messageSource);
+        action.setSupportedLocales(Arrays.asList("fi", "en"));
+        action.setDataSource(dataSource);
+        action.setHttpServletRequest(buildRequest("wil", null, null));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+    }
+
+    /**
+     * Empties the database.
+     */
+    @AfterMethod
+    public void tearDown() {
+        DatabaseTestingSupport.InitializeDataSource("/fi/okm/mpass/shibboleth/storage/DeleteStore.sql", dataSource);
+    }
+
+    /**
+     * Tests initialization with default limit exceeding the maximum.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testInvalidLimits() throws ComponentInitializationException {
+        action.setMaxLimit(5);
+        action.setDefaultLimit(6);
+        action.initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidMethod() throws Exception {
+        final MockHttpServletRequest httpRequest = buildRequest("wil", null, null);
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        action.setHttpServletRequest(httpRequest);
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(((MockHttpServletResponse) action.getHttpServletResponse()).getStatus(),
+                HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with a query matching both Wilma instances and the authentication source.
+     * @throws Exception
+     */
+    @Test
+    public void testLocalizedResults() throws Exception {
+        action.initialize();
+        JsonArray results = executeSearch();
+        Assert.assertEquals(results.size(), 3);
+        assertResult(results.get(0).getAsJsonObject(), "mockFlow", "Wilmaton kirjautuminen", 
+                SearchResultDTO.TYPE_AUTHN_SOURCE);
+        assertResult(results.get(1).getAsJsonObject(), "espoo", "Espoo Wilma", SearchResultDTO.TYPE_WILMA);
+        assertResult(results.get(2).getAsJsonObject(), "helsinki", "Helsinki Wilma", SearchResultDTO.TYPE_WILMA);
+        action.setHttpServletRequest(buildRequest("wil", "en", null));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        results = executeSearch();
+        Assert.assertEquals(results.size(), 3);
+        assertResult(results.get(0).getAsJsonObject(), "espoo", "Espoo Wilma", SearchResultDTO.TYPE_WILMA);
+        assertResult(results.get(1).getAsJsonObject(), "helsinki", "Helsinki Wilma", SearchResultDTO.TYPE_WILMA);
+        assertResult(results.get(2).getAsJsonObject(), "mockFlow", "Login without Wilma", 
+                SearchResultDTO.TYPE_AUTHN_SOURCE);
+    }
+
+    /**
+     * Runs action with limits.
+     * @throws Exception
+     */
+    @Test
+    public void testLimit() throws Exception {
+        action.setMaxLimit(2);
+        action.setDefaultLimit(1);
+        action.initialize();
+        Assert.assertEquals(executeSearch().size(), 1);
+        action.setHttpServletRequest(buildRequest("wil", null, "5"));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        Assert.assertEquals(executeSearch().size(), 2);
+        action.setHttpServletRequest(buildRequest("wil", null, "invalid"));
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        Assert.assertEquals(executeSearch().size(), 1);
+    }
+
+    /**
+     * Runs action without query.
+     * @throws Exception
+     */
+    @Test
+    public void testNoQuery() throws Exception {
+        action.setHttpServletRequest(buildRequest(null, null, null));
+        action.initialize();
+        Assert.assertEquals(executeSearch().size(), 0);
+    }
+
+    /**
+     * Tests that the index is rebuilt on refresh.
+     * @throws Exception
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        action.setRefreshInterval(0);
+        action.initialize();
+        action.setHttpServletRequest(buildRequest("vantaa", null, null));
+        Assert.assertEquals(executeSearch().size(), 0);
+        populateDatabase("vantaa", "Vantaa Wilma");
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        Assert.assertEquals(executeSearch().size(), 0);
+        action.refresh();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        final JsonArray results = executeSearch();
+        Assert.assertEquals(results.size(), 1);
+        assertResult(results.get(0).getAsJsonObject(), "vantaa", "Vantaa Wilma", SearchResultDTO.TYPE_WILMA);
+    }
+
+    /**
+     * Tests that the read-only mode of a pooled connection is restored after reading the Wilma instances.
+     * @throws Exception
+     */
+    @Test
+    public void testReadOnlyRestored() throws Exception {
+        final Connection connection = Mockito.spy(dataSource.getConnection());
+        connection.setReadOnly(false);
+        Mockito.doNothing().when(connection).close();
+        final DataSource pooledSource = Mockito.mock(DataSource.class);
+        Mockito.when(pooledSource.getConnection()).thenReturn(connection);
+        action.setDataSource(pooledSource);
+        Assert.assertEquals(action.getWilmaInstances().size(), 2);
+        Assert.assertFalse(connection.isReadOnly());
+        Mockito.verify(connection).setReadOnly(true);
+    }
+
+    /**
+     * Tests that the index is rebuilt in the background after the refresh interval.
+     * @throws Exception
+     */
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        action.setRefreshInterval(100);
+        action.initialize();
+        try {
+            populateDatabase("vantaa", "Vantaa Wilma");
+            action.setHttpServletRequest(buildRequest("vantaa", null, null));
+            JsonArray results = new JsonArray();
+            final long start = System.currentTimeMillis();
+            while (results.size() == 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(50);
+                action.setHttpServletResponse(new MockHttpServletResponse());
+                results = executeSearch();
+            }
+            Assert.assertEquals(results.size(), 1);
+            assertResult(results.get(0).getAsJsonObject(), "vantaa", "Vantaa Wilma", SearchResultDTO.TYPE_WILMA);
+        } finally {
+            action.destroy();
+        }
+    }
+
+    /**
+     * Executes the action and parses the results from the response.
+     * 
+     * @return The results.
+     * @throws Exception
+     */
+    protected JsonArray executeSearch() throws Exception {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final JsonObject response = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject();
+        return response.getAsJsonArray("response");
+    }
+
+    /**
+     * Asserts the contents of a single result.
+     * 
+     * @param result The result to be checked.
+     * @param id The expected identifier.
+     * @param title The expected title.
+     * @param type The expected type.
+     */
+    protected void assertResult(final JsonObject result, final String id, final String title, final String type) {
+        Assert.assertEquals(result.get("id").getAsString(), id);
+        Assert.assertEquals(result.get("title").getAsString(), title);
+        Assert.assertEquals(result.get("type").getAsString(), type);
+    }
+
+    /**
+     * Builds a GET request with the given parameters.
+     * 
+     * @param query The query parameter.
+     * @param lang The language parameter.
+     * @param limit The limit parameter.
+     * @return The request.
+     */
+    protected MockHttpServletRequest buildRequest(final String query, final String lang, final String limit) {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpRequest.addParameter("q", query);
+        httpRequest.addParameter("lang", lang);
+        httpRequest.addParameter("limit", limit);
+        return httpRequest;
+    }
+
+    /**
+     * Adds a Wilma instance to the database.
+     * 
+     * @param techId The techId of the instance.
+     * @param name The discovery name of the instance.
+     * @throws Exception
+     */
+    protected void populateDatabase(final String techId, final String name) throws Exception {
+        final String insertResult = "INSERT INTO mpass_authsources_wilma (techId, description, discoName, "
+                + "discoLogoUrl, discoStyle, mpassUrl, samlContextClassRef, startTime) VALUES (?,?,?,?,?,?,?,?);";
+        final PreparedStatement statement = dataSource.getConnection().prepareStatement(insertResult);
+        statement.setString(1, techId);
+        statement.setString(2, "Wilma testing");
+        statement.setString(3, name);
+        statement.setString(4, "mockLogoUrl");
+        statement.setString(5, "mockStyle");
+        statement.setString(6, "https://" + techId + ".example.org/mpass");
+        statement.setString(7, "urn:mpass.id:fi:wilma:" + techId);
+        statement.setTimestamp(8, new Timestamp(System.currentTimeMillis()));
+        statement.executeUpdate();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.joda.time.DateTime;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.ext.saml2mdui.Description;
+import org.opensaml.saml.ext.saml2mdui.DisplayName;
+import org.opensaml.saml.ext.saml2mdui.InformationURL;
+import org.opensaml.saml.ext.saml2mdui.Logo;
+import org.opensaml.saml.ext.saml2mdui.UIInfo;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.saml.metadata.RelyingPartyMetadataProvider;
+import net.shibboleth.utilities.java.support.service.ReloadableService;
+import net.shibboleth.utilities.java.support.service.ServiceableComponent;
+
+/**
+ * Unit tests for {@link BuildServiceRestResponse}.
+ */
+public class BuildServiceRestResponseTest {
+
+    /** The action to be tested. */
+    private BuildServiceRestResponse action;
+
+    /** The reloadable metadata service. */
+    private ReloadableService<MetadataResolver> service;
+
+    /** The chained resolver containing the service providers. */
+    private MetadataResolver chained;
+
+    /**
+     * Initialize test variables.
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @BeforeMethod
+    public void initTests() throws Exception {
+        service = Mockito.mock(ReloadableService.class);
+        Mockito.when(service.getLastSuccessfulReloadInstant()).thenReturn(new DateTime(1000L));
+        chained = setMetadata("Palvelu");
+        action = new BuildServiceRestResponse(service);
+        action.setHttpServletRequest(buildRequest());
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        action.initialize();
+    }
+
+    /**
+     * Runs action without the metadata component available.
+     * @throws Exception
+     */
+    @Test
+    public void testNoComponent() throws Exception {
+        Mockito.when(service.getServiceableComponent()).thenReturn(null);
+        Assert.assertEquals(execute().getStatus(), HttpStatus.SC_NOT_IMPLEMENTED);
+    }
+
+    /**
+     * Tests that the services are cached while the metadata is unchanged.
+     * @throws Exception
+     */
+    @Test
+    public void testCacheHit() throws Exception {
+        Assert.assertEquals(getTitles(execute()), Arrays.asList("Palvelu"));
+        final BuildServiceRestResponse.ServiceCatalog catalog = action.getServiceCatalog();
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        Assert.assertEquals(getTitles(execute()), Arrays.asList("Palvelu"));
+        Assert.assertSame(action.getServiceCatalog(), catalog);
+        Mockito.verify((IterableMetadataSource) chained, Mockito.times(1)).iterator();
+    }
+
+    /**
+     * Tests that the services are rebuilt after the metadata service has been reloaded, also when the reload time
+     * is unchanged but the resolvers have been replaced.
+     * @throws Exception
+     */
+    @Test
+    public void testRebuildAfterReload() throws Exception {
+        Assert.assertEquals(getTitles(execute()), Arrays.asList("Palvelu"));
+        final BuildServiceRestResponse.ServiceCatalog catalog = action.getServiceCatalog();
+
+        setMetadata("Uusi palvelu");
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        Assert.assertEquals(getTitles(execute()), Arrays.asList("Uusi palvelu"));
+        final BuildServiceRestResponse.ServiceCatalog reloaded = action.getServiceCatalog();
+        Assert.assertNotSame(reloaded, catalog);
+
+        Mockito.when(service.getLastSuccessfulReloadInstant()).thenReturn(new DateTime(2000L));
+        Assert.assertNotSame(action.getServiceCatalog(), reloaded);
+    }
+
+    /**
+     * Tests that the ETag of the cached response is honored.
+     * @throws Exception
+     */
+    @Test
+    public void testNotModified() throws Exception {
+        final MockHttpServletResponse first = execute();
+        Assert.assertEquals(first.getStatus(), HttpStatus.SC_OK);
+        final String etag = first.getHeader("ETag");
+        Assert.assertNotNull(etag);
+
+        final MockHttpServletRequest httpRequest = buildRequest();
+        httpRequest.addHeader("If-None-Match", etag);
+        action.setHttpServletRequest(httpRequest);
+        action.setHttpServletResponse(new MockHttpServletResponse());
+        final MockHttpServletResponse second = execute();
+        Assert.assertEquals(second.getStatus(), HttpStatus.SC_NOT_MODIFIED);
+        Assert.assertEquals(second.getContentAsByteArray().length, 0);
+    }
+
+    /**
+     * Tests that the pre-serialized response is written as such, with its length.
+     * @throws Exception
+     */
+    @Test
+    public void testSerializedBody() throws Exception {
+        setMetadata("P\u00e4iv\u00e4koti");
+        final MockHttpServletResponse httpResponse = execute();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final byte[] expected = action.serializeLocalizedResponse("FI", 
+                action.getServiceCatalog().getServices("FI")).getBytes();
+        Assert.assertEquals(httpResponse.getContentAsByteArray(), expected);
+        Assert.assertEquals(action.getServiceCatalog().getResponse("FI").getBytes(), expected);
+        Assert.assertEquals(httpResponse.getContentLength(), expected.length);
+        final JsonObject json = new JsonParser().parse(new String(expected, "UTF-8")).getAsJsonObject();
+        Assert.assertEquals(json.get("lang").getAsString(), "FI");
+        Assert.assertEquals(getTitles(httpResponse), Arrays.asList("P\u00e4iv\u00e4koti"));
+    }
+
+    /**
+     * Tests that the response to a query is streamed as localized UTF-8 JSON.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamedBody() throws Exception {
+        setMetadata("P\u00e4iv\u00e4koti");
+        final MockHttpServletRequest httpRequest = buildRequest();
+        httpRequest.addParameter(BuildServiceRestResponse.PARAM_QUERY, "p\u00e4iv");
+        httpRequest.addParameter(BuildServiceRestResponse.PARAM_FIELDS, "id,title");
+        action.setHttpServletRequest(httpRequest);
+        final MockHttpServletResponse httpResponse = execute();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getHeader(BuildServiceRestResponse.HEADER_TOTAL_COUNT), "1");
+        Assert.assertNull(httpResponse.getHeader("ETag"));
+        Assert.assertEquals(new String(httpResponse.getContentAsByteArray(), "UTF-8"), 
+                "{\"lang\":\"FI\",\"response\":[{\"id\":\"mockService\",\"title\":\"P\u00e4iv\u00e4koti\"}]}");
+    }
+
+    /**
+     * Executes the action with the current request.
+     * @return The HTTP response.
+     */
+    protected MockHttpServletResponse execute() {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        return (MockHttpServletResponse) action.getHttpServletResponse();
+    }
+
+    /**
+     * Parses the titles of the services from the given response.
+     * @param httpResponse The HTTP response.
+     * @return The titles of the services.
+     * @throws Exception
+     */
+    protected List<String> getTitles(final MockHttpServletResponse httpResponse) throws Exception {
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final JsonArray services = new JsonParser().parse(httpResponse.getContentAsString()).getAsJsonObject()
+                .getAsJsonArray("response");
+        final String[] titles = new String[services.size()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = services.get(i).getAsJsonObject().get("title").getAsString();
+        }
+        return Arrays.asList(titles);
+    }
+
+    /**
+     * Builds a GET request.
+     * @return The request.
+     */
+    protected MockHttpServletRequest buildRequest() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        return httpRequest;
+    }
+
+    /**
+     * Replaces the metadata of the service with new resolvers, as a reload does, containing a single service
+     * provider with the given Finnish title.
+     * @param title The title of the service provider.
+     * @return The new chained resolver.
+     */
+    @SuppressWarnings("unchecked")
+    protected MetadataResolver setMetadata(final String title) {
+        final DisplayName displayName = Mockito.mock(DisplayName.class);
+        Mockito.when(displayName.getXMLLang()).thenReturn("fi");
+        Mockito.when(displayName.getValue()).thenReturn(title);
+        final InformationURL informationUrl = Mockito.mock(InformationURL.class);
+        Mockito.when(informationUrl.getXMLLang()).thenReturn("fi");
+        Mockito.when(informationUrl.getValue()).thenReturn("https://service.example.org");
+        final UIInfo uiInfo = Mockito.mock(UIInfo.class);
+        Mockito.when(uiInfo.getElementQName()).thenReturn(UIInfo.DEFAULT_ELEMENT_NAME);
+        Mockito.when(uiInfo.getDisplayNames()).thenReturn(Collections.singletonList(displayName));
+        Mockito.when(uiInfo.getInformationURLs()).thenReturn(Collections.singletonList(informationUrl));
+        Mockito.when(uiInfo.getDescriptions()).thenReturn(Collections.<Description>emptyList());
+        Mockito.when(uiInfo.getLogos()).thenReturn(Collections.<Logo>emptyList());
+        final Extensions extensions = Mockito.mock(Extensions.class);
+        Mockito.when(extensions.getUnknownXMLObjects()).thenReturn(Collections.<XMLObject>singletonList(uiInfo));
+        final SPSSODescriptor spDescriptor = Mockito.mock(SPSSODescriptor.class);
+        Mockito.when(spDescriptor.getExtensions()).thenReturn(extensions);
+        final EntityDescriptor entity = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(entity.getID()).thenReturn("mockService");
+        Mockito.when(entity.getEntityID()).thenReturn("https://service.example.org/sp");
+        Mockito.when(entity.getRoleDescriptors()).thenReturn(Collections.<RoleDescriptor>singletonList(spDescriptor));
+
+        final MetadataResolver newChained = Mockito.mock(MetadataResolver.class, 
+                Mockito.withSettings().extraInterfaces(IterableMetadataSource.class));
+        Mockito.when(((IterableMetadataSource) newChained).iterator()).thenAnswer(
+                new Answer<Iterator<EntityDescriptor>>() {
+                    @Override
+                    public Iterator<EntityDescriptor> answer(final InvocationOnMock invocation) {
+                        return Collections.singletonList(entity).iterator();
+                    }
+                });
+        final ChainingMetadataResolver embedded = Mockito.mock(ChainingMetadataResolver.class);
+        Mockito.when(embedded.getResolvers()).thenReturn(Collections.singletonList(newChained));
+        final RelyingPartyMetadataProvider resolver = Mockito.mock(RelyingPartyMetadataProvider.class);
+        Mockito.when(resolver.getEmbeddedResolver()).thenReturn(embedded);
+        final ServiceableComponent<MetadataResolver> component = Mockito.mock(ServiceableComponent.class);
+        Mockito.when(component.getComponent()).thenReturn(resolver);
+        Mockito.when(service.getServiceableComponent()).thenReturn(component);
+        return newChained;
+    }
+}
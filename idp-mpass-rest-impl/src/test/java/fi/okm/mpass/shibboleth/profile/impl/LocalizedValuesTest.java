@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
+
+/**
+ * Unit tests for {@link LocalizedValues} and {@link ServiceInfo}.
+ */
+public class LocalizedValuesTest {
+
+    /**
+     * Tests that the values without entries return null in any language.
+     */
+    @Test
+    public void testEmpty() {
+        final LocalizedValues values = new LocalizedValues.Builder().add("fi", "  ").add(null, null).build();
+        Assert.assertTrue(values.isEmpty());
+        Assert.assertNull(values.get("fi", "en"));
+        Assert.assertSame(values, LocalizedValues.empty());
+    }
+
+    /**
+     * Tests the lookup of the requested language, case insensitively.
+     */
+    @Test
+    public void testExactLanguage() {
+        final LocalizedValues values = new LocalizedValues.Builder().add("en", "English").add("FI", "Suomi")
+                .add("fi", "Toinen").build();
+        Assert.assertFalse(values.isEmpty());
+        Assert.assertEquals(values.get("FI", "EN"), "Suomi");
+        Assert.assertEquals(values.get("en", "fi"), "English");
+    }
+
+    /**
+     * Tests that regional variants are available with their primary language.
+     */
+    @Test
+    public void testRegionalVariant() {
+        final LocalizedValues values = new LocalizedValues.Builder().add("sv-FI", "Svenska").add("en-GB", "British")
+                .add("en", "English").build();
+        Assert.assertEquals(values.get("SV", "EN"), "Svenska");
+        Assert.assertEquals(values.get("sv-fi", "EN"), "Svenska");
+        Assert.assertEquals(values.get("en", "sv"), "English");
+    }
+
+    /**
+     * Tests the fallback order: no language, default language and the first declared value.
+     */
+    @Test
+    public void testFallback() {
+        LocalizedValues values = new LocalizedValues.Builder().add("en", "English").add(null, "Any")
+                .add("fi", "Suomi").build();
+        Assert.assertEquals(values.get("sv", "fi"), "Any");
+        values = new LocalizedValues.Builder().add("en", "English").add("fi", "Suomi").build();
+        Assert.assertEquals(values.get("sv", "fi"), "Suomi");
+        Assert.assertEquals(values.get("sv", "de"), "English");
+        Assert.assertEquals(values.get(null, null), "English");
+    }
+
+    /**
+     * Tests building a service in different languages.
+     */
+    @Test
+    public void testServiceInfo() {
+        final ServiceInfo info = new ServiceInfo("id", "https://sso", 
+                new LocalizedValues.Builder().add("fi", "Palvelu").add("en", "Service").build(),
+                LocalizedValues.empty(), new LocalizedValues.Builder().add(null, "https://logo").build(),
+                new LocalizedValues.Builder().add("en", "https://info").build());
+        Assert.assertTrue(info.isListable());
+        ServiceDTO service = info.toService("EN", "FI");
+        Assert.assertEquals(service.getId(), "id");
+        Assert.assertEquals(service.getSsoUrl(), "https://sso");
+        Assert.assertEquals(service.getTitle(), "Service");
+        Assert.assertNull(service.getDescription());
+        Assert.assertEquals(service.getIconUrl(), "https://logo");
+        Assert.assertEquals(service.getServiceUrl(), "https://info");
+        service = info.toService("SV", "FI");
+        Assert.assertEquals(service.getTitle(), "Palvelu");
+        Assert.assertEquals(service.getServiceUrl(), "https://info");
+        Assert.assertFalse(new ServiceInfo("id", null, LocalizedValues.empty(), LocalizedValues.empty(),
+                LocalizedValues.empty(), LocalizedValues.empty()).isListable());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.rest.data.SearchResultDTO;
+
+/**
+ * Unit tests for {@link SearchIndex}.
+ */
+public class SearchIndexTest {
+    
+    /** The index to be tested. */
+    private SearchIndex index;
+    
+    /**
+     * Initialize the index.
+     */
+    @BeforeMethod
+    public void initTests() {
+        final List<SearchResultDTO> results = new ArrayList<>();
+        for (final String title : Arrays.asList("Helsinki Wilma", "Espoo Wilma", "H\u00e4meenlinna", "Wilma Espoo",
+                "Vantaa")) {
+            results.add(new SearchResultDTO(title, title, SearchResultDTO.TYPE_WILMA, null, null));
+        }
+        results.add(new SearchResultDTO("noTitle", null, SearchResultDTO.TYPE_WILMA, null, null));
+        index = new SearchIndex(results);
+    }
+
+    /**
+     * Tests that entries without titles are ignored.
+     */
+    @Test
+    public void testSize() {
+        Assert.assertEquals(index.size(), 5);
+    }
+
+    /**
+     * Tests empty and unmatched queries.
+     */
+    @Test
+    public void testNoMatches() {
+        Assert.assertTrue(index.search(null, 10).isEmpty());
+        Assert.assertTrue(index.search("  ", 10).isEmpty());
+        Assert.assertTrue(index.search("turku", 10).isEmpty());
+        Assert.assertTrue(index.search("wilma", 0).isEmpty());
+        Assert.assertTrue(new SearchIndex(new ArrayList<SearchResultDTO>()).search("wilma", 10).isEmpty());
+    }
+
+    /**
+     * Tests that title prefixes are ranked before word prefixes and word prefixes before substrings.
+     */
+    @Test
+    public void testRanking() {
+        assertTitles(index.search("wil", 10), "Wilma Espoo", "Espoo Wilma", "Helsinki Wilma");
+        assertTitles(index.search("espoo", 10), "Espoo Wilma", "Wilma Espoo");
+        assertTitles(index.search("an", 10), "Vantaa");
+        assertTitles(index.search("e", 10), "Espoo Wilma", "Wilma Espoo", "H\u00e4meenlinna", "Helsinki Wilma");
+    }
+
+    /**
+     * Tests that the queries are case and diacritical mark insensitive.
+     */
+    @Test
+    public void testNormalization() {
+        assertTitles(index.search("HAME", 10), "H\u00e4meenlinna");
+        assertTitles(index.search("h\u00e4me", 10), "H\u00e4meenlinna");
+        Assert.assertEquals(SearchIndex.normalize(" \u00c4\u00e4ni\u00f6 "), "aanio");
+    }
+
+    /**
+     * Tests that the number of results is limited.
+     */
+    @Test
+    public void testLimit() {
+        assertTitles(index.search("wilma", 2), "Wilma Espoo", "Espoo Wilma");
+    }
+
+    /**
+     * Asserts the titles of the results.
+     * 
+     * @param results The results to be checked.
+     * @param titles The expected titles in the expected order.
+     */
+    protected void assertTitles(final List<SearchResultDTO> results, final String... titles) {
+        Assert.assertEquals(results.size(), titles.length);
+        for (int i = 0; i < titles.length; i++) {
+            Assert.assertEquals(results.get(i).getTitle(), titles[i]);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SerializedResponse}.
+ */
+public class SerializedResponseTest {
+
+    @Test
+    public void testBytesAndETag() throws Exception {
+        final SerializedResponse response = new SerializedResponse("{\"title\":\"Yl\u00e4koulu\"}");
+        Assert.assertEquals(new String(response.getBytes(), "UTF-8"), "{\"title\":\"Yl\u00e4koulu\"}");
+        Assert.assertEquals(response.getBytes().length, 21);
+        Assert.assertTrue(response.getETag().matches("\"[0-9a-f]{32}\""));
+        Assert.assertEquals(response.getETag(), 
+                new SerializedResponse("{\"title\":\"Yl\u00e4koulu\"}").getETag());
+        Assert.assertFalse(response.getETag().equals(new SerializedResponse("{\"title\":\"Lukio\"}").getETag()));
+    }
+
+    @Test
+    public void testMatches() {
+        final SerializedResponse response = new SerializedResponse("[]");
+        final String etag = response.getETag();
+        Assert.assertFalse(response.matches(null));
+        Assert.assertFalse(response.matches(""));
+        Assert.assertFalse(response.matches("\"mock\""));
+        Assert.assertTrue(response.matches(etag));
+        Assert.assertTrue(response.matches("W/" + etag));
+        Assert.assertTrue(response.matches("\"mock\", " + etag));
+        Assert.assertTrue(response.matches("*"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.okm.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.okm.mpass.shibboleth.rest.data.ServiceDTO;
+
+/**
+ * Unit tests for {@link ServiceIndex}.
+ */
+public class ServiceIndexTest {
+    
+    /** The index to be tested. */
+    private ServiceIndex index;
+    
+    /**
+     * Initialize the index.
+     */
+    @BeforeMethod
+    public void initTests() {
+        final List<ServiceDTO> services = new ArrayList<>();
+        services.add(initService("s1", "Wilma", "Opiskelun hallinta"));
+        services.add(initService("s2", "\u00e4idinkieli", "Oppimateriaali"));
+        services.add(initService("s3", "Aapinen", "Lukemisen oppimateriaali"));
+        services.add(initService("s4", "Opintopolku", null));
+        services.add(initService("s5", null, "No title"));
+        index = new ServiceIndex(services);
+    }
+
+    /**
+     * Tests that services without titles are ignored and the rest are in title order.
+     */
+    @Test
+    public void testServices() {
+        Assert.assertEquals(index.size(), 4);
+        assertIds(index.getServices(), "s3", "s2", "s4", "s1");
+    }
+
+    /**
+     * Tests paging without a query.
+     */
+    @Test
+    public void testPaging() {
+        ServiceIndex.Page page = index.query(null, 1, 2);
+        Assert.assertEquals(page.getTotal(), 4);
+        assertIds(page.getServices(), "s2", "s4");
+        page = index.query("  ", 3, Integer.MAX_VALUE);
+        Assert.assertEquals(page.getTotal(), 4);
+        assertIds(page.getServices(), "s1");
+        page = index.query(null, 10, 10);
+        Assert.assertEquals(page.getTotal(), 4);
+        Assert.assertTrue(page.getServices().isEmpty());
+    }
+
+    /**
+     * Tests that the words of the query must match the beginnings of words in titles or descriptions.
+     */
+    @Test
+    public void testQuery() {
+        ServiceIndex.Page page = index.query("op", 0, 10);
+        Assert.assertEquals(page.getTotal(), 4);
+        assertIds(page.getServices(), "s3", "s2", "s4", "s1");
+        page = index.query("Oppi materiaali", 0, 10);
+        Assert.assertEquals(page.getTotal(), 0);
+        page = index.query("oppimat LUK", 0, 10);
+        Assert.assertEquals(page.getTotal(), 1);
+        assertIds(page.getServices(), "s3");
+        page = index.query("AIDIN", 0, 10);
+        assertIds(page.getServices(), "s2");
+        page = index.query("hallinta", 0, 10);
+        assertIds(page.getServices(), "s1");
+        Assert.assertEquals(index.query("title", 0, 10).getTotal(), 0);
+    }
+
+    /**
+     * Tests paging the matches of a query.
+     */
+    @Test
+    public void testQueryPaging() {
+        ServiceIndex.Page page = index.query("oppimateriaali", 1, 1);
+        Assert.assertEquals(page.getTotal(), 2);
+        assertIds(page.getServices(), "s2");
+        page = index.query("oppimateriaali", 0, 0);
+        Assert.assertEquals(page.getTotal(), 2);
+        Assert.assertTrue(page.getServices().isEmpty());
+    }
+    
+    /**
+     * Helper for initializing a service.
+     * 
+     * @param id The id.
+     * @param title The title.
+     * @param description The description.
+     * @return The service.
+     */
+    protected ServiceDTO initService(final String id, final String title, final String description) {
+        final ServiceDTO service = new ServiceDTO();
+        service.setId(id);
+        service.setTitle(title);
+        service.setDescription(description);
+        return service;
+    }
+    
+    /**
+     * Helper for checking the ids of the services.
+     * 
+     * @param services The services.
+     * @param ids The expected ids in order.
+     */
+    protected void assertIds(final List<ServiceDTO> services, final String... ids) {
+        final List<String> actual = new ArrayList<>();
+        for (final ServiceDTO service : services) {
+            actual.add(service.getId());
+        }
+        Assert.assertEquals(actual, Arrays.asList(ids));
+    }
+}
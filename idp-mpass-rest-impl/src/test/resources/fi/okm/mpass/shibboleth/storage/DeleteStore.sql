@@ -0,0 +1 @@
+DROP TABLE mpass_authsources_wilma;